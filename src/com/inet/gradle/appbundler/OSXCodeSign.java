@@ -14,6 +14,7 @@ import org.gradle.util.ConfigureUtil;
 import com.inet.gradle.setup.abstracts.AbstractBuilder;
 import com.inet.gradle.setup.abstracts.AbstractSetupBuilder;
 import com.inet.gradle.setup.abstracts.AbstractTask;
+import com.inet.gradle.setup.util.SigningCache;
 
 import groovy.lang.Closure;
 
@@ -44,6 +45,7 @@ public class OSXCodeSign<T extends AbstractTask, S extends AbstractSetupBuilder>
     private String identity, productIdentity, identifier, keychain, keychainPassword, entitlements = INTERNAL_ENTITLEMENT;
     private boolean ignoreError, deepsign = true, hardened = true;
     private OSXNotarize<T, S> notarization = null;
+    private SigningCache signingCache;
 
     /**
      * Setup up the Sign Tool
@@ -178,10 +180,20 @@ public class OSXCodeSign<T extends AbstractTask, S extends AbstractSetupBuilder>
     }
 
     /**
-     * Signed an application package
+     * Signed an application package. If the same content was already signed with the same options then the signed
+     * application is taken from the signing cache.
      * @param path of the application
      */
     public void signApplication( File path ) {
+        String options = "codesign|" + getIdentity() + '|' + getIdentifier() + '|' + getKeychain() + '|' + isDeepsign() + '|' + isHardened() + '|' + getEntitlements();
+        sign( path, options, () -> codesign( path ) );
+    }
+
+    /**
+     * Signed an application package with codesign
+     * @param path of the application
+     */
+    private void codesign( File path ) {
 
         unlockKeychain();
 
@@ -238,10 +250,20 @@ public class OSXCodeSign<T extends AbstractTask, S extends AbstractSetupBuilder>
     }
 
     /**
-     * Signed a product package
+     * Signed a product package. If the same content was already signed with the same options then the signed package
+     * is taken from the signing cache.
      * @param path of the application
      */
     public void signProduct( File path ) {
+        String options = "productsign|" + getProductIdentity() + '|' + getKeychain();
+        sign( path, options, () -> productsign( path ) );
+    }
+
+    /**
+     * Signed a product package with productsign
+     * @param path of the application
+     */
+    private void productsign( File path ) {
 
         unlockKeychain();
 
@@ -268,6 +290,23 @@ public class OSXCodeSign<T extends AbstractTask, S extends AbstractSetupBuilder>
         }
     }
 
+    /**
+     * Sign a file or bundle with the signing cache.
+     * @param path the file or bundle
+     * @param options the options that have an effect on the signature
+     * @param signer the signing
+     */
+    private void sign( File path, String options, SigningCache.Signer signer ) {
+        if( signingCache == null ) {
+            signingCache = new SigningCache( task.getProject() );
+        }
+        try {
+            signingCache.sign( path, options, signer );
+        } catch( IOException ex ) {
+            throw new RuntimeException( ex );
+        }
+    }
+
     /**
      * Should be deep signed?
      * @return if deep signing is enabled
@@ -0,0 +1,555 @@
+package com.inet.gradle.appbundler.utils.xmlwise;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary plist (bplist00) handling.
+ * <p>
+ * The objects use the same mapping as {@link Plist}: Boolean, Integer/Long, Double, String, byte[], Date,
+ * List and {@code Map<String, Object>}. A UID of a keyed archive is read as a dict with the single key
+ * <code>CF$UID</code>, like the xml conversion of plutil.
+ * <p>
+ * The writer removes duplicates of equal strings, numbers, dates and data, that every value is stored only
+ * once, and uses the smallest possible sizes for the object references and the offset table.
+ */
+public final class BinaryPlist
+{
+    private static final byte[] MAGIC = "bplist00".getBytes(StandardCharsets.US_ASCII);
+
+    /** Seconds between 1970-01-01 and the plist epoch 2001-01-01. */
+    private static final long EPOCH_2001 = 978307200L;
+
+    private final byte[] m_data;
+    private final int m_objectRefSize;
+    private final int m_offsetSize;
+    private final int m_offsetTable;
+    private final int m_objectCount;
+    private final boolean[] m_parsing;
+
+    /**
+     * Create a reader for the given data.
+     *
+     * @param data the complete binary plist.
+     * @throws XmlParseException if the trailer is invalid.
+     */
+    private BinaryPlist(byte[] data) throws XmlParseException
+    {
+        if (!isBinary(data) || data.length < MAGIC.length + 32)
+            throw new XmlParseException("Not a binary plist.");
+        m_data = data;
+        int trailer = data.length - 32;
+        m_offsetSize = data[trailer + 6] & 0xFF;
+        m_objectRefSize = data[trailer + 7] & 0xFF;
+        long objectCount = readLong(trailer + 8, 8);
+        long offsetTable = readLong(trailer + 24, 8);
+        if (m_offsetSize < 1 || m_offsetSize > 8 || m_objectRefSize < 1 || m_objectRefSize > 8
+            || objectCount < 1 || offsetTable < MAGIC.length
+            || offsetTable + objectCount * m_offsetSize > trailer)
+            throw new XmlParseException("Invalid binary plist trailer.");
+        m_objectCount = (int) objectCount;
+        m_offsetTable = (int) offsetTable;
+        m_parsing = new boolean[m_objectCount];
+    }
+
+    /**
+     * Check if the data starts with the magic of a binary plist.
+     *
+     * @param data the content of a plist file.
+     * @return true, if it is a binary plist.
+     */
+    public static boolean isBinary(byte[] data)
+    {
+        if (data.length < MAGIC.length) return false;
+        for (int i = 0; i < MAGIC.length; i++)
+        {
+            if (data[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse a binary plist.
+     *
+     * @param data the complete binary plist.
+     * @return the top object.
+     * @throws XmlParseException if the plist could not be properly parsed.
+     */
+    public static Object parse(byte[] data) throws XmlParseException
+    {
+        BinaryPlist plist = new BinaryPlist(data);
+        int trailer = data.length - 32;
+        try
+        {
+            return plist.parseObject(plist.readInt(trailer + 16, 8));
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            throw new XmlParseException("Truncated binary plist.", e);
+        }
+    }
+
+    /**
+     * Convert an object to a binary plist.
+     *
+     * @param o the object to convert, must be Integer, Long, Double, String, Date, Boolean, byte[],
+     * Map or List.
+     * @return the binary plist.
+     */
+    public static byte[] toBinary(Object o)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try
+        {
+            store(o, out);
+        }
+        catch (IOException e)
+        {
+            // can not occur with a ByteArrayOutputStream
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Write an object as binary plist to a stream.
+     *
+     * @param o the object to write, must be Integer, Long, Double, String, Date, Boolean, byte[],
+     * Map or List.
+     * @param stream the target, will not be closed.
+     * @throws IOException if there was an IO error writing the stream.
+     */
+    public static void store(Object o, OutputStream stream) throws IOException
+    {
+        new Writer().write(o, stream);
+    }
+
+    /**
+     * Parse the object with the given index.
+     *
+     * @param index the index in the offset table.
+     * @return the object.
+     * @throws XmlParseException if the object is invalid.
+     */
+    private Object parseObject(int index) throws XmlParseException
+    {
+        if (index < 0 || index >= m_objectCount) throw new XmlParseException("Invalid object reference " + index);
+        int offset = readInt(m_offsetTable + index * m_offsetSize, m_offsetSize);
+        int marker = m_data[offset] & 0xFF;
+        int info = marker & 0x0F;
+        switch (marker >> 4)
+        {
+            case 0x0:
+                if (marker == 0x08) return Boolean.FALSE;
+                if (marker == 0x09) return Boolean.TRUE;
+                break;
+            case 0x1:
+            {
+                long value = readLong(offset + 1, 1 << Math.min(info, 3));
+                if (info == 4) value = readLong(offset + 9, 8); // 128 bit, use the lower 64 bits
+                if (value == (int) value) return Integer.valueOf((int) value);
+                return Long.valueOf(value);
+            }
+            case 0x2:
+                if (info == 2) return Double.valueOf(Float.intBitsToFloat((int) readLong(offset + 1, 4)));
+                if (info == 3) return Double.valueOf(Double.longBitsToDouble(readLong(offset + 1, 8)));
+                break;
+            case 0x3:
+                if (marker == 0x33)
+                {
+                    double seconds = Double.longBitsToDouble(readLong(offset + 1, 8));
+                    return new Date(Math.round((seconds + EPOCH_2001) * 1000));
+                }
+                break;
+            case 0x4:
+            {
+                int[] length = readLength(offset, info);
+                byte[] data = new byte[length[1]];
+                System.arraycopy(m_data, length[0], data, 0, data.length);
+                return data;
+            }
+            case 0x5:
+            {
+                int[] length = readLength(offset, info);
+                return new String(m_data, length[0], length[1], StandardCharsets.US_ASCII);
+            }
+            case 0x6:
+            {
+                int[] length = readLength(offset, info);
+                return new String(m_data, length[0], length[1] * 2, StandardCharsets.UTF_16BE);
+            }
+            case 0x8:
+            {
+                Map<String, Object> uid = new LinkedHashMap<String, Object>();
+                uid.put("CF$UID", Long.valueOf(readLong(offset + 1, info + 1)));
+                return uid;
+            }
+            case 0xA:
+            {
+                int[] length = readLength(offset, info);
+                enter(index);
+                List<Object> list = new ArrayList<Object>(length[1]);
+                for (int i = 0; i < length[1]; i++)
+                {
+                    list.add(parseObject(readInt(length[0] + i * m_objectRefSize, m_objectRefSize)));
+                }
+                m_parsing[index] = false;
+                return list;
+            }
+            case 0xD:
+            {
+                int[] length = readLength(offset, info);
+                enter(index);
+                Map<String, Object> dict = new LinkedHashMap<String, Object>();
+                int values = length[0] + length[1] * m_objectRefSize;
+                for (int i = 0; i < length[1]; i++)
+                {
+                    Object key = parseObject(readInt(length[0] + i * m_objectRefSize, m_objectRefSize));
+                    if (!(key instanceof String)) throw new XmlParseException("Expected string key but was " + key);
+                    dict.put((String) key, parseObject(readInt(values + i * m_objectRefSize, m_objectRefSize)));
+                }
+                m_parsing[index] = false;
+                return dict;
+            }
+        }
+        throw new XmlParseException("Unsupported object type 0x" + Integer.toHexString(marker) + " at offset " + offset);
+    }
+
+    /**
+     * Mark a container as in parsing to detect cyclic references of a corrupt file.
+     *
+     * @param index the index of the container.
+     * @throws XmlParseException if the container is already in parsing.
+     */
+    private void enter(int index) throws XmlParseException
+    {
+        if (m_parsing[index]) throw new XmlParseException("Cyclic object reference " + index);
+        m_parsing[index] = true;
+    }
+
+    /**
+     * Read the length of a variable sized object.
+     *
+     * @param offset the offset of the marker.
+     * @param info the lower nibble of the marker.
+     * @return the offset of the content and the length.
+     * @throws XmlParseException if the length is invalid.
+     */
+    private int[] readLength(int offset, int info) throws XmlParseException
+    {
+        if (info != 0x0F) return new int[] { offset + 1, info };
+        int marker = m_data[offset + 1] & 0xFF;
+        if ((marker & 0xF0) != 0x10) throw new XmlParseException("Invalid length at offset " + offset);
+        int size = 1 << (marker & 0x0F);
+        return new int[] { offset + 2 + size, readInt(offset + 2, size) };
+    }
+
+    /**
+     * Read an unsigned big endian integer that must fit into an int.
+     *
+     * @param offset the offset in the data.
+     * @param size the byte count.
+     * @return the value.
+     * @throws XmlParseException if the value is too large.
+     */
+    private int readInt(int offset, int size) throws XmlParseException
+    {
+        long value = readLong(offset, size);
+        if (value < 0 || value > Integer.MAX_VALUE) throw new XmlParseException("Invalid value at offset " + offset);
+        return (int) value;
+    }
+
+    /**
+     * Read a big endian integer.
+     *
+     * @param offset the offset in the data.
+     * @param size the byte count.
+     * @return the value.
+     */
+    private long readLong(int offset, int size)
+    {
+        long value = 0;
+        for (int i = 0; i < size; i++)
+        {
+            value = (value << 8) | (m_data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * The writer of a binary plist. The objects are numbered depth first with the top object as first, the values
+     * of equal scalar objects get the same number.
+     */
+    private static class Writer
+    {
+        private final List<Object> m_objects = new ArrayList<Object>();
+        private final Map<Object, Integer> m_ids = new HashMap<Object, Integer>();
+        private final Map<Object, int[]> m_refs = new HashMap<Object, int[]>();
+        private int m_refSize;
+
+        /**
+         * Write the object tree.
+         *
+         * @param o the top object.
+         * @param stream the target.
+         * @throws IOException if there was an IO error writing the stream.
+         */
+        void write(Object o, OutputStream stream) throws IOException
+        {
+            int top = add(o);
+            m_refSize = bytes(m_objects.size() - 1);
+
+            DataOutputStream out = new DataOutputStream(stream);
+            out.write(MAGIC);
+            long[] offsets = new long[m_objects.size()];
+            long position = MAGIC.length;
+            for (int i = 0; i < offsets.length; i++)
+            {
+                offsets[i] = position;
+                position += writeObject(out, m_objects.get(i));
+            }
+            int offsetSize = bytes(position);
+            for (long offset : offsets)
+            {
+                writeInt(out, offset, offsetSize);
+            }
+            out.write(new byte[6]);
+            out.writeByte(offsetSize);
+            out.writeByte(m_refSize);
+            out.writeLong(offsets.length);
+            out.writeLong(top);
+            out.writeLong(position);
+            out.flush();
+        }
+
+        /**
+         * Number the object and its children.
+         *
+         * @param o the object.
+         * @return the number of the object.
+         */
+        private int add(Object o)
+        {
+            if (o instanceof Map || o instanceof List)
+            {
+                int id = m_objects.size();
+                m_objects.add(o);
+                int[] refs;
+                if (o instanceof Map)
+                {
+                    Map<?, ?> map = (Map<?, ?>) o;
+                    refs = new int[map.size() * 2];
+                    int i = 0;
+                    for (Map.Entry<?, ?> entry : map.entrySet())
+                    {
+                        refs[i] = add(entry.getKey().toString());
+                        refs[i + map.size()] = add(entry.getValue());
+                        i++;
+                    }
+                }
+                else
+                {
+                    List<?> list = (List<?>) o;
+                    refs = new int[list.size()];
+                    for (int i = 0; i < refs.length; i++)
+                    {
+                        refs[i] = add(list.get(i));
+                    }
+                }
+                m_refs.put(new Identity(o), refs);
+                return id;
+            }
+            Object key = key(o);
+            Integer id = m_ids.get(key);
+            if (id == null)
+            {
+                id = Integer.valueOf(m_objects.size());
+                m_objects.add(o);
+                m_ids.put(key, id);
+            }
+            return id.intValue();
+        }
+
+        /**
+         * Get the key for the detection of duplicates.
+         *
+         * @param o a scalar object.
+         * @return the key.
+         */
+        private static Object key(Object o)
+        {
+            if (o instanceof Integer || o instanceof Short || o instanceof Byte)
+                return Long.valueOf(((Number) o).longValue());
+            if (o instanceof Float)
+                return Double.valueOf(((Float) o).doubleValue());
+            if (o instanceof byte[])
+                return ByteBuffer.wrap((byte[]) o);
+            if (o instanceof String || o instanceof Long || o instanceof Double || o instanceof Boolean
+                || o instanceof Date)
+                return o;
+            throw new RuntimeException("Cannot use " + (o == null ? null : o.getClass()) + " in plist.");
+        }
+
+        /**
+         * Write a single object.
+         *
+         * @param out the target.
+         * @param o the object.
+         * @return the count of written bytes.
+         * @throws IOException if there was an IO error writing the stream.
+         */
+        private int writeObject(DataOutputStream out, Object o) throws IOException
+        {
+            int start = out.size();
+            if (o instanceof Boolean)
+            {
+                out.writeByte(((Boolean) o).booleanValue() ? 0x09 : 0x08);
+            }
+            else if (o instanceof Double || o instanceof Float)
+            {
+                out.writeByte(0x23);
+                out.writeDouble(((Number) o).doubleValue());
+            }
+            else if (o instanceof Number)
+            {
+                writeNumber(out, ((Number) o).longValue());
+            }
+            else if (o instanceof Date)
+            {
+                out.writeByte(0x33);
+                out.writeDouble(((Date) o).getTime() / 1000.0 - EPOCH_2001);
+            }
+            else if (o instanceof byte[])
+            {
+                byte[] data = (byte[]) o;
+                writeMarker(out, 0x40, data.length);
+                out.write(data);
+            }
+            else if (o instanceof String)
+            {
+                String str = (String) o;
+                boolean ascii = true;
+                for (int i = 0; i < str.length() && ascii; i++)
+                {
+                    ascii = str.charAt(i) < 0x80;
+                }
+                writeMarker(out, ascii ? 0x50 : 0x60, str.length());
+                out.write(str.getBytes(ascii ? StandardCharsets.US_ASCII : StandardCharsets.UTF_16BE));
+            }
+            else
+            {
+                int[] refs = m_refs.get(new Identity(o));
+                writeMarker(out, o instanceof Map ? 0xD0 : 0xA0, o instanceof Map ? refs.length / 2 : refs.length);
+                for (int ref : refs)
+                {
+                    writeInt(out, ref, m_refSize);
+                }
+            }
+            return out.size() - start;
+        }
+
+        /**
+         * Write the marker of a variable sized object.
+         *
+         * @param out the target.
+         * @param type the type in the upper nibble.
+         * @param length the length.
+         * @throws IOException if there was an IO error writing the stream.
+         */
+        private static void writeMarker(DataOutputStream out, int type, int length) throws IOException
+        {
+            if (length < 0x0F)
+            {
+                out.writeByte(type | length);
+            }
+            else
+            {
+                out.writeByte(type | 0x0F);
+                writeNumber(out, length);
+            }
+        }
+
+        /**
+         * Write an integer object. Negative values are written with 8 bytes.
+         *
+         * @param out the target.
+         * @param value the value.
+         * @throws IOException if there was an IO error writing the stream.
+         */
+        private static void writeNumber(DataOutputStream out, long value) throws IOException
+        {
+            int size = value < 0 ? 8 : bytes(value);
+            if (size == 3) size = 4;
+            else if (size > 4) size = 8;
+            out.writeByte(0x10 | Integer.numberOfTrailingZeros(size));
+            writeInt(out, value, size);
+        }
+
+        /**
+         * Write a big endian integer.
+         *
+         * @param out the target.
+         * @param value the value.
+         * @param size the byte count.
+         * @throws IOException if there was an IO error writing the stream.
+         */
+        private static void writeInt(DataOutputStream out, long value, int size) throws IOException
+        {
+            for (int i = size - 1; i >= 0; i--)
+            {
+                out.writeByte((int) (value >> (i * 8)));
+            }
+        }
+
+        /**
+         * Get the byte count of an unsigned value.
+         *
+         * @param value the value.
+         * @return the count of bytes, at least 1.
+         */
+        private static int bytes(long value)
+        {
+            int size = 1;
+            while (size < 8 && (value >>> (size * 8)) != 0)
+            {
+                size++;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Key of a container by identity, because equal containers are stored separately.
+     */
+    private static class Identity
+    {
+        private final Object m_object;
+
+        Identity(Object object)
+        {
+            m_object = object;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(m_object);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof Identity && ((Identity) obj).m_object == m_object;
+        }
+    }
+}
@@ -6,7 +6,14 @@ import java.text.SimpleDateFormat;
 import java.io.File;
 import java.io.IOException;
 import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 /**
  * Plist xml handling (serialization and deserialization)
@@ -20,6 +27,9 @@ import java.io.Closeable;
  * that can be trivially read from java. It also provides a simple way to convert a nested
  * {@code Map<String, Object>} into an xml plist representation.
  * <p>
+ * Files are loaded from xml plists as well as from binary plists (see {@link BinaryPlist}).
+ * The xml is written with a streaming writer without creating an <tt>XmlElement</tt> tree.
+ * <p>
  * The following mapping will be done when converting from plist to <code>Map</code>:
  * <pre>
  * true/false -&gt; Boolean
@@ -70,7 +80,6 @@ public final class Plist
             = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
     private static final char[] BASE64_CHARS = BASE64_STRING.toCharArray();
     private final DateFormat m_dateFormat;
-    private final Map<Class<?>, ElementType> m_simpleTypes;
 
     /**
      * Convert a nested {@code map<String, Object>} as a plist xml string
@@ -93,13 +102,17 @@ public final class Plist
      */
     public static String toPlist(Object o)
     {
-        StringBuilder builder = new StringBuilder(
-                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
-                "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" " +
-                "\"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n" +
-                "<plist version=\"1.0\">");
-        builder.append(PLIST.objectToXml(o).toXml());
-        return builder.append("</plist>").toString();
+        StringWriter writer = new StringWriter();
+        try
+        {
+            new PlistXmlWriter(writer).write(o);
+        }
+        catch (IOException e)
+        {
+            // can not occur with a StringWriter
+            throw new RuntimeException(e);
+        }
+        return writer.toString();
     }
 
     /**
@@ -146,12 +159,61 @@ public final class Plist
      * @throws IOException if there was an IO error saving the file.
      */
     public static void storeObject(Object data, File file) throws IOException
+    {
+        BufferedWriter writer = null;
+        try
+        {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+            new PlistXmlWriter(writer).write(data);
+        }
+        finally
+        {
+            silentlyClose(writer);
+        }
+    }
+
+    /**
+     * Store an object as a binary plist (bplist00).
+     *
+     * @param data the nested data to store as a plist.
+     * @param file the destination File to store the data to.
+     * @throws IOException if there was an IO error saving the file.
+     */
+    public static void storeBinary(Object data, File file) throws IOException
     {
         FileOutputStream stream = null;
         try
         {
             stream = new FileOutputStream(file);
-            stream.write(toPlist(data).getBytes());
+            BinaryPlist.store(data, stream);
+        }
+        finally
+        {
+            silentlyClose(stream);
+        }
+    }
+
+    /**
+     * Check if a file is a binary plist.
+     *
+     * @param file the plist file.
+     * @return true, if the file starts with the magic of a binary plist.
+     * @throws IOException if there was an issue reading the plist file.
+     */
+    public static boolean isBinary(File file) throws IOException
+    {
+        byte[] magic = new byte[8];
+        InputStream stream = new FileInputStream(file);
+        try
+        {
+            int count = 0;
+            while (count < magic.length)
+            {
+                int read = stream.read(magic, count, magic.length - count);
+                if (read < 0) return false;
+                count += read;
+            }
+            return BinaryPlist.isBinary(magic);
         }
         finally
         {
@@ -226,28 +288,36 @@ public final class Plist
 
 
     /**
-     * Create a nested {@code map<String, Object>} from a plist xml file using the default mapping.
+     * Create a nested {@code map<String, Object>} from a plist xml or binary plist file using the default mapping.
      *
-     * @param file the File containing the the plist xml.
+     * @param file the File containing the the plist xml or the binary plist.
      * @return the resulting map as read from the plist data.
      * @throws XmlParseException if the plist could not be properly parsed.
      * @throws IOException if there was an issue reading the plist file.
      */
+    @SuppressWarnings( "unchecked" )
     public static Map<String, Object> load(File file) throws XmlParseException, IOException
     {
+        if (isBinary(file))
+        {
+            Object o = loadObject(file);
+            if (!(o instanceof Map)) throw new XmlParseException("Expected dict as top object.");
+            return (Map<String, Object>) o;
+        }
         return fromXmlElement(Xmlwise.loadXml(file));
     }
 
     /**
-     * Create an object from a plist xml file using the default mapping.
+     * Create an object from a plist xml or binary plist file using the default mapping.
      *
-     * @param file the File containing the the plist xml.
+     * @param file the File containing the the plist xml or the binary plist.
      * @return the resulting object as read from the plist data.
      * @throws XmlParseException if the plist could not be properly parsed.
      * @throws IOException if there was an issue reading the plist file.
      */
     public static Object loadObject(File file) throws XmlParseException, IOException
     {
+        if (isBinary(file)) return BinaryPlist.parse(Files.readAllBytes(file.toPath()));
         return objectFromXmlElement(Xmlwise.loadXml(file));
     }
 
@@ -284,92 +354,6 @@ public final class Plist
     {
         m_dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
         m_dateFormat.setTimeZone(TimeZone.getTimeZone("Z"));
-        m_simpleTypes = new HashMap<Class<?>, ElementType>();
-        m_simpleTypes.put(Integer.class, ElementType.INTEGER);
-        m_simpleTypes.put(Byte.class, ElementType.INTEGER);
-        m_simpleTypes.put(Short.class, ElementType.INTEGER);
-        m_simpleTypes.put(Short.class, ElementType.INTEGER);
-        m_simpleTypes.put(Long.class, ElementType.INTEGER);
-        m_simpleTypes.put(String.class, ElementType.STRING);
-        m_simpleTypes.put(Float.class, ElementType.REAL);
-        m_simpleTypes.put(Double.class, ElementType.REAL);
-        m_simpleTypes.put(byte[].class, ElementType.DATA);
-        m_simpleTypes.put(Boolean.class, ElementType.TRUE);
-        m_simpleTypes.put(Date.class, ElementType.DATE);
-    }
-
-    /**
-     * Convert an object to its plist representation.
-     *
-     * @param o the object to convert, must be Integer, Double, String, Date, Boolean, byte[],
-     * Map or List.
-     * @return an <tt>XmlElement</tt> containing the serialized version of the object.
-     */
-    @SuppressWarnings( { "incomplete-switch", "rawtypes", "unchecked" } )
-    XmlElement objectToXml(Object o)
-    {
-        ElementType type = m_simpleTypes.get(o.getClass());
-        if (type != null)
-        {
-            switch (type)
-            {
-                case REAL:
-                    return new XmlElement("real", o.toString());
-                case INTEGER:
-                    return new XmlElement("integer", o.toString());
-                case TRUE:
-                    return new XmlElement(((Boolean) o).booleanValue() ? "true" : "false");
-                case DATE:
-                    return new XmlElement("date", m_dateFormat.format((Date) o));
-                case STRING:
-                    return new XmlElement("string", (String) o);
-                case DATA:
-                    return new XmlElement("data", base64encode((byte[]) o));
-            }
-        }
-        if (o instanceof Map)
-        {
-            return toXmlDict((Map) o);
-        }
-        else if (o instanceof List)
-        {
-            return toXmlArray((List) o);
-        }
-        else throw new RuntimeException("Cannot use " + o.getClass() + " in plist.");
-    }
-
-    /**
-     * Convert a list to its plist representation.
-     *
-     * @param list the list to convert.
-     * @return an <tt>XmlElement</tt> representing the list.
-     */
-    @SuppressWarnings( "rawtypes" )
-    private XmlElement toXmlArray(List list)
-    {
-        XmlElement array = new XmlElement("array");
-        for (Object o : list)
-        {
-            array.add(objectToXml(o));
-        }
-        return array;
-    }
-
-    /**
-     * Convert a map to its plist representation.
-     *
-     * @param map the map to convert, assumed to have string keys.
-     * @return an <tt>XmlElement</tt> representing the map.
-     */
-    private XmlElement toXmlDict(Map<String, Object> map)
-    {
-        XmlElement dict = new XmlElement("dict");
-        for (Map.Entry<String, Object> entry : map.entrySet())
-        {
-            dict.add(new XmlElement("key", entry.getKey()));
-            dict.add(objectToXml(entry.getValue()));
-        }
-        return dict;
     }
 
     /**
@@ -489,7 +473,8 @@ public final class Plist
     private Map<String, Object> parseDict(List<XmlElement> elements) throws Exception
     {
         Iterator<XmlElement> element = elements.iterator();
-        HashMap<String, Object> dict = new HashMap<String, Object>();
+        // keep the order of the keys, that an edited plist can be compared with the original
+        LinkedHashMap<String, Object> dict = new LinkedHashMap<String, Object>();
         while (element.hasNext())
         {
             XmlElement key = element.next();
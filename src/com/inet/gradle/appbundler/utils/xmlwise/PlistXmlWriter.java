@@ -0,0 +1,154 @@
+package com.inet.gradle.appbundler.utils.xmlwise;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Streaming xml plist writer. The objects are written directly to the target without creating an
+ * <tt>XmlElement</tt> tree first. The output is indented with tabs like the plists written by macOS.
+ */
+final class PlistXmlWriter
+{
+    private final Writer m_out;
+    private final SimpleDateFormat m_dateFormat;
+
+    /**
+     * Create a writer.
+     *
+     * @param out the target.
+     */
+    PlistXmlWriter(Writer out)
+    {
+        m_out = out;
+        m_dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        m_dateFormat.setTimeZone(TimeZone.getTimeZone("Z"));
+    }
+
+    /**
+     * Write a complete plist document.
+     *
+     * @param o the top object, must be Integer, Long, Double, String, Date, Boolean, byte[], Map or List.
+     * @throws IOException if there was an IO error writing the target.
+     */
+    void write(Object o) throws IOException
+    {
+        m_out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" " +
+                "\"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n" +
+                "<plist version=\"1.0\">\n");
+        writeObject(o, 0);
+        m_out.write("</plist>\n");
+        m_out.flush();
+    }
+
+    /**
+     * Write a single object and its children.
+     *
+     * @param o the object.
+     * @param depth the indentation depth.
+     * @throws IOException if there was an IO error writing the target.
+     */
+    private void writeObject(Object o, int depth) throws IOException
+    {
+        indent(depth);
+        if (o instanceof Map)
+        {
+            Map<?, ?> map = (Map<?, ?>) o;
+            if (map.isEmpty())
+            {
+                m_out.write("<dict/>\n");
+                return;
+            }
+            m_out.write("<dict>\n");
+            for (Map.Entry<?, ?> entry : map.entrySet())
+            {
+                indent(depth + 1);
+                writeElement("key", entry.getKey().toString());
+                writeObject(entry.getValue(), depth + 1);
+            }
+            indent(depth);
+            m_out.write("</dict>\n");
+        }
+        else if (o instanceof List)
+        {
+            List<?> list = (List<?>) o;
+            if (list.isEmpty())
+            {
+                m_out.write("<array/>\n");
+                return;
+            }
+            m_out.write("<array>\n");
+            for (Object item : list)
+            {
+                writeObject(item, depth + 1);
+            }
+            indent(depth);
+            m_out.write("</array>\n");
+        }
+        else if (o instanceof Boolean)
+        {
+            m_out.write(((Boolean) o).booleanValue() ? "<true/>\n" : "<false/>\n");
+        }
+        else if (o instanceof Double || o instanceof Float)
+        {
+            writeElement("real", o.toString());
+        }
+        else if (o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte)
+        {
+            writeElement("integer", o.toString());
+        }
+        else if (o instanceof String)
+        {
+            writeElement("string", (String) o);
+        }
+        else if (o instanceof Date)
+        {
+            writeElement("date", m_dateFormat.format((Date) o));
+        }
+        else if (o instanceof byte[])
+        {
+            writeElement("data", Plist.base64encode((byte[]) o));
+        }
+        else
+        {
+            throw new RuntimeException("Cannot use " + (o == null ? null : o.getClass()) + " in plist.");
+        }
+    }
+
+    /**
+     * Write a simple element on a single line.
+     *
+     * @param name the element name.
+     * @param value the unescaped text.
+     * @throws IOException if there was an IO error writing the target.
+     */
+    private void writeElement(String name, String value) throws IOException
+    {
+        m_out.write('<');
+        m_out.write(name);
+        m_out.write('>');
+        m_out.write(Xmlwise.escapeXML(value));
+        m_out.write("</");
+        m_out.write(name);
+        m_out.write(">\n");
+    }
+
+    /**
+     * Write the indentation.
+     *
+     * @param depth the count of tabs.
+     * @throws IOException if there was an IO error writing the target.
+     */
+    private void indent(int depth) throws IOException
+    {
+        for (int i = 0; i < depth; i++)
+        {
+            m_out.write('\t');
+        }
+    }
+}
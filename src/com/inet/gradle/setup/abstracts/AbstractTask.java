@@ -21,6 +21,7 @@ import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.Date;
 import java.util.Set;
 
@@ -139,6 +140,8 @@ public abstract class AbstractTask extends DefaultTask implements SetupSources {
                             Files.setPosixFilePermissions(
                                     f.toPath(),
                                     Files.getPosixFilePermissions(details.getFile().toPath()));
+                            // keep the time of the source, the package manifests detect unchanged files with it
+                            Files.setLastModifiedTime( f.toPath(), FileTime.fromMillis( details.getLastModified() ) );
                         }
                     } catch (IOException ex) {
                         throw new RuntimeException(ex);
@@ -16,8 +16,16 @@
 
 package com.inet.gradle.setup.abstracts;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gradle.api.Action;
+import org.gradle.util.ConfigureUtil;
+
 import com.inet.gradle.setup.SetupBuilder;
 
+import groovy.lang.Closure;
+
 /**
  * Definition of a service to be installed on the target system.
  */
@@ -26,6 +34,8 @@ public class Service extends Application {
 
     private String id, wrapper, logPath, logPrefix, logLevel, pidFile, stdError, stdOutput, libraryPath, javaHome, jvm;
 
+    private ServiceProfile profile;
+
     /**
      * Create a new Service
      *
@@ -268,4 +278,48 @@ public class Service extends Application {
     public void setJvm( String jvm ) {
         this.jvm = jvm;
     }
+
+    /**
+     * Set the resource profile of the service.
+     *
+     * @param closure the profile
+     */
+    public void profile( Closure<?> closure ) {
+        profile = ConfigureUtil.configure( closure, new ServiceProfile() );
+    }
+
+    /**
+     * Set the resource profile of the service.
+     *
+     * @param action the profile
+     */
+    public void profile( Action<? super ServiceProfile> action ) {
+        ServiceProfile newProfile = new ServiceProfile();
+        action.execute( newProfile );
+        profile = newProfile;
+    }
+
+    /**
+     * Returns the resource profile of the service.
+     *
+     * @return the profile or null
+     */
+    public ServiceProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Returns the JVM arguments of the profile followed by the configured JVM arguments. The configured arguments
+     * are last so that they can override the profile.
+     *
+     * @return the arguments for starting the service
+     */
+    public List<String> getServiceJavaVMArguments() {
+        List<String> args = new ArrayList<>();
+        if( profile != null ) {
+            args.addAll( profile.getJavaVMArguments() );
+        }
+        args.addAll( getJavaVMArguments() );
+        return args;
+    }
 }
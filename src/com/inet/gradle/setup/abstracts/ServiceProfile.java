@@ -0,0 +1,296 @@
+/*
+ * Copyright 2015 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.abstracts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gradle.api.GradleException;
+
+/**
+ * Resource profile of a service. The profile is rendered by every builder into the matching
+ * JVM flags, systemd directives, init script ulimits or launchd limits.
+ */
+public class ServiceProfile {
+
+    private Integer heapPercentage, initialHeapPercentage, activeProcessorCount, cpuQuota;
+
+    private Long openFiles, maxProcesses;
+
+    private String garbageCollector, memoryMax;
+
+    ServiceProfile() {
+    }
+
+    /**
+     * Returns the maximum heap size as percentage of the available memory.
+     *
+     * @return the percentage or null
+     */
+    public Integer getHeapPercentage() {
+        return heapPercentage;
+    }
+
+    /**
+     * Set the maximum heap size as percentage of the available memory. Rendered as
+     * <code>-XX:MaxRAMPercentage</code>.
+     *
+     * @param heapPercentage the percentage between 1 and 100
+     */
+    public void setHeapPercentage( Integer heapPercentage ) {
+        this.heapPercentage = checkPercentage( "heapPercentage", heapPercentage, 100 );
+    }
+
+    /**
+     * Returns the initial heap size as percentage of the available memory.
+     *
+     * @return the percentage or null
+     */
+    public Integer getInitialHeapPercentage() {
+        return initialHeapPercentage;
+    }
+
+    /**
+     * Set the initial heap size as percentage of the available memory. Rendered as
+     * <code>-XX:InitialRAMPercentage</code>.
+     *
+     * @param initialHeapPercentage the percentage between 1 and 100
+     */
+    public void setInitialHeapPercentage( Integer initialHeapPercentage ) {
+        this.initialHeapPercentage = checkPercentage( "initialHeapPercentage", initialHeapPercentage, 100 );
+    }
+
+    /**
+     * Returns the garbage collector.
+     *
+     * @return the garbage collector or null
+     */
+    public String getGarbageCollector() {
+        return garbageCollector;
+    }
+
+    /**
+     * Set the garbage collector of the service JVM. Possible values are G1, Parallel, Serial, Z and Shenandoah.
+     *
+     * @param garbageCollector the garbage collector
+     */
+    public void setGarbageCollector( String garbageCollector ) {
+        if( garbageCollector != null ) {
+            gcFlag( garbageCollector ); // validate
+        }
+        this.garbageCollector = garbageCollector;
+    }
+
+    /**
+     * Returns the number of processors the JVM should use.
+     *
+     * @return the count or null
+     */
+    public Integer getActiveProcessorCount() {
+        return activeProcessorCount;
+    }
+
+    /**
+     * Set the number of processors the JVM should use for sizing its thread pools. Rendered as
+     * <code>-XX:ActiveProcessorCount</code>.
+     *
+     * @param activeProcessorCount the count
+     */
+    public void setActiveProcessorCount( Integer activeProcessorCount ) {
+        if( activeProcessorCount != null && activeProcessorCount < 1 ) {
+            throw new GradleException( "activeProcessorCount must be positive: " + activeProcessorCount );
+        }
+        this.activeProcessorCount = activeProcessorCount;
+    }
+
+    /**
+     * Returns the CPU quota in percent of one CPU.
+     *
+     * @return the quota or null
+     */
+    public Integer getCpuQuota() {
+        return cpuQuota;
+    }
+
+    /**
+     * Set the CPU quota in percent of one CPU, for example 200 for two CPUs. Rendered as systemd
+     * <code>CPUQuota</code>.
+     *
+     * @param cpuQuota the quota
+     */
+    public void setCpuQuota( Integer cpuQuota ) {
+        this.cpuQuota = checkPercentage( "cpuQuota", cpuQuota, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Returns the hard memory limit of the service process.
+     *
+     * @return the limit or null
+     */
+    public String getMemoryMax() {
+        return memoryMax;
+    }
+
+    /**
+     * Set the hard memory limit of the service process, for example "2G" or "512M". Rendered as systemd
+     * <code>MemoryMax</code>.
+     *
+     * @param memoryMax the limit
+     */
+    public void setMemoryMax( String memoryMax ) {
+        if( memoryMax != null && !memoryMax.matches( "\\d+[KMGT]?|\\d+%" ) ) {
+            throw new GradleException( "Invalid memoryMax: " + memoryMax );
+        }
+        this.memoryMax = memoryMax;
+    }
+
+    /**
+     * Returns the limit of open files.
+     *
+     * @return the limit or null
+     */
+    public Long getOpenFiles() {
+        return openFiles;
+    }
+
+    /**
+     * Set the limit of open files. Rendered as systemd <code>LimitNOFILE</code>, <code>ulimit -n</code> and
+     * launchd <code>NumberOfFiles</code>.
+     *
+     * @param openFiles the limit
+     */
+    public void setOpenFiles( Long openFiles ) {
+        this.openFiles = openFiles;
+    }
+
+    /**
+     * Returns the limit of processes.
+     *
+     * @return the limit or null
+     */
+    public Long getMaxProcesses() {
+        return maxProcesses;
+    }
+
+    /**
+     * Set the limit of processes of the service user. Rendered as systemd <code>LimitNPROC</code>,
+     * <code>ulimit -u</code> and launchd <code>NumberOfProcesses</code>.
+     *
+     * @param maxProcesses the limit
+     */
+    public void setMaxProcesses( Long maxProcesses ) {
+        this.maxProcesses = maxProcesses;
+    }
+
+    /**
+     * Get the JVM flags of this profile.
+     *
+     * @return the list of flags, never null
+     */
+    public List<String> getJavaVMArguments() {
+        List<String> args = new ArrayList<>();
+        if( initialHeapPercentage != null ) {
+            args.add( "-XX:InitialRAMPercentage=" + initialHeapPercentage + ".0" );
+        }
+        if( heapPercentage != null ) {
+            args.add( "-XX:MaxRAMPercentage=" + heapPercentage + ".0" );
+        }
+        if( garbageCollector != null ) {
+            args.add( gcFlag( garbageCollector ) );
+        }
+        if( activeProcessorCount != null ) {
+            args.add( "-XX:ActiveProcessorCount=" + activeProcessorCount );
+        }
+        return args;
+    }
+
+    /**
+     * Get the systemd directives for the [Service] section.
+     *
+     * @return the directives separated by line breaks, can be empty
+     */
+    public String getSystemdDirectives() {
+        StringBuilder builder = new StringBuilder();
+        if( memoryMax != null ) {
+            builder.append( "MemoryMax=" ).append( memoryMax ).append( '\n' );
+        }
+        if( cpuQuota != null ) {
+            builder.append( "CPUQuota=" ).append( cpuQuota ).append( "%\n" );
+        }
+        if( openFiles != null ) {
+            builder.append( "LimitNOFILE=" ).append( openFiles ).append( '\n' );
+        }
+        if( maxProcesses != null ) {
+            builder.append( "LimitNPROC=" ).append( maxProcesses ).append( '\n' );
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Get the ulimit commands for an init script. Memory and CPU quotas has no equivalent without cgroups and are
+     * only rendered for systemd.
+     *
+     * @return the commands separated by line breaks, can be empty
+     */
+    public String getUlimitCommands() {
+        StringBuilder builder = new StringBuilder();
+        if( openFiles != null ) {
+            builder.append( "ulimit -n " ).append( openFiles ).append( '\n' );
+        }
+        if( maxProcesses != null ) {
+            builder.append( "ulimit -u " ).append( maxProcesses ).append( '\n' );
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Convert the name of a garbage collector to the JVM flag.
+     *
+     * @param gc the name
+     * @return the flag
+     */
+    private static String gcFlag( String gc ) {
+        switch( gc.toLowerCase().replace( "gc", "" ) ) {
+            case "g1":
+                return "-XX:+UseG1GC";
+            case "parallel":
+                return "-XX:+UseParallelGC";
+            case "serial":
+                return "-XX:+UseSerialGC";
+            case "z":
+                return "-XX:+UseZGC";
+            case "shenandoah":
+                return "-XX:+UseShenandoahGC";
+            default:
+                throw new GradleException( "Unknown garbage collector: " + gc );
+        }
+    }
+
+    /**
+     * Check the range of a percentage value.
+     *
+     * @param name the property name for the error message
+     * @param value the value, can be null
+     * @param max the maximum
+     * @return the value
+     */
+    private static Integer checkPercentage( String name, Integer value, int max ) {
+        if( value != null && (value < 1 || value > max) ) {
+            throw new GradleException( name + " is out of range: " + value );
+        }
+        return value;
+    }
+}
@@ -32,6 +32,7 @@ import com.inet.gradle.setup.abstracts.AbstractSetupBuilder;
 import com.inet.gradle.setup.abstracts.AbstractTask;
 import com.inet.gradle.setup.abstracts.Application;
 import com.inet.gradle.setup.abstracts.DocumentType;
+import com.inet.gradle.setup.abstracts.Service;
 import com.oracle.appbundler.AppBundlerTask;
 import com.oracle.appbundler.Architecture;
 import com.oracle.appbundler.Argument;
@@ -125,7 +126,8 @@ public abstract class AbstractOSXApplicationBuilder<T extends AbstractTask, S ex
             }
             appBundler.setJarLauncherName( mainJar );
 
-            application.getJavaVMArguments().forEach( arg -> {
+            List<String> javaVMArguments = application instanceof Service ? ((Service)application).getServiceJavaVMArguments() : application.getJavaVMArguments();
+            javaVMArguments.forEach( arg -> {
                 Option argument = new Option();
                 argument.setValue( arg );
                 appBundler.addConfiguredOption( argument );
@@ -255,58 +257,6 @@ public abstract class AbstractOSXApplicationBuilder<T extends AbstractTask, S ex
         return icons;
     }
 
-    /**
-     * Modify a plist file
-     *
-     * @param plist file to modify
-     * @param property property to set
-     * @param value of property
-     */
-    protected void setPlistProperty( File plist, String property, String value ) {
-
-        // Set Property in plist file
-        // /usr/libexec/PlistBuddy -c "Set PreferenceSpecifiers:19:Titles:0 $buildDate" "$BUNDLE/Root.plist"
-        ArrayList<String> command = new ArrayList<>();
-        command.add( "/usr/libexec/PlistBuddy" );
-        command.add( "-c" );
-        command.add( "Set " + property + " " + value );
-        command.add( plist.getAbsolutePath() );
-        exec( command );
-    }
-
-    /**
-     * Add an entry to a plist file
-     *
-     * @param plist file to modify
-     * @param property property to set
-     * @param type of property
-     * @param value of property
-     */
-    protected void addPlistProperty( File plist, String property, String type, String value ) {
-
-        // Set Property in plist file
-        // /usr/libexec/PlistBuddy -c "Add PreferenceSpecifiers:19:Titles:0 $buildDate" "$BUNDLE/Root.plist"
-        ArrayList<String> command = new ArrayList<>();
-        command.add( "/usr/libexec/PlistBuddy" );
-        command.add( "-c" );
-        command.add( "Add " + property + " " + type + " " + value );
-        command.add( plist.getAbsolutePath() );
-        exec( command );
-    }
-
-    /**
-     * Add an entry to a plist file
-     *
-     * @param plist file to modify
-     * @param property property to set
-     */
-    protected void deletePlistProperty( File plist, String property ) {
-
-        // Set Property in plist file
-        // /usr/libexec/PlistBuddy -c "Add PreferenceSpecifiers:19:Titles:0 $buildDate" "$BUNDLE/Root.plist"
-        exec( "/usr/libexec/PlistBuddy", "-c", "Delete " + property, plist.getAbsolutePath() );
-    }
-
     /**
      * Copy the files defined in the gradle script into their final destination
      *
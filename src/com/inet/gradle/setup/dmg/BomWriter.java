@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inet.gradle.setup.dmg;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.inet.gradle.setup.dmg.FlatPackage.PayloadEntry;
+
+/**
+ * Writer of the bill of materials (Bom) of a flat package. The Bom is a "BOMStore" file with a B+ tree of all paths
+ * of the Payload, like it is written by mkbom. The installer uses it for the receipt of the package.
+ */
+class BomWriter {
+
+    private static final int   HEADER_SIZE     = 512;
+
+    private static final int   PATHS_BLOCKSIZE = 4096;
+
+    private static final int   SMALL_BLOCKSIZE = 128;
+
+    private final List<byte[]> blocks          = new ArrayList<>();
+
+    /**
+     * Create a new instance.
+     */
+    private BomWriter() {
+        blocks.add( null ); // the block with index 0 is the null pointer
+    }
+
+    /**
+     * Write the Bom for the entries of a Payload.
+     *
+     * @param entries the entries in Payload order, the first entry is the root "."
+     * @param target the target file
+     * @throws IOException if any error occur
+     */
+    static void write( List<PayloadEntry> entries, File target ) throws IOException {
+        new BomWriter().writeBom( entries, target );
+    }
+
+    /**
+     * Write the Bom.
+     *
+     * @param entries the entries in Payload order
+     * @param target the target file
+     * @throws IOException if any error occur
+     */
+    private void writeBom( List<PayloadEntry> entries, File target ) throws IOException {
+        int bomInfo = addBlock( ByteBuffer.allocate( 28 ).putInt( 1 ).putInt( entries.size() ).putInt( 1 ).array() );
+
+        // the tree is sorted by the id of the parent and the name
+        List<PayloadEntry> sorted = new ArrayList<>( entries );
+        sorted.sort( Comparator.comparingInt( ( PayloadEntry entry ) -> entry.parent == null ? 0 : entry.parent.id ).thenComparing( entry -> entry.name ) );
+        int[] infoBlocks = new int[sorted.size()];
+        int[] fileBlocks = new int[sorted.size()];
+        for( int i = 0; i < sorted.size(); i++ ) {
+            PayloadEntry entry = sorted.get( i );
+            byte[] link = entry.linkTarget == null ? new byte[0] : (entry.linkTarget + '\0').getBytes( StandardCharsets.UTF_8 );
+            ByteBuffer info2 = ByteBuffer.allocate( 31 + link.length );
+            info2.put( (byte)entry.type ).put( (byte)1 ).putShort( (short)3 ).putShort( (short)entry.mode );
+            info2.putInt( 0 ).putInt( 0 ); // root:wheel
+            info2.putInt( (int)entry.mtime ).putInt( (int)entry.size ).put( (byte)1 ).putInt( entry.checksum );
+            info2.putInt( link.length ).put( link );
+            int info2Block = addBlock( info2.array() );
+            infoBlocks[i] = addBlock( ByteBuffer.allocate( 8 ).putInt( entry.id ).putInt( info2Block ).array() );
+
+            byte[] name = (entry.name + '\0').getBytes( StandardCharsets.UTF_8 );
+            fileBlocks[i] = addBlock( ByteBuffer.allocate( 4 + name.length ).putInt( entry.parent == null ? 0 : entry.parent.id ).put( name ).array() );
+        }
+
+        int capacity = (PATHS_BLOCKSIZE - 12) / 8;
+        int leafCount = Math.max( 1, (sorted.size() + capacity - 1) / capacity );
+        if( leafCount > capacity ) {
+            throw new IOException( "Too many files for the Bom: " + sorted.size() );
+        }
+        int[] leaves = new int[leafCount];
+        for( int i = 0; i < leafCount; i++ ) {
+            leaves[i] = addBlock( null );
+        }
+        for( int i = 0; i < leafCount; i++ ) {
+            int start = i * capacity;
+            int end = Math.min( sorted.size(), start + capacity );
+            ByteBuffer leaf = ByteBuffer.allocate( PATHS_BLOCKSIZE );
+            leaf.putShort( (short)1 ).putShort( (short)(end - start) );
+            leaf.putInt( i + 1 < leafCount ? leaves[i + 1] : 0 ).putInt( i > 0 ? leaves[i - 1] : 0 );
+            for( int k = start; k < end; k++ ) {
+                leaf.putInt( infoBlocks[k] ).putInt( fileBlocks[k] );
+            }
+            blocks.set( leaves[i], leaf.array() );
+        }
+        int pathsRoot = leaves[0];
+        if( leafCount > 1 ) {
+            ByteBuffer branch = ByteBuffer.allocate( PATHS_BLOCKSIZE );
+            branch.putShort( (short)0 ).putShort( (short)leafCount ).putInt( 0 ).putInt( 0 );
+            for( int i = 0; i < leafCount; i++ ) {
+                int last = Math.min( sorted.size(), (i + 1) * capacity ) - 1;
+                branch.putInt( leaves[i] ).putInt( fileBlocks[last] );
+            }
+            pathsRoot = addBlock( branch.array() );
+        }
+        int paths = addTree( pathsRoot, PATHS_BLOCKSIZE, sorted.size() );
+        int hlIndex = addTree( addEmptyLeaf( PATHS_BLOCKSIZE ), PATHS_BLOCKSIZE, 0 );
+        int vTree = addTree( addEmptyLeaf( SMALL_BLOCKSIZE ), SMALL_BLOCKSIZE, 0 );
+        int vIndex = addBlock( ByteBuffer.allocate( 13 ).putInt( 1 ).putInt( vTree ).putInt( 0 ).put( (byte)0 ).array() );
+        int size64 = addTree( addEmptyLeaf( SMALL_BLOCKSIZE ), SMALL_BLOCKSIZE, 0 );
+
+        String[] varNames = { "BomInfo", "Paths", "HLIndex", "VIndex", "Size64" };
+        int[] varBlocks = { bomInfo, paths, hlIndex, vIndex, size64 };
+
+        try( DataOutputStream out = new DataOutputStream( new FileOutputStream( target ) ) ) {
+            int[] addresses = new int[blocks.size()];
+            int address = HEADER_SIZE;
+            for( int i = 1; i < blocks.size(); i++ ) {
+                addresses[i] = address;
+                address += blocks.get( i ).length;
+            }
+            int indexOffset = address;
+            int indexLength = 4 + blocks.size() * 8 + 4 + 2 * 8;
+            int varsOffset = indexOffset + indexLength;
+            int varsLength = 4;
+            for( String name : varNames ) {
+                varsLength += 5 + name.length();
+            }
+
+            out.writeBytes( "BOMStore" );
+            out.writeInt( 1 );
+            out.writeInt( blocks.size() - 1 );
+            out.writeInt( indexOffset );
+            out.writeInt( indexLength );
+            out.writeInt( varsOffset );
+            out.writeInt( varsLength );
+            out.write( new byte[HEADER_SIZE - out.size()] );
+            for( int i = 1; i < blocks.size(); i++ ) {
+                out.write( blocks.get( i ) );
+            }
+
+            // block table and an empty free list
+            out.writeInt( blocks.size() );
+            for( int i = 0; i < blocks.size(); i++ ) {
+                out.writeInt( addresses[i] );
+                out.writeInt( i == 0 ? 0 : blocks.get( i ).length );
+            }
+            out.writeInt( 2 );
+            out.write( new byte[2 * 8] );
+
+            out.writeInt( varNames.length );
+            for( int i = 0; i < varNames.length; i++ ) {
+                out.writeInt( varBlocks[i] );
+                out.writeByte( varNames[i].length() );
+                out.writeBytes( varNames[i] );
+            }
+        }
+    }
+
+    /**
+     * Add a tree header.
+     *
+     * @param child the block of the root node
+     * @param blockSize the size of the node blocks
+     * @param pathCount the count of entries
+     * @return the block index
+     */
+    private int addTree( int child, int blockSize, int pathCount ) {
+        return addBlock( ByteBuffer.allocate( 21 ).put( "tree".getBytes( StandardCharsets.US_ASCII ) ).putInt( 1 ).putInt( child ).putInt( blockSize ).putInt( pathCount ).put( (byte)0 ).array() );
+    }
+
+    /**
+     * Add a leaf node without entries.
+     *
+     * @param blockSize the size of the node block
+     * @return the block index
+     */
+    private int addEmptyLeaf( int blockSize ) {
+        return addBlock( ByteBuffer.allocate( blockSize ).putShort( (short)1 ).array() );
+    }
+
+    /**
+     * Add a block.
+     *
+     * @param data the content, can be null if it is set later
+     * @return the block index
+     */
+    private int addBlock( byte[] data ) {
+        blocks.add( data );
+        return blocks.size() - 1;
+    }
+}
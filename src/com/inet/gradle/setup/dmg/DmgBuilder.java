@@ -20,7 +20,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.net.URL;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -28,10 +28,8 @@ import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import javax.imageio.ImageIO;
@@ -40,7 +38,6 @@ import org.gradle.api.internal.file.FileResolver;
 import org.w3c.dom.Element;
 
 import com.inet.gradle.appbundler.OSXCodeSign;
-import com.inet.gradle.appbundler.utils.xmlwise.Plist;
 import com.inet.gradle.setup.SetupBuilder;
 import com.inet.gradle.setup.Template;
 import com.inet.gradle.setup.abstracts.AbstractBuilder;
@@ -286,32 +283,25 @@ public class DmgBuilder extends AbstractBuilder<Dmg, SetupBuilder> {
     }
 
     /**
-     * Create a package from the specified app files
+     * Create a package from the specified app files. The flat package is written in-process, the native tools are only
+     * needed for signing.
      * @throws Throwable in case of errors
      */
     private File createPackageFromApp() throws Throwable {
 
         createServiceFiles();
-        extractApplicationInformation();
-        createAndPatchDistributionXML();
+        FlatPackage component = new FlatPackage( task, setup, buildDir, tempPath.get( "scripts" ).toFile(), tempPath.get( "packages" ).toFile(), task.getApplicationIdentifier( setup ), "/Applications/" + installationSubdirectory() );
+        component.build();
+        component.writeComponentPackage( new File( setup.getDestinationDir(), "/" + setup.getAppIdentifier() + ".pkgbuild.pkg" ) );
+
+        String componentName = setup.getApplication() + ".pkg";
+        File distribution = createDistributionXML( component, componentName );
 
         imageSourceRoot = tempPath.get( "distribution" ).toString();
         File resultingPackage = new File( imageSourceRoot, setup.getApplication() + ".pkg" );
-
-        // Build Product for packaging
-        ArrayList<String> command = new ArrayList<>();
-        command.add( "/usr/bin/productbuild" );
-        command.add( "--distribution" );
-        command.add( tempPath.getTempString( "distribution.xml" ) );
-        command.add( "--package-path" );
-        command.add( tempPath.get( "packages" ).toString() );
-        command.add( "--resources" );
-        command.add( tempPath.get( "resources" ).toString() );
+        component.writeProductPackage( resultingPackage, componentName, distribution, tempPath.get( "resources" ).toFile() );
 
         // Sign the final package
-        command.add( resultingPackage.getAbsolutePath() );
-        exec( command );
-
         if( task.getCodeSign() != null ) {
             task.getCodeSign().signProduct( resultingPackage );
         }
@@ -322,43 +312,6 @@ public class DmgBuilder extends AbstractBuilder<Dmg, SetupBuilder> {
         return packageFile;
     }
 
-    /**
-     * Extract the application information to use for the package builder
-     * @throws IOException in case of errors
-     */
-    private void extractApplicationInformation() throws IOException {
-        // Create application information plist
-        ArrayList<String> command = new ArrayList<>();
-        command.add( "/usr/bin/pkgbuild" );
-        command.add( "--analyze" );
-        command.add( "--root" );
-        command.add( buildDir.toString() );
-        command.add( tempPath.getTempString( setup.getAppIdentifier() + ".plist" ) );
-        exec( command );
-
-        // set identifier, create package
-        command = new ArrayList<>();
-        command.add( "/usr/bin/pkgbuild" );
-        command.add( "--root" );
-        command.add( buildDir.toString() );
-        command.add( "--component-plist" );
-        command.add( tempPath.getTempString( setup.getAppIdentifier() + ".plist" ) );
-        command.add( "--identifier" );
-        command.add( task.getApplicationIdentifier( setup ) );
-        command.add( "--version" );
-        command.add( task.getVersion() );
-        command.add( "--scripts" );
-        command.add( tempPath.get( "scripts" ).toString() );
-        command.add( "--install-location" );
-
-        // Application as default directory except there are more application parts to install.
-        command.add( "/Applications/" + installationSubdirectory() );
-        command.add( tempPath.getTempString( "packages", setup.getApplication() + ".pkg" ) );
-        exec( command );
-
-        Files.copy( tempPath.getTempFile( "packages", setup.getApplication() + ".pkg" ).toPath(), new File( setup.getDestinationDir(), "/" + setup.getAppIdentifier() + ".pkgbuild.pkg" ).toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING );
-    }
-
     /**
      * Returns a sub directory if needed because of the installation
      * @return sub directory or ""
@@ -368,45 +321,58 @@ public class DmgBuilder extends AbstractBuilder<Dmg, SetupBuilder> {
     }
 
     /**
-     * Create and patch the ditribution xml file that defines the package
+     * Create the distribution xml file that defines the product, like "productbuild --synthesize" and add the custom
+     * settings.
+     * @param component the component package
+     * @param componentName the name of the component package in the product archive
+     * @return the distribution file
      * @throws Throwable in case of error
      */
-    private void createAndPatchDistributionXML() throws Throwable {
-        File productFile = tempPath.getTempFile( "product.plist" );
-        Map<String, Object> map = new HashMap<>();
-        map.put( "arch", task.getArchitecture() );
-        Plist.store( map, productFile );
-
-        ArrayList<String> command;
-        // Synthesize Distribution xml
-        command = new ArrayList<>();
-        command.add( "/usr/bin/productbuild" );
-        command.add( "--synthesize" );
-        command.add( "--product" );
-        command.add( productFile.toString() );
-        command.add( "--package" );
-        command.add( tempPath.getTempFile( "packages", setup.getApplication() + ".pkg" ).toString() );
-        command.add( tempPath.getTempFile( "distribution.xml" ).toString() );
-        exec( command );
+    private File createDistributionXML( FlatPackage component, String componentName ) throws Throwable {
+        File xml = tempPath.getTempFile( "distribution.xml" );
+        XmlFileBuilder<Dmg> xmlFile = new XmlFileBuilder<>( task, setup, xml, buildDir, null );
+
+        String id = component.getIdentifier();
+        Element distribution = xmlFile.createChild( xmlFile.doc, "installer-gui-script", true );
+        distribution.setAttribute( "minSpecVersion", "2" );
+        xmlFile.createChild( distribution, "pkg-ref", true ).setAttribute( "id", id );
+
+        Element options = xmlFile.createChild( distribution, "options", true );
+        options.setAttribute( "customize", "never" );
+        options.setAttribute( "require-scripts", "false" );
+        List<String> architecture = task.getArchitecture();
+        if( architecture != null && !architecture.isEmpty() ) {
+            options.setAttribute( "hostArchitectures", String.join( ",", architecture ) );
+        }
 
-        patchDistributionXML();
+        Element outline = xmlFile.createChild( distribution, "choices-outline", true );
+        Element line = xmlFile.createChild( outline, "line", true );
+        line.setAttribute( "choice", "default" );
+        xmlFile.createChild( line, "line", true ).setAttribute( "choice", id );
+        xmlFile.createChild( distribution, "choice", true ).setAttribute( "id", "default" );
+        Element choice = xmlFile.createChild( distribution, "choice", true );
+        choice.setAttribute( "id", id );
+        choice.setAttribute( "visible", "false" );
+        xmlFile.createChild( choice, "pkg-ref", true ).setAttribute( "id", id );
+
+        Element pkgRef = xmlFile.createChild( distribution, "pkg-ref", true );
+        pkgRef.setAttribute( "id", id );
+        pkgRef.setAttribute( "version", task.getVersion() );
+        pkgRef.setAttribute( "installKBytes", Long.toString( component.getInstallKBytes() ) );
+        pkgRef.setAttribute( "onConclusion", "none" );
+        xmlFile.addNodeText( pkgRef, "#" + new URI( null, null, componentName, null ).toASCIIString() );
+
+        patchDistributionXML( distribution, xmlFile );
+        return xml;
     }
 
     /**
      * Patch the distribution file with custom settings
+     * @param distribution the root element
+     * @param xmlFile the current xml file builder
      * @throws Throwable in case of errors
      */
-    private void patchDistributionXML() throws Throwable {
-
-        File xml = tempPath.getTempFile( "distribution.xml" );
-        URL url = xml.toURI().toURL();
-        @SuppressWarnings( "rawtypes" )
-        XmlFileBuilder xmlFile = new XmlFileBuilder<Dmg>( task, setup, xml, buildDir, url );
-
-        Element distribution = (Element)xmlFile.doc.getFirstChild();
-        if( !"installer-gui-script".equals( distribution.getTagName() ) ) {
-            throw new IllegalArgumentException( "Template does not contain an installer-gui-script root: " + distribution.getTagName() );
-        }
+    private void patchDistributionXML( Element distribution, XmlFileBuilder<Dmg> xmlFile ) throws Throwable {
 
         // The title of the installer
         Element title = xmlFile.getOrCreateChild( distribution, "title" );
@@ -0,0 +1,573 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inet.gradle.setup.dmg;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.gradle.api.GradleException;
+import org.w3c.dom.Element;
+
+import com.inet.gradle.appbundler.utils.xmlwise.Plist;
+import com.inet.gradle.appbundler.utils.xmlwise.XmlParseException;
+import com.inet.gradle.setup.SetupBuilder;
+import com.inet.gradle.setup.util.XmlFileBuilder;
+
+/**
+ * Create a flat component package of the macOS installer without pkgbuild. The Payload and the Scripts are gzip
+ * compressed cpio archives in the odc format. The Bom and the PackageInfo are created from the same file list. The
+ * package can be written standalone or as part of a product archive with a Distribution file. Hard links are kept,
+ * but extended attributes and ACLs are not written. A code signature in extended attributes is therefore an error.
+ */
+class FlatPackage {
+
+    private static final int   TYPE_FILE = 1;
+
+    private static final int   TYPE_DIR  = 2;
+
+    private static final int   TYPE_LINK = 3;
+
+    private static final int[] CKSUM_TABLE = new int[256];
+
+    /** Extended attributes of the local system that are also not installed by pkgbuild. */
+    private static final Set<String> IGNORED_ATTRIBUTES = new HashSet<>( Arrays.asList( "com.apple.quarantine", "com.apple.provenance", "com.apple.macl", "com.apple.lastuseddate#PS" ) );
+
+    static {
+        for( int i = 0; i < 256; i++ ) {
+            int crc = i << 24;
+            for( int k = 0; k < 8; k++ ) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+            }
+            CKSUM_TABLE[i] = crc;
+        }
+    }
+
+    private final Dmg          task;
+
+    private final SetupBuilder setup;
+
+    private final File         root;
+
+    private final File         scripts;
+
+    private final File         workDir;
+
+    private final String       identifier;
+
+    private final String       installLocation;
+
+    private final List<PayloadEntry> entries = new ArrayList<>();
+
+    private long               installKBytes;
+
+    /**
+     * A file, directory or symbolic link of the Payload.
+     */
+    static class PayloadEntry {
+
+        final PayloadEntry parent;
+
+        final String       name;
+
+        final String       path;
+
+        final int          type;
+
+        final int          mode;
+
+        final long         size;
+
+        final long         mtime;
+
+        final String       linkTarget;
+
+        /** The identity of a regular file to detect hard links, can be null. */
+        final Object       fileKey;
+
+        int                id;
+
+        int                checksum;
+
+        private PayloadEntry( PayloadEntry parent, Path file ) throws IOException {
+            this.parent = parent;
+            this.name = parent == null ? "." : file.getFileName().toString();
+            this.path = parent == null ? "." : parent.path + '/' + name;
+            if( Files.isSymbolicLink( file ) ) {
+                type = TYPE_LINK;
+                linkTarget = Files.readSymbolicLink( file ).toString().replace( File.separatorChar, '/' );
+                size = linkTarget.getBytes( StandardCharsets.UTF_8 ).length;
+                mode = 0120755;
+                fileKey = null;
+            } else {
+                boolean dir = Files.isDirectory( file );
+                type = dir ? TYPE_DIR : TYPE_FILE;
+                linkTarget = null;
+                size = dir ? 0 : Files.size( file );
+                mode = (dir ? 040000 : 0100000) | getPermissions( file, dir );
+                fileKey = dir ? null : Files.readAttributes( file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS ).fileKey();
+            }
+            mtime = Files.getLastModifiedTime( file, LinkOption.NOFOLLOW_LINKS ).toMillis() / 1000;
+        }
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param task current task
+     * @param setup the SetupBuilder
+     * @param root the root directory of the Payload
+     * @param scripts the directory with the preinstall and postinstall scripts
+     * @param workDir the directory for the created Payload, Scripts, Bom and PackageInfo
+     * @param identifier the package identifier
+     * @param installLocation the install location of the Payload
+     */
+    FlatPackage( Dmg task, SetupBuilder setup, File root, File scripts, File workDir, String identifier, String installLocation ) {
+        this.task = task;
+        this.setup = setup;
+        this.root = root;
+        this.scripts = scripts;
+        this.workDir = workDir;
+        this.identifier = identifier;
+        this.installLocation = installLocation;
+    }
+
+    /**
+     * Create the Payload, the Scripts, the Bom and the PackageInfo.
+     *
+     * @throws Exception if any error occur
+     */
+    void build() throws Exception {
+        workDir.mkdirs();
+        scan( null, root.toPath() );
+        checkExtendedAttributes();
+        long bytes = 0;
+        Set<Object> counted = new HashSet<>();
+        for( PayloadEntry entry : entries ) {
+            if( entry.type == TYPE_FILE && (entry.fileKey == null || counted.add( entry.fileKey )) ) {
+                bytes += entry.size;
+            }
+        }
+        installKBytes = (bytes + 1023) / 1024;
+
+        writeCpio( root.toPath(), entries, getFile( "Payload" ) );
+        BomWriter.write( entries, getFile( "Bom" ) );
+
+        List<PayloadEntry> scriptEntries = new ArrayList<>();
+        PayloadEntry scriptRoot = new PayloadEntry( null, scripts.toPath() );
+        scriptEntries.add( scriptRoot );
+        try( Stream<Path> stream = Files.list( scripts.toPath() ) ) {
+            for( Path file : stream.sorted().collect( Collectors.toList() ) ) {
+                scriptEntries.add( new PayloadEntry( scriptRoot, file ) );
+            }
+        }
+        writeCpio( scripts.toPath(), scriptEntries, getFile( "Scripts" ) );
+
+        writePackageInfo();
+    }
+
+    /**
+     * Returns the package identifier.
+     *
+     * @return the identifier
+     */
+    String getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * Returns the installed size of the Payload.
+     *
+     * @return the size in kilobytes
+     */
+    long getInstallKBytes() {
+        return installKBytes;
+    }
+
+    /**
+     * Write the component package as standalone flat package.
+     *
+     * @param target the pkg file
+     * @throws IOException if any error occur
+     */
+    void writeComponentPackage( File target ) throws IOException {
+        XarWriter xar = new XarWriter();
+        addComponent( xar, "" );
+        xar.write( target );
+    }
+
+    /**
+     * Write a product archive with this component package.
+     *
+     * @param target the pkg file
+     * @param componentName the name of the component package in the product archive
+     * @param distribution the Distribution file
+     * @param resources the directory with the resources like the license or background images, can be null
+     * @throws IOException if any error occur
+     */
+    void writeProductPackage( File target, String componentName, File distribution, File resources ) throws IOException {
+        XarWriter xar = new XarWriter();
+        xar.addFile( "Distribution", distribution );
+        addComponent( xar, componentName + '/' );
+        if( resources != null && resources.isDirectory() ) {
+            xar.addDirectory( "Resources", resources );
+        }
+        xar.write( target );
+    }
+
+    /**
+     * Add the files of the component package to a xar archive.
+     *
+     * @param xar the archive
+     * @param prefix the directory in the archive
+     */
+    private void addComponent( XarWriter xar, String prefix ) {
+        for( String name : new String[] { "Bom", "PackageInfo", "Payload", "Scripts" } ) {
+            xar.addFile( prefix + name, getFile( name ) );
+        }
+    }
+
+    /**
+     * Get a file of the work directory.
+     *
+     * @param name the file name
+     * @return the file
+     */
+    private File getFile( String name ) {
+        return new File( workDir, name );
+    }
+
+    /**
+     * Add a file and its children sorted by name. The ids are the position in the Payload starting with 1.
+     *
+     * @param parent the parent entry or null for the root
+     * @param file the file
+     * @throws IOException if any error occur
+     */
+    private void scan( PayloadEntry parent, Path file ) throws IOException {
+        PayloadEntry entry = new PayloadEntry( parent, file );
+        entries.add( entry );
+        entry.id = entries.size();
+        if( entry.type == TYPE_DIR ) {
+            List<Path> children;
+            try( Stream<Path> stream = Files.list( file ) ) {
+                children = stream.sorted().collect( Collectors.toList() );
+            }
+            for( Path child : children ) {
+                scan( entry, child );
+            }
+        }
+    }
+
+    /**
+     * Check that the extended attributes of the Payload are not needed because they are not written to the cpio
+     * archive. A code signature of a file without a binary format is saved in extended attributes, without it the
+     * signature of the bundle is broken. Other attributes like resource forks are lost with a warning.
+     *
+     * @throws IOException if any error occur
+     */
+    private void checkExtendedAttributes() throws IOException {
+        List<String> signed = new ArrayList<>();
+        List<String> lost = new ArrayList<>();
+        for( PayloadEntry entry : entries ) {
+            if( entry.type == TYPE_LINK ) {
+                continue;
+            }
+            UserDefinedFileAttributeView view = Files.getFileAttributeView( new File( root, entry.path ).toPath(), UserDefinedFileAttributeView.class );
+            if( view == null ) {
+                return; // not supported by the file system
+            }
+            List<String> names;
+            try {
+                names = view.list();
+            } catch( UnsupportedOperationException ex ) {
+                return;
+            }
+            for( String name : names ) {
+                if( name.startsWith( "com.apple.cs." ) ) {
+                    signed.add( entry.path );
+                    break;
+                }
+                if( !IGNORED_ATTRIBUTES.contains( name ) ) {
+                    lost.add( entry.path + " (" + name + ')' );
+                }
+            }
+        }
+        if( !signed.isEmpty() ) {
+            throw new GradleException( "The code signature of the following files is saved in extended attributes which are not supported in the Payload: " + signed );
+        }
+        if( !lost.isEmpty() ) {
+            task.getProject().getLogger().warn( "The extended attributes of the following files are not added to the Payload: " + lost );
+        }
+    }
+
+    /**
+     * Write a gzip compressed cpio archive in the odc format and calculate the checksums of the files. Hard links
+     * have the same inode number and every link contains the content like required by the odc format.
+     *
+     * @param base the directory of the root entry
+     * @param list the entries
+     * @param target the target file
+     * @throws IOException if any error occur
+     */
+    private static void writeCpio( Path base, List<PayloadEntry> list, File target ) throws IOException {
+        byte[] buffer = new byte[65536];
+        Map<Object, Integer> links = new HashMap<>();
+        for( PayloadEntry entry : list ) {
+            if( entry.fileKey != null ) {
+                links.merge( entry.fileKey, 1, Integer::sum );
+            }
+        }
+        Map<Object, Integer> inodes = new HashMap<>();
+        try( OutputStream out = new GZIPOutputStream( new BufferedOutputStream( new FileOutputStream( target ) ), 65536 ) ) {
+            int ino = 0;
+            for( PayloadEntry entry : list ) {
+                int nlink = entry.type == TYPE_DIR ? 2 : 1;
+                int entryIno;
+                if( entry.fileKey != null && (nlink = links.get( entry.fileKey )) > 1 ) {
+                    Integer linked = inodes.putIfAbsent( entry.fileKey, ino + 1 );
+                    entryIno = linked != null ? linked : ++ino;
+                } else {
+                    entryIno = ++ino;
+                }
+                writeCpioHeader( out, entry.path, entry.mode, entryIno, nlink, entry.mtime, entry.size );
+                int crc = 0;
+                if( entry.type == TYPE_LINK ) {
+                    byte[] link = entry.linkTarget.getBytes( StandardCharsets.UTF_8 );
+                    out.write( link );
+                    crc = cksum( crc, link, link.length );
+                } else if( entry.type == TYPE_FILE ) {
+                    Path file = base.resolve( entry.path.substring( 2 ) );
+                    long remaining = entry.size;
+                    try( InputStream input = Files.newInputStream( file ) ) {
+                        int count;
+                        while( remaining > 0 && (count = input.read( buffer, 0, (int)Math.min( buffer.length, remaining ) )) > 0 ) {
+                            out.write( buffer, 0, count );
+                            crc = cksum( crc, buffer, count );
+                            remaining -= count;
+                        }
+                    }
+                    if( remaining != 0 ) {
+                        throw new IOException( "File was changed while packaging: " + file );
+                    }
+                }
+                if( entry.type != TYPE_DIR ) {
+                    for( long length = entry.size; length != 0; length >>>= 8 ) {
+                        crc = (crc << 8) ^ CKSUM_TABLE[((crc >>> 24) ^ (int)length) & 0xFF];
+                    }
+                    entry.checksum = ~crc;
+                }
+            }
+            writeCpioHeader( out, "TRAILER!!!", 0, 0, 1, 0, 0 );
+        }
+    }
+
+    /**
+     * Write the header and the name of a cpio entry in the odc format.
+     *
+     * @param out the target
+     * @param name the file name
+     * @param mode the file type and permissions
+     * @param ino the inode number
+     * @param nlink the link count
+     * @param mtime the modification time in seconds
+     * @param size the size of the content
+     * @throws IOException if any error occur
+     */
+    private static void writeCpioHeader( OutputStream out, String name, int mode, int ino, int nlink, long mtime, long size ) throws IOException {
+        byte[] nameBytes = name.getBytes( StandardCharsets.UTF_8 );
+        StringBuilder header = new StringBuilder( "070707" );
+        appendOctal( header, 0, 6 ); // dev
+        appendOctal( header, ino, 6 );
+        appendOctal( header, mode, 6 );
+        appendOctal( header, 0, 6 ); // uid root
+        appendOctal( header, 0, 6 ); // gid wheel
+        appendOctal( header, nlink, 6 );
+        appendOctal( header, 0, 6 ); // rdev
+        appendOctal( header, mtime, 11 );
+        appendOctal( header, nameBytes.length + 1, 6 );
+        appendOctal( header, size, 11 );
+        out.write( header.toString().getBytes( StandardCharsets.US_ASCII ) );
+        out.write( nameBytes );
+        out.write( 0 );
+    }
+
+    /**
+     * Append a number as octal with a fixed length.
+     *
+     * @param builder the target
+     * @param value the value
+     * @param length the count of digits
+     */
+    private static void appendOctal( StringBuilder builder, long value, int length ) {
+        String octal = Long.toOctalString( value );
+        if( octal.length() > length ) {
+            throw new IllegalArgumentException( "Value too large for cpio: " + value );
+        }
+        for( int i = octal.length(); i < length; i++ ) {
+            builder.append( '0' );
+        }
+        builder.append( octal );
+    }
+
+    /**
+     * Update the checksum of the POSIX cksum command which is used in the Bom.
+     *
+     * @param crc the current checksum
+     * @param data the data
+     * @param length the length of the data
+     * @return the new checksum
+     */
+    private static int cksum( int crc, byte[] data, int length ) {
+        for( int i = 0; i < length; i++ ) {
+            crc = (crc << 8) ^ CKSUM_TABLE[((crc >>> 24) ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    /**
+     * Get the unix permissions of a file.
+     *
+     * @param file the file
+     * @param dir true, if it is a directory
+     * @return the permissions
+     * @throws IOException if any error occur
+     */
+    private static int getPermissions( Path file, boolean dir ) throws IOException {
+        Set<PosixFilePermission> permissions;
+        try {
+            permissions = Files.getPosixFilePermissions( file, LinkOption.NOFOLLOW_LINKS );
+        } catch( UnsupportedOperationException ex ) {
+            return dir || Files.isExecutable( file ) ? 0755 : 0644;
+        }
+        int mode = 0;
+        for( PosixFilePermission permission : permissions ) {
+            mode |= 0400 >> permission.ordinal();
+        }
+        return mode;
+    }
+
+    /**
+     * Write the PackageInfo with the bundles of the Payload like pkgbuild with the defaults of --analyze. Every
+     * directory with a bundle Info.plist is a bundle, for example applications, preference panes, plugins, helper
+     * applications and frameworks. Nested bundles are written as children of their parent bundle with a path relative
+     * to it. The top level bundles are relocatable.
+     *
+     * @throws Exception if any error occur
+     */
+    private void writePackageInfo() throws Exception {
+        XmlFileBuilder<Dmg> xmlFile = new XmlFileBuilder<>( task, setup, getFile( "PackageInfo" ), workDir, null );
+        Element pkgInfo = xmlFile.createChild( xmlFile.doc, "pkg-info", true );
+        pkgInfo.setAttribute( "format-version", "2" );
+        pkgInfo.setAttribute( "identifier", identifier );
+        pkgInfo.setAttribute( "version", task.getVersion() );
+        pkgInfo.setAttribute( "install-location", installLocation );
+        pkgInfo.setAttribute( "auth", "root" );
+        pkgInfo.setAttribute( "overwrite-permissions", "true" );
+        pkgInfo.setAttribute( "relocatable", "false" );
+        pkgInfo.setAttribute( "postinstall-action", "none" );
+
+        Element payload = xmlFile.createChild( pkgInfo, "payload", true );
+        payload.setAttribute( "numberOfFiles", Integer.toString( entries.size() ) );
+        payload.setAttribute( "installKBytes", Long.toString( installKBytes ) );
+
+        List<String> bundleIds = new ArrayList<>();
+        List<String> topLevelIds = new ArrayList<>();
+        Map<PayloadEntry, Element> bundles = new HashMap<>();
+        for( PayloadEntry entry : entries ) {
+            if( entry.parent == null || entry.type != TYPE_DIR ) {
+                continue;
+            }
+            File dir = new File( root, entry.path );
+            File infoPlist = new File( dir, entry.name.endsWith( ".framework" ) ? "Resources/Info.plist" : "Contents/Info.plist" );
+            if( !infoPlist.isFile() ) {
+                continue;
+            }
+            Map<String, Object> info;
+            try {
+                info = Plist.load( infoPlist );
+            } catch( IOException | XmlParseException ex ) {
+                task.getProject().getLogger().warn( "The Info.plist of the bundle " + entry.path + " can not be read: " + ex );
+                continue;
+            }
+            Object id = info.get( "CFBundleIdentifier" );
+            if( id == null ) {
+                continue;
+            }
+            // the entries are in depth first order, the parent bundle is already registered
+            PayloadEntry parentBundle = entry.parent;
+            while( parentBundle != null && !bundles.containsKey( parentBundle ) ) {
+                parentBundle = parentBundle.parent;
+            }
+            Element bundle;
+            if( parentBundle == null ) {
+                bundle = xmlFile.createChild( pkgInfo, "bundle", true );
+                bundle.setAttribute( "path", entry.path );
+                topLevelIds.add( id.toString() );
+            } else {
+                bundle = xmlFile.createChild( bundles.get( parentBundle ), "bundle", true );
+                bundle.setAttribute( "path", "." + entry.path.substring( parentBundle.path.length() ) );
+            }
+            bundle.setAttribute( "id", id.toString() );
+            for( String key : new String[] { "CFBundleShortVersionString", "CFBundleVersion" } ) {
+                Object value = info.get( key );
+                if( value != null ) {
+                    bundle.setAttribute( key, value.toString() );
+                }
+            }
+            bundles.put( entry, bundle );
+            bundleIds.add( id.toString() );
+        }
+        for( String name : new String[] { "bundle-version", "upgrade-bundle", "update-bundle", "atomic-update-bundle", "strict-identifier", "relocate" } ) {
+            Element element = xmlFile.createChild( pkgInfo, name, true );
+            if( name.equals( "update-bundle" ) || name.equals( "atomic-update-bundle" ) ) {
+                continue;
+            }
+            for( String id : name.equals( "relocate" ) ? topLevelIds : bundleIds ) {
+                xmlFile.createChild( element, "bundle", true ).setAttribute( "id", id );
+            }
+        }
+
+        Element scriptsElement = xmlFile.createChild( pkgInfo, "scripts", true );
+        for( String name : new String[] { "preinstall", "postinstall" } ) {
+            if( new File( scripts, name ).isFile() ) {
+                xmlFile.createChild( scriptsElement, name, true ).setAttribute( "file", "./" + name );
+            }
+        }
+        xmlFile.save();
+    }
+}
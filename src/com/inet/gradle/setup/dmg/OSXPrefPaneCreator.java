@@ -18,6 +18,7 @@ import org.gradle.api.tasks.GradleBuild;
 
 import com.inet.gradle.setup.SetupBuilder;
 import com.inet.gradle.setup.abstracts.Service;
+import com.inet.gradle.setup.abstracts.ServiceProfile;
 import com.inet.gradle.setup.util.ReplacingInputStream;
 import com.inet.gradle.setup.util.ResourceUtils;
 
@@ -106,57 +107,74 @@ public class OSXPrefPaneCreator extends AbstractOSXApplicationBuilder<Dmg, Setup
         Files.copy( iconPath, new File( prefPaneLocation, "Contents/Resources/ProductIcon.icns" ).toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING );
 
         // Patch Info.plist
-        File prefPanePLIST = new File( prefPaneLocation, "Contents/Info.plist" );
+        PlistEditor prefPanePLIST = new PlistEditor( new File( prefPaneLocation, "Contents/Info.plist" ) );
         String prefPaneIdentifier = task.getApplicationIdentifier( getSetupBuilder() );
-        setPlistProperty( prefPanePLIST, ":CFBundleIdentifier", prefPaneIdentifier + ".prefPane" );
-        setPlistProperty( prefPanePLIST, ":CFBundleName", displayName + " Preference Pane" );
-        setPlistProperty( prefPanePLIST, ":CFBundleExecutable", internalName );
-        setPlistProperty( prefPanePLIST, ":NSPrefPaneIconLabel", displayName );
-        addPlistProperty( prefPanePLIST, ":NSPrefPaneHelperApplication", "String", displayName + " Helper" ); // Will be used for the sudo app name
-        addPlistProperty( prefPanePLIST, ":NSAppleEventsUsageDescription", "String", "Helper application to provide priviledged access to " + displayName );
+        prefPanePLIST.set( ":CFBundleIdentifier", prefPaneIdentifier + ".prefPane" );
+        prefPanePLIST.set( ":CFBundleName", displayName + " Preference Pane" );
+        prefPanePLIST.set( ":CFBundleExecutable", internalName );
+        prefPanePLIST.set( ":NSPrefPaneIconLabel", displayName );
+        prefPanePLIST.add( ":NSPrefPaneHelperApplication", "String", displayName + " Helper" ); // Will be used for the sudo app name
+        prefPanePLIST.add( ":NSAppleEventsUsageDescription", "String", "Helper application to provide priviledged access to " + displayName );
+        prefPanePLIST.save();
 
         /*
-        File sudoPLIST = new File( prefPaneHelper, "Contents/Info.plist" );
-        setPlistProperty( sudoPLIST, ":CFBundleIdentifier", prefPaneIdentifier + ".prefPane.helper" );
-        setPlistProperty( sudoPLIST, ":CFBundleName", displayName + " Helper" );
-        setPlistProperty( sudoPLIST, ":CFBundleExecutable", "applet" );
-        addPlistProperty( sudoPLIST, ":NSAppleEventsUsageDescription", "String", "Helper application to provide priviledged access to " + displayName );
+        PlistEditor sudoPLIST = new PlistEditor( new File( prefPaneHelper, "Contents/Info.plist" ) );
+        sudoPLIST.set( ":CFBundleIdentifier", prefPaneIdentifier + ".prefPane.helper" );
+        sudoPLIST.set( ":CFBundleName", displayName + " Helper" );
+        sudoPLIST.set( ":CFBundleExecutable", "applet" );
+        sudoPLIST.add( ":NSAppleEventsUsageDescription", "String", "Helper application to provide priviledged access to " + displayName );
+        sudoPLIST.save();
         //*/
 
-        File servicePLIST = new File( prefPaneLocation, "Contents/Resources/service.plist" );
-        setPlistProperty( servicePLIST, ":Name", displayName );
-        setPlistProperty( servicePLIST, ":Label", service.getId() );
+        PlistEditor servicePLIST = new PlistEditor( new File( prefPaneLocation, "Contents/Resources/service.plist" ) );
+        servicePLIST.set( ":Name", displayName );
+        servicePLIST.set( ":Label", service.getId() );
 
         // Program will be set during installation.
-        setPlistProperty( servicePLIST, ":Description", service.getDescription() );
-        setPlistProperty( servicePLIST, ":Version", task.getVersion() );
-        setPlistProperty( servicePLIST, ":KeepAlive", String.valueOf( service.isKeepAlive() ) );
-        setPlistProperty( servicePLIST, ":RunAtBoot", String.valueOf( service.isStartOnBoot() ) );
-        setPlistProperty( servicePLIST, ":RunAtLoad", "true" );
+        servicePLIST.set( ":Description", service.getDescription() );
+        servicePLIST.set( ":Version", task.getVersion() );
+        servicePLIST.set( ":KeepAlive", String.valueOf( service.isKeepAlive() ) );
+        servicePLIST.set( ":RunAtBoot", String.valueOf( service.isStartOnBoot() ) );
+        servicePLIST.set( ":RunAtLoad", "true" );
 
         if( task.getDaemonUser() != "root" ) {
             // Root by default, will only set if not.
-            addPlistProperty( servicePLIST, ":UserName", "String", task.getDaemonUser() );
-            addPlistProperty( servicePLIST, ":GroupName", "String", task.getDaemonUser() );
+            servicePLIST.add( ":UserName", "String", task.getDaemonUser() );
+            servicePLIST.add( ":GroupName", "String", task.getDaemonUser() );
+        }
+
+        ServiceProfile profile = service.getProfile();
+        if( profile != null && (profile.getOpenFiles() != null || profile.getMaxProcesses() != null) ) {
+            servicePLIST.add( ":SoftResourceLimits", "dict", null );
+            servicePLIST.add( ":HardResourceLimits", "dict", null );
+            if( profile.getOpenFiles() != null ) {
+                servicePLIST.add( ":SoftResourceLimits:NumberOfFiles", "integer", String.valueOf( profile.getOpenFiles() ) );
+                servicePLIST.add( ":HardResourceLimits:NumberOfFiles", "integer", String.valueOf( profile.getOpenFiles() ) );
+            }
+            if( profile.getMaxProcesses() != null ) {
+                servicePLIST.add( ":SoftResourceLimits:NumberOfProcesses", "integer", String.valueOf( profile.getMaxProcesses() ) );
+                servicePLIST.add( ":HardResourceLimits:NumberOfProcesses", "integer", String.valueOf( profile.getMaxProcesses() ) );
+            }
         }
 
         // Reset the plist.
-        deletePlistProperty( servicePLIST, ":starter" );
+        servicePLIST.delete( ":starter" );
 
         // Output the preference link actions to the plist
         for( int i = 0; i < task.getPreferencesLinks().size(); i++ ) {
 
             if( i == 0 ) {
-                addPlistProperty( servicePLIST, ":starter", "array", null );
+                servicePLIST.add( ":starter", "array", null );
             }
 
             PreferencesLink preferencesLink = task.getPreferencesLinks().get( i );
-            addPlistProperty( servicePLIST, ":starter:", "dict", null );
-            addPlistProperty( servicePLIST, ":starter:" + i + ":title", "string", preferencesLink.getTitle() );
-            addPlistProperty( servicePLIST, ":starter:" + i + ":action", "string", preferencesLink.getAction() );
-            addPlistProperty( servicePLIST, ":starter:" + i + ":asuser", "string", task.getDaemonUser() );
-            addPlistProperty( servicePLIST, ":starter:" + i + ":asroot", "bool", preferencesLink.isRunAsRoot() ? "YES" : "NO" );
+            servicePLIST.add( ":starter:", "dict", null );
+            servicePLIST.add( ":starter:" + i + ":title", "string", preferencesLink.getTitle() );
+            servicePLIST.add( ":starter:" + i + ":action", "string", preferencesLink.getAction() );
+            servicePLIST.add( ":starter:" + i + ":asuser", "string", task.getDaemonUser() );
+            servicePLIST.add( ":starter:" + i + ":asroot", "bool", preferencesLink.isRunAsRoot() ? "YES" : "NO" );
         }
+        servicePLIST.save();
 
         ResourceUtils.deleteDirectory( prefPaneSource.toPath() );
 
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inet.gradle.setup.dmg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.gradle.api.GradleException;
+
+import com.inet.gradle.appbundler.utils.xmlwise.Plist;
+import com.inet.gradle.appbundler.utils.xmlwise.XmlParseException;
+
+/**
+ * Edit a plist file in-process with the commands of /usr/libexec/PlistBuddy. The file is loaded once, all Set, Add and
+ * Delete commands are applied to the model of {@link Plist} and the file is written once with {@link #save()}. A binary
+ * plist is written back as binary plist.
+ * <p>
+ * The entries are addressed with key paths like PlistBuddy: <code>:CFBundleDocumentTypes:0:CFBundleTypeName</code>.
+ * A key path that ends with a colon appends to an array on Add. A colon in a key can be escaped with a backslash.
+ */
+public class PlistEditor {
+
+    private final File file;
+
+    private final Object root;
+
+    private final boolean binary;
+
+    /**
+     * Load a plist file.
+     *
+     * @param file the plist file
+     * @throws IOException if the file could not be read or is not a valid plist
+     */
+    public PlistEditor( File file ) throws IOException {
+        this.file = file;
+        try {
+            binary = Plist.isBinary( file );
+            root = Plist.loadObject( file );
+        } catch( XmlParseException ex ) {
+            throw new IOException( "Invalid plist file: " + file, ex );
+        }
+    }
+
+    /**
+     * Set the value of an existing entry like the "Set" command of PlistBuddy. The value is converted to the type of the
+     * current value.
+     *
+     * @param keyPath the key path of the entry
+     * @param value the new value
+     */
+    public void set( String keyPath, String value ) {
+        List<String> keys = parseKeyPath( keyPath );
+        Object parent = getParent( keyPath, keys );
+        String key = keys.get( keys.size() - 1 );
+        Object current = getChild( parent, key );
+        if( current == null ) {
+            throw new GradleException( "Set: Entry, \"" + keyPath + "\", Does Not Exist" );
+        }
+        if( current instanceof Map || current instanceof List ) {
+            throw new GradleException( "Set: Cannot Perform Set On Containers: " + keyPath );
+        }
+        String type;
+        if( current instanceof Boolean ) {
+            type = "bool";
+        } else if( current instanceof Double || current instanceof Float ) {
+            type = "real";
+        } else if( current instanceof Number ) {
+            type = "integer";
+        } else if( current instanceof Date ) {
+            type = "date";
+        } else if( current instanceof byte[] ) {
+            type = "data";
+        } else {
+            type = "string";
+        }
+        putChild( parent, key, createValue( keyPath, type, value ), true );
+    }
+
+    /**
+     * Add a new entry like the "Add" command of PlistBuddy.
+     *
+     * @param keyPath the key path of the new entry
+     * @param type the type: string, array, dict, bool, real, integer, date or data
+     * @param value the value, ignored for array and dict
+     */
+    public void add( String keyPath, String type, String value ) {
+        List<String> keys = parseKeyPath( keyPath );
+        Object parent = getParent( keyPath, keys );
+        String key = keys.get( keys.size() - 1 );
+        if( parent instanceof Map && ((Map<?, ?>)parent).containsKey( key ) ) {
+            throw new GradleException( "Add: \"" + keyPath + "\" Entry Already Exists" );
+        }
+        putChild( parent, key, createValue( keyPath, type, value ), false );
+    }
+
+    /**
+     * Delete an entry like the "Delete" command of PlistBuddy. A missing entry is ignored.
+     *
+     * @param keyPath the key path of the entry
+     * @return true, if the entry was removed
+     */
+    public boolean delete( String keyPath ) {
+        List<String> keys = parseKeyPath( keyPath );
+        Object parent = getParent( null, keys );
+        String key = keys.get( keys.size() - 1 );
+        if( parent instanceof Map ) {
+            return ((Map<?, ?>)parent).remove( key ) != null;
+        }
+        if( parent instanceof List ) {
+            List<?> list = (List<?>)parent;
+            int idx = toIndex( key );
+            if( idx >= 0 && idx < list.size() ) {
+                list.remove( idx );
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write the changed plist back to the file in its original format.
+     *
+     * @throws IOException if the file could not be written
+     */
+    public void save() throws IOException {
+        if( binary ) {
+            Plist.storeBinary( root, file );
+        } else {
+            Plist.storeObject( root, file );
+        }
+    }
+
+    /**
+     * Split a key path into the single keys.
+     *
+     * @param keyPath the key path
+     * @return the keys, the last key is empty if the path ends with a colon
+     */
+    private static List<String> parseKeyPath( String keyPath ) {
+        List<String> keys = new ArrayList<>();
+        StringBuilder key = new StringBuilder();
+        int start = keyPath.startsWith( ":" ) ? 1 : 0;
+        for( int i = start; i < keyPath.length(); i++ ) {
+            char ch = keyPath.charAt( i );
+            if( ch == '\\' && i + 1 < keyPath.length() ) {
+                key.append( keyPath.charAt( ++i ) );
+            } else if( ch == ':' ) {
+                keys.add( key.toString() );
+                key.setLength( 0 );
+            } else {
+                key.append( ch );
+            }
+        }
+        keys.add( key.toString() );
+        return keys;
+    }
+
+    /**
+     * Get the container of the last key.
+     *
+     * @param keyPath the key path for the error message or null, if a missing entry should not throw an exception
+     * @param keys the parsed key path
+     * @return the container or null
+     */
+    private Object getParent( String keyPath, List<String> keys ) {
+        Object parent = root;
+        for( int i = 0; i < keys.size() - 1 && parent != null; i++ ) {
+            parent = getChild( parent, keys.get( i ) );
+        }
+        if( keyPath != null && !(parent instanceof Map || parent instanceof List) ) {
+            throw new GradleException( "Entry, \"" + keyPath + "\", Does Not Exist" );
+        }
+        return parent;
+    }
+
+    /**
+     * Get a value of a container.
+     *
+     * @param container the dict or array
+     * @param key the key or the index
+     * @return the value or null
+     */
+    private static Object getChild( Object container, String key ) {
+        if( container instanceof Map ) {
+            return ((Map<?, ?>)container).get( key );
+        }
+        if( container instanceof List ) {
+            List<?> list = (List<?>)container;
+            int idx = toIndex( key );
+            return idx >= 0 && idx < list.size() ? list.get( idx ) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Put a value into a container.
+     *
+     * @param container the dict or array
+     * @param key the key or the index, an empty index appends to the array
+     * @param value the value
+     * @param replace true, replace the value of the array; false, insert the value into the array
+     */
+    @SuppressWarnings( "unchecked" )
+    private static void putChild( Object container, String key, Object value, boolean replace ) {
+        if( container instanceof Map ) {
+            ((Map<String, Object>)container).put( key, value );
+            return;
+        }
+        List<Object> list = (List<Object>)container;
+        int idx = key.isEmpty() ? list.size() : toIndex( key );
+        if( idx < 0 || idx > list.size() || (replace && idx == list.size()) ) {
+            throw new GradleException( "Invalid array index: " + key );
+        }
+        if( replace ) {
+            list.set( idx, value );
+        } else {
+            list.add( idx, value );
+        }
+    }
+
+    /**
+     * Parse an array index.
+     *
+     * @param key the key
+     * @return the index or -1 if it is not a number
+     */
+    private static int toIndex( String key ) {
+        try {
+            return Integer.parseInt( key );
+        } catch( NumberFormatException ex ) {
+            return -1;
+        }
+    }
+
+    /**
+     * Create a value of the plist model from the string of a PlistBuddy command.
+     *
+     * @param keyPath the key path for the error message
+     * @param type the PlistBuddy type
+     * @param value the value as string
+     * @return the value
+     */
+    private static Object createValue( String keyPath, String type, String value ) {
+        switch( type.toLowerCase() ) {
+            case "string":
+                return value == null ? "" : value;
+            case "dict":
+                return new LinkedHashMap<String, Object>();
+            case "array":
+                return new ArrayList<Object>();
+            case "bool":
+                return Boolean.valueOf( "true".equalsIgnoreCase( value ) || "yes".equalsIgnoreCase( value ) || "1".equals( value ) );
+            case "integer":
+                long l = Long.parseLong( value.trim() );
+                return l == (int)l ? (Object)Integer.valueOf( (int)l ) : (Object)Long.valueOf( l );
+            case "real":
+                return Double.valueOf( value.trim() );
+            case "date":
+                SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss'Z'" );
+                format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+                try {
+                    return format.parse( value.trim() );
+                } catch( ParseException ex ) {
+                    throw new GradleException( "Invalid date for " + keyPath + ": " + value, ex );
+                }
+            case "data":
+                return value == null ? new byte[0] : value.getBytes( StandardCharsets.UTF_8 );
+            default:
+                throw new GradleException( "Unknown type '" + type + "' for " + keyPath );
+        }
+    }
+}
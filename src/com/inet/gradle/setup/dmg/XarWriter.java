@@ -0,0 +1,342 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inet.gradle.setup.dmg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.inet.gradle.setup.util.Digests;
+
+/**
+ * Writer for xar archives like the flat packages of the macOS installer. The table of content is zlib compressed and
+ * protected with a SHA-1 checksum. The files are stored uncompressed, because the Payload of a package is already
+ * compressed. The owner of all files is root:wheel.
+ */
+class XarWriter {
+
+    private static final int   HEADER_SIZE   = 28;
+
+    private static final int   CHECKSUM_SIZE = 20;
+
+    private final Entry        root          = new Entry( null, true );
+
+    /**
+     * A file or directory in the archive.
+     */
+    private static class Entry {
+
+        private final String             name;
+
+        private final boolean            directory;
+
+        private final Map<String, Entry> children = new TreeMap<>();
+
+        private File                     file;
+
+        private byte[]                   data;
+
+        private int                      mode;
+
+        private long                     offset;
+
+        private long                     size;
+
+        private String                   checksum;
+
+        private Entry( String name, boolean directory ) {
+            this.name = name;
+            this.directory = directory;
+            this.mode = directory ? 0755 : 0644;
+        }
+
+        /**
+         * Open the content of the file.
+         *
+         * @return the stream
+         * @throws IOException if any error occur
+         */
+        private InputStream open() throws IOException {
+            return data != null ? new ByteArrayInputStream( data ) : Files.newInputStream( file.toPath() );
+        }
+    }
+
+    /**
+     * Add a file from the file system.
+     *
+     * @param path the path in the archive with '/' as separator
+     * @param file the source file
+     */
+    void addFile( String path, File file ) {
+        getEntry( path ).file = file;
+    }
+
+    /**
+     * Add a file from memory.
+     *
+     * @param path the path in the archive with '/' as separator
+     * @param data the content
+     */
+    void addFile( String path, byte[] data ) {
+        getEntry( path ).data = data;
+    }
+
+    /**
+     * Add all files of a directory recursively.
+     *
+     * @param path the path of the directory in the archive with '/' as separator
+     * @param dir the source directory
+     */
+    void addDirectory( String path, File dir ) {
+        File[] files = dir.listFiles();
+        if( files == null ) {
+            return;
+        }
+        for( File file : files ) {
+            String child = path + '/' + file.getName();
+            if( file.isDirectory() ) {
+                addDirectory( child, file );
+            } else {
+                addFile( child, file );
+            }
+        }
+    }
+
+    /**
+     * Get or create the file entry and its parent directories.
+     *
+     * @param path the path in the archive
+     * @return the entry
+     */
+    private Entry getEntry( String path ) {
+        Entry parent = root;
+        String[] names = path.split( "/" );
+        for( int i = 0; i < names.length - 1; i++ ) {
+            Entry dir = parent.children.computeIfAbsent( names[i], name -> new Entry( name, true ) );
+            if( !dir.directory ) {
+                throw new IllegalArgumentException( "Not a directory in the archive: " + path );
+            }
+            parent = dir;
+        }
+        Entry entry = new Entry( names[names.length - 1], false );
+        parent.children.put( entry.name, entry );
+        return entry;
+    }
+
+    /**
+     * Write the archive.
+     *
+     * @param target the target file
+     * @throws IOException if any error occur
+     */
+    void write( File target ) throws IOException {
+        List<Entry> files = new ArrayList<>();
+        collectFiles( root, files );
+
+        // the heap starts with the checksum of the table of content
+        long offset = CHECKSUM_SIZE;
+        try {
+            files.parallelStream().forEach( entry -> {
+                try {
+                    hash( entry );
+                } catch( IOException ex ) {
+                    throw new UncheckedIOException( ex );
+                }
+            } );
+        } catch( UncheckedIOException ex ) {
+            throw ex.getCause();
+        }
+        for( Entry entry : files ) {
+            entry.offset = offset;
+            offset += entry.size;
+        }
+
+        byte[] toc = createToc();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try( DeflaterOutputStream zip = new DeflaterOutputStream( compressed ) ) {
+            zip.write( toc );
+        }
+        byte[] tocData = compressed.toByteArray();
+
+        try( DataOutputStream out = new DataOutputStream( new FileOutputStream( target ) ) ) {
+            out.writeInt( 0x78617221 ); // "xar!"
+            out.writeShort( HEADER_SIZE );
+            out.writeShort( 1 ); // version
+            out.writeLong( tocData.length );
+            out.writeLong( toc.length );
+            out.writeInt( 1 ); // SHA-1
+            out.write( tocData );
+            out.write( Digests.digest( Digests.SHA1, tocData ) );
+            byte[] buffer = new byte[65536];
+            for( Entry entry : files ) {
+                try( InputStream input = entry.open() ) {
+                    int count;
+                    while( (count = input.read( buffer )) > 0 ) {
+                        out.write( buffer, 0, count );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect all files in the order of the table of content.
+     *
+     * @param dir the directory
+     * @param files the target list
+     */
+    private static void collectFiles( Entry dir, List<Entry> files ) {
+        for( Entry entry : dir.children.values() ) {
+            if( entry.directory ) {
+                collectFiles( entry, files );
+            } else {
+                files.add( entry );
+            }
+        }
+    }
+
+    /**
+     * Calculate the size and the checksum of a file.
+     *
+     * @param entry the file
+     * @throws IOException if any error occur
+     */
+    private static void hash( Entry entry ) throws IOException {
+        MessageDigest digest = Digests.create( Digests.SHA1 );
+        try( InputStream input = entry.open() ) {
+            entry.size = Digests.update( input, digest );
+        }
+        entry.checksum = Digests.hex( digest.digest() );
+    }
+
+    /**
+     * Create the xml of the table of content.
+     *
+     * @return the UTF-8 encoded xml
+     * @throws IOException if any error occur
+     */
+    private byte[] createToc() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter( out, "UTF-8" );
+            xml.writeStartDocument( "UTF-8", "1.0" );
+            xml.writeStartElement( "xar" );
+            xml.writeStartElement( "toc" );
+            xml.writeStartElement( "checksum" );
+            xml.writeAttribute( "style", "sha1" );
+            writeElement( xml, "offset", "0" );
+            writeElement( xml, "size", Integer.toString( CHECKSUM_SIZE ) );
+            xml.writeEndElement();
+            SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss" );
+            format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+            writeElement( xml, "creation-time", format.format( new Date() ) );
+            writeEntries( xml, root, new int[1] );
+            xml.writeEndElement();
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch( XMLStreamException ex ) {
+            throw new IOException( ex );
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Write the file elements of the children of a directory.
+     *
+     * @param xml the xml writer
+     * @param dir the directory
+     * @param id the last used file id
+     * @throws XMLStreamException if any error occur
+     */
+    private static void writeEntries( XMLStreamWriter xml, Entry dir, int[] id ) throws XMLStreamException {
+        for( Entry entry : dir.children.values() ) {
+            xml.writeStartElement( "file" );
+            xml.writeAttribute( "id", Integer.toString( ++id[0] ) );
+            if( !entry.directory ) {
+                xml.writeStartElement( "data" );
+                writeElement( xml, "length", Long.toString( entry.size ) );
+                xml.writeEmptyElement( "encoding" );
+                xml.writeAttribute( "style", "application/octet-stream" );
+                writeElement( xml, "offset", Long.toString( entry.offset ) );
+                writeElement( xml, "size", Long.toString( entry.size ) );
+                writeChecksum( xml, "extracted-checksum", entry.checksum );
+                writeChecksum( xml, "archived-checksum", entry.checksum );
+                xml.writeEndElement();
+            }
+            writeElement( xml, "name", entry.name );
+            writeElement( xml, "type", entry.directory ? "directory" : "file" );
+            writeElement( xml, "mode", String.format( "%04o", entry.mode ) );
+            writeElement( xml, "uid", "0" );
+            writeElement( xml, "user", "root" );
+            writeElement( xml, "gid", "0" );
+            writeElement( xml, "group", "wheel" );
+            if( entry.directory ) {
+                writeEntries( xml, entry, id );
+            }
+            xml.writeEndElement();
+        }
+    }
+
+    /**
+     * Write a checksum element.
+     *
+     * @param xml the xml writer
+     * @param name the element name
+     * @param checksum the hex encoded SHA-1
+     * @throws XMLStreamException if any error occur
+     */
+    private static void writeChecksum( XMLStreamWriter xml, String name, String checksum ) throws XMLStreamException {
+        xml.writeStartElement( name );
+        xml.writeAttribute( "style", "sha1" );
+        xml.writeCharacters( checksum );
+        xml.writeEndElement();
+    }
+
+    /**
+     * Write an element with text content.
+     *
+     * @param xml the xml writer
+     * @param name the element name
+     * @param value the text
+     * @throws XMLStreamException if any error occur
+     */
+    private static void writeElement( XMLStreamWriter xml, String name, String value ) throws XMLStreamException {
+        xml.writeStartElement( name );
+        xml.writeCharacters( value );
+        xml.writeEndElement();
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.inet.gradle.setup.msi.db.CompoundFile;
+
+/**
+ * Embed a RFC 3161 timestamp token in the Authenticode signature of a PE file or a msi file. The token is added as
+ * unauthenticated attribute to the signer of the signature like "signtool timestamp /tr" does it.
+ */
+class AuthenticodeTimestamp {
+
+    /** The name of the signature stream in a msi file. */
+    private static final String DIGITAL_SIGNATURE = "\u0005DigitalSignature";
+
+    /** The OID of the RFC 3161 timestamp attribute of Authenticode with tag and length. */
+    private static final byte[] RFC3161_TIMESTAMP = { 0x06, 0x0A, 0x2B, 0x06, 0x01, 0x04, 0x01, (byte)0x82, 0x37, 0x03, 0x03, 0x01 };
+
+    /** The OID of the legacy counter signature with tag and length. */
+    private static final byte[] COUNTER_SIGNATURE = { 0x06, 0x09, 0x2A, (byte)0x86, 0x48, (byte)0x86, (byte)0xF7, 0x0D, 0x01, 0x09, 0x06 };
+
+    private static final int    WIN_CERT_REVISION = 0x0200;
+
+    private static final int    WIN_CERT_TYPE     = 0x0002;
+
+    /**
+     * Add a timestamp to the signature of a signed file.
+     *
+     * @param file a signed PE or msi file
+     * @param client the client for the timestamp servers
+     * @return false, if the signature has already a timestamp
+     * @throws IOException if the file format is not supported or no timestamp can be received
+     */
+    static boolean timestamp( File file, TimestampClient client ) throws IOException {
+        byte[] header = new byte[8];
+        try( RandomAccessFile raf = new RandomAccessFile( file, "r" ) ) {
+            raf.readFully( header );
+        }
+        if( header[0] == 'M' && header[1] == 'Z' ) {
+            return timestampPE( file, client );
+        }
+        try( CompoundFile cf = CompoundFile.open( file ) ) {
+            CompoundFile.Storage root = cf.getRoot();
+            if( !root.hasStream( DIGITAL_SIGNATURE ) ) {
+                throw new IOException( "File is not signed: " + file );
+            }
+            byte[] signature = addTimestamp( root.getStream( DIGITAL_SIGNATURE ), client );
+            if( signature == null ) {
+                return false;
+            }
+            root.setStream( DIGITAL_SIGNATURE, signature );
+            cf.save( file );
+        }
+        return true;
+    }
+
+    /**
+     * Add a timestamp to the last certificate table entry of a PE file and update the checksum.
+     *
+     * @param file a signed PE file
+     * @param client the client for the timestamp servers
+     * @return false, if the signature has already a timestamp
+     * @throws IOException if the file format is not supported or no timestamp can be received
+     */
+    private static boolean timestampPE( File file, TimestampClient client ) throws IOException {
+        try( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) ) {
+            raf.seek( 0x3C );
+            int pe = Integer.reverseBytes( raf.readInt() );
+            raf.seek( pe );
+            if( raf.readInt() != 0x50450000 ) { // "PE\0\0"
+                throw new IOException( "Invalid PE file: " + file );
+            }
+            int optionalHeader = pe + 24;
+            raf.seek( optionalHeader );
+            int magic = Short.reverseBytes( raf.readShort() ) & 0xFFFF;
+            int securityDirectory = optionalHeader + (magic == 0x20B ? 112 : 96) + 4 * 8;
+            raf.seek( securityDirectory );
+            long offset = Integer.reverseBytes( raf.readInt() ) & 0xFFFFFFFFL;
+            long size = Integer.reverseBytes( raf.readInt() ) & 0xFFFFFFFFL;
+            if( offset == 0 || size == 0 ) {
+                throw new IOException( "File is not signed: " + file );
+            }
+            if( offset + size != raf.length() ) {
+                throw new IOException( "Certificate table is not at the end of the file: " + file );
+            }
+
+            byte[] table = new byte[(int)size];
+            raf.seek( offset );
+            raf.readFully( table );
+            ByteBuffer buffer = ByteBuffer.wrap( table ).order( ByteOrder.LITTLE_ENDIAN );
+            int length = buffer.getInt( 0 );
+            if( length < 8 || length > size || buffer.getShort( 4 ) != WIN_CERT_REVISION || buffer.getShort( 6 ) != WIN_CERT_TYPE || ((length + 7) & ~7) < size ) {
+                throw new IOException( "Unsupported certificate table: " + file );
+            }
+            byte[] pkcs7 = new byte[length - 8];
+            System.arraycopy( table, 8, pkcs7, 0, pkcs7.length );
+            pkcs7 = addTimestamp( pkcs7, client );
+            if( pkcs7 == null ) {
+                return false;
+            }
+
+            int newSize = (8 + pkcs7.length + 7) & ~7;
+            ByteBuffer entry = ByteBuffer.allocate( newSize ).order( ByteOrder.LITTLE_ENDIAN );
+            entry.putInt( newSize ).putShort( (short)WIN_CERT_REVISION ).putShort( (short)WIN_CERT_TYPE ).put( pkcs7 );
+            raf.setLength( offset );
+            raf.seek( offset );
+            raf.write( entry.array() );
+            raf.seek( securityDirectory + 4 );
+            raf.writeInt( Integer.reverseBytes( newSize ) );
+
+            int checksumOffset = optionalHeader + 64;
+            long checksum = checksum( raf, checksumOffset );
+            raf.seek( checksumOffset );
+            raf.writeInt( Integer.reverseBytes( (int)checksum ) );
+        }
+        return true;
+    }
+
+    /**
+     * Calculate the checksum of a PE file like CheckSumMappedFile.
+     *
+     * @param raf the file
+     * @param checksumOffset the offset of the checksum field, that is skipped
+     * @return the checksum
+     * @throws IOException if any I/O error occur
+     */
+    private static long checksum( RandomAccessFile raf, int checksumOffset ) throws IOException {
+        long fileLength = raf.length();
+        long sum = 0;
+        byte[] buf = new byte[65536];
+        raf.seek( 0 );
+        long pos = 0;
+        while( pos < fileLength ) {
+            int count = raf.read( buf, 0, (int)Math.min( buf.length, fileLength - pos ) );
+            if( count <= 0 ) {
+                throw new IOException( "Unexpected end of file" );
+            }
+            if( (count & 1) != 0 && pos + count < fileLength ) {
+                // keep the words aligned, read the last byte with the next block
+                count--;
+                raf.seek( pos + count );
+            }
+            for( int i = 0; i < count; i += 2 ) {
+                long wordPos = pos + i;
+                if( wordPos == checksumOffset || wordPos == checksumOffset + 2 ) {
+                    continue;
+                }
+                int word = buf[i] & 0xFF;
+                if( i + 1 < count ) {
+                    word |= (buf[i + 1] & 0xFF) << 8;
+                }
+                sum += word;
+                sum = (sum & 0xFFFF) + (sum >>> 16);
+            }
+            pos += count;
+        }
+        sum = (sum & 0xFFFF) + (sum >>> 16);
+        return (sum + fileLength) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Add a timestamp token to the first signer of a PKCS#7 signature.
+     *
+     * @param pkcs7 the DER encoded ContentInfo with the signed data
+     * @param client the client for the timestamp servers
+     * @return the new signature or null if the signer has already a timestamp
+     * @throws IOException if the signature is invalid or no timestamp can be received
+     */
+    static byte[] addTimestamp( byte[] pkcs7, TimestampClient client ) throws IOException {
+        Der contentInfo = Der.parse( pkcs7 );
+        Der contentType = contentInfo.getChild( 0, Der.OID );
+        if( !contentType.isOid( TimestampClient.SIGNED_DATA ) ) {
+            throw new IOException( "Signature is not signed data" );
+        }
+        Der signedData = contentInfo.getChild( 1, Der.CONTEXT_0 ).getChild( 0, Der.SEQUENCE );
+        List<Der> signedDataChildren = signedData.getChildren();
+        int signerInfosIdx = signedDataChildren.size() - 1;
+        Der signerInfos = signedDataChildren.get( signerInfosIdx );
+        if( signerInfos.getTag() != Der.SET ) {
+            throw new IOException( "Signature without signer" );
+        }
+        List<Der> signers = signerInfos.getChildren();
+        if( signers.isEmpty() ) {
+            throw new IOException( "Signature without signer" );
+        }
+        List<Der> signer = signers.get( 0 ).getChildren();
+
+        Der encryptedDigest = null;
+        Der unauthenticated = null;
+        for( Der value : signer ) {
+            if( value.getTag() == Der.OCTET_STRING ) {
+                encryptedDigest = value;
+            } else if( value.getTag() == Der.CONTEXT_1 ) {
+                unauthenticated = value;
+            }
+        }
+        if( encryptedDigest == null ) {
+            throw new IOException( "Signer without signature value" );
+        }
+        List<byte[]> attributes = new ArrayList<>();
+        if( unauthenticated != null ) {
+            for( Der attribute : unauthenticated.getChildren() ) {
+                Der type = attribute.getChild( 0, Der.OID );
+                if( type.isOid( RFC3161_TIMESTAMP ) || type.isOid( COUNTER_SIGNATURE ) ) {
+                    return null;
+                }
+                attributes.add( attribute.getEncoded() );
+            }
+        }
+
+        byte[] token = client.timestamp( encryptedDigest.getContent() );
+        attributes.add( Der.encode( Der.SEQUENCE, RFC3161_TIMESTAMP, Der.encode( Der.SET, token ) ) );
+
+        List<byte[]> newSigner = new ArrayList<>();
+        for( Der value : signer ) {
+            if( value != unauthenticated ) {
+                newSigner.add( value.getEncoded() );
+            }
+        }
+        newSigner.add( Der.encode( Der.CONTEXT_1, attributes ) );
+
+        List<byte[]> newSigners = new ArrayList<>();
+        newSigners.add( Der.encode( Der.SEQUENCE, newSigner ) );
+        for( int i = 1; i < signers.size(); i++ ) {
+            newSigners.add( signers.get( i ).getEncoded() );
+        }
+
+        List<byte[]> newSignedData = new ArrayList<>();
+        for( int i = 0; i < signerInfosIdx; i++ ) {
+            newSignedData.add( signedDataChildren.get( i ).getEncoded() );
+        }
+        newSignedData.add( Der.encode( Der.SET, newSigners ) );
+
+        return Der.encode( Der.SEQUENCE, contentType.getEncoded(), Der.encode( Der.CONTEXT_0, Der.encode( Der.SEQUENCE, newSignedData ) ) );
+    }
+}
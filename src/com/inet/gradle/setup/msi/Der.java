@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A minimal reader and writer for the DER encoding of ASN.1 that is needed for Authenticode signatures and RFC 3161
+ * timestamps. Only single byte tags and definite lengths are supported.
+ */
+class Der {
+
+    static final int     INTEGER      = 0x02;
+
+    static final int     OCTET_STRING = 0x04;
+
+    static final int     OID          = 0x06;
+
+    static final int     SEQUENCE     = 0x30;
+
+    static final int     SET          = 0x31;
+
+    /** The tag [0] of a constructed context specific value. */
+    static final int     CONTEXT_0    = 0xA0;
+
+    /** The tag [1] of a constructed context specific value. */
+    static final int     CONTEXT_1    = 0xA1;
+
+    private final byte[] buf;
+
+    private final int    start;
+
+    private final int    contentStart;
+
+    private final int    end;
+
+    /**
+     * Create a value.
+     *
+     * @param buf the buffer
+     * @param start the offset of the tag
+     * @param contentStart the offset of the content
+     * @param end the offset after the content
+     */
+    private Der( byte[] buf, int start, int contentStart, int end ) {
+        this.buf = buf;
+        this.start = start;
+        this.contentStart = contentStart;
+        this.end = end;
+    }
+
+    /**
+     * Parse a value.
+     *
+     * @param data the encoded value
+     * @return the value
+     * @throws IOException if the encoding is invalid
+     */
+    static Der parse( byte[] data ) throws IOException {
+        return parse( data, 0, data.length );
+    }
+
+    /**
+     * Parse a value.
+     *
+     * @param buf the buffer
+     * @param offset the offset of the tag
+     * @param limit the end of the parent
+     * @return the value
+     * @throws IOException if the encoding is invalid
+     */
+    private static Der parse( byte[] buf, int offset, int limit ) throws IOException {
+        if( offset + 2 > limit ) {
+            throw new IOException( "Invalid DER encoding" );
+        }
+        if( (buf[offset] & 0x1F) == 0x1F ) {
+            throw new IOException( "Multi byte tags are not supported" );
+        }
+        int pos = offset + 1;
+        int length = buf[pos++] & 0xFF;
+        if( length == 0x80 ) {
+            throw new IOException( "Indefinite length is not supported" );
+        }
+        if( length > 0x80 ) {
+            int count = length & 0x7F;
+            if( count > 3 || pos + count > limit ) {
+                throw new IOException( "Invalid DER encoding" );
+            }
+            length = 0;
+            for( int i = 0; i < count; i++ ) {
+                length = (length << 8) | (buf[pos++] & 0xFF);
+            }
+        }
+        if( pos + length > limit ) {
+            throw new IOException( "Invalid DER encoding" );
+        }
+        return new Der( buf, offset, pos, pos + length );
+    }
+
+    /**
+     * Get the tag.
+     *
+     * @return the tag byte
+     */
+    int getTag() {
+        return buf[start] & 0xFF;
+    }
+
+    /**
+     * Get the content without tag and length.
+     *
+     * @return a copy of the content
+     */
+    byte[] getContent() {
+        return Arrays.copyOfRange( buf, contentStart, end );
+    }
+
+    /**
+     * Get the complete encoding with tag and length.
+     *
+     * @return a copy of the encoding
+     */
+    byte[] getEncoded() {
+        return Arrays.copyOfRange( buf, start, end );
+    }
+
+    /**
+     * Get the values of a constructed value.
+     *
+     * @return the children
+     * @throws IOException if the encoding is invalid
+     */
+    List<Der> getChildren() throws IOException {
+        List<Der> children = new ArrayList<>();
+        for( int pos = contentStart; pos < end; ) {
+            Der child = parse( buf, pos, end );
+            children.add( child );
+            pos = child.end;
+        }
+        return children;
+    }
+
+    /**
+     * Get a child of a constructed value.
+     *
+     * @param index the index
+     * @param tag the expected tag
+     * @return the child
+     * @throws IOException if the encoding is invalid or the child has another tag
+     */
+    Der getChild( int index, int tag ) throws IOException {
+        List<Der> children = getChildren();
+        if( index >= children.size() || children.get( index ).getTag() != tag ) {
+            throw new IOException( "Unexpected ASN.1 structure" );
+        }
+        return children.get( index );
+    }
+
+    /**
+     * Check if this is an OID with the given encoding.
+     *
+     * @param oid the encoded OID with tag and length
+     * @return true, if equals
+     */
+    boolean isOid( byte[] oid ) {
+        return Arrays.equals( getEncoded(), oid );
+    }
+
+    /**
+     * Encode a value.
+     *
+     * @param tag the tag
+     * @param parts the encoded content parts
+     * @return the encoding
+     */
+    static byte[] encode( int tag, byte[]... parts ) {
+        int length = 0;
+        for( byte[] part : parts ) {
+            length += part.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream( length + 6 );
+        out.write( tag );
+        if( length < 0x80 ) {
+            out.write( length );
+        } else if( length < 0x100 ) {
+            out.write( 0x81 );
+            out.write( length );
+        } else if( length < 0x10000 ) {
+            out.write( 0x82 );
+            out.write( length >> 8 );
+            out.write( length );
+        } else {
+            out.write( 0x83 );
+            out.write( length >> 16 );
+            out.write( length >> 8 );
+            out.write( length );
+        }
+        for( byte[] part : parts ) {
+            out.write( part, 0, part.length );
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode a constructed value from its children.
+     *
+     * @param tag the tag
+     * @param children the children
+     * @return the encoding
+     */
+    static byte[] encode( int tag, List<byte[]> children ) {
+        return encode( tag, children.toArray( new byte[children.size()][] ) );
+    }
+}
@@ -16,72 +16,91 @@
 package com.inet.gradle.setup.msi;
 
 import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-import org.w3c.dom.Element;
+import org.gradle.api.GradleException;
 
 import com.inet.gradle.setup.SetupBuilder;
-import com.inet.gradle.setup.util.XmlFileBuilder;
 
 /**
- * Create a XML configuration file for lauch4j.
+ * Create the configuration for lauch4j as objects of the Launch4j API. The Launch4j classes are loaded from their own
+ * class loader, that the objects are created with reflection.
  *
  * @author Volker
  */
-class Launch4jConfig extends XmlFileBuilder<Msi> {
+class Launch4jConfig {
 
-    private Launch4j launch;
+    private static final String PACKAGE = "net.sf.launch4j.config.";
+
+    private final Launch4j      launch;
+
+    private final Msi           task;
+
+    private final SetupBuilder  setup;
+
+    private final File          buildDir;
+
+    private final File          icon;
+
+    private File                outfile;
 
     /**
      * Create an instance.
      *
      * @param launch the launch description
+     * @param icon the ico file of the launcher or null
      * @param task current task
      * @param setup the SetupBuilder
-     * @throws Exception if any error occur
      */
-    Launch4jConfig( Launch4j launch, Msi task, SetupBuilder setup ) throws Exception {
-        super( task, setup, File.createTempFile( "launch4j", ".xml", task.getTemporaryDir() ), task.getTemporaryDir(), null );
+    Launch4jConfig( Launch4j launch, File icon, Msi task, SetupBuilder setup ) {
         this.launch = launch;
+        this.icon = icon;
+        this.task = task;
+        this.setup = setup;
+        this.buildDir = task.getTemporaryDir();
     }
 
     /**
-     * Create the XML file.
+     * Create the configuration object.
      *
-     * @return the created file
-     * @throws Exception if an error occurs on reading the image files
+     * @param loader the class loader of Launch4j
+     * @return the net.sf.launch4j.config.Config object
+     * @throws Exception if any error occur
      */
-    File build() throws Exception {
+    Object build( ClassLoader loader ) throws Exception {
         String exe = launch.getExecutable();
         if( exe == null ) {
             throw new RuntimeException( "No executable set for launch4j." );
         }
-        File outfile = new File( buildDir, exe );
-        Element launch4jConfig = getOrCreateChild( doc, "launch4jConfig" );
-        getOrCreateChild( launch4jConfig, "headerType" ).setTextContent( "gui" );
-        getOrCreateChild( launch4jConfig, "dontWrapJar" ).setTextContent( "true" );
+        outfile = new File( buildDir, exe );
+        Object config = create( loader, "Config" );
+        set( config, "HeaderType", "gui" );
+        set( config, "DontWrapJar", true );
         String mainClass = launch.getMainClass();
         if( mainClass == null || mainClass.isEmpty() ) {
-            getOrCreateChild( launch4jConfig, "jar" ).setTextContent( launch.getMainJar() );
+            set( config, "Jar", new File( launch.getMainJar() ) );
         } else {
-            Element classPath = getOrCreateChild( launch4jConfig, "classPath" );
-            getOrCreateChild( classPath, "mainClass" ).setTextContent( mainClass );
-            getOrCreateChild( classPath, "cp" ).setTextContent( launch.getMainJar() );
+            Object classPath = create( loader, "ClassPath" );
+            set( classPath, "MainClass", mainClass );
+            set( classPath, "Paths", Collections.singletonList( launch.getMainJar() ) );
+            set( config, "ClassPath", classPath );
         }
         String args = launch.getStartArguments();
         if( !args.isEmpty() ) {
-            getOrCreateChild( launch4jConfig, "cmdLine" ).setTextContent( args );
+            set( config, "CmdLine", args );
         }
-        getOrCreateChild( launch4jConfig, "outfile" ).setTextContent( outfile.getAbsolutePath() );
-        getOrCreateChild( launch4jConfig, "errTitle" ).setTextContent( launch.getDisplayName() );
-        getOrCreateChild( launch4jConfig, "chdir" ).setTextContent( "." );
-
-        //        <manifest>hd.manifest</manifest>
-        File ico = launch.getIconForType( buildDir, "ico" );
-        if ( ico != null ) {
-            getOrCreateChild( launch4jConfig, "icon" ).setTextContent( ico.getAbsolutePath() );
+        set( config, "Outfile", outfile );
+        set( config, "ErrTitle", launch.getDisplayName() );
+        set( config, "Chdir", "." );
+
+        if( icon != null ) {
+            set( config, "Icon", icon );
         }
 
-        Element jre = getOrCreateChild( launch4jConfig, "jre" );
+        Object jre = create( loader, "Jre" );
         Object bundleJRE = setup.getBundleJre();
         if( bundleJRE != null ) {
             String jreTarget = setup.getBundleJreTarget();
@@ -92,42 +111,85 @@ class Launch4jConfig extends XmlFileBuilder<Msi> {
                     jreTarget = "..\\" + jreTarget;
                 }
             }
-            getOrCreateChild( jre, "path" ).setTextContent( jreTarget );
+            set( jre, "Path", jreTarget );
         } else {
-            getOrCreateChild( jre, "minVersion" ).setTextContent( System.getProperty( "java.version" ) );
+            set( jre, "MinVersion", System.getProperty( "java.version" ) );
         }
-        getOrCreateChild( jre, "requires64Bit" ).setTextContent( task.is64Bit() ? "true" : "false" );
+        set( jre, "Requires64Bit", task.is64Bit() );
 
         // Add all JVM Arguments
-        for( String argument : launch.getJavaVMArguments() ) {
-            getOrCreateChild( jre, "opt", argument, true );
+        List<String> options = new ArrayList<>( launch.getJavaVMArguments() );
+        if( !options.isEmpty() ) {
+            set( jre, "Options", options );
         }
+        set( config, "Jre", jre );
 
-        Element versionInfo = getOrCreateChild( launch4jConfig, "versionInfo" );
-        getOrCreateChild( versionInfo, "fileVersion" ).setTextContent( normalizeVersionNumber( task.getVersion() ) );
-        getOrCreateChild( versionInfo, "txtFileVersion" ).setTextContent( task.getVersion() );
-        getOrCreateChild( versionInfo, "productVersion" ).setTextContent( normalizeVersionNumber( task.getVersion() ) );
-        getOrCreateChild( versionInfo, "txtProductVersion" ).setTextContent( task.getVersion() );
-        getOrCreateChild( versionInfo, "fileDescription" ).setTextContent( launch.getDescription() );
-        getOrCreateChild( versionInfo, "productName" ).setTextContent( setup.getApplication() );
-        getOrCreateChild( versionInfo, "companyName" ).setTextContent( setup.getVendor() );
-        getOrCreateChild( versionInfo, "copyright" ).setTextContent( setup.getCopyright() );
-
-        getOrCreateChild( versionInfo, "originalFilename" ).setTextContent( exe );
+        Object versionInfo = create( loader, "VersionInfo" );
+        set( versionInfo, "FileVersion", normalizeVersionNumber( task.getVersion() ) );
+        set( versionInfo, "TxtFileVersion", task.getVersion() );
+        set( versionInfo, "ProductVersion", normalizeVersionNumber( task.getVersion() ) );
+        set( versionInfo, "TxtProductVersion", task.getVersion() );
+        set( versionInfo, "FileDescription", launch.getDescription() );
+        set( versionInfo, "ProductName", setup.getApplication() );
+        set( versionInfo, "CompanyName", setup.getVendor() );
+        set( versionInfo, "Copyright", setup.getCopyright() );
+
+        set( versionInfo, "OriginalFilename", exe );
         int idx = exe.lastIndexOf( '.' );
         if( idx > 0 ) {
             exe = exe.substring( 0, idx );
         }
-        getOrCreateChild( versionInfo, "internalName" ).setTextContent( exe );
+        set( versionInfo, "InternalName", exe );
+        set( config, "VersionInfo", versionInfo );
 
         Launch4jManifest manifest = new Launch4jManifest( launch, task, setup );
         manifest.build();
         manifest.save();
-        getOrCreateChild( launch4jConfig, "manifest" ).setTextContent( manifest.xmlFile.getAbsolutePath() );
+        set( config, "Manifest", manifest.xmlFile );
 
+        return config;
+    }
+
+    /**
+     * Get the file of the launcher that will be created.
+     *
+     * @return the exe file
+     */
+    File getOutfile() {
         return outfile;
     }
 
+    /**
+     * Create an object of the Launch4j configuration.
+     *
+     * @param loader the class loader of Launch4j
+     * @param className the simple class name
+     * @return the new object
+     * @throws ReflectiveOperationException if the class is not part of the Launch4j version
+     */
+    private static Object create( ClassLoader loader, String className ) throws ReflectiveOperationException {
+        return loader.loadClass( PACKAGE + className ).getConstructor().newInstance();
+    }
+
+    /**
+     * Set a property of a configuration object.
+     *
+     * @param target the configuration object
+     * @param property the property name with a capital first letter
+     * @param value the value
+     * @throws ReflectiveOperationException if the call fails
+     */
+    private static void set( Object target, String property, Object value ) throws ReflectiveOperationException {
+        String name = "set" + property;
+        for( Method method : target.getClass().getMethods() ) {
+            if( method.getName().equals( name ) && method.getParameterCount() == 1 ) {
+                method.invoke( target, value );
+                return;
+            }
+        }
+        throw new GradleException( "Unsupported Launch4j version, missing method " + target.getClass().getName() + "." + name );
+    }
+
     /**
      * Normalize the number in the format x.x.x.x
      *
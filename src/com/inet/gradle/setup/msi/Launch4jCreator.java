@@ -17,11 +17,18 @@ package com.inet.gradle.setup.msi;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
 
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
@@ -32,99 +39,216 @@ import com.inet.gradle.setup.SetupBuilder;
 import com.inet.gradle.setup.util.ResourceUtils;
 
 /**
- * Create the Lauch4j programs if there any configured.
+ * Create the Lauch4j programs if there any configured. The launchers are created in parallel with the API of Launch4j.
+ * Launch4j holds the current configuration in a static singleton, that every parallel launcher is created with its own
+ * class loader.
  *
  * @author Volker
  */
 public class Launch4jCreator {
 
-    private URLClassLoader lauch4jClassLoader;
+    private URL[]                                       classPath;
+
+    private File                                        basedir;
+
+    private final ConcurrentLinkedQueue<URLClassLoader> idleClassLoaders = new ConcurrentLinkedQueue<>();
+
+    private final List<URLClassLoader>                  classLoaders     = new ArrayList<>();
+
+    /**
+     * Create the Lauch4j launchers in parallel.
+     *
+     * @param launches the launch descriptions
+     * @param task the task
+     * @param setup the SetupBuilder
+     * @return the files of the created exe in the order of the launch descriptions
+     * @throws Exception if any error occur
+     */
+    List<File> create( List<Launch4j> launches, Msi task, SetupBuilder setup ) throws Exception {
+        if( classPath == null ) {
+            classPath = getClassPath( task.getProject() );
+            basedir = new File( classPath[0].toURI() ).getParentFile();
+        }
+        File[] files = new File[launches.size()];
+        File[] icons = createIcons( launches, task );
+        IntStream.range( 0, files.length ).parallel().forEach( i -> {
+            try {
+                files[i] = create( launches.get( i ), icons[i], task, setup );
+            } catch( RuntimeException ex ) {
+                throw ex;
+            } catch( Exception ex ) {
+                throw new GradleException( "Launch4j failed for " + launches.get( i ).getExecutable(), ex );
+            }
+        } );
+        return Arrays.asList( files );
+    }
+
+    /**
+     * Create the icon files of the launchers before the parallel stage. Launchers with the same icons share the icon
+     * file. Every other icon set is written to its own directory, because the file name is derived from the source
+     * images and the launchers without own icons are using the icons of the setup.
+     *
+     * @param launches the launch descriptions
+     * @param task the task
+     * @return the ico files in the order of the launch descriptions, an entry can be null
+     * @throws IOException if an error occurs on reading the image files
+     */
+    private static File[] createIcons( List<Launch4j> launches, Msi task ) throws IOException {
+        File[] icons = new File[launches.size()];
+        Map<Object, File> created = new HashMap<>();
+        for( int i = 0; i < icons.length; i++ ) {
+            Launch4j launch = launches.get( i );
+            Object key = launch.getIcons();
+            if( key == null ) {
+                continue;
+            }
+            File ico = created.get( key );
+            if( ico == null ) {
+                File dir = new File( task.getTemporaryDir(), "launch4j-icons/" + created.size() );
+                dir.mkdirs();
+                ico = launch.getIconForType( dir, "ico" );
+                created.put( key, ico );
+            }
+            icons[i] = ico;
+        }
+        return icons;
+    }
 
     /**
      * Create a single Lauch4j launcher.
      *
      * @param launch the launch description
+     * @param icon the ico file of the launcher or null
      * @param task the task
      * @param setup the SetupBuilder
      * @return the file to the created exe.
      * @throws Exception if any error occur
      */
-    File create( Launch4j launch, Msi task, SetupBuilder setup ) throws Exception {
-        Launch4jConfig config = new Launch4jConfig( launch, task, setup );
-        File outfile = config.build();
-        config.save();
+    private File create( Launch4j launch, File icon, Msi task, SetupBuilder setup ) throws Exception {
+        URLClassLoader loader = idleClassLoaders.poll();
+        if( loader == null ) {
+            loader = new URLClassLoader( classPath, getClass().getClassLoader() );
+            synchronized( classLoaders ) {
+                classLoaders.add( loader );
+            }
+        }
+        try {
+            Launch4jConfig config = new Launch4jConfig( launch, icon, task, setup );
+            Object configObject = config.build( loader );
 
-        Class<?> clazz = Class.forName( "net.sf.launch4j.Main", true, getClassLoader( task.getProject(), task.getTemporaryDir() ) );
-        String[] args = { config.xmlFile.getAbsolutePath() };
-        clazz.getMethod( "main", String[].class ).invoke( null, (Object)args );
+            Class<?> configClass = loader.loadClass( "net.sf.launch4j.config.Config" );
+            Class<?> persisterClass = loader.loadClass( "net.sf.launch4j.config.ConfigPersister" );
+            Object persister = persisterClass.getMethod( "getInstance" ).invoke( null );
+            persisterClass.getMethod( "setAntConfig", configClass, File.class ).invoke( persister, configObject, task.getTemporaryDir() );
 
-        if( !outfile.exists() ) {
-            throw new GradleException( "Launch4j failed. " );
+            Class<?> logClass = loader.loadClass( "net.sf.launch4j.Log" );
+            Object log = logClass.getMethod( "getConsoleLog" ).invoke( null );
+            Class<?> builderClass = loader.loadClass( "net.sf.launch4j.Builder" );
+            Object builder;
+            try {
+                builder = builderClass.getConstructor( logClass, File.class ).newInstance( log, basedir );
+            } catch( NoSuchMethodException ex ) {
+                // older versions find the binary files relative to the jar file
+                builder = builderClass.getConstructor( logClass ).newInstance( log );
+            }
+            try {
+                builderClass.getMethod( "build" ).invoke( builder );
+            } catch( InvocationTargetException ex ) {
+                throw new GradleException( "Launch4j failed: " + ex.getCause().getMessage(), ex.getCause() );
+            }
+
+            File outfile = config.getOutfile();
+            if( !outfile.exists() ) {
+                throw new GradleException( "Launch4j failed. " );
+            }
+            return outfile;
+        } finally {
+            idleClassLoaders.add( loader );
         }
-        return outfile;
     }
 
     /**
-     * Download the lauch4j and create a classloader
+     * Download the lauch4j and get the class path. The binary files of Launch4j are extracted once in the Gradle user
+     * home and shared between all builds. The jar of Launch4j must be in the same directory, because Launch4j finds the
+     * binary files relative to its jar file.
      *
      * @param project current project
-     * @param buildDir current temp directory
-     * @return the ClassLoader for lauch4j
+     * @return the class path for lauch4j
      * @throws IOException if any error occur
      */
-    private ClassLoader getClassLoader( Project project, File buildDir ) throws IOException {
-        if( lauch4jClassLoader == null ) {
-            String configName = "setupLaunch4j";
-            Configuration config = project.getConfigurations().findByName( configName );
-            if( config == null ) {
-                config = project.getConfigurations().create( configName );
-                config.setVisible( false );
-                config.setTransitive( false );
-                DependencyHandler dependencies = project.getDependencies();
-                dependencies.add( configName, "net.sf.launch4j:launch4j:3.50" );
-                dependencies.add( configName, "net.sf.launch4j:launch4j:3.50:workdir-win32" );
-                dependencies.add( configName, "com.thoughtworks.xstream:xstream:1.4.20" );
+    private static URL[] getClassPath( Project project ) throws IOException {
+        String configName = "setupLaunch4j";
+        Configuration config = project.getConfigurations().findByName( configName );
+        if( config == null ) {
+            config = project.getConfigurations().create( configName );
+            config.setVisible( false );
+            config.setTransitive( false );
+            DependencyHandler dependencies = project.getDependencies();
+            dependencies.add( configName, "net.sf.launch4j:launch4j:3.50" );
+            dependencies.add( configName, "net.sf.launch4j:launch4j:3.50:workdir-win32" );
+            dependencies.add( configName, "com.thoughtworks.xstream:xstream:1.4.20" );
+        }
+
+        File launch4jJar = null;
+        List<File> workDirJars = new ArrayList<>();
+        ArrayList<URL> urls = new ArrayList<>();
+        for( File file : config.getFiles() ) {
+            String name = file.getName();
+            if( name.endsWith( ".jar" ) ) {
+                if( name.contains( "-workdir-" ) ) {
+                    workDirJars.add( file );
+                } else if( name.startsWith( "launch4j-" ) ) {
+                    launch4jJar = file;
+                } else {
+                    urls.add( file.toURI().toURL() );
+                }
             }
+        }
+        if( launch4jJar == null ) {
+            throw new GradleException( "Launch4j was not found in the configuration " + configName );
+        }
 
-            ArrayList<URL> urls = new ArrayList<>();
-            File libDir = new File( buildDir, "launch4jlib" );
-            libDir.mkdirs();
-            for( File file : config.getFiles() ) {
-                String name = file.getName();
-                if( name.endsWith( ".jar" ) ) {
-                    //https://github.com/TheBoegl/gradle-launch4j/blob/develop/src/main/groovy/edu/sc/seis/launch4j/Launch4jPlugin.groovy
-                    if( name.contains( "-workdir-" ) ) {
-                        name = name.substring( 0, name.length() - 4 ); // remove ".jar"
-                        //binary files must be extracted
-                        final String internalName = name;
-                        ResourceUtils.unZipIt(file, libDir, (entryName) -> {
-                            if( entryName.startsWith( internalName ) ) {
-                                entryName = entryName.substring( internalName.length() + 1 );
-                            }
-                            return entryName;
-                        });
-
-                    } else {
-                        File target = new File( libDir, file.getName() );
-                        Files.copy( file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
-                        urls.add( target.toURI().toURL() );
+        String name = launch4jJar.getName();
+        File libDir = new File( project.getGradle().getGradleUserHomeDir(), "caches/setupbuilder/" + name.substring( 0, name.length() - 4 ) );
+        if( !libDir.isDirectory() ) {
+            File tempDir = new File( libDir.getPath() + '.' + System.nanoTime() + ".tmp" );
+            tempDir.mkdirs();
+            for( File file : workDirJars ) {
+                //https://github.com/TheBoegl/gradle-launch4j/blob/develop/src/main/groovy/edu/sc/seis/launch4j/Launch4jPlugin.groovy
+                //binary files must be extracted
+                final String internalName = file.getName().substring( 0, file.getName().length() - 4 ); // remove ".jar"
+                ResourceUtils.unZipIt( file, tempDir, ( entryName ) -> {
+                    if( entryName.startsWith( internalName ) ) {
+                        entryName = entryName.substring( internalName.length() + 1 );
                     }
+                    return entryName;
+                } );
+            }
+            Files.copy( launch4jJar.toPath(), new File( tempDir, name ).toPath() );
+            try {
+                Files.move( tempDir.toPath(), libDir.toPath(), StandardCopyOption.ATOMIC_MOVE );
+            } catch( IOException ex ) {
+                // a parallel build was faster
+                project.delete( tempDir );
+                if( !libDir.isDirectory() ) {
+                    throw ex;
                 }
             }
-            lauch4jClassLoader = new URLClassLoader( urls.toArray( new URL[urls.size()] ), getClass().getClassLoader() );
         }
-        return lauch4jClassLoader;
+        urls.add( 0, new File( libDir, name ).toURI().toURL() );
+        return urls.toArray( new URL[urls.size()] );
     }
 
     /**
-     * Close the ClassLoader
+     * Close the ClassLoaders
      *
      * @throws IOException if any error occur
      */
     void close() throws IOException {
-        if( lauch4jClassLoader != null ) {
-            lauch4jClassLoader.close();
-            lauch4jClassLoader = null;
+        for( URLClassLoader loader : classLoaders ) {
+            loader.close();
         }
+        classLoaders.clear();
+        idleClassLoaders.clear();
     }
 }
@@ -79,6 +79,20 @@ public class Msi extends AbstractSetupTask {
 
     private boolean                    skipValidation = false;
 
+    private boolean                    validateWxs    = true;
+
+    private boolean                    streamFiles    = false;
+
+    private int                        wxsFragments   = 1;
+
+    private List<MsiCabinet>           cabinets       = new ArrayList<>();
+
+    private Object                     cabCache;
+
+    private boolean                    javaMsiWriter  = false;
+
+    private Object                     patchBaseline;
+
     private Closure<?>                 externalSignTool = null; 
 
     /**
@@ -417,7 +431,7 @@ public class Msi extends AbstractSetupTask {
 
     /**
      * Set the count of possible multiple instances. The default is 1. A value lesser or equals 1 result in a single
-     * instance setup.
+     * instance setup. The transforms of the instances are embedded in the msi file.
      *
      * @param instanceCount the current instance count
      */
@@ -441,6 +455,8 @@ public class Msi extends AbstractSetupTask {
 
     /**
      * Set a vbscript that can change the product name, instance id and other things on a multi instance installation.
+     * The directories and package codes of the installed instances are available in the properties INSTANCE_DIR_n and
+     * INSTANCE_PACKAGE_n.
      *
      * @param multiInstanceScript the script
      */
@@ -616,13 +632,189 @@ public class Msi extends AbstractSetupTask {
     }
 
     /**
-     * Set that the skipValidation is requested
+     * Set that the skipValidation is requested. The ICE validation of light.exe is slow and needs the validation engine
+     * of Windows. The most important rules are also checked without the WiX toolset before the msi file is linked.
      * @param skipValidation the skipValidation to set
      */
     public void setSkipValidation( boolean skipValidation ) {
         this.skipValidation = skipValidation;
     }
 
+    /**
+     * Returns if the wxs sources are validated before the msi file is linked.
+     * @return true, if the validation is enabled
+     */
+    @Input
+    public boolean isValidateWxs() {
+        return validateWxs;
+    }
+
+    /**
+     * Set if the wxs sources are validated with the most important ICE rules before the msi file is linked. The
+     * unresolved references of a wxs template and of the externals are only logged as warnings. The default is true.
+     * @param validateWxs false, to disable the validation
+     */
+    public void setValidateWxs( boolean validateWxs ) {
+        this.validateWxs = validateWxs;
+    }
+
+    /**
+     * Returns if the components of the files are streamed into a separate fragment.
+     * @return true, if streaming is enabled
+     */
+    @Input
+    public boolean isStreamFiles() {
+        return streamFiles;
+    }
+
+    /**
+     * Stream the components of the files into a separate WiX fragment instead of the DOM of the main wxs file. This
+     * is needed for setups with a very large count of files. Every file receives its own component in this mode. The
+     * components are not compatible to previous versions without this mode. This should be changed only together with
+     * a major upgrade.
+     * @param streamFiles true, if streaming should be enabled
+     */
+    public void setStreamFiles( boolean streamFiles ) {
+        this.streamFiles = streamFiles;
+    }
+
+    /**
+     * Returns the count of fragments for the streamed files.
+     * @return the count
+     */
+    @Input
+    public int getWxsFragments() {
+        return wxsFragments;
+    }
+
+    /**
+     * Set the count of WiX fragments in which the streamed files are split. All files of a directory are in the same
+     * fragment. The fragments are compiled in parallel and a fragment that has not changed since the previous build is
+     * not compiled again. This has only an effect together with streamFiles. The default is 1.
+     * @param wxsFragments the count
+     */
+    public void setWxsFragments( int wxsFragments ) {
+        if( wxsFragments < 1 ) {
+            throw new GradleException( "wxsFragments must be positive: " + wxsFragments );
+        }
+        this.wxsFragments = wxsFragments;
+    }
+
+    /**
+     * Register an additional cabinet.
+     *
+     * @param closue the closure of the cabinet definition
+     */
+    public void cabinet( Closure<MsiCabinet> closue ) {
+        cabinets.add( ConfigureUtil.configure( closue, new MsiCabinet() ) );
+    }
+
+    /**
+     * Register an additional cabinet. Files that match the include patterns of a cabinet are packed in this cabinet
+     * instead of the default cabinet media1.cab. The first matching cabinet wins.
+     *
+     * @param action the action of the cabinet definition
+     */
+    public void cabinet( Action<? super MsiCabinet> action ) {
+        MsiCabinet cabinet = new MsiCabinet();
+        action.execute( cabinet );
+        cabinets.add( cabinet );
+    }
+
+    /**
+     * Returns the registered additional cabinets.
+     *
+     * @return the cabinets
+     */
+    @Input
+    public List<MsiCabinet> getCabinets() {
+        return cabinets;
+    }
+
+    /**
+     * Get the cabinet cache directory of light.
+     *
+     * @return the directory or null
+     */
+    @Internal
+    public File getCabCache() {
+        if( cabCache != null ) {
+            return getProject().file( cabCache );
+        }
+        return null;
+    }
+
+    /**
+     * Set a directory for the cabinet cache of light. The cabinets are saved in this directory and reused on the next
+     * build if their files have not changed. This is useful together with additional cabinets for the rarely changed
+     * files.
+     *
+     * @param cabCache the directory
+     */
+    public void setCabCache( Object cabCache ) {
+        this.cabCache = cabCache;
+    }
+
+    /**
+     * Returns if the msi file is written without the WiX toolset.
+     * @return true, if the Java msi writer is used
+     */
+    @Input
+    public boolean isJavaMsiWriter() {
+        return javaMsiWriter;
+    }
+
+    /**
+     * Write the msi database and its cabinets in Java instead of calling candle.exe and light.exe. This does not
+     * need Windows. This is experimental and supports only the WiX elements that are created by this plugin. The
+     * dialogs of the WixUIExtension are not available, the setup runs with the basic user interface of the Windows
+     * Installer. Only the first language is written. The msi file is not validated with ICE rules. The default is
+     * false.
+     * @param javaMsiWriter true, if the Java msi writer should be used
+     */
+    public void setJavaMsiWriter( boolean javaMsiWriter ) {
+        this.javaMsiWriter = javaMsiWriter;
+    }
+
+    /**
+     * Get the msi file of the released version for which a patch is created.
+     *
+     * @return the msi file or null
+     */
+    @InputFile
+    @Optional
+    public File getPatchBaseline() {
+        if( patchBaseline != null ) {
+            return getProject().file( patchBaseline );
+        }
+        return null;
+    }
+
+    /**
+     * Set the msi file of a previous release. If set then additionally to the msi file a patch (msp) is created that
+     * updates an installation of the previous release to the current version. The patch contains only the added and
+     * changed files. The IDs of the files must be stable, that the IDs of the previous release are read from the file
+     * with the extension ".ids" next to the msi file. This file is written with every build. Removed files are not
+     * possible with a patch, this requires a major upgrade.
+     *
+     * @param patchBaseline the msi file of the previous release
+     */
+    public void setPatchBaseline( Object patchBaseline ) {
+        this.patchBaseline = patchBaseline;
+    }
+
+    /**
+     * Get the patch file that is created if a patch baseline is set.
+     *
+     * @return the msp file
+     */
+    @Internal
+    public File getPatchFile() {
+        File setupFile = getSetupFile();
+        String name = setupFile.getName();
+        return new File( setupFile.getParentFile(), name.substring( 0, name.length() - 4 ) + ".msp" );
+    }
+
     /**
      * Set a closure with an external sign tool configuration.
      *
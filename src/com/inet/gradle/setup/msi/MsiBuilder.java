@@ -19,15 +19,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 
 import org.gradle.api.GradleException;
 import org.gradle.api.file.CopySpec;
@@ -35,7 +34,12 @@ import org.gradle.api.internal.file.FileResolver;
 
 import com.inet.gradle.setup.SetupBuilder;
 import com.inet.gradle.setup.abstracts.AbstractBuilder;
+import com.inet.gradle.setup.msi.db.CompoundFile;
+import com.inet.gradle.setup.msi.db.MsiDatabase;
+import com.inet.gradle.setup.msi.db.MsiTransform;
+import com.inet.gradle.setup.msi.db.SummaryInformation;
 import com.inet.gradle.setup.util.ResourceUtils;
+import com.inet.gradle.setup.util.SigningCache;
 
 import groovy.lang.Closure;
 
@@ -45,7 +49,37 @@ import groovy.lang.Closure;
  */
 class MsiBuilder extends AbstractBuilder<Msi, SetupBuilder> {
 
-    private SetupBuilder setup;
+    /**
+     * The max count of files that are signed with a single signtool call.
+     */
+    private static final int MAX_SIGN_BATCH   = 100;
+
+    /**
+     * The max length of the file names of a single signtool call, the limit of a command line is 32767 characters.
+     */
+    private static final int MAX_SIGN_COMMAND = 24000;
+
+    private SetupBuilder    setup;
+
+    /**
+     * True, if the versions, languages and hashes of the files are calculated in Java and not by light.exe.
+     */
+    private boolean         suppressFileInfo;
+
+    /**
+     * The client for the RFC 3161 timestamp servers, shared between all signed files of the build.
+     */
+    private TimestampClient timestampClient;
+
+    /**
+     * The cache of the signed files of previous builds.
+     */
+    private SigningCache    signingCache;
+
+    /**
+     * The signtool extracted to the build directory, shared between all signing calls of the build.
+     */
+    private String          signToolPath;
 
     /**
      * Create a new instance
@@ -64,49 +98,70 @@ class MsiBuilder extends AbstractBuilder<Msi, SetupBuilder> {
     void build() {
         try {
 
-            File wxsFile = getWxsFile();
-            URL template = task.getWxsTemplateURL();
-            new WxsFileBuilder( task, setup, wxsFile, buildDir, template, false ).build();
-            template = wxsFile.toURI().toURL();
-
             buildLauch4j();
-            candle();
-
-            ResourceUtils.extract( getClass(), "sdk/MsiTran.exe", buildDir );
-            ResourceUtils.extract( getClass(), "sdk/wilangid.vbs", buildDir );
-            ResourceUtils.extract( getClass(), "sdk/wisubstg.vbs", buildDir );
 
+            // The model is build only once. The translations are created from a variant without files of the same model.
             List<MsiLanguages> languages = task.getLanguages();
-            String[] languageResources = getLanguageResources();
+            File languageWxsFile = getLanguageWxsFile();
+            languageWxsFile.delete();
+            WxsFileBuilder wxs = new WxsFileBuilder( task, setup, getWxsFile(), buildDir, task.getWxsTemplateURL() );
+            wxs.build();
+            signFiles( wxs );
+            if( languages.size() > 1 && !task.isJavaMsiWriter() ) {
+                wxs.saveWithoutFiles( languageWxsFile );
+            }
 
-            File mui = light( languages.get( 0 ), languageResources );
-            HashMap<MsiLanguages, File> translations = new HashMap<>();
-            for( int i = 1; i < languages.size(); i++ ) {
-                MsiLanguages language = languages.get( i );
-                File file = light( language, languageResources );
-                patchLangID( file, language );
-                File mst = msitran( mui, file, language );
-                translations.put( language, mst );
+            List<File> fragments = getFragments();
+            if( task.isValidateWxs() ) {
+                validate( wxs, fragments );
             }
+            if( task.isJavaMsiWriter() ) {
+                buildWithJava( languages, fragments, wxs.getFileInfos() );
+                createPatch( wxs );
+                return;
+            }
+            // the file infos are calculated in parallel to candle.exe and light.exe
+            suppressFileInfo = task.getExternals().isEmpty() && wxs.hasFileInfos();
+            if( !suppressFileInfo ) {
+                wxs.stopFileInfos();
+            }
+            List<File> sources = new ArrayList<>( task.getExternals() );
+            sources.add( 0, getWxsFile() );
+            List<File> languageSources = new ArrayList<>( task.getExternals() );
+            languageSources.add( 0, languageWxsFile );
+            List<File> mainSources = new ArrayList<>( sources );
+            if( languageWxsFile.isFile() ) {
+                mainSources.add( languageWxsFile );
+            }
+            candle( mainSources, fragments );
+            sources.addAll( 1, fragments );
 
-            // Now create a msi with all files
-            new WxsFileBuilder( task, setup, wxsFile, buildDir, template, true ).build();
-            candle();
-            mui = light( languages.get( 0 ), languageResources );
-
-            // Add the translations to the msi with all files
-            StringBuilder langIDs = new StringBuilder( languages.get( 0 ).getLangID() );
-            for( Entry<MsiLanguages, File> entry : translations.entrySet() ) {
-                MsiLanguages language = entry.getKey();
-                File mst = entry.getValue();
-                addTranslation( mui, mst, language );
-                langIDs.append( ',' ).append( language.getLangID() );
+            String[] languageResources = getLanguageResources();
+
+            List<CompoundFile.Storage> translations = new ArrayList<>();
+            if( languages.size() > 1 ) {
+                File base = light( languages.get( 0 ), languageResources, languageSources, "_base", false );
+                try( MsiDatabase baseDb = MsiDatabase.open( base ) ) {
+                    for( int i = 1; i < languages.size(); i++ ) {
+                        MsiLanguages language = languages.get( i );
+                        File file = light( language, languageResources, languageSources, "", false );
+                        try( MsiDatabase variant = MsiDatabase.open( file ) ) {
+                            translations.add( translation( baseDb, variant, language ) );
+                        }
+                        file.delete(); // after creation of the transform we does not need it anymore
+                    }
+                }
+                base.delete();
             }
-            patchLangID( mui, langIDs.toString() );
+
+            // Now create the msi with all files and add the translations and the file infos
+            File mui = light( languages.get( 0 ), languageResources, sources, "", true );
+            updateDatabase( mui, languages.get( 0 ), translations, suppressFileInfo ? wxs.getFileInfos() : null );
 
             // signing and moving the final msi file
-            signTool( mui );
+            signTool( mui, false );
             Files.move( mui.toPath(), task.getSetupFile().toPath(), StandardCopyOption.REPLACE_EXISTING );
+            createPatch( wxs );
         } catch( RuntimeException ex ) {
             throw ex;
         } catch( Exception ex ) {
@@ -114,6 +169,66 @@ class MsiBuilder extends AbstractBuilder<Msi, SetupBuilder> {
         }
     }
 
+    /**
+     * Write the msi file without the WiX toolset. The translations are compiled without cabinets.
+     * @param languages the languages of the setup
+     * @param fragments the wxs files of the fragments
+     * @param fileInfos the versions, languages and hashes of the files
+     * @throws Exception if any error occur
+     */
+    private void buildWithJava( List<MsiLanguages> languages, List<File> fragments, Map<String, MsiFileInfo> fileInfos ) throws Exception {
+        if( !task.getExternals().isEmpty() || !task.getWixExtensions().isEmpty() ) {
+            throw new GradleException( "The Java msi writer does not support external wxs files and WiX extensions." );
+        }
+        MsiLanguages language = languages.get( 0 );
+        String[] languageResources = getLanguageResources();
+        File msi = new File( buildDir, setup.getArchiveName() + '_' + language.getCulture() + ".msi" );
+        WxsMsiCompiler compiler = new WxsMsiCompiler( task, buildDir, language );
+        compiler.setFileInfos( fileInfos );
+        compiler.compile( getWxsFile(), fragments, languageResources, msi );
+
+        if( languages.size() > 1 || task.getMultiInstanceCount() > 1 ) {
+            List<CompoundFile.Storage> translations = new ArrayList<>();
+            try( MsiDatabase base = MsiDatabase.open( msi ) ) {
+                for( int i = 1; i < languages.size(); i++ ) {
+                    MsiLanguages translation = languages.get( i );
+                    WxsMsiCompiler variantCompiler = new WxsMsiCompiler( task, buildDir, translation );
+                    variantCompiler.setFileInfos( fileInfos );
+                    try( MsiDatabase variant = variantCompiler.compileTranslation( getWxsFile(), fragments, languageResources ) ) {
+                        translations.add( translation( base, variant, translation ) );
+                    }
+                }
+            }
+            updateDatabase( msi, language, translations, null );
+        }
+
+        // signing and moving the final msi file
+        signTool( msi, false );
+        Files.move( msi.toPath(), task.getSetupFile().toPath(), StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    /**
+     * Save the IDs of the setup next to the msi file for a later patch and create the patch for the patch baseline if
+     * set.
+     *
+     * @param wxs the builder of the model
+     * @throws IOException if any error occur
+     */
+    private void createPatch( WxsFileBuilder wxs ) throws IOException {
+        File setupFile = task.getSetupFile();
+        Files.copy( new File( buildDir, "wxs.ids" ).toPath(), new File( setupFile.getPath() + ".ids" ).toPath(), StandardCopyOption.REPLACE_EXISTING );
+        File baseline = task.getPatchBaseline();
+        if( baseline == null ) {
+            return;
+        }
+        if( task.getMultiInstanceCount() > 1 ) {
+            throw new GradleException( "A patch for a setup with multiple instances is not supported." );
+        }
+        File msp = task.getPatchFile();
+        new MsiPatch( task.getProject().getLogger(), baseline, setupFile, wxs.getSources(), buildDir ).create( msp );
+        signTool( msp, false );
+    }
+
     /**
      * Get a list of matching files for the resource location
      * @param msiLanguages
@@ -135,15 +250,21 @@ class MsiBuilder extends AbstractBuilder<Msi, SetupBuilder> {
     }
 
     /**
-     * Create the lauch4j starter if there was set some and add it to the sources.
+     * Create the lauch4j starter if there was set some and add it to the sources. The starters are created in parallel.
      * @throws Exception if any error occur
      */
     private void buildLauch4j() throws Exception {
-        if( task.getLaunch4js().size() > 0 ) {
+        List<Launch4j> launches = task.getLaunch4js();
+        if( launches.size() > 0 ) {
             Launch4jCreator creator = new Launch4jCreator();
-            for( Launch4j launch : task.getLaunch4js() ) {
-                File file = creator.create( launch, task, setup );
-                signTool( file );
+            List<File> files = creator.create( launches, task, setup );
+            creator.close();
+            for( int i = 0; i < launches.size(); i++ ) {
+                Launch4j launch = launches.get( i );
+                File file = files.get( i );
+                if( task.getSignTool() == null || !task.getSignTool().isSignFiles() ) {
+                    signTool( file, true ); // else it is signed with all other files of the setup
+                }
                 CopySpec copySpec = task.getProject().copySpec( (Closure<CopySpec>)null );
                 task.with( copySpec );
                 copySpec.from( file );
@@ -152,7 +273,6 @@ class MsiBuilder extends AbstractBuilder<Msi, SetupBuilder> {
                     copySpec.into( workDir );
                 }
             }
-            creator.close();
         }
     }
 
@@ -167,25 +287,107 @@ class MsiBuilder extends AbstractBuilder<Msi, SetupBuilder> {
     }
 
     /**
-     * Call the candle.exe tool.
+     * Validate the model with the ICE rules that are relevant for the generated sources. This needs only some seconds
+     * and runs also if the validation of light.exe is skipped or the msi file is written without the WiX toolset. The
+     * references of a wxs template and of the externals can be resolved from the WiX extensions and are not strict.
+     * @param wxs the model of the setup
+     * @param fragments the wxs files of the fragments
+     * @throws Exception if a source can not be read
+     */
+    private void validate( WxsFileBuilder wxs, List<File> fragments ) throws Exception {
+        WxsValidator validator = new WxsValidator( task.getProject().getLogger() );
+        validator.addDocument( wxs.doc, getWxsFile().getName(), task.getWxsTemplate() == null );
+        for( File fragment : fragments ) {
+            validator.addFile( fragment, true );
+        }
+        for( File external : task.getExternals() ) {
+            validator.addFile( external, false );
+        }
+        validator.validate();
+    }
+
+    /**
+     * Get the fragments with the streamed files.
+     * @return the wxs files of the fragments
      */
-    private void candle() {
+    private List<File> getFragments() {
+        List<File> fragments = new ArrayList<>();
+        if( task.isStreamFiles() ) {
+            for( int i = 0; i < task.getWxsFragments(); i++ ) {
+                fragments.add( WxsFragmentWriter.getFragmentFile( getWxsFile(), i ) );
+            }
+        }
+        return fragments;
+    }
+
+    /**
+     * Compile the sources and the fragments. Every fragment is compiled with its own candle.exe process and all
+     * processes are running in parallel. A fragment that was not changed since the last build is not compiled again.
+     * @param sources the wxs files that are compiled always
+     * @param fragments the wxs files of the fragments
+     * @throws IOException if the options of the last build can not be read or written
+     */
+    private void candle( List<File> sources, List<File> fragments ) throws IOException {
+        String options = String.join( " ", getCandleOptions() );
+        File stamp = new File( buildDir, "candle.options" );
+        boolean sameOptions = stamp.isFile() && options.equals( new String( Files.readAllBytes( stamp.toPath() ), StandardCharsets.UTF_8 ) );
+        stamp.delete();
+
+        List<List<File>> calls = new ArrayList<>();
+        calls.add( sources );
+        for( File fragment : fragments ) {
+            if( sameOptions && getObjectFile( fragment ).lastModified() >= fragment.lastModified() ) {
+                task.getProject().getLogger().lifecycle( "\tFragment is up to date: " + fragment.getName() );
+                continue;
+            }
+            calls.add( Collections.singletonList( fragment ) );
+        }
+        calls.parallelStream().forEach( this::candle );
+
+        Files.write( stamp.toPath(), options.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Get the options of candle.exe that change the compiled output.
+     * @return the options
+     */
+    private ArrayList<String> getCandleOptions() {
         ArrayList<String> parameters = new ArrayList<>();
-        parameters.add( "-nologo" );
         parameters.add( "-arch" );
         parameters.add( task.getArch() );
-        parameters.add( "-out" );
-        parameters.add( buildDir.getAbsolutePath() + '\\' );
-        parameters.add( getWxsFile().getAbsolutePath() );
-        for( File external : task.getExternals() ) {
-            parameters.add( external.getAbsolutePath() );
-        }
         for( String extension : task.getWixExtensions() ) {
             parameters.add( "-ext" );
             parameters.add( extension );
         }
         parameters.add( "-ext" );
         parameters.add( "WixUtilExtension" );
+        return parameters;
+    }
+
+    /**
+     * Get the compiled file of a source.
+     * @param source the wxs file
+     * @return the wixobj file in the build directory
+     */
+    private File getObjectFile( File source ) {
+        String name = source.getName();
+        int idx = name.lastIndexOf( '.' );
+        return new File( buildDir, (idx > 0 ? name.substring( 0, idx ) : name) + ".wixobj" );
+    }
+
+    /**
+     * Call the candle.exe tool. All sources are compiled with a single call.
+     * @param sources the wxs files
+     */
+    private void candle( List<File> sources ) {
+        ArrayList<String> parameters = new ArrayList<>();
+        parameters.add( "-nologo" );
+        parameters.add( "-out" );
+        parameters.add( buildDir.getAbsolutePath() + '\\' );
+        for( File source : sources ) {
+            parameters.add( source.getAbsolutePath() );
+        }
+        parameters.addAll( getCandleOptions() );
 
         callWixTool( "candle.exe", parameters );
     }
@@ -194,10 +396,13 @@ class MsiBuilder extends AbstractBuilder<Msi, SetupBuilder> {
      * Call the light.exe tool.
      * @param language the target language
      * @param languageResources the language resource files
+     * @param sources the compiled wxs files which should be linked
+     * @param suffix a suffix for the name of the msi file
+     * @param withFiles true, if the sources contains the files and the cabinet cache should be used
      * @return the generated msi file
      */
-    private File light( MsiLanguages language, String[] languageResources ) {
-        File out = new File( buildDir, setup.getArchiveName() + '_' + language.getCulture() + ".msi" );
+    private File light( MsiLanguages language, String[] languageResources, List<File> sources, String suffix, boolean withFiles ) {
+        File out = new File( buildDir, setup.getArchiveName() + '_' + language.getCulture() + suffix + ".msi" );
         ArrayList<String> parameters = new ArrayList<>();
         parameters.add( "-nologo" );
         parameters.add( "-sice:ICE60" ); // accept *.ttf files to install in the install directory
@@ -228,92 +433,90 @@ class MsiBuilder extends AbstractBuilder<Msi, SetupBuilder> {
             parameters.add( "-dWixUILicenseRtf=" + localizedRtfFile.getAbsolutePath() );
         }
 
+        // The versions, languages and hashes of the files are added after linking
+        if( suppressFileInfo ) {
+            parameters.add( "-sh" );
+        }
+
+        // Reuse the unchanged cabinets of the previous build
+        File cabCache = task.getCabCache();
+        if( withFiles && cabCache != null ) {
+            cabCache.mkdirs();
+            parameters.add( "-cc" );
+            parameters.add( cabCache.getAbsolutePath() );
+            parameters.add( "-reusecab" );
+        }
+
         // Check if we should skip msi validation
         if( task.isSkipValidation() ) {
             parameters.add( "-sval" );
         }
 
-        parameters.add( "*.wixobj" );
+        for( File source : sources ) {
+            parameters.add( getObjectFile( source ).getAbsolutePath() );
+        }
         callWixTool( "light.exe", parameters );
         return out;
     }
 
     /**
-     * Change the language ID of a *.msi file.
-     * @param file a msi file
-     * @param language the target language
-     */
-    private void patchLangID( File file, MsiLanguages language ) {
-        ArrayList<String> parameters = new ArrayList<>();
-        parameters.add( "cscript" );
-        parameters.add( "//Nologo" );
-        parameters.add( new File( buildDir, "sdk/wilangid.vbs" ).getAbsolutePath() );
-        parameters.add( file.getAbsolutePath() );
-        parameters.add( "Product" );
-        parameters.add( language.getLangID() );
-        exec( parameters );
-    }
-
-    /**
-     * Set all languages IDs for which translations was added.
-     * @param mui the multilingual user interface (MUI) installer file
-     * @param langIDs a comma separated list of languages IDs
+     * Create the transform (*.mst) of a translation. The ProductLanguage of the translation is set to the target
+     * language before.
+     * @param base the msi without files of the first language
+     * @param variant the msi without files of the translation
+     * @param language the language of the translation
+     * @return the transform, the name of the storage is the language ID
+     * @throws IOException if any error occur
      */
-    private void patchLangID( File mui, String langIDs ) {
-        ArrayList<String> parameters = new ArrayList<>();
-        parameters.add( "cscript" );
-        parameters.add( "//Nologo" );
-        parameters.add( new File( buildDir, "sdk/wilangid.vbs" ).getAbsolutePath() );
-        parameters.add( mui.getAbsolutePath() );
-        parameters.add( "Package" );
-        parameters.add( langIDs );
-        exec( parameters );
+    private CompoundFile.Storage translation( MsiDatabase base, MsiDatabase variant, MsiLanguages language ) throws IOException {
+        variant.getTable( "Property" ).setRow( "ProductLanguage", language.getLangID() );
+        task.getProject().getLogger().lifecycle( "\tCreate transform for " + language.getCulture() );
+        return MsiTransform.generate( base, variant, language.getLangID() );
     }
 
     /**
-     * Call the msitran.exe tool and create a transform file (*.mst).
+     * Embed the transforms of the translations as sub storages in the msi file and set all language IDs in the summary
+     * information. The file infos that was not calculated by light.exe are added. The transforms of the instances of a
+     * multi instance setup are added.
      * @param mui the multilingual user interface (MUI) installer file
-     * @param file the current msi file
-     * @param language current language
-     * @return the *.mst file
+     * @param language the language of the msi file
+     * @param translations the transforms of the other languages
+     * @param fileInfos the versions, languages and hashes of the files or null
+     * @throws IOException if any error occur
      */
-    private File msitran( File mui, File file, MsiLanguages language ) {
-        File mst = new File( buildDir, language.getCulture() + ".mst" );
-        ArrayList<String> parameters = new ArrayList<>();
-        parameters.add( new File( buildDir, "sdk/MsiTran.exe" ).getAbsolutePath() );
-        parameters.add( "-g" );
-        parameters.add( mui.getAbsolutePath() );
-        parameters.add( file.getAbsolutePath() );
-        parameters.add( mst.getAbsolutePath() );
-        exec( parameters );
-        file.delete(); // after creation of the mst file we does not need it anymore
-        return mst;
-    }
-
-    /**
-     * Add a transform file to the msi file
-     * @param mui the multilingual user interface (MUI) installer file
-     * @param mst the transform file
-     * @param language current language
-     */
-    private void addTranslation( File mui, File mst, MsiLanguages language ) {
-        ArrayList<String> parameters = new ArrayList<>();
-        parameters.add( "cscript" );
-        parameters.add( "//Nologo" );
-        parameters.add( new File( buildDir, "sdk/wisubstg.vbs" ).getAbsolutePath() );
-        parameters.add( mui.getAbsolutePath() );
-        parameters.add( mst.getAbsolutePath() );
-        parameters.add( language.getLangID() );
-        exec( parameters );
-        mst.delete(); // after adding the mst file we does not need it anymore
+    private void updateDatabase( File mui, MsiLanguages language, List<CompoundFile.Storage> translations, Map<String, MsiFileInfo> fileInfos ) throws IOException {
+        try( MsiDatabase db = MsiDatabase.open( mui ) ) {
+            if( fileInfos != null ) {
+                MsiFileInfo.apply( db, fileInfos );
+            }
+            StringBuilder langIDs = new StringBuilder( language.getLangID() );
+            for( CompoundFile.Storage mst : translations ) {
+                db.getStorage().setStorage( mst );
+                langIDs.append( ',' ).append( mst.getName() );
+            }
+            SummaryInformation summary = db.getSummaryInformation();
+            String template = (String)summary.getProperty( SummaryInformation.PID_TEMPLATE );
+            int idx = template == null ? -1 : template.indexOf( ';' );
+            String platform = idx < 0 ? (template == null ? "" : template) : template.substring( 0, idx );
+            summary.setProperty( SummaryInformation.PID_TEMPLATE, platform + ';' + langIDs );
+            int instanceCount = task.getMultiInstanceCount();
+            if( instanceCount > 1 ) {
+                task.getProject().getLogger().lifecycle( "\tCreate " + instanceCount + " instance transforms" );
+                new MsiInstanceTransforms( setup, instanceCount ).addTo( db );
+            }
+            db.save( mui );
+        }
     }
 
     /**
-     * Sign a file if the needed information are set.
+     * Sign a file if the needed information are set. If the same content was already signed with the same options then
+     * the signed file is taken from the signing cache. The msi and msp files are not cached because their PackageCode
+     * and the times in the summary information are new in every build, a cache entry would never be used again.
      * @param file file to sign
+     * @param cache true, if the signing cache should be used
      * @throws IOException If any I/O error occur on loading of the sign tool
      */
-    private void signTool( File file ) throws IOException {
+    private void signTool( File file, boolean cache ) throws IOException {
         if( task.getExternalSignTool() != null ) {
             task.getExternalSignTool().call( file );
             return;
@@ -324,8 +527,149 @@ class MsiBuilder extends AbstractBuilder<Msi, SetupBuilder> {
             return; // no sign information set
         }
 
-        String tool = ResourceUtils.extract( getClass(), "sdk/signtool.exe", buildDir ).getAbsolutePath();
+        String tool = getSignToolPath();
+        if( !cache ) {
+            signTool( Collections.singletonList( file ), sign, tool );
+            return;
+        }
+        getSigningCache().sign( file, getSignOptions( sign ), () -> signTool( Collections.singletonList( file ), sign, tool ) );
+    }
+
+    /**
+     * Sign the unsigned PE files of the setup if this is enabled. The files are copied to the build directory and the
+     * copies are signed. Files from the signing cache are not signed again. The other files are signed in batches with
+     * multiple files per signtool call and the batches are running in parallel. After signing the file infos of the
+     * copies are calculated.
+     * @param wxs the builder with the files
+     * @throws IOException If any I/O error occur
+     */
+    private void signFiles( WxsFileBuilder wxs ) throws IOException {
+        Map<String, File[]> files = wxs.getUnsignedFiles();
+        if( files.isEmpty() ) {
+            return;
+        }
+        SignTool sign = task.getSignTool();
+        boolean external = task.getExternalSignTool() != null;
+        String options = getSignOptions( sign );
+        List<File> unsigned = Collections.synchronizedList( new ArrayList<>() );
+        List<SigningCache.Entry> entries = Collections.synchronizedList( new ArrayList<>() );
+        files.values().parallelStream().forEach( file -> {
+            try {
+                File signed = file[1];
+                signed.getParentFile().mkdirs();
+                Files.copy( file[0].toPath(), signed.toPath(), StandardCopyOption.REPLACE_EXISTING );
+                if( external ) {
+                    unsigned.add( signed );
+                    return;
+                }
+                SigningCache.Entry entry = getSigningCache().prepare( signed, options );
+                if( !entry.restore() ) {
+                    unsigned.add( signed );
+                    entries.add( entry );
+                }
+            } catch( IOException ex ) {
+                throw new RuntimeException( ex );
+            }
+        } );
+        task.getProject().getLogger().lifecycle( "\tSigning " + unsigned.size() + " of " + files.size() + " unsigned files" );
+
+        if( external ) {
+            for( File file : unsigned ) {
+                task.getExternalSignTool().call( file );
+            }
+        } else if( !unsigned.isEmpty() ) {
+            Collections.sort( unsigned );
+            int parallel = Runtime.getRuntime().availableProcessors();
+            int batchSize = Math.min( MAX_SIGN_BATCH, (unsigned.size() + parallel - 1) / parallel );
+            List<List<File>> batches = new ArrayList<>();
+            List<File> batch = null;
+            int length = 0;
+            for( File file : unsigned ) {
+                int fileLength = file.getAbsolutePath().length() + 3;
+                if( batch == null || batch.size() >= batchSize || length + fileLength > MAX_SIGN_COMMAND ) {
+                    batches.add( batch = new ArrayList<>() );
+                    length = 0;
+                }
+                batch.add( file );
+                length += fileLength;
+            }
+            getTimestampClient( sign ); // create it before the threads are started
+            String tool = getSignToolPath(); // extract it once, the batches are running it at the same time
+            batches.parallelStream().forEach( part -> {
+                try {
+                    signTool( part, sign, tool );
+                } catch( IOException ex ) {
+                    throw new RuntimeException( ex );
+                }
+            } );
+            for( SigningCache.Entry entry : entries ) {
+                entry.store();
+            }
+        }
+        wxs.addSignedFiles();
+    }
+
+    /**
+     * Get the options of the signtool that have an effect on the signed files.
+     * @param sign the sign information
+     * @return the options as string
+     */
+    private String getSignOptions( SignTool sign ) {
+        StringBuilder options = new StringBuilder( "signtool" );
+        if( sign.getCertificate() != null ) {
+            File certificate = task.getProject().file( sign.getCertificate() );
+            options.append( '|' ).append( certificate.getAbsolutePath() ).append( '|' ).append( certificate.length() ).append( '|' ).append( certificate.lastModified() );
+        }
+        options.append( '|' ).append( sign.getSha1() ).append( '|' ).append( setup.getApplication() );
+        options.append( '|' ).append( sign.getTimestamp() ).append( '|' ).append( sign.getTimestampRfc3161() );
+        return options.toString();
+    }
+
+    /**
+     * Get the cache of the signed files.
+     * @return the cache
+     */
+    private synchronized SigningCache getSigningCache() {
+        if( signingCache == null ) {
+            signingCache = new SigningCache( task.getProject() );
+        }
+        return signingCache;
+    }
 
+    /**
+     * Get the client for the RFC 3161 timestamp servers.
+     * @param sign the sign information
+     * @return the client or null if there are no RFC 3161 timestamp servers
+     * @throws IOException if the statistics of the servers can not be read
+     */
+    private synchronized TimestampClient getTimestampClient( SignTool sign ) throws IOException {
+        List<String> rfc3161 = sign.getTimestampRfc3161();
+        if( timestampClient == null && rfc3161 != null && !rfc3161.isEmpty() ) {
+            timestampClient = new TimestampClient( rfc3161, sign.getTimestampHedgeDelay(), new File( buildDir, "timestamp.stats" ), task.getProject().getLogger() );
+        }
+        return timestampClient;
+    }
+
+    /**
+     * Get the signtool. It is extracted to the build directory on the first call.
+     * @return the absolute path of the signtool
+     * @throws IOException If any I/O error occur on extracting of the sign tool
+     */
+    private synchronized String getSignToolPath() throws IOException {
+        if( signToolPath == null ) {
+            signToolPath = ResourceUtils.extract( getClass(), "sdk/signtool.exe", buildDir ).getAbsolutePath();
+        }
+        return signToolPath;
+    }
+
+    /**
+     * Sign and timestamp files with a single call of the signtool.
+     * @param files files to sign
+     * @param sign the sign information
+     * @param tool the path of the extracted signtool
+     * @throws IOException If any I/O error occur
+     */
+    private void signTool( List<File> files, SignTool sign, String tool ) throws IOException {
         // signing the file
         ArrayList<String> parameters = new ArrayList<>();
         parameters.add( tool );
@@ -346,12 +690,27 @@ class MsiBuilder extends AbstractBuilder<Msi, SetupBuilder> {
         parameters.add( "/d" ); // http://stackoverflow.com/questions/4315840/the-uac-prompt-shows-a-temporary-random-program-name-for-msi-can-the-correct-na
         parameters.add( setup.getApplication() );
 
-        parameters.add( file.getAbsolutePath() );
+        for( File file : files ) {
+            parameters.add( file.getAbsolutePath() );
+        }
         exec( parameters );
 
         // timestamp the signing
+        List<File> unstamped = files;
+        TimestampClient client = getTimestampClient( sign );
+        if( client != null ) {
+            unstamped = new ArrayList<>();
+            for( File file : files ) {
+                try {
+                    AuthenticodeTimestamp.timestamp( file, client );
+                } catch( IOException ex ) {
+                    task.getProject().getLogger().lifecycle( "RFC 3161 timestamp failed: " + ex );
+                    unstamped.add( file );
+                }
+            }
+        }
         List<String> servers = sign.getTimestamp();
-        if( servers != null ) {
+        if( servers != null && !unstamped.isEmpty() ) {
             RuntimeException allEx = null;
             for( String server : servers ) {
                 parameters = new ArrayList<>();
@@ -359,7 +718,9 @@ class MsiBuilder extends AbstractBuilder<Msi, SetupBuilder> {
                 parameters.add( "timestamp" );
                 parameters.add( "/t" );
                 parameters.add( server );
-                parameters.add( file.getAbsolutePath() );
+                for( File file : unstamped ) {
+                    parameters.add( file.getAbsolutePath() );
+                }
                 try {
                     exec( parameters );
                     allEx = null;
@@ -407,6 +768,14 @@ class MsiBuilder extends AbstractBuilder<Msi, SetupBuilder> {
         return new File( buildDir, setup.getArchiveName() + ".wxs" );
     }
 
+    /**
+     * Get the name of the wxs file without files for the translations
+     * @return the xml file
+     */
+    private File getLanguageWxsFile() {
+        return new File( buildDir, setup.getArchiveName() + "_languages.wxs" );
+    }
+
     /**
      * Get the calling path (include name) of a WIX tool
      * @param tool the name of the tool file
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * An additional cabinet of the msi file. Files that match one of the include patterns are packed into this cabinet
+ * instead of the default cabinet. Cabinets with files that rarely change, like a bundled JRE, can be reused from the
+ * cabinet cache of light.
+ */
+class MsiCabinet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String            name;
+
+    private List<String>      includes = new ArrayList<>();
+
+    private transient Pattern pattern;
+
+    /**
+     * Get the name of the cabinet.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Set the name of the cabinet without the extension .cab.
+     *
+     * @param name the name
+     */
+    public void setName( String name ) {
+        this.name = name;
+    }
+
+    /**
+     * Get the include patterns.
+     *
+     * @return the patterns
+     */
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    /**
+     * Add include patterns. The patterns are relative to the install directory and use '/' as separator. A '*'
+     * matches any characters in a path segment and '**' matches any characters over multiple path segments, for
+     * example "jre/**" or "lib/*.jar".
+     *
+     * @param patterns the patterns
+     */
+    public void include( String... patterns ) {
+        includes.addAll( Arrays.asList( patterns ) );
+        pattern = null;
+    }
+
+    /**
+     * Check if a file should be packed into this cabinet.
+     *
+     * @param path the path of the file relative to the install directory with '/' as separator
+     * @return true, if one of the patterns matches
+     */
+    boolean matches( String path ) {
+        if( pattern == null ) {
+            StringBuilder regex = new StringBuilder();
+            for( String include : includes ) {
+                if( regex.length() > 0 ) {
+                    regex.append( '|' );
+                }
+                for( int i = 0; i < include.length(); i++ ) {
+                    char ch = include.charAt( i );
+                    if( ch == '*' ) {
+                        if( i + 1 < include.length() && include.charAt( i + 1 ) == '*' ) {
+                            regex.append( ".*" );
+                            i++;
+                        } else {
+                            regex.append( "[^/]*" );
+                        }
+                    } else if( ch == '?' ) {
+                        regex.append( "[^/]" );
+                    } else {
+                        regex.append( Pattern.quote( String.valueOf( ch ) ) );
+                    }
+                }
+            }
+            pattern = Pattern.compile( regex.toString() );
+        }
+        return !includes.isEmpty() && pattern.matcher( path ).matches();
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.inet.gradle.setup.msi.db.MsiColumn;
+import com.inet.gradle.setup.msi.db.MsiDatabase;
+import com.inet.gradle.setup.msi.db.MsiTable;
+import com.inet.gradle.setup.util.Digests;
+
+/**
+ * The values of a payload file that light.exe reads while linking: the version and the languages of the version
+ * resource of a PE file or the MD5 hash of an unversioned file for the MsiFileHash table.
+ */
+class MsiFileInfo {
+
+    /** The columns of the MsiFileHash table. */
+    static final MsiColumn[] FILE_HASH_COLUMNS = { MsiColumn.key( "File_", "s72" ), MsiColumn.of( "Options", "i2" ), MsiColumn.of( "HashPart1", "i4" ), MsiColumn.of( "HashPart2", "i4" ), MsiColumn.of( "HashPart3", "i4" ), MsiColumn.of( "HashPart4", "i4" ) };
+
+    private final String  version;
+
+    private final String  language;
+
+    private final int[]   hash;
+
+    /**
+     * Create an instance.
+     *
+     * @param version the file version or null
+     * @param language the languages of the version resource or null
+     * @param hash the hash of an unversioned file or null
+     */
+    private MsiFileInfo( String version, String language, int[] hash ) {
+        this.version = version;
+        this.language = language;
+        this.hash = hash;
+    }
+
+    /**
+     * Get the file version.
+     *
+     * @return the version like "1.2.3.4" or null for an unversioned file
+     */
+    String getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the languages of the version resource.
+     *
+     * @return a comma separated list of language IDs or null
+     */
+    String getLanguage() {
+        return language;
+    }
+
+    /**
+     * Get the hash of an unversioned file. These are the 4 little endian parts of the MD5 digest.
+     *
+     * @return the hash or null for a versioned file
+     */
+    int[] getHash() {
+        return hash;
+    }
+
+    /**
+     * Read the values of a file.
+     *
+     * @param file the file
+     * @param md5 the MD5 digest of the content
+     * @return the info
+     * @throws IOException if the file can not be read
+     */
+    static MsiFileInfo read( File file, byte[] md5 ) throws IOException {
+        String[] versionInfo = readVersion( file );
+        if( versionInfo != null ) {
+            return new MsiFileInfo( versionInfo[0], versionInfo[1], null );
+        }
+        ByteBuffer buf = ByteBuffer.wrap( md5 ).order( ByteOrder.LITTLE_ENDIAN );
+        return new MsiFileInfo( null, null, new int[] { buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt() } );
+    }
+
+    /**
+     * Read the fixed file version and the translations from the version resource of a PE file.
+     *
+     * @param file the file
+     * @return the version and the languages or null if it is not a valid PE file or it has no version resource
+     * @throws IOException if the file can not be read
+     */
+    static String[] readVersion( File file ) throws IOException {
+        try( RandomAccessFile raf = new RandomAccessFile( file, "r" ) ) {
+            return readVersion( raf );
+        } catch( EOFException | IndexOutOfBoundsException ex ) {
+            return null; // a corrupt PE file is handled like an unversioned file
+        }
+    }
+
+    /**
+     * Read the fixed file version and the translations from the version resource of a PE file.
+     *
+     * @param raf the file
+     * @return the version and the languages or null if it is not a PE file or it has no version resource
+     * @throws IOException if the file can not be read
+     */
+    private static String[] readVersion( RandomAccessFile raf ) throws IOException {
+        long length = raf.length();
+        if( length < 0x40 ) {
+            return null;
+        }
+        ByteBuffer dos = read( raf, 0, 0x40 );
+        if( dos.getShort( 0 ) != 0x5A4D ) { // MZ
+            return null;
+        }
+        long peOffset = dos.getInt( 0x3C ) & 0xFFFFFFFFL;
+        if( peOffset + 24 > length ) {
+            return null;
+        }
+        ByteBuffer coff = read( raf, peOffset, 24 );
+        if( coff.getInt( 0 ) != 0x00004550 ) { // PE\0\0
+            return null;
+        }
+        int sections = coff.getShort( 6 ) & 0xFFFF;
+        int optionalSize = coff.getShort( 20 ) & 0xFFFF;
+        ByteBuffer optional = read( raf, peOffset + 24, optionalSize );
+        int magic = optional.getShort( 0 ) & 0xFFFF;
+        int dirOffset = magic == 0x20B ? 112 : 96;
+        int dirCount = optional.getInt( dirOffset - 4 );
+        if( dirCount < 3 || dirOffset + 3 * 8 > optionalSize ) {
+            return null;
+        }
+        int resourceRva = optional.getInt( dirOffset + 16 );
+        if( resourceRva == 0 ) {
+            return null;
+        }
+        ByteBuffer sectionTable = read( raf, peOffset + 24 + optionalSize, sections * 40 );
+
+        long resourceOffset = rvaToOffset( sectionTable, sections, resourceRva );
+        if( resourceOffset < 0 ) {
+            return null;
+        }
+        // type RT_VERSION, the first name and the first language
+        long entry = findResource( raf, resourceOffset, 0, 16 );
+        if( entry < 0 || (entry & 0x80000000L) == 0 ) {
+            return null;
+        }
+        entry = findResource( raf, resourceOffset, entry & 0x7FFFFFFF, -1 );
+        if( entry < 0 || (entry & 0x80000000L) == 0 ) {
+            return null;
+        }
+        entry = findResource( raf, resourceOffset, entry & 0x7FFFFFFF, -1 );
+        if( entry < 0 || (entry & 0x80000000L) != 0 ) {
+            return null;
+        }
+        ByteBuffer dataEntry = read( raf, resourceOffset + entry, 16 );
+        long dataOffset = rvaToOffset( sectionTable, sections, dataEntry.getInt( 0 ) );
+        int dataSize = dataEntry.getInt( 4 );
+        if( dataOffset < 0 || dataSize < 92 || dataOffset + dataSize > length ) {
+            return null;
+        }
+        ByteBuffer info = read( raf, dataOffset, dataSize );
+        // VS_VERSIONINFO: wLength, wValueLength, wType, "VS_VERSION_INFO\0", padding, VS_FIXEDFILEINFO
+        int fixed = 40;
+        if( info.getShort( 2 ) == 0 || info.getInt( fixed ) != 0xFEEF04BD ) {
+            return null;
+        }
+        int ms = info.getInt( fixed + 8 );
+        int ls = info.getInt( fixed + 12 );
+        String version = (ms >>> 16) + "." + (ms & 0xFFFF) + "." + (ls >>> 16) + "." + (ls & 0xFFFF);
+        return new String[] { version, readTranslations( info ) };
+    }
+
+    /**
+     * Read the languages of the "Translation" value in the VarFileInfo of a version resource.
+     *
+     * @param info the version resource
+     * @return a comma separated list or null
+     */
+    private static String readTranslations( ByteBuffer info ) {
+        byte[] key = "Translation\0".getBytes( StandardCharsets.UTF_16LE );
+        int limit = info.limit() - key.length;
+        for( int pos = 6; pos <= limit; pos += 2 ) {
+            boolean found = true;
+            for( int i = 0; i < key.length; i++ ) {
+                if( info.get( pos + i ) != key[i] ) {
+                    found = false;
+                    break;
+                }
+            }
+            if( !found ) {
+                continue;
+            }
+            int valueLength = info.getShort( pos - 4 ) & 0xFFFF;
+            int value = (pos + key.length + 3) & ~3;
+            Set<String> languages = new LinkedHashSet<>();
+            for( int i = 0; i + 4 <= valueLength && value + i + 4 <= info.limit(); i += 4 ) {
+                languages.add( Integer.toString( info.getShort( value + i ) & 0xFFFF ) );
+            }
+            return languages.isEmpty() ? null : String.join( ",", languages );
+        }
+        return null;
+    }
+
+    /**
+     * Find an entry in a resource directory.
+     *
+     * @param raf the file
+     * @param resourceOffset the file offset of the resource section
+     * @param dir the offset of the directory in the resource section
+     * @param id the ID of the entry or -1 for the first entry
+     * @return the offset of the entry with the bit 0x80000000 for a sub directory or -1 if not found
+     * @throws IOException if the file can not be read
+     */
+    private static long findResource( RandomAccessFile raf, long resourceOffset, long dir, int id ) throws IOException {
+        ByteBuffer header = read( raf, resourceOffset + dir, 16 );
+        int named = header.getShort( 12 ) & 0xFFFF;
+        int count = named + (header.getShort( 14 ) & 0xFFFF);
+        if( count == 0 ) {
+            return -1;
+        }
+        ByteBuffer entries = read( raf, resourceOffset + dir + 16, count * 8 );
+        for( int i = 0; i < count; i++ ) {
+            int name = entries.getInt( i * 8 );
+            if( id < 0 || (i >= named && name == id) ) {
+                return entries.getInt( i * 8 + 4 ) & 0xFFFFFFFFL;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Convert a relative virtual address to a file offset.
+     *
+     * @param sectionTable the section headers
+     * @param sections the count of sections
+     * @param rva the address
+     * @return the offset or -1 if the address is not in a section
+     */
+    private static long rvaToOffset( ByteBuffer sectionTable, int sections, int rva ) {
+        for( int i = 0; i < sections; i++ ) {
+            int base = i * 40;
+            long virtualAddress = sectionTable.getInt( base + 12 ) & 0xFFFFFFFFL;
+            long size = Math.max( sectionTable.getInt( base + 8 ) & 0xFFFFFFFFL, sectionTable.getInt( base + 16 ) & 0xFFFFFFFFL );
+            long address = rva & 0xFFFFFFFFL;
+            if( address >= virtualAddress && address < virtualAddress + size ) {
+                return address - virtualAddress + (sectionTable.getInt( base + 20 ) & 0xFFFFFFFFL);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Read a part of the file.
+     *
+     * @param raf the file
+     * @param offset the offset
+     * @param length the byte count
+     * @return the little endian buffer
+     * @throws IOException if the part is outside of the file
+     */
+    private static ByteBuffer read( RandomAccessFile raf, long offset, int length ) throws IOException {
+        if( length < 0 || offset + length > raf.length() ) {
+            throw new EOFException( "Invalid PE file" );
+        }
+        byte[] data = new byte[length];
+        raf.seek( offset );
+        raf.readFully( data );
+        return ByteBuffer.wrap( data ).order( ByteOrder.LITTLE_ENDIAN );
+    }
+
+    /**
+     * Set the version and language in the File table and add the hashes to the MsiFileHash table.
+     *
+     * @param db the database
+     * @param infos the infos by file ID
+     */
+    static void apply( MsiDatabase db, Map<String, MsiFileInfo> infos ) {
+        MsiTable fileTable = db.getTable( "File" );
+        if( fileTable == null ) {
+            return;
+        }
+        MsiTable hashTable = db.getTable( "MsiFileHash" );
+        if( hashTable == null ) {
+            hashTable = db.addTable( new MsiTable( "MsiFileHash", FILE_HASH_COLUMNS ) );
+            MsiTable validation = db.getTable( "_Validation" );
+            if( validation != null && validation.getColumns().size() == 10 ) {
+                validation.setRow( "MsiFileHash", "File_", "N", null, null, "File", 1, "Identifier", null, "Primary key, foreign key into File table." );
+                validation.setRow( "MsiFileHash", "Options", "N", 0, 0, null, null, null, null, "Various options and attributes for this hash." );
+                for( int i = 1; i <= 4; i++ ) {
+                    validation.setRow( "MsiFileHash", "HashPart" + i, "N", null, null, null, null, null, null, "Size of file in bytes (integer)." );
+                }
+            }
+        }
+        int version = fileTable.getColumnIndex( "Version" );
+        int language = fileTable.getColumnIndex( "Language" );
+        for( Object[] row : fileTable.getRows() ) {
+            MsiFileInfo info = infos.get( row[0] );
+            if( info == null ) {
+                continue;
+            }
+            if( row[version] == null && info.version != null ) {
+                Object[] newRow = row.clone();
+                newRow[version] = info.version;
+                newRow[language] = info.language;
+                fileTable.setRow( newRow );
+            } else if( info.hash != null && row[version] == null ) {
+                hashTable.setRow( row[0], 0, info.hash[0], info.hash[1], info.hash[2], info.hash[3] );
+            }
+        }
+    }
+
+    /**
+     * Collect the infos of the files in parallel while the files are added. The results are cached across builds by
+     * the MD5 of the content. The path, size and time of a file are used to find the MD5 without reading the file.
+     */
+    static class Collector implements AutoCloseable {
+
+        private final File                                         store;
+
+        private final ExecutorService                              executor;
+
+        private final Map<String, CompletableFuture<MsiFileInfo>>  files    = new LinkedHashMap<>();
+
+        /** The MD5 of a file by path, size and last modified time. */
+        private final Map<String, String>                          digests  = new ConcurrentHashMap<>();
+
+        /** The infos by MD5. */
+        private final Map<String, MsiFileInfo>                     contents = new ConcurrentHashMap<>();
+
+        /** The keys of the files of the current build. */
+        private final Set<String>                                  used     = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Create a collector and load the cache of the previous build.
+         *
+         * @param store the cache file
+         * @throws IOException if the cache can not be read
+         */
+        Collector( File store ) throws IOException {
+            this.store = store;
+            if( store.isFile() ) {
+                try( BufferedReader reader = Files.newBufferedReader( store.toPath(), StandardCharsets.UTF_8 ) ) {
+                    String line;
+                    while( (line = reader.readLine()) != null ) {
+                        String[] parts = line.split( "\t", -1 );
+                        if( parts.length == 2 ) {
+                            digests.put( parts[0], parts[1] );
+                        } else if( parts.length == 4 ) {
+                            int[] hash = null;
+                            if( !parts[3].isEmpty() ) {
+                                ByteBuffer buf = ByteBuffer.wrap( Digests.parseHex( parts[0] ) ).order( ByteOrder.LITTLE_ENDIAN );
+                                hash = new int[] { buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt() };
+                            }
+                            contents.put( parts[0], new MsiFileInfo( empty( parts[1] ), empty( parts[2] ), hash ) );
+                        }
+                    }
+                }
+            }
+            int threads = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor( threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread( runnable, "MsiFileInfo" );
+                thread.setDaemon( true );
+                return thread;
+            } );
+            pool.allowCoreThreadTimeOut( true ); // no idle threads if a build is aborted
+            executor = pool;
+        }
+
+        /**
+         * Start the calculation of the infos of a file.
+         *
+         * @param id the ID of the file in the msi
+         * @param file the source file
+         */
+        void add( String id, File file ) {
+            files.computeIfAbsent( id, key -> CompletableFuture.supplyAsync( () -> {
+                try {
+                    return get( file );
+                } catch( IOException ex ) {
+                    throw new RuntimeException( ex );
+                }
+            }, executor ) );
+        }
+
+        /**
+         * Check if the infos of a file are collected.
+         *
+         * @param id the ID of the file in the msi
+         * @return true, if added
+         */
+        boolean contains( String id ) {
+            return files.containsKey( id );
+        }
+
+        /**
+         * Get the info of a file from the cache or calculate it.
+         *
+         * @param file the file
+         * @return the info
+         * @throws IOException if the file can not be read
+         */
+        private MsiFileInfo get( File file ) throws IOException {
+            String key = file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified();
+            used.add( key );
+            String md5 = digests.get( key );
+            MsiFileInfo info = md5 == null ? null : contents.get( md5 );
+            if( info != null ) {
+                return info;
+            }
+            byte[] digest = md5( file );
+            md5 = Digests.hex( digest );
+            digests.put( key, md5 );
+            info = contents.get( md5 );
+            if( info == null ) {
+                info = read( file, digest );
+                contents.put( md5, info );
+            }
+            return info;
+        }
+
+        /**
+         * Wait until all infos are calculated and save the cache.
+         *
+         * @return the infos by file ID
+         * @throws IOException if a file or the cache can not be read or written
+         */
+        Map<String, MsiFileInfo> getInfos() throws IOException {
+            Map<String, MsiFileInfo> result = new LinkedHashMap<>();
+            try {
+                for( Map.Entry<String, CompletableFuture<MsiFileInfo>> entry : files.entrySet() ) {
+                    result.put( entry.getKey(), entry.getValue().get() );
+                }
+            } catch( InterruptedException ex ) {
+                Thread.currentThread().interrupt();
+                throw new IOException( ex );
+            } catch( ExecutionException ex ) {
+                Throwable cause = ex.getCause();
+                throw cause.getCause() instanceof IOException ? (IOException)cause.getCause() : new IOException( cause );
+            }
+
+            // save only the entries of the current files
+            Map<String, String> lines = new TreeMap<>();
+            Set<String> usedDigests = new LinkedHashSet<>();
+            for( String key : used ) {
+                String md5 = digests.get( key );
+                if( md5 != null && contents.containsKey( md5 ) ) {
+                    lines.put( key, md5 );
+                    usedDigests.add( md5 );
+                }
+            }
+            try( BufferedWriter writer = Files.newBufferedWriter( store.toPath(), StandardCharsets.UTF_8 ) ) {
+                for( Map.Entry<String, String> entry : lines.entrySet() ) {
+                    writer.write( entry.getKey() + '\t' + entry.getValue() + '\n' );
+                }
+                for( String md5 : usedDigests ) {
+                    MsiFileInfo info = contents.get( md5 );
+                    writer.write( md5 + '\t' + nonNull( info.version ) + '\t' + nonNull( info.language ) + '\t' + (info.hash != null ? "h" : "") + '\n' );
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Stop the threads and cancel the calculations that are not finished.
+         */
+        @Override
+        public void close() {
+            executor.shutdownNow();
+            for( CompletableFuture<MsiFileInfo> future : files.values() ) {
+                future.cancel( true );
+            }
+        }
+
+        /**
+         * Calculate the MD5 of a file.
+         *
+         * @param file the file
+         * @return the digest
+         * @throws IOException if the file can not be read
+         */
+        private static byte[] md5( File file ) throws IOException {
+            MessageDigest digest = Digests.create( Digests.MD5 );
+            try( InputStream input = Files.newInputStream( file.toPath() ) ) {
+                Digests.update( input, digest );
+            }
+            return digest.digest();
+        }
+
+        /**
+         * Convert an empty string to null.
+         *
+         * @param str the string
+         * @return the string or null
+         */
+        private static String empty( String str ) {
+            return str.isEmpty() ? null : str;
+        }
+
+        /**
+         * Convert null to an empty string.
+         *
+         * @param str the string or null
+         * @return the string
+         */
+        private static String nonNull( String str ) {
+            return str == null ? "" : str;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.UUID;
+
+import com.inet.gradle.setup.SetupBuilder;
+import com.inet.gradle.setup.msi.db.MsiDatabase;
+import com.inet.gradle.setup.msi.db.MsiTable;
+import com.inet.gradle.setup.msi.db.MsiTransform;
+import com.inet.gradle.setup.msi.db.SummaryInformation;
+
+/**
+ * Create the embedded transforms of a multi instance setup. Every instance transform changes the ProductCode, the
+ * UpgradeCode, the UpgradeCode of the upgrade detection and the GUIDs of the components. The transforms are generated
+ * from a copy of the changed tables only, that the time for a transform does not depend on the size of the setup.
+ */
+class MsiInstanceTransforms {
+
+    /** The prefix of the properties with the directories of the installed instances. */
+    static final String         DIR_PROPERTY     = "INSTANCE_DIR_";
+
+    /** The prefix of the registry searches for the directories of the installed instances. */
+    static final String         DIR_SEARCH       = "instance_dir_";
+
+    /** The prefix of the properties with the package codes of the installed instances. */
+    static final String         PACKAGE_PROPERTY = "INSTANCE_PACKAGE_";
+
+    /** The prefix of the registry searches for the package codes of the installed instances. */
+    static final String         PACKAGE_SEARCH   = "instance_package_";
+
+    /** The tables that are changed by an instance transform. */
+    private static final String[] TABLES         = { "Property", "Upgrade", "Component" };
+
+    private final SetupBuilder  setup;
+
+    private final int           instanceCount;
+
+    /**
+     * Create a new instance.
+     *
+     * @param setup the SetupBuilder extension
+     * @param instanceCount the count of instances
+     */
+    MsiInstanceTransforms( SetupBuilder setup, int instanceCount ) {
+        this.setup = setup;
+        this.instanceCount = instanceCount;
+    }
+
+    /**
+     * Add the instance transforms as sub storages "Instance_0" to "Instance_n" to the database.
+     *
+     * @param db the database
+     * @throws IOException if any error occur
+     */
+    void addTo( MsiDatabase db ) throws IOException {
+        try( MsiDatabase base = copy( db ) ) {
+            String upgradeCode = (String)base.getTable( "Property" ).getRow( "UpgradeCode" )[1];
+            for( int i = 0; i < instanceCount; i++ ) {
+                try( MsiDatabase instance = copy( base ) ) {
+                    String instanceUpgradeCode = guid( WxsFileBuilder.getGuid( setup, "Instance_" + i ) );
+
+                    MsiTable property = instance.getTable( "Property" );
+                    property.setRow( "ProductCode", guid( UUID.randomUUID().toString() ) );
+                    property.setRow( "UpgradeCode", instanceUpgradeCode );
+                    property.setRow( "INSTANCE_ID", "Instance_" + i );
+                    property.setRow( "INSTANCE_NUMBER", Integer.toString( i ) );
+
+                    MsiTable upgrade = instance.getTable( "Upgrade" );
+                    if( upgrade != null ) {
+                        for( Object[] row : new ArrayList<>( upgrade.getRows() ) ) {
+                            if( upgradeCode.equals( row[0] ) ) {
+                                upgrade.removeRow( upgrade.getKey( row ).toArray() );
+                                Object[] newRow = row.clone();
+                                newRow[0] = instanceUpgradeCode;
+                                upgrade.addRow( newRow );
+                            }
+                        }
+                    }
+
+                    // like Component/@MultiInstance of WiX, stable for the same instance
+                    MsiTable component = instance.getTable( "Component" );
+                    if( component != null ) {
+                        for( Object[] row : new ArrayList<>( component.getRows() ) ) {
+                            if( row[1] != null ) {
+                                Object[] newRow = row.clone();
+                                newRow[1] = guid( UUID.nameUUIDFromBytes( (row[1] + "Instance_" + i).getBytes( StandardCharsets.UTF_8 ) ).toString() );
+                                component.setRow( newRow );
+                            }
+                        }
+                    }
+
+                    db.getStorage().setStorage( MsiTransform.generate( base, instance, "Instance_" + i ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the tables that are changed by an instance transform and the summary information into a new database.
+     *
+     * @param db the source database
+     * @return the new database
+     */
+    private static MsiDatabase copy( MsiDatabase db ) {
+        MsiDatabase copy = new MsiDatabase( db.getCodepage() );
+        for( String name : TABLES ) {
+            MsiTable table = db.getTable( name );
+            if( table != null ) {
+                MsiTable tableCopy = copy.addTable( new MsiTable( name, table.getColumns() ) );
+                for( Object[] row : table.getRows() ) {
+                    tableCopy.setRow( row.clone() );
+                }
+            }
+        }
+        SummaryInformation summary = copy.getSummaryInformation();
+        for( Map.Entry<Integer, Object> entry : db.getSummaryInformation().getProperties().entrySet() ) {
+            summary.setProperty( entry.getKey(), entry.getValue() );
+        }
+        return copy;
+    }
+
+    /**
+     * Format a GUID like in the msi database.
+     *
+     * @param guid the GUID without braces
+     * @return the GUID in upper case with braces
+     */
+    private static String guid( String guid ) {
+        return '{' + guid.toUpperCase() + '}';
+    }
+}
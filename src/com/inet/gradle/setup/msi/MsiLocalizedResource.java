@@ -1,19 +1,26 @@
 package com.inet.gradle.setup.msi;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.List;
 import java.util.Properties;
-import java.util.UUID;
+import java.util.TreeSet;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.gradle.util.ConfigureUtil;
 
 import com.inet.gradle.setup.SetupBuilder;
+import com.inet.gradle.setup.util.Digests;
 
 import groovy.lang.Closure;
 
@@ -47,6 +54,10 @@ public class MsiLocalizedResource implements Serializable {
     }
 
     /**
+     * Get the resource converted to a WXL file. The file name contains a hash of the content of the properties file,
+     * the locale and the overridable flag. An unchanged resource is not converted again and the input of light.exe
+     * stays the same.
+     *
      * @return the resource as WXL File
      */
     public File getResource() {
@@ -63,52 +74,70 @@ public class MsiLocalizedResource implements Serializable {
         }
 
         try {
-            File wxlFile = new File( temporaryDirectory, "i18n-" + input.getName() + "." + UUID.randomUUID().toString() + ".wxl" );
+            byte[] content = Files.readAllBytes( input.toPath() );
+            boolean isDefaultLanguage = locale.getLangID().equalsIgnoreCase( MsiLanguages.getMsiLanguage( setup.getDefaultResourceLanguage() ).getLangID() );
+            boolean overridable = isDefaultLanguage || this.overridable;
+
+            File wxlFile = new File( temporaryDirectory, "i18n-" + input.getName() + "." + hash( content, isDefaultLanguage, overridable ) + ".wxl" );
             if( wxlFile.exists() ) {
                 return wxlFile;
             }
 
             wxlFile.getParentFile().mkdirs();
             Properties props = new Properties();
-            try ( InputStream stream = Files.newInputStream( input.toPath() ) ) {
-                props.load( stream );
-            }
-
-            StringBuilder builder = new StringBuilder();
-            builder.append( "<?xml version='1.0'?>\n" );
-            builder.append( "<WixLocalization xmlns='http://schemas.microsoft.com/wix/2006/localization' Codepage='utf-8' " );
-
-            boolean isDefaultLanguage = locale.getLangID().equalsIgnoreCase( MsiLanguages.getMsiLanguage( setup.getDefaultResourceLanguage() ).getLangID() );
-            boolean overridable = isDefaultLanguage || this.overridable;
-            if( !isDefaultLanguage ) {
-                builder.append( "Culture='" + locale.getCulture() + "'" );
-            }
-
-            builder.append( ">\n" );
-
-            for( Object key : props.keySet() ) {
-
-                String value = props.getProperty( (String)key );
-                builder.append( "\t<String Id='" );
-                builder.append( key );
-
-                if ( overridable ) {
-                    builder.append( "' Overridable='yes" );
+            props.load( new ByteArrayInputStream( content ) );
+
+            File tempFile = new File( wxlFile.getPath() + ".tmp" );
+            try( OutputStream out = Files.newOutputStream( tempFile.toPath() ) ) {
+                XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter( out, "UTF-8" );
+                xml.writeStartDocument( "UTF-8", "1.0" );
+                xml.writeCharacters( "\n" );
+                xml.writeStartElement( "WixLocalization" );
+                xml.writeDefaultNamespace( "http://schemas.microsoft.com/wix/2006/localization" );
+                xml.writeAttribute( "Codepage", "utf-8" );
+                if( !isDefaultLanguage ) {
+                    xml.writeAttribute( "Culture", locale.getCulture() );
+                }
+                xml.writeCharacters( "\n" );
+
+                for( String key : new TreeSet<>( props.stringPropertyNames() ) ) {
+                    xml.writeCharacters( "\t" );
+                    xml.writeStartElement( "String" );
+                    xml.writeAttribute( "Id", key );
+                    if( overridable ) {
+                        xml.writeAttribute( "Overridable", "yes" );
+                    }
+                    xml.writeCharacters( props.getProperty( key ) );
+                    xml.writeEndElement();
+                    xml.writeCharacters( "\n" );
                 }
 
-                builder.append( "'>" );
-                builder.append( value );
-                builder.append( "</String>\n" );
+                xml.writeEndElement();
+                xml.writeEndDocument();
+                xml.close();
             }
-
-            builder.append( "</WixLocalization>" );
-            Files.write( wxlFile.toPath(), builder.toString().getBytes( StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE );
+            Files.move( tempFile.toPath(), wxlFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
             return wxlFile;
-        } catch( IOException e ) {
+        } catch( IOException | XMLStreamException e ) {
             return null;
         }
     }
 
+    /**
+     * Calculate the key of a converted resource.
+     *
+     * @param content the content of the properties file
+     * @param isDefaultLanguage true, if the resource is written without culture
+     * @param overridable true, if the strings are overridable
+     * @return the SHA-256 hash as hex string
+     */
+    private String hash( byte[] content, boolean isDefaultLanguage, boolean overridable ) {
+        MessageDigest digest = Digests.create( Digests.SHA256 );
+        digest.update( content );
+        digest.update( (locale.getCulture() + ';' + isDefaultLanguage + ';' + overridable).getBytes( StandardCharsets.UTF_8 ) );
+        return Digests.hex( digest.digest() );
+    }
+
     /**
      * @return the locale
      */
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+
+import com.inet.gradle.setup.msi.db.Cabinet;
+import com.inet.gradle.setup.msi.db.CompoundFile;
+import com.inet.gradle.setup.msi.db.MsiColumn;
+import com.inet.gradle.setup.msi.db.MsiDatabase;
+import com.inet.gradle.setup.msi.db.MsiTable;
+import com.inet.gradle.setup.msi.db.MsiTransform;
+import com.inet.gradle.setup.msi.db.SummaryInformation;
+
+/**
+ * Create a patch (msp) that updates an installation of a released msi file to the current msi file. The released msi
+ * file is the manifest of the previous version: its File and MsiFileHash tables contain the sizes, versions and hashes
+ * of the released files. The versions and hashes of the current files was calculated while packaging and are read
+ * from the current msi file, no payload file is read for the comparison. Only the added and changed files are packed
+ * into the cabinet of the patch.
+ * <p>
+ * A patch contains a pair of transforms for every target. The first transform changes the released database to the
+ * current database. The second transform adds the Media and PatchPackage rows of the cabinet in the patch.
+ */
+class MsiPatch {
+
+    /** The name of the storage of the first transform, the second has the prefix '#'. */
+    private static final String     TRANSFORM        = "Target";
+
+    /** The name of the stream of the cabinet in the patch. */
+    private static final String     CABINET          = "PatchFiles";
+
+    /** The file attribute msidbFileAttributesPatchAdded. */
+    private static final int        PATCH_ADDED      = 0x1000;
+
+    /**
+     * Validate the UpgradeCode, the version of the installed product, the update version and the ProductCode. Suppress
+     * all row errors.
+     */
+    private static final int        CONDITIONS       = (0x0922 << 16) | 0x001F;
+
+    /** Suppress all row errors for the transform with the cabinet. */
+    private static final int        CONDITIONS_MEDIA = 0x001F;
+
+    private final Logger            logger;
+
+    private final File              baseline;
+
+    private final File              upgraded;
+
+    private final Map<String, File> sources;
+
+    private final File              buildDir;
+
+    /** The IDs of the added and changed files in the order of the new sequence. */
+    private final List<String>      patchFiles       = new ArrayList<>();
+
+    private int                     addedFiles;
+
+    private boolean                 addedComponents;
+
+    /**
+     * Create a new instance.
+     *
+     * @param logger the logger
+     * @param baseline the released msi file
+     * @param upgraded the current msi file
+     * @param sources the packed files by file ID
+     * @param buildDir the temporary directory of the task
+     */
+    MsiPatch( Logger logger, File baseline, File upgraded, Map<String, File> sources, File buildDir ) {
+        this.logger = logger;
+        this.baseline = baseline;
+        this.upgraded = upgraded;
+        this.sources = sources;
+        this.buildDir = buildDir;
+    }
+
+    /**
+     * Create the patch file.
+     *
+     * @param msp the patch file
+     * @throws IOException if any error occur
+     */
+    void create( File msp ) throws IOException {
+        logger.lifecycle( "\tCreate patch for " + baseline.getName() );
+        String patchCode = '{' + UUID.randomUUID().toString().toUpperCase() + '}';
+        File cab = new File( buildDir, CABINET + ".cab" );
+        try( MsiDatabase target = MsiDatabase.open( baseline ); MsiDatabase image = MsiDatabase.open( upgraded ); MsiDatabase withMedia = MsiDatabase.open( baseline ) ) {
+            checkProduct( target, image );
+            int lastSequence = prepareImage( target, image );
+            CompoundFile.Storage transform = MsiTransform.generate( target, image, TRANSFORM, CONDITIONS );
+
+            // the second transform registers the cabinet of the patch
+            MsiTable media = withMedia.getTable( "Media" );
+            int diskId = 0;
+            for( Object[] row : media.getRows() ) {
+                diskId = Math.max( diskId, (Integer)row[0] );
+            }
+            Object[] mediaRow = new Object[media.getColumns().size()];
+            mediaRow[0] = diskId + 1;
+            mediaRow[1] = lastSequence;
+            mediaRow[media.getColumnIndex( "Cabinet" )] = '#' + CABINET;
+            media.addRow( mediaRow );
+            MsiTable patchPackage = withMedia.addTable( new MsiTable( "PatchPackage", MsiColumn.key( "PatchId", "s38" ), MsiColumn.of( "Media_", "i2" ) ) );
+            patchPackage.addRow( patchCode, diskId + 1 );
+            CompoundFile.Storage mediaTransform = MsiTransform.generate( target, withMedia, '#' + TRANSFORM, CONDITIONS_MEDIA );
+
+            writeCabinet( cab );
+
+            MsiDatabase patch = new MsiDatabase( target.getCodepage() );
+            patch.getStorage().setClsid( MsiDatabase.CLSID_PATCH );
+            addMetadata( patch, target, image );
+            patch.setStream( CABINET, cab );
+            patch.getStorage().setStorage( transform );
+            patch.getStorage().setStorage( mediaTransform );
+
+            SummaryInformation info = patch.getSummaryInformation();
+            SummaryInformation targetInfo = target.getSummaryInformation();
+            info.setProperty( SummaryInformation.PID_CODEPAGE, targetInfo.getProperty( SummaryInformation.PID_CODEPAGE ) );
+            info.setProperty( SummaryInformation.PID_TITLE, "Patch" );
+            info.setProperty( SummaryInformation.PID_SUBJECT, getProperty( image, "ProductName" ) + ' ' + getProperty( image, "ProductVersion" ) );
+            info.setProperty( SummaryInformation.PID_AUTHOR, getProperty( image, "Manufacturer" ) );
+            info.setProperty( SummaryInformation.PID_KEYWORDS, "Installer,Patching,PCP,Database" );
+            info.setProperty( SummaryInformation.PID_COMMENTS, "Update of " + getProperty( target, "ProductName" ) + ' ' + getProperty( target, "ProductVersion" ) );
+            info.setProperty( SummaryInformation.PID_TEMPLATE, getProperty( target, "ProductCode" ) );
+            info.setProperty( SummaryInformation.PID_LASTAUTHOR, ':' + TRANSFORM + ";:#" + TRANSFORM );
+            info.setProperty( SummaryInformation.PID_REVNUMBER, patchCode );
+            Date now = new Date();
+            info.setProperty( SummaryInformation.PID_CREATE_DTM, now );
+            info.setProperty( SummaryInformation.PID_LASTSAVE_DTM, now );
+            info.setProperty( SummaryInformation.PID_WORDCOUNT, 3 ); // Windows Installer 3.0 for the MsiPatchMetadata table
+            info.setProperty( SummaryInformation.PID_APPNAME, targetInfo.getProperty( SummaryInformation.PID_APPNAME ) );
+
+            msp.getParentFile().mkdirs();
+            patch.save( msp );
+        } finally {
+            cab.delete();
+        }
+        logger.lifecycle( "\tPatch with " + (patchFiles.size() - addedFiles) + " changed and " + addedFiles + " added files: " + msp.getName() );
+    }
+
+    /**
+     * Check that the current msi file is a minor update of the released msi file.
+     *
+     * @param target the released database
+     * @param image the current database
+     */
+    private static void checkProduct( MsiDatabase target, MsiDatabase image ) {
+        for( String property : new String[] { "UpgradeCode", "ProductLanguage" } ) {
+            String released = getProperty( target, property );
+            String current = getProperty( image, property );
+            if( !Objects.equals( released, current ) ) {
+                throw new GradleException( "The " + property + " of the patch baseline (" + released + ") and the current setup (" + current + ") are different. A patch is not possible." );
+            }
+        }
+    }
+
+    /**
+     * Change the current database so that the transform contains only the real changes. The ProductCode and the media
+     * of the released setup are kept. Unchanged files keep their rows. Added and changed files get a sequence after
+     * the released files, because they are installed from the cabinet of the patch.
+     *
+     * @param target the released database
+     * @param image the current database, is modified
+     * @return the last sequence of the patch files
+     */
+    private int prepareImage( MsiDatabase target, MsiDatabase image ) {
+        MsiTable property = image.getTable( "Property" );
+        property.setRow( "ProductCode", getProperty( target, "ProductCode" ) );
+        property.setRow( "PATCHNEWPACKAGECODE", image.getSummaryInformation().getProperty( SummaryInformation.PID_REVNUMBER ) );
+        property.setRow( "PATCHNEWSUMMARYSUBJECT", image.getSummaryInformation().getProperty( SummaryInformation.PID_SUBJECT ) );
+
+        MsiTable media = image.getTable( "Media" );
+        for( Object[] row : new ArrayList<>( media.getRows() ) ) {
+            media.removeRow( row[0] );
+        }
+        int lastSequence = 0;
+        for( Object[] row : target.getTable( "Media" ).getRows() ) {
+            media.setRow( row.clone() );
+            lastSequence = Math.max( lastSequence, (Integer)row[1] );
+        }
+
+        List<String> removed = new ArrayList<>();
+        for( Object[] row : target.getTable( "Component" ).getRows() ) {
+            if( image.getTable( "Component" ).getRow( row[0] ) == null ) {
+                removed.add( (String)row[0] );
+            }
+        }
+        for( Object[] row : image.getTable( "Component" ).getRows() ) {
+            if( target.getTable( "Component" ).getRow( row[0] ) == null ) {
+                addedComponents = true;
+            }
+        }
+
+        MsiTable targetFiles = target.getTable( "File" );
+        MsiTable imageFiles = image.getTable( "File" );
+        MsiTable targetHashes = target.getTable( "MsiFileHash" );
+        MsiTable imageHashes = image.getTable( "MsiFileHash" );
+        int sequence = imageFiles.getColumnIndex( "Sequence" );
+        int attributes = imageFiles.getColumnIndex( "Attributes" );
+        if( targetFiles != null ) {
+            for( Object[] row : targetFiles.getRows() ) {
+                lastSequence = Math.max( lastSequence, (Integer)row[sequence] );
+                if( imageFiles.getRow( row[0] ) == null ) {
+                    removed.add( (String)row[0] );
+                }
+            }
+        }
+        if( !removed.isEmpty() ) {
+            throw new GradleException( "A patch can not remove files and components, a major upgrade is required. Removed: " + removed );
+        }
+
+        List<Object[]> rows = new ArrayList<>( imageFiles.getRows() );
+        rows.sort( Comparator.comparingInt( row -> (Integer)row[sequence] ) );
+        for( Object[] row : rows ) {
+            Object[] released = targetFiles == null ? null : targetFiles.getRow( row[0] );
+            Object[] hash = imageHashes == null ? null : imageHashes.getRow( row[0] );
+            Object[] releasedHash = targetHashes == null ? null : targetHashes.getRow( row[0] );
+            if( released != null && !isChanged( imageFiles, released, row, releasedHash, hash ) ) {
+                imageFiles.setRow( released.clone() );
+                if( releasedHash != null ) {
+                    imageHashes.setRow( releasedHash.clone() );
+                }
+                continue;
+            }
+            Object[] newRow = row.clone();
+            newRow[sequence] = ++lastSequence;
+            if( released == null ) {
+                newRow[attributes] = (newRow[attributes] == null ? 0 : (Integer)newRow[attributes]) | PATCH_ADDED;
+                addedFiles++;
+            }
+            imageFiles.setRow( newRow );
+            patchFiles.add( (String)row[0] );
+        }
+        return lastSequence;
+    }
+
+    /**
+     * Check if a file was changed. A versioned file is changed if its version was changed, like the Windows Installer
+     * decides if it replaces the installed file. An unversioned file is changed if its hash was changed.
+     *
+     * @param files the File table
+     * @param released the row of the released file
+     * @param current the row of the current file
+     * @param releasedHash the MsiFileHash row of the released file or null
+     * @param hash the MsiFileHash row of the current file or null
+     * @return true, if the file must be part of the patch
+     */
+    private static boolean isChanged( MsiTable files, Object[] released, Object[] current, Object[] releasedHash, Object[] hash ) {
+        for( String column : new String[] { "Component_", "FileName", "FileSize", "Version", "Language" } ) {
+            int idx = files.getColumnIndex( column );
+            if( !Objects.equals( released[idx], current[idx] ) ) {
+                return true;
+            }
+        }
+        if( current[files.getColumnIndex( "Version" )] != null ) {
+            return false;
+        }
+        if( releasedHash == null || hash == null ) {
+            return true; // without hashes we can not compare the content
+        }
+        for( int i = 1; i < hash.length; i++ ) {
+            if( !Objects.equals( releasedHash[i], hash[i] ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write the cabinet with the added and changed files.
+     *
+     * @param cab the cabinet file
+     * @throws IOException if any error occur
+     */
+    private void writeCabinet( File cab ) throws IOException {
+        Cabinet cabinet = new Cabinet();
+        for( String id : patchFiles ) {
+            File source = sources.get( id );
+            if( source == null ) {
+                throw new GradleException( "The source of the file '" + id + "' is unknown. Files of external wxs files can not be patched." );
+            }
+            cabinet.add( id, source );
+        }
+        cab.getParentFile().mkdirs();
+        cabinet.write( cab, Deflater.BEST_COMPRESSION );
+    }
+
+    /**
+     * Add the MsiPatchMetadata table that describes the patch in the list of the installed updates.
+     *
+     * @param patch the patch database
+     * @param target the released database
+     * @param image the current database
+     */
+    private void addMetadata( MsiDatabase patch, MsiDatabase target, MsiDatabase image ) {
+        MsiTable metadata = patch.addTable( new MsiTable( "MsiPatchMetadata", MsiColumn.key( "Company", "S72" ), MsiColumn.key( "Property", "s72" ), MsiColumn.of( "Value", "l0" ) ) );
+        SimpleDateFormat format = new SimpleDateFormat( "MM-dd-yy HH:mm" );
+        format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        String productName = getProperty( image, "ProductName" );
+        String version = getProperty( image, "ProductVersion" );
+        metadata.addRow( null, "AllowRemoval", addedComponents ? "0" : "1" );
+        metadata.addRow( null, "Classification", "Update" );
+        metadata.addRow( null, "CreationTimeUTC", format.format( new Date() ) );
+        metadata.addRow( null, "Description", "Update " + productName + ' ' + getProperty( target, "ProductVersion" ) + " to " + version );
+        metadata.addRow( null, "DisplayName", productName + " " + version );
+        metadata.addRow( null, "ManufacturerName", getProperty( image, "Manufacturer" ) );
+        metadata.addRow( null, "TargetProductName", getProperty( target, "ProductName" ) );
+    }
+
+    /**
+     * Get a value of the Property table.
+     *
+     * @param db the database
+     * @param name the name of the property
+     * @return the value or null
+     */
+    private static String getProperty( MsiDatabase db, String name ) {
+        MsiTable table = db.getTable( "Property" );
+        Object[] row = table == null ? null : table.getRow( name );
+        return row == null ? null : (String)row[1];
+    }
+}
@@ -39,6 +39,12 @@ class SignTool implements Serializable {
                                                     "http://timestamp.comodoca.com/authenticode" // certificate is expired
                                                     );
 
+    private List<String> rfc3161Timestamps;
+
+    private long         timestampHedgeDelay = 2000;
+
+    private boolean      signFiles;
+
     /**
      * Get a certificate file.
      * 
@@ -120,4 +126,74 @@ class SignTool implements Serializable {
     public void setTimestamp( String timestamp ) {
         this.timestamps = timestamp == null ? null : Arrays.asList( timestamp );
     }
+
+    /**
+     * Get a list of RFC 3161 timestamp servers.
+     * 
+     * @return the list or null
+     */
+    public List<String> getTimestampRfc3161() {
+        return rfc3161Timestamps;
+    }
+
+    /**
+     * Set a list of RFC 3161 timestamp servers. The request is sent to the fastest server of the previous builds first.
+     * If it does not answer in the hedge delay then the next server is requested additionally, and so on. The first
+     * valid timestamp is embedded in the signature. If all servers fail then the servers of {@link #getTimestamp()}
+     * are used. By default this list is empty.
+     * 
+     * @param timestamps new RFC 3161 timestamp servers
+     */
+    public void setTimestampRfc3161( List<String> timestamps ) {
+        this.rfc3161Timestamps = timestamps;
+    }
+
+    /**
+     * Set a single RFC 3161 timestamp server.
+     * 
+     * @param timestamp a single RFC 3161 timestamp server
+     */
+    public void setTimestampRfc3161( String timestamp ) {
+        this.rfc3161Timestamps = timestamp == null ? null : Arrays.asList( timestamp );
+    }
+
+    /**
+     * Get the delay in milliseconds after which the next RFC 3161 timestamp server is requested.
+     * 
+     * @return the delay
+     */
+    public long getTimestampHedgeDelay() {
+        return timestampHedgeDelay;
+    }
+
+    /**
+     * Set the delay in milliseconds after which the next RFC 3161 timestamp server is requested if the previous
+     * servers have not answered. The default is 2000.
+     * 
+     * @param timestampHedgeDelay the delay
+     */
+    public void setTimestampHedgeDelay( long timestampHedgeDelay ) {
+        this.timestampHedgeDelay = timestampHedgeDelay;
+    }
+
+    /**
+     * Get if all unsigned PE files of the setup should be signed.
+     * 
+     * @return true, if the files are signed
+     */
+    public boolean isSignFiles() {
+        return signFiles;
+    }
+
+    /**
+     * Set if all unsigned PE files of the setup like executables, DLLs and service wrappers should be signed before
+     * they are packed into the msi file. The files are signed in batches with multiple files per call of the signtool.
+     * The source files are not changed, signed copies are used. Files that are already signed are not changed. The
+     * default is false.
+     * 
+     * @param signFiles true, if the files should be signed
+     */
+    public void setSignFiles( boolean signFiles ) {
+        this.signFiles = signFiles;
+    }
 }
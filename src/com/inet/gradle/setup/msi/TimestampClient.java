@@ -0,0 +1,415 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.gradle.api.logging.Logger;
+
+import com.inet.gradle.setup.util.Digests;
+
+/**
+ * A client for RFC 3161 timestamp servers. The request is sent to the servers in the order of their latency of
+ * previous builds. If the fastest server does not answer in the hedge delay then the request is also sent to the next
+ * server, and so on. A failing server starts the next server immediately. The first valid token wins.
+ */
+class TimestampClient {
+
+    /** The OID of SHA-256 with tag and length. */
+    private static final byte[]       SHA256            = { 0x06, 0x09, 0x60, (byte)0x86, 0x48, 0x01, 0x65, 0x03, 0x04, 0x02, 0x01 };
+
+    /** The OID of PKCS#7 signed data with tag and length. */
+    static final byte[]               SIGNED_DATA       = { 0x06, 0x09, 0x2A, (byte)0x86, 0x48, (byte)0x86, (byte)0xF7, 0x0D, 0x01, 0x07, 0x02 };
+
+    /** The OID of the TSTInfo content with tag and length. */
+    private static final byte[]       TST_INFO          = { 0x06, 0x0B, 0x2A, (byte)0x86, 0x48, (byte)0x86, (byte)0xF7, 0x0D, 0x01, 0x09, 0x10, 0x01, 0x04 };
+
+    private static final byte[]       NULL              = { 0x05, 0x00 };
+
+    private static final byte[]       TRUE              = { 0x01, 0x01, (byte)0xFF };
+
+    /** The latency that is counted for a failed request. */
+    private static final long         FAILURE_PENALTY   = 30000;
+
+    private static final int          CONNECT_TIMEOUT   = 10000;
+
+    private static final int          READ_TIMEOUT      = 30000;
+
+    private final List<String>        servers;
+
+    private final long                hedgeDelay;
+
+    private final File                store;
+
+    private final Logger              logger;
+
+    private final Map<String, long[]> stats             = new HashMap<>();
+
+    private final SecureRandom        random            = new SecureRandom();
+
+    /**
+     * Create a new client and load the statistics of previous builds.
+     *
+     * @param servers the URLs of the timestamp servers
+     * @param hedgeDelay the milliseconds after which the next server is requested
+     * @param store the file with the statistics or null
+     * @param logger the logger
+     * @throws IOException if the statistics can not be read
+     */
+    TimestampClient( List<String> servers, long hedgeDelay, File store, Logger logger ) throws IOException {
+        this.servers = servers;
+        this.hedgeDelay = Math.max( 0, hedgeDelay );
+        this.store = store;
+        this.logger = logger;
+        if( store != null && store.isFile() ) {
+            try( BufferedReader reader = Files.newBufferedReader( store.toPath(), StandardCharsets.UTF_8 ) ) {
+                String line;
+                while( (line = reader.readLine()) != null ) {
+                    String[] parts = line.split( "\t" );
+                    if( parts.length == 4 ) {
+                        try {
+                            stats.put( parts[0], new long[] { Long.parseLong( parts[1] ), Long.parseLong( parts[2] ), Long.parseLong( parts[3] ) } );
+                        } catch( NumberFormatException ex ) {
+                            // ignore a broken line
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Request a timestamp token for a signature value.
+     *
+     * @param signature the encrypted digest of a signer
+     * @return the token, a DER encoded ContentInfo
+     * @throws IOException if no server returns a valid token
+     */
+    byte[] timestamp( byte[] signature ) throws IOException {
+        byte[] imprint = Digests.digest( Digests.SHA256, signature );
+        BigInteger nonce = new BigInteger( 63, random );
+        byte[] request = Der.encode( Der.SEQUENCE, //
+                                     new byte[] { Der.INTEGER, 1, 1 }, //
+                                     Der.encode( Der.SEQUENCE, Der.encode( Der.SEQUENCE, SHA256, NULL ), Der.encode( Der.OCTET_STRING, imprint ) ), //
+                                     Der.encode( Der.INTEGER, nonce.toByteArray() ), //
+                                     TRUE );
+
+        List<String> order = getOrder();
+        if( order.isEmpty() ) {
+            throw new IOException( "No timestamp server" );
+        }
+        ExecutorService executor = Executors.newCachedThreadPool( runnable -> {
+            Thread thread = new Thread( runnable, "Timestamp" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        ExecutorCompletionService<Result> completion = new ExecutorCompletionService<>( executor );
+        Map<Future<Result>, String> running = new HashMap<>();
+        long[] startTimes = new long[order.size()];
+        IOException allEx = null;
+        long winnerMillis = -1;
+        try {
+            int started = 0;
+            int finished = 0;
+            long nextStart = 0;
+            while( finished < order.size() ) {
+                if( started < order.size() && (started == finished || System.currentTimeMillis() >= nextStart) ) {
+                    String server = order.get( started );
+                    startTimes[started++] = System.currentTimeMillis();
+                    running.put( completion.submit( () -> request( server, request, imprint, nonce ) ), server );
+                    nextStart = System.currentTimeMillis() + hedgeDelay;
+                    continue;
+                }
+                Future<Result> future;
+                if( started < order.size() ) {
+                    future = completion.poll( Math.max( 0, nextStart - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+                    if( future == null ) {
+                        continue; // hedge delay is over, start the next server
+                    }
+                } else {
+                    future = completion.take();
+                }
+                finished++;
+                running.remove( future );
+                Result result;
+                try {
+                    result = future.get();
+                } catch( ExecutionException ex ) {
+                    Throwable cause = ex.getCause();
+                    IOException ioEx = cause instanceof IOException ? (IOException)cause : new IOException( cause );
+                    if( allEx == null ) {
+                        allEx = ioEx;
+                    } else {
+                        allEx.addSuppressed( ioEx );
+                    }
+                    logger.lifecycle( "Timestamp failed: " + ioEx );
+                    nextStart = 0; // start the next server immediately
+                    continue;
+                }
+                logger.lifecycle( "\tTimestamp by " + result.server + " in " + result.millis + " ms" );
+                winnerMillis = result.millis;
+                return result.token;
+            }
+        } catch( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( ex );
+        } finally {
+            // The losers of a race are censored: they needed at least the time since the start of the race and at least
+            // as long as the winner. This is added to the latency without counting a request, else a slow server would
+            // never be measured. If there is no winner then the cancel of a server that never answered is a failure.
+            long elapsed = Math.max( System.currentTimeMillis() - startTimes[0], winnerMillis );
+            for( Map.Entry<Future<Result>, String> entry : running.entrySet() ) {
+                entry.getKey().cancel( true );
+                if( winnerMillis >= 0 ) {
+                    recordCensored( entry.getValue(), elapsed );
+                } else {
+                    record( entry.getValue(), false, 0 );
+                }
+            }
+            executor.shutdownNow();
+            save();
+        }
+        throw allEx;
+    }
+
+    /**
+     * Get the servers in the order of their expected latency. Unknown servers are tried first so that they are
+     * measured. Servers with equal latency keep the configured order.
+     *
+     * @return the servers
+     */
+    private List<String> getOrder() {
+        List<String> order = new ArrayList<>();
+        for( String server : servers ) {
+            if( server != null && !server.trim().isEmpty() && !order.contains( server.trim() ) ) {
+                order.add( server.trim() );
+            }
+        }
+        Map<String, Long> scores = new HashMap<>();
+        synchronized( stats ) {
+            for( String server : order ) {
+                long[] stat = stats.get( server );
+                long requests = stat == null ? 0 : stat[0] + stat[1];
+                scores.put( server, requests == 0 ? 0 : (stat[2] + stat[1] * FAILURE_PENALTY) / requests );
+            }
+        }
+        order.sort( ( a, b ) -> Long.compare( scores.get( a ), scores.get( b ) ) );
+        return order;
+    }
+
+    /**
+     * Send a request to a single server and validate the response.
+     *
+     * @param server the URL of the server
+     * @param request the DER encoded TimeStampReq
+     * @param imprint the expected message imprint
+     * @param nonce the expected nonce
+     * @return the result
+     * @throws IOException if the request fails or the response is invalid
+     */
+    private Result request( String server, byte[] request, byte[] imprint, BigInteger nonce ) throws IOException {
+        long start = System.currentTimeMillis();
+        try {
+            HttpURLConnection conn = (HttpURLConnection)new URL( server ).openConnection();
+            try {
+                conn.setConnectTimeout( CONNECT_TIMEOUT );
+                conn.setReadTimeout( READ_TIMEOUT );
+                conn.setDoOutput( true );
+                conn.setRequestMethod( "POST" );
+                conn.setRequestProperty( "Content-Type", "application/timestamp-query" );
+                conn.setFixedLengthStreamingMode( request.length );
+                try( OutputStream output = conn.getOutputStream() ) {
+                    output.write( request );
+                }
+                int code = conn.getResponseCode();
+                if( code != HttpURLConnection.HTTP_OK ) {
+                    throw new IOException( "HTTP response " + code + " from " + server );
+                }
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                try( InputStream input = conn.getInputStream() ) {
+                    byte[] buf = new byte[8192];
+                    int count;
+                    while( (count = input.read( buf )) > 0 ) {
+                        data.write( buf, 0, count );
+                    }
+                }
+                byte[] token = parseResponse( data.toByteArray(), imprint, nonce );
+                long millis = System.currentTimeMillis() - start;
+                if( Thread.currentThread().isInterrupted() ) {
+                    throw new IOException( "Canceled" );
+                }
+                record( server, true, millis );
+                return new Result( server, token, millis );
+            } finally {
+                conn.disconnect();
+            }
+        } catch( IOException ex ) {
+            if( !Thread.currentThread().isInterrupted() ) {
+                record( server, false, System.currentTimeMillis() - start );
+            }
+            throw new IOException( server + ": " + ex.getMessage(), ex );
+        }
+    }
+
+    /**
+     * Validate a TimeStampResp and extract the token. The signature of the token is not verified, this is done by
+     * Windows with its trusted roots.
+     *
+     * @param response the DER encoded response
+     * @param imprint the expected message imprint
+     * @param nonce the expected nonce
+     * @return the token
+     * @throws IOException if the response is invalid
+     */
+    static byte[] parseResponse( byte[] response, byte[] imprint, BigInteger nonce ) throws IOException {
+        List<Der> resp = Der.parse( response ).getChildren();
+        Der statusInfo = resp.get( 0 );
+        int status = new BigInteger( statusInfo.getChild( 0, Der.INTEGER ).getContent() ).intValue();
+        if( status != 0 && status != 1 ) {
+            throw new IOException( "Timestamp request rejected with status " + status );
+        }
+        if( resp.size() < 2 ) {
+            throw new IOException( "Timestamp response without token" );
+        }
+        Der token = resp.get( 1 );
+        if( !token.getChild( 0, Der.OID ).isOid( SIGNED_DATA ) ) {
+            throw new IOException( "Timestamp token is not signed data" );
+        }
+        Der signedData = token.getChild( 1, Der.CONTEXT_0 ).getChild( 0, Der.SEQUENCE );
+        Der encapContent = signedData.getChild( 2, Der.SEQUENCE );
+        if( !encapContent.getChild( 0, Der.OID ).isOid( TST_INFO ) ) {
+            throw new IOException( "Timestamp token without TSTInfo" );
+        }
+        byte[] tstInfo = encapContent.getChild( 1, Der.CONTEXT_0 ).getChild( 0, Der.OCTET_STRING ).getContent();
+        List<Der> info = Der.parse( tstInfo ).getChildren();
+        Der messageImprint = info.get( 2 );
+        if( !messageImprint.getChild( 0, Der.SEQUENCE ).getChild( 0, Der.OID ).isOid( SHA256 ) || !Arrays.equals( messageImprint.getChild( 1, Der.OCTET_STRING ).getContent(), imprint ) ) {
+            throw new IOException( "Timestamp token for another message imprint" );
+        }
+        boolean hasNonce = false;
+        for( int i = 5; i < info.size(); i++ ) {
+            Der value = info.get( i );
+            if( value.getTag() == Der.INTEGER ) {
+                hasNonce = new BigInteger( value.getContent() ).equals( nonce );
+                break;
+            }
+        }
+        if( !hasNonce ) {
+            throw new IOException( "Timestamp token with wrong nonce" );
+        }
+        return token.getEncoded();
+    }
+
+    /**
+     * Record the latency of a request.
+     *
+     * @param server the server
+     * @param success true, if the request was successful
+     * @param millis the latency
+     */
+    private void record( String server, boolean success, long millis ) {
+        synchronized( stats ) {
+            long[] stat = stats.computeIfAbsent( server, key -> new long[3] );
+            if( success ) {
+                stat[0]++;
+                stat[2] += millis;
+            } else {
+                stat[1]++;
+            }
+        }
+    }
+
+    /**
+     * Record a request that was canceled because another server was faster. The latency is a lower bound only and
+     * therefore the request is not counted.
+     *
+     * @param server the server
+     * @param millis the minimum latency
+     */
+    private void recordCensored( String server, long millis ) {
+        synchronized( stats ) {
+            stats.computeIfAbsent( server, key -> new long[3] )[2] += millis;
+        }
+    }
+
+    /**
+     * Save the statistics for the next build.
+     *
+     * @throws IOException if the file can not be written
+     */
+    private void save() throws IOException {
+        if( store == null ) {
+            return;
+        }
+        synchronized( stats ) {
+            try( BufferedWriter writer = Files.newBufferedWriter( store.toPath(), StandardCharsets.UTF_8 ) ) {
+                for( Map.Entry<String, long[]> entry : new TreeMap<>( stats ).entrySet() ) {
+                    long[] stat = entry.getValue();
+                    writer.write( entry.getKey() + '\t' + stat[0] + '\t' + stat[1] + '\t' + stat[2] + '\n' );
+                }
+            }
+        }
+    }
+
+    /**
+     * The result of a successful request.
+     */
+    private static class Result {
+
+        private final String server;
+
+        private final byte[] token;
+
+        private final long   millis;
+
+        /**
+         * Create a result.
+         *
+         * @param server the server
+         * @param token the token
+         * @param millis the latency
+         */
+        Result( String server, byte[] token, long millis ) {
+            this.server = server;
+            this.token = token;
+            this.millis = millis;
+        }
+    }
+}
@@ -22,17 +22,22 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringReader;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.UUID;
@@ -50,7 +55,9 @@ import com.inet.gradle.setup.util.Strings;
 import org.gradle.api.GradleException;
 import org.gradle.api.internal.file.CopyActionProcessingStreamAction;
 import org.gradle.api.internal.file.copy.FileCopyDetailsInternal;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 import com.inet.gradle.setup.SetupBuilder;
 import com.inet.gradle.setup.abstracts.DesktopStarter;
@@ -71,15 +78,53 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
 
     private static final String     ICON_ID = "icon.ico";
 
+    /**
+     * The file names of PE files that can be signed.
+     */
+    private static final Pattern    PE_FILES = Pattern.compile( ".*\\.(exe|dll|ocx|sys|cpl|scr|drv|efi)", Pattern.CASE_INSENSITIVE );
+
     private Set<String>             components = new LinkedHashSet<>();
 
-    private HashMap<String, String> ids        = new HashMap<>();
+    private WxsIdAllocator          ids;
 
     private String                  jvmDll;
 
     private String                  javaDir;
 
-    private boolean                 isAddFiles;
+    /**
+     * The IDs of the payload files that are replaced in the variant without files.
+     */
+    private Set<String>             payloadFiles = new HashSet<>();
+
+    /**
+     * The IDs of the components that are removed in the variant without files.
+     */
+    private Set<String>             fileOnlyComponents = new HashSet<>();
+
+    /**
+     * The versions, languages and hashes of the payload files that are calculated in parallel.
+     */
+    private MsiFileInfo.Collector   fileInfos;
+
+    /**
+     * True, if the unsigned PE files should be signed.
+     */
+    private boolean                 signFiles;
+
+    /**
+     * The unsigned PE files by file ID. The values are the source file and the copy that is signed.
+     */
+    private Map<String, File[]>     unsignedFiles = new LinkedHashMap<>();
+
+    /**
+     * The files that are packed into the setup by file ID.
+     */
+    private Map<String, File>       sources = new HashMap<>();
+
+    /**
+     * The writers for the components of the files if the files are streamed.
+     */
+    private WxsFragmentWriter[]     fragments;
 
     /**
      * The product node in the XML.
@@ -98,12 +143,10 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
      * @param wxsFile the file name
      * @param buildDir the temporary directory of the task
      * @param template a template file
-     * @param addFiles if files should be added in this phase
      * @throws Exception if any error occur
      */
-    WxsFileBuilder( Msi msi, SetupBuilder setup, File wxsFile, File buildDir, URL template, boolean addFiles ) throws Exception {
+    WxsFileBuilder( Msi msi, SetupBuilder setup, File wxsFile, File buildDir, URL template ) throws Exception {
         super( msi, setup, wxsFile, buildDir, template );
-        this.isAddFiles = addFiles;
     }
 
     /**
@@ -113,6 +156,34 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
      * @throws Exception if any error occur
      */
     void build() throws Exception {
+        startChildIndex();
+        try {
+            buildModel();
+        } finally {
+            stopChildIndex();
+        }
+    }
+
+    /**
+     * Create the model of the *.wxs file and save it. The lookups of the children are indexed while this runs.
+     *
+     * @throws Exception if any error occur
+     */
+    private void buildModel() throws Exception {
+        ids = new WxsIdAllocator( new File( buildDir, "wxs.ids" ) );
+        File baseline = task.getPatchBaseline();
+        if( baseline != null ) {
+            // the IDs of the released setup must not change, else the patch removes and adds the files
+            File baselineIds = new File( baseline.getPath() + ".ids" );
+            if( baselineIds.isFile() ) {
+                ids.load( baselineIds );
+            } else {
+                task.getProject().getLogger().warn( "\tThe IDs of the patch baseline are missing: " + baselineIds );
+            }
+        }
+        fileInfos = new MsiFileInfo.Collector( new File( buildDir, "fileinfo.cache" ) );
+        signFiles = task.getSignTool() != null && task.getSignTool().isSignFiles();
+
         // Wix node
         Element wix = getOrCreateChild( doc, "Wix", true );
         wix.setAttributeNS( "http://www.w3.org/2000/xmlns/", "xmlns", "http://schemas.microsoft.com/wix/2006/wi" );
@@ -131,6 +202,17 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
         Element media = getOrCreateChildById( product, "Media", "1", false ); // must be the second in Product
         addAttributeIfNotExists( media, "Cabinet", "media1.cab" );
         addAttributeIfNotExists( media, "EmbedCab", "yes" );
+        List<MsiCabinet> cabinets = task.getCabinets();
+        for( int i = cabinets.size() - 1; i >= 0; i-- ) {
+            String name = cabinets.get( i ).getName();
+            if( name == null || name.isEmpty() ) {
+                throw new GradleException( "The name of a msi cabinet is not set." );
+            }
+            Element cabinet = getOrCreateChildById( product, "Media", Integer.toString( i + 2 ) );
+            product.insertBefore( cabinet, media.getNextSibling() );
+            addAttributeIfNotExists( cabinet, "Cabinet", name + ".cab" );
+            addAttributeIfNotExists( cabinet, "EmbedCab", "yes" );
+        }
         Element packge = getOrCreateChild( product, "Package", false ); // must be the first in Product
         if( product.getFirstChild() != packge ) {
             product.insertBefore( packge, product.getFirstChild() );
@@ -146,7 +228,7 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
             Element update = getOrCreateChild( product, "MajorUpgrade" );
             addAttributeIfNotExists( update, "AllowDowngrades", "yes" );
 
-            addMinimumVersionCheck( getGuid( "UpgradeCode" ), 0 );
+            addMinimumVersionCheck( getGuid( "UpgradeCode" ), false );
         }
 
         // Directory
@@ -161,6 +243,123 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
 
         //Files
         installDir = getOrCreateChildById( product, "DirectoryRef", "INSTALLDIR" );
+        int count = task.isStreamFiles() ? task.getWxsFragments() : 0;
+        for( int i = count;; i++ ) { // remove fragments of a previous build which are not used anymore
+            File fragmentFile = WxsFragmentWriter.getFragmentFile( xmlFile, i );
+            if( !fragmentFile.delete() ) {
+                break;
+            }
+            new File( buildDir, fragmentFile.getName().replace( ".wxs", ".wixobj" ) ).delete();
+        }
+        fragments = new WxsFragmentWriter[count];
+        try {
+            for( int i = 0; i < count; i++ ) {
+                fragments[i] = new WxsFragmentWriter( WxsFragmentWriter.getFragmentFile( xmlFile, i ), WxsFragmentWriter.COMPONENT_GROUP + i, task.getMultiInstanceCount() > 1 );
+            }
+            addFilesAndSettings();
+        } finally {
+            for( WxsFragmentWriter fragment : fragments ) {
+                if( fragment != null ) {
+                    fragment.close();
+                }
+            }
+        }
+        save();
+        ids.save();
+    }
+
+    /**
+     * Check if the versions, languages and hashes of all files of the model are calculated. This is false if the
+     * template contains files.
+     *
+     * @return true, if {@link #getFileInfos()} returns the infos of all files
+     */
+    boolean hasFileInfos() {
+        for( Element fileEl : getElements( doc, "File" ) ) {
+            if( !fileInfos.contains( fileEl.getAttribute( "Id" ) ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop the calculation of the file infos if light.exe reads the files.
+     */
+    void stopFileInfos() {
+        fileInfos.close();
+    }
+
+    /**
+     * Wait until the versions, languages and hashes of the files are calculated.
+     *
+     * @return the infos by file ID
+     * @throws IOException if a file can not be read
+     */
+    Map<String, MsiFileInfo> getFileInfos() throws IOException {
+        try {
+            return fileInfos.getInfos();
+        } finally {
+            fileInfos.close();
+        }
+    }
+
+    /**
+     * Save a variant of the built model without the payload files. The variants of the languages are only used to
+     * create the language transforms. The payload files are replaced by an empty folder and the components that need
+     * a file are removed.
+     *
+     * @param file the target file
+     * @throws Exception if any error occur
+     */
+    void saveWithoutFiles( File file ) throws Exception {
+        Document variant = (Document)doc.cloneNode( true );
+        for( Element fileEl : getElements( variant, "File" ) ) {
+            if( payloadFiles.contains( fileEl.getAttribute( "Id" ) ) ) {
+                Element component = (Element)fileEl.getParentNode();
+                component.removeChild( fileEl );
+                if( component.getElementsByTagName( "CreateFolder" ).getLength() == 0 ) {
+                    component.appendChild( variant.createElement( "CreateFolder" ) );
+                }
+            }
+        }
+        for( String name : new String[] { "Component", "ComponentRef" } ) {
+            for( Element el : getElements( variant, name ) ) {
+                if( fileOnlyComponents.contains( el.getAttribute( "Id" ) ) ) {
+                    el.getParentNode().removeChild( el );
+                }
+            }
+        }
+        for( Element el : getElements( variant, "ComponentGroupRef" ) ) {
+            if( el.getAttribute( "Id" ).startsWith( WxsFragmentWriter.COMPONENT_GROUP ) ) {
+                el.getParentNode().removeChild( el );
+            }
+        }
+        save( variant, file );
+    }
+
+    /**
+     * Get a snapshot of all elements with the given name.
+     *
+     * @param document the document
+     * @param name the element name
+     * @return the elements in document order
+     */
+    private static List<Element> getElements( Document document, String name ) {
+        NodeList list = document.getElementsByTagName( name );
+        List<Element> elements = new ArrayList<>( list.getLength() );
+        for( int i = 0; i < list.getLength(); i++ ) {
+            elements.add( (Element)list.item( i ) );
+        }
+        return elements;
+    }
+
+    /**
+     * Add the files and all other settings of the task to the product.
+     *
+     * @throws Exception if any error occur
+     */
+    private void addFilesAndSettings() throws Exception {
         task.processFiles( new CopyActionProcessingStreamAction() {
             @Override
             public void processFile( FileCopyDetailsInternal details ) {
@@ -203,8 +402,9 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
         for( String compID : components ) {
             getOrCreateChildById( feature, "ComponentRef", compID );
         }
-
-        save();
+        for( int i = 0; i < fragments.length; i++ ) {
+            getOrCreateChildById( feature, "ComponentGroupRef", WxsFragmentWriter.COMPONENT_GROUP + i );
+        }
     }
 
     /**
@@ -240,26 +440,27 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
     /**
      * Add a minimum version for update check if set.
      * @param upgradeCode the GUID of the upgrade code
-     * @param instance the instance number
+     * @param execute true, check in the InstallExecuteSequence where the instance transform is applied; false, check
+     *            in the InstallUISequence
      */
-    private void addMinimumVersionCheck( String upgradeCode, int instance ) {
+    private void addMinimumVersionCheck( String upgradeCode, boolean execute ) {
         String version = setup.getMinimumUpdateVersion();
         String message = setup.getMinimumUpdateMessage();
         if( version != null && message != null ) {
             // https://stackoverflow.com/questions/65787694/wix-prevent-only-certain-older-versions-from-being-updated
 
             Element upgrade = getOrCreateChildById( product, "Upgrade", upgradeCode );
-            Element upgradeVersion = getOrCreateChildByKeyValue( upgrade, "UpgradeVersion", "Property", "UNSUPPORTED_UPGRADE_VERSION_FOUND_" + instance );
+            Element upgradeVersion = getOrCreateChildByKeyValue( upgrade, "UpgradeVersion", "Property", "UNSUPPORTED_UPGRADE_VERSION_FOUND" );
             addAttributeIfNotExists( upgradeVersion, "OnlyDetect", "yes" );
             addAttributeIfNotExists( upgradeVersion, "Maximum", version );
             addAttributeIfNotExists( upgradeVersion, "IncludeMaximum", "no" );
 
-            Element customAction = getOrCreateChildByKeyValue( product, "CustomAction", "Id", "UpgrateFromVersionNotSupported_" + instance );
+            Element customAction = getOrCreateChildByKeyValue( product, "CustomAction", "Id", "UpgrateFromVersionNotSupported" );
             addAttributeIfNotExists( customAction, "Error", message );
 
             // we use "LaunchConditions" because there are more free unique sequence numbers
-            Element action = addCustomActionToSequence( "UpgrateFromVersionNotSupported_" + instance, false, "LaunchConditions", true, null );
-            action.setTextContent( "UNSUPPORTED_UPGRADE_VERSION_FOUND_" + instance );
+            Element action = addCustomActionToSequence( "UpgrateFromVersionNotSupported", execute, execute ? "FindRelatedProducts" : "LaunchConditions", true, null );
+            action.setTextContent( "UNSUPPORTED_UPGRADE_VERSION_FOUND" );
         }
     }
 
@@ -388,17 +589,33 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
      *
      * @param file the file to add.
      * @param segments the segments of the path in the target. The last segment contains the file name.
+     * @return the ID of the file
+     * @throws IOException if the file can not be written to the fragment
      */
-    private String addFile( File file, String[] segments ) {
+    private String addFile( File file, String[] segments ) throws IOException {
         Element parent = getDirectory( segments );
 
         String pathID = id( segments, segments.length - 1 );
-        String compID = id( ( pathID.length() > 0 ? pathID : "root" ) + "_Comp");
-
-        Element component = getComponent( parent, compID );
-
         String name = segments[segments.length - 1];
-        String id = addFile( component, file, segments, isAddFiles );
+        String diskId = getDiskId( segments );
+        String compID;
+        String id;
+        if( task.isStreamFiles() ) {
+            // a component per file, all files of a directory are in the same fragment
+            id = id( segments, segments.length );
+            compID = id( id + "_Comp" );
+            String dirID = parent.getAttribute( "Id" );
+            WxsFragmentWriter fragment = fragments[(dirID.hashCode() & 0x7FFFFFFF) % fragments.length];
+            fragment.addFile( dirID, compID, getGuid( compID ), id, name, addSource( id, file, segments ), diskId );
+        } else {
+            compID = id( ( pathID.length() > 0 ? pathID : "root" ) + "_Comp");
+            Element component = getComponent( parent, compID );
+            id = addFile( component, file, segments );
+            payloadFiles.add( id );
+            if( diskId != null ) {
+                addAttributeIfNotExists( getOrCreateChildById( component, "File", id ), "DiskId", diskId );
+            }
+        }
 
         // Debug Output of files that will be added
         task.getProject().getLogger().debug( "\t\tadding file: '" +file.toString() + "' '" + name + "' '" + id + "' '" + pathID + "' '" + compID + "' '" + String.join( "%", segments ) + "'" );
@@ -417,37 +634,138 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
         return id;
     }
 
+    /**
+     * Get the Media of a file if it should not be packed in the default cabinet.
+     *
+     * @param segments the segments of the path in the target. The last segment contains the file name.
+     * @return the DiskId of the first matching cabinet or null
+     */
+    private String getDiskId( String[] segments ) {
+        List<MsiCabinet> cabinets = task.getCabinets();
+        if( cabinets.isEmpty() ) {
+            return null;
+        }
+        String path = String.join( "/", segments );
+        for( int i = 0; i < cabinets.size(); i++ ) {
+            if( cabinets.get( i ).matches( path ) ) {
+                return Integer.toString( i + 2 );
+            }
+        }
+        return null;
+    }
+
     /**
      * Add a file.
      *
      * @param component the parent component node
      * @param file the source file
-     * @param pathID an ID of the parent path
-     * @param name the target file name
-     * @param isAddFiles if the file should added or not. On creating the multi language translations the files will not
-     *            added to improve the performance.
+     * @param segments the segments of the path in the target. The last segment contains the file name.
+     * @return the ID of the file
      */
-    private String addFile( Element component, File file, String[] segments, boolean isAddFiles ) {
+    private String addFile( Element component, File file, String[] segments ) {
         String name = segments[segments.length-1];
         String id = id( segments, segments.length );
-        if( isAddFiles ) {
-            Element fileEl = getOrCreateChildById( component, "File", id );
-            addAttributeIfNotExists( fileEl, "Source", file.getAbsolutePath() );
-            addAttributeIfNotExists( fileEl, "Name", name );
-        } else {
-            getOrCreateChild( component, "CreateFolder" );
-        }
+        Element fileEl = getOrCreateChildById( component, "File", id );
+        addAttributeIfNotExists( fileEl, "Source", addSource( id, file, segments ).getAbsolutePath() );
+        addAttributeIfNotExists( fileEl, "Name", name );
         return id;
     }
 
+    /**
+     * Register a payload file for the calculation of the file infos. If the files should be signed then an unsigned PE
+     * file is replaced with a copy in the build directory. The copy is created and signed before the msi file is
+     * created, see {@link #getUnsignedFiles()}.
+     *
+     * @param id the ID of the file
+     * @param file the source file
+     * @param segments the segments of the path in the target. The last segment contains the file name.
+     * @return the file that should be packed
+     */
+    private File addSource( String id, File file, String[] segments ) {
+        if( signFiles && isUnsignedPE( file ) ) {
+            File signed = new File( buildDir, "signed/" + String.join( "/", segments ) );
+            unsignedFiles.put( id, new File[] { file, signed } );
+            sources.put( id, signed );
+            return signed;
+        }
+        fileInfos.add( id, file );
+        sources.put( id, file );
+        return file;
+    }
+
+    /**
+     * Check if the file is a PE file without a signature.
+     *
+     * @param file the file
+     * @return true, if the file can be signed
+     */
+    private static boolean isUnsignedPE( File file ) {
+        if( !PE_FILES.matcher( file.getName() ).matches() ) {
+            return false;
+        }
+        try( RandomAccessFile raf = new RandomAccessFile( file, "r" ) ) {
+            if( raf.length() < 0x40 || raf.readUnsignedShort() != 0x4D5A ) { // "MZ"
+                return false;
+            }
+            raf.seek( 0x3C );
+            long pe = Integer.reverseBytes( raf.readInt() ) & 0xFFFFFFFFL;
+            if( pe + 26 > raf.length() ) {
+                return false;
+            }
+            raf.seek( pe );
+            if( raf.readInt() != 0x50450000 ) { // "PE\0\0"
+                return false;
+            }
+            raf.seek( pe + 24 );
+            int magic = Short.reverseBytes( raf.readShort() ) & 0xFFFF;
+            long securityDirectory = pe + 24 + (magic == 0x20B ? 112 : 96) + 4 * 8;
+            if( securityDirectory + 8 > raf.length() ) {
+                return false;
+            }
+            raf.seek( securityDirectory + 4 );
+            return raf.readInt() == 0;
+        } catch( IOException ex ) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the unsigned PE files if the files should be signed. The signed copies must be created before the msi file is
+     * created.
+     *
+     * @return the source file and the signed copy by file ID
+     */
+    Map<String, File[]> getUnsignedFiles() {
+        return unsignedFiles;
+    }
+
+    /**
+     * Get the files that are packed into the setup. Files of external wxs files are not included.
+     *
+     * @return the packed files by file ID
+     */
+    Map<String, File> getSources() {
+        return sources;
+    }
+
+    /**
+     * Calculate the versions, languages and hashes of the signed copies.
+     */
+    void addSignedFiles() {
+        for( Map.Entry<String, File[]> entry : unsignedFiles.entrySet() ) {
+            fileInfos.add( entry.getKey(), entry.getValue()[1] );
+        }
+    }
+
     /**
      * Add all files in a directory.
      *
      * @param dir the source directory
      * @param baseLength the base length of the directory. This length will be cut from the absolute path.
      * @param target the target directory
+     * @throws IOException if the file can not be added
      */
-    private void addDirectory( File dir, int baseLength, String target ) {
+    private void addDirectory( File dir, int baseLength, String target ) throws IOException {
         for( File file : dir.listFiles() ) {
             if( file.isDirectory() ) {
                 addDirectory( file, baseLength, target );
@@ -460,8 +778,9 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
 
     /**
      * Bundle a JRE if setup.
+     * @throws IOException if a file can not be added
      */
-    private void addBundleJre() {
+    private void addBundleJre() throws IOException {
         Object jre = setup.getBundleJre();
         if( jre == null ) {
             return;
@@ -717,7 +1036,7 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
             String[] segments = segments( exe );
             Element directory = getDirectory( segments );
             Element component = getComponent( directory, id );
-            addFile( component, prunsrv, segments, true );
+            addFile( component, prunsrv, segments );
 
             // install the windows service
             Element install = getOrCreateChildById( component, "ServiceInstall", id + "_install" );
@@ -760,7 +1079,7 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
             if( jvm != null ) {
                 addRegistryValue( regkey, "Jvm", "string", jvm );
             }
-            addMultiStringRegistryValue( regkey, "Options", service.getJavaVMArguments() );
+            addMultiStringRegistryValue( regkey, "Options", service.getServiceJavaVMArguments() );
 
             regkey = addRegistryKey( component, "HKLM", id + "_RegStart", baseKey + name + "\\Parameters\\Start" );
             addRegistryValue( regkey, "Class", "string", service.getMainClass() );
@@ -806,7 +1125,7 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
 
             // Add the prunmgr.exe and change it name dynamically to the service name. Dynamically is important for multiple instances.
             String target = name.replace( '[', '_' ).replace( ']', '_' );
-            addFile( component, prunmgr, segments( id + "GUI\\" + target + ".exe"), true );
+            addFile( component, prunmgr, segments( id + "GUI\\" + target + ".exe") );
             renameFileIfDynamic( id, subdir, target + ".exe", name + ".exe" );
 
             // delete log files on uninstall
@@ -997,48 +1316,47 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
      * @throws IOException if any IOException occur
      */
     private void registerFileExtension( DesktopStarter starter, CommandLine cmd ) throws IOException {
-        if( isAddFiles ) {
-            for( DocumentType docType : starter.getDocumentType() ) {
-                for( String fileExtension : docType.getFileExtension() ) {
-                    if( fileExtension.startsWith( "." ) ) {
-                        fileExtension = fileExtension.substring( 1 );
-                    }
-                    String pID = id( setup.getAppIdentifier() + "." + fileExtension );
-                    Element component = getComponent( installDir, pID + "_file_extension" );
-                    getOrCreateChild( component, "CreateFolder" );
-                    Element progID = getOrCreateChildById( component, "ProgId", pID );
-                    if( !docType.getName().isEmpty() ) {
-                        addAttributeIfNotExists( progID, "Description", docType.getName() );
-                    }
+        for( DocumentType docType : starter.getDocumentType() ) {
+            for( String fileExtension : docType.getFileExtension() ) {
+                if( fileExtension.startsWith( "." ) ) {
+                    fileExtension = fileExtension.substring( 1 );
+                }
+                String pID = id( setup.getAppIdentifier() + "." + fileExtension );
+                Element component = getComponent( installDir, pID + "_file_extension" );
+                fileOnlyComponents.add( pID + "_file_extension" ); // the icon is not available without files
+                getOrCreateChild( component, "CreateFolder" );
+                Element progID = getOrCreateChildById( component, "ProgId", pID );
+                if( !docType.getName().isEmpty() ) {
+                    addAttributeIfNotExists( progID, "Description", docType.getName() );
+                }
 
-                    File iconFile = starter.getIconForType( buildDir, "ico" );
-                    if( iconFile != null ) {
-                        String iconID = addFile( iconFile, new String[] { iconFile.getName() } );
-                        addAttributeIfNotExists( progID, "Icon", iconID );
-                    }
-                    Element reg = addRegistryKey( component, "HKCR", id(pID + "\\shell\\open"), pID + "\\shell\\open" );
-                    addRegistryValue( reg, "FriendlyAppName", "string", setup.getApplication() );
+                File iconFile = starter.getIconForType( buildDir, "ico" );
+                if( iconFile != null ) {
+                    String iconID = addFile( iconFile, new String[] { iconFile.getName() } );
+                    addAttributeIfNotExists( progID, "Icon", iconID );
+                }
+                Element reg = addRegistryKey( component, "HKCR", id(pID + "\\shell\\open"), pID + "\\shell\\open" );
+                addRegistryValue( reg, "FriendlyAppName", "string", setup.getApplication() );
 
-                    // add the file parameter if not in the command already
-                    String command = cmd.full;
-                    if ( !cmd.arguments.contains( "%1" ) ) {
-                        command += " \"%1\"";
-                    }
-                    
-                    // registering the file extensions the old way will overwrite the default, which we don't want to do.
-                    // so we must do it all on our own
-                    Element reg_command = addRegistryKey( component, "HKCR", id(pID + "\\shell\\open\\command"), pID + "\\shell\\open\\command" );
-                    addRegistryValue( reg_command, null, "string",  command );
-                    Element regkey = getOrCreateChildById( component, "RegistryKey", id(fileExtension + "\\OpenWithProgids") );
-                    addAttributeIfNotExists( regkey, "Root", "HKCR" );
-                    addAttributeIfNotExists( regkey, "Key", "." + fileExtension + "\\OpenWithProgids" );
-                    addAttributeIfNotExists( regkey, "ForceCreateOnInstall", "yes" ); // there must be one attribute with yes
-                    addAttributeIfNotExists( regkey, "ForceDeleteOnUninstall", "no" ); // no, we don't want to delete it
-                    Element ele = addRegistryValue( regkey, pID, "string", "" );
-                    addAttributeIfNotExists( ele, "KeyPath", "yes" ); // so we don't need a value, without it the value must be not empty
-                    
-                    
+                // add the file parameter if not in the command already
+                String command = cmd.full;
+                if ( !cmd.arguments.contains( "%1" ) ) {
+                    command += " \"%1\"";
                 }
+                
+                // registering the file extensions the old way will overwrite the default, which we don't want to do.
+                // so we must do it all on our own
+                Element reg_command = addRegistryKey( component, "HKCR", id(pID + "\\shell\\open\\command"), pID + "\\shell\\open\\command" );
+                addRegistryValue( reg_command, null, "string",  command );
+                Element regkey = getOrCreateChildById( component, "RegistryKey", id(fileExtension + "\\OpenWithProgids") );
+                addAttributeIfNotExists( regkey, "Root", "HKCR" );
+                addAttributeIfNotExists( regkey, "Key", "." + fileExtension + "\\OpenWithProgids" );
+                addAttributeIfNotExists( regkey, "ForceCreateOnInstall", "yes" ); // there must be one attribute with yes
+                addAttributeIfNotExists( regkey, "ForceDeleteOnUninstall", "no" ); // no, we don't want to delete it
+                Element ele = addRegistryValue( regkey, pID, "string", "" );
+                addAttributeIfNotExists( ele, "KeyPath", "yes" ); // so we don't need a value, without it the value must be not empty
+                
+                
             }
         }
     }
@@ -1311,20 +1629,7 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
      * @return a valid id
      */
     private String id( String[] segments, int length ) {
-        if( length <= 0 ) {
-            return "";
-        } else if( length == 1 ) {
-            return id( segments[0] );
-        } else {
-            StringBuilder builder = new StringBuilder();
-            for( int i = 0; i < length; i++ ) {
-                if( i > 0 ) {
-                    builder.append( '\\' );
-                }
-                builder.append( segments[i] );
-            }
-            return id( builder.toString() );
-        }
+        return ids.id( segments, length );
     }
 
     /**
@@ -1334,62 +1639,7 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
      * @return a valid id
      */
     private String id( String str ) {
-        StringBuilder builder = null;
-        boolean needUnderscoreStart = false;
-        for( int i = 0; i < str.length(); i++ ) {
-            char ch = str.charAt( i );
-            if( (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || (ch == '_') ) {
-                continue;
-            }
-            if( (ch >= '0' && ch <= '9') || (ch == '.') ) {
-                if( i > 0 ) {
-                    continue;
-                }
-                // id must begin with either a letter or an underscore.
-                needUnderscoreStart = true;
-                builder = new StringBuilder();
-                continue;
-            }
-            if( builder == null ) {
-                builder = new StringBuilder();
-            }
-            builder.append( str.substring( builder.length(), i ) );
-            builder.append( '_' );
-        }
-        if( builder == null ) {
-            if( str.length() <= 72 ) {
-                if( !ids.containsKey( str ) ) {
-                    ids.put( str, str );
-                    return str;
-                }
-                if( str.equals( ids.get( str ) ) ) {
-                    return str;
-                }
-            }
-            builder = new StringBuilder();
-        }
-        builder.append( str.substring( builder.length() ) );
-        if( builder.length() > 62 ) {
-            // 72 is the max id length, we remove the starting part because this occurs only with files and there is the max important part at the end.
-            builder.delete( 0, builder.length() - 62 );
-            char ch = builder.charAt( 0 );
-            needUnderscoreStart = (ch >= '0' && ch <= '9') || (ch == '.');
-        }
-        if( needUnderscoreStart ) {
-            builder.insert( 0, '_' );
-        }
-        String id = builder.toString();
-        if( !ids.containsKey( id ) ) {
-            ids.put( id, str );
-            return id; // new pair
-        }
-        if( str.equals( ids.get( id ) ) ) {
-            return id; // identical pair already exists
-        }
-        // we have a collision, add a hashcode to prevent name collision
-        builder.append( '_' );
-        builder.append( Integer.toHexString( str.hashCode() ) );
-        return builder.toString();
+        return ids.id( str );
     }
 
     /**
@@ -1399,6 +1649,17 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
      * @return the GUID
      */
     private String getGuid( String id ) {
+        return getGuid( setup, id );
+    }
+
+    /**
+     * Create a reproducible GUID
+     *
+     * @param setup the SetupBuilder extension
+     * @param id a parameter as random input
+     * @return the GUID
+     */
+    static String getGuid( SetupBuilder setup, String id ) {
         return UUID.nameUUIDFromBytes( (setup.getVendor() + setup.getApplication() + id).getBytes() ).toString();
     }
 
@@ -1413,6 +1674,7 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
             return;
         }
         // http://windows-installer-xml-wix-toolset.687559.n2.nabble.com/Multiple-Instance-Transforms-Walkthrough-Proposed-Simple-Addition-to-WiX-to-Make-Them-Easier-td708828.html
+        // The instance transforms are not declared here, they are created by MsiInstanceTransforms in the linked msi.
 
         // define the property "INSTANCE_ID"
         Element property = getOrCreateChildById( product, "Property", "INSTANCE_ID" );
@@ -1422,26 +1684,20 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
         property = getOrCreateChildById( product, "Property", "InstancesCount" );
         addAttributeIfNotExists( property, "Value", Integer.toString( instanceCount ) );
 
-        // add instance count InstanceTransforms and UpgradeVersion
-        Element transforms = getOrCreateChildByKeyValue( product, "InstanceTransforms", "Property", "INSTANCE_ID" );
+        // The upgrade rows use the UpgradeCode of the product. The instance transforms replace it with the UpgradeCode
+        // of the instance, that only the instance itself is detected.
+        String upgradeCode = getGuid( "UpgradeCode" );
+        Element upgrade = getOrCreateChildById( product, "Upgrade", upgradeCode );
+        Element upgradeVersion = getOrCreateChildByKeyValue( upgrade, "UpgradeVersion", "Property", "WIX_UPGRADE_DETECTED" );
+        addAttributeIfNotExists( upgradeVersion, "Minimum", "0.0.0.0" );
+        addAttributeIfNotExists( upgradeVersion, "MigrateFeatures", "yes" );
+        addMinimumVersionCheck( upgradeCode, true );
+
+        // read the directories and package codes of the installed instances with AppSearch for the script
+        String instancesKey = "Software\\" + setup.getVendor() + "\\" + setup.getApplication() + "\\Instances\\";
         for( int i = 0; i < instanceCount; i++ ) {
-            String id = "Instance_" + i;
-            String guid = getGuid( id );
-            Element instance = getOrCreateChildById( transforms, "Instance", id );
-            addAttributeIfNotExists( instance, "ProductCode", "*" );
-            addAttributeIfNotExists( instance, "UpgradeCode", guid );
-
-            Element upgrade = getOrCreateChildById( product, "Upgrade", guid );
-            Element upgradeVersion = getOrCreateChildByKeyValue( upgrade, "UpgradeVersion", "Property", "WIX_UPGRADE_DETECTED_" + i );
-            addAttributeIfNotExists( upgradeVersion, "Minimum", "0.0.0.0" );
-            addAttributeIfNotExists( upgradeVersion, "MigrateFeatures", "yes" );
-
-            if( i < 100 ) {
-                // There are only a limit actions possible after "LaunchConditions" that we limit this feature to 100.
-                // If there are more then the error is: "error LGHT0179 : The InstallUISequence table contains an action 'UpgrateFromVersionNotSupported_3' which cannot have a unique sequence number because it is scheduled before or after action 'LaunchConditions'.  There is not enough room before or after this action to assign a unique sequence number.  Please schedule one of the actions differently so that it will be in a position with more sequence numbers available.  Please note that sequence numbers must be an integer in the range 1 - 32767 (inclusive).
-                // https://github.com/wixtoolset/wix3/blob/develop/src/tools/wix/Data/actions.xml
-                addMinimumVersionCheck( guid, i );
-            }
+            addRegistrySearch( MsiInstanceTransforms.DIR_PROPERTY + i, MsiInstanceTransforms.DIR_SEARCH + i, instancesKey + i, null );
+            addRegistrySearch( MsiInstanceTransforms.PACKAGE_PROPERTY + i, MsiInstanceTransforms.PACKAGE_SEARCH + i, instancesKey + i, "PackageCode" );
         }
         Element executeSequence = getOrCreateChild( product, "InstallExecuteSequence" );
         Element removeExistingProducts = getOrCreateChild( executeSequence, "RemoveExistingProducts" );
@@ -1479,6 +1735,28 @@ class WxsFileBuilder extends XmlFileBuilder<Msi> {
         addRegistryValue( key, "PackageCode", "string", "[PackageCode]" );
     }
 
+    /**
+     * Add a property that is set from a registry value of HKLM. The elements are appended without a lookup, because
+     * there are many of them on a large count of instances.
+     *
+     * @param propertyId the ID of the property
+     * @param searchId the ID of the registry search, the signature in the AppSearch table
+     * @param key the registry key
+     * @param name the name of the registry value or null for the default value
+     */
+    private void addRegistrySearch( String propertyId, String searchId, String key, String name ) {
+        Element property = createChild( product, "Property", true );
+        property.setAttribute( "Id", propertyId );
+        Element search = createChild( property, "RegistrySearch", true );
+        search.setAttribute( "Id", searchId );
+        search.setAttribute( "Root", "HKLM" );
+        search.setAttribute( "Key", key );
+        if( name != null ) {
+            search.setAttribute( "Name", name );
+        }
+        search.setAttribute( "Type", "raw" );
+    }
+
     /**
      * Add pre and post scripts if any set.
      *
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writer of a WiX fragment with the components of the payload files. The components are written with a
+ * {@link XMLStreamWriter} while the files are processed and are never hold in a DOM. The memory does not grow with
+ * the count of files. The fragment contains a single ComponentGroup that must be referenced from a feature.
+ * <p>
+ * The fragment is written to a temporary file first. An existing fragment with the same content is not replaced, so
+ * its timestamp can be used to skip the compiling on the next build.
+ */
+class WxsFragmentWriter implements Closeable {
+
+    /**
+     * The prefix of the IDs of the ComponentGroups in the fragments.
+     */
+    static final String          COMPONENT_GROUP = "PayloadFiles";
+
+    private static final String  NAMESPACE       = "http://schemas.microsoft.com/wix/2006/wi";
+
+    private final File           file;
+
+    private final File           tempFile;
+
+    private final OutputStream   output;
+
+    private final XMLStreamWriter writer;
+
+    private final boolean        multiInstance;
+
+    private final Set<String>    fileIDs         = new HashSet<>();
+
+    /**
+     * Create a new fragment file and write the header.
+     *
+     * @param file the target file
+     * @param componentGroup the ID of the ComponentGroup
+     * @param multiInstance true, if the components must be marked as MultiInstance
+     * @throws IOException if the file can not be created
+     */
+    WxsFragmentWriter( File file, String componentGroup, boolean multiInstance ) throws IOException {
+        this.file = file;
+        this.multiInstance = multiInstance;
+        tempFile = new File( file.getPath() + ".tmp" );
+        output = new BufferedOutputStream( new FileOutputStream( tempFile ), 65536 );
+        try {
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter( output, "UTF-8" );
+            writer.writeStartDocument( "UTF-8", "1.0" );
+            writer.writeCharacters( "\n" );
+            writer.writeStartElement( "Wix" );
+            writer.writeDefaultNamespace( NAMESPACE );
+            writer.writeCharacters( "\n  " );
+            writer.writeStartElement( "Fragment" );
+            writer.writeCharacters( "\n    " );
+            writer.writeStartElement( "ComponentGroup" );
+            writer.writeAttribute( "Id", componentGroup );
+        } catch( XMLStreamException ex ) {
+            output.close();
+            throw new IOException( ex );
+        }
+    }
+
+    /**
+     * Get the location of a fragment for a wxs file.
+     *
+     * @param wxsFile the main wxs file
+     * @param index the index of the fragment
+     * @return the fragment file
+     */
+    static File getFragmentFile( File wxsFile, int index ) {
+        String name = wxsFile.getName();
+        if( name.endsWith( ".wxs" ) ) {
+            name = name.substring( 0, name.length() - 4 );
+        }
+        return new File( wxsFile.getParentFile(), name + ".files" + index + ".wxs" );
+    }
+
+    /**
+     * Write a component with a single file. The file is the key path of the component. A file ID that was already
+     * written is ignored.
+     *
+     * @param directory the ID of the target directory
+     * @param compID the ID of the component
+     * @param guid the GUID of the component
+     * @param id the ID of the file
+     * @param name the target file name
+     * @param source the source file
+     * @param diskId the Media of the file or null for the default
+     * @throws IOException if the file can not be written
+     */
+    void addFile( String directory, String compID, String guid, String id, String name, File source, String diskId ) throws IOException {
+        if( !fileIDs.add( id ) ) {
+            return;
+        }
+        try {
+            writer.writeCharacters( "\n      " );
+            writer.writeStartElement( "Component" );
+            writer.writeAttribute( "Id", compID );
+            writer.writeAttribute( "Directory", directory );
+            writer.writeAttribute( "Guid", guid );
+            if( multiInstance ) {
+                writer.writeAttribute( "MultiInstance", "yes" );
+            }
+            writer.writeEmptyElement( "File" );
+            writer.writeAttribute( "Id", id );
+            writer.writeAttribute( "Source", source.getAbsolutePath() );
+            writer.writeAttribute( "Name", name );
+            writer.writeAttribute( "KeyPath", "yes" );
+            if( diskId != null ) {
+                writer.writeAttribute( "DiskId", diskId );
+            }
+            writer.writeEndElement();
+        } catch( XMLStreamException ex ) {
+            throw new IOException( ex );
+        }
+    }
+
+    /**
+     * Write the end of the fragment and close the file.
+     *
+     * @throws IOException if the file can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.writeCharacters( "\n    " );
+            writer.writeEndElement(); // ComponentGroup
+            writer.writeCharacters( "\n  " );
+            writer.writeEndElement(); // Fragment
+            writer.writeCharacters( "\n" );
+            writer.writeEndElement(); // Wix
+            writer.writeEndDocument();
+            writer.close();
+        } catch( XMLStreamException ex ) {
+            throw new IOException( ex );
+        } finally {
+            output.close();
+        }
+        if( isEqual( file, tempFile ) ) {
+            Files.delete( tempFile.toPath() );
+        } else {
+            Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+    }
+
+    /**
+     * Compare the content of two files.
+     *
+     * @param file1 the first file
+     * @param file2 the second file
+     * @return true, if both files exists and have the same content
+     * @throws IOException if a file can not be read
+     */
+    private static boolean isEqual( File file1, File file2 ) throws IOException {
+        if( !file1.isFile() || file1.length() != file2.length() ) {
+            return false;
+        }
+        try( InputStream input1 = new BufferedInputStream( new FileInputStream( file1 ) );
+             InputStream input2 = new BufferedInputStream( new FileInputStream( file2 ) ) ) {
+            int b;
+            do {
+                b = input1.read();
+                if( b != input2.read() ) {
+                    return false;
+                }
+            } while( b >= 0 );
+        }
+        return true;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Allocate the IDs of the wxs file. An ID contains only valid characters, is not longer as 72 characters and is unique
+ * for its source string. The IDs of path segments are memorized in a tree, so that the path of a directory is joined
+ * only once. The allocated IDs can be saved and loaded in the next build, so that a new source string can not take
+ * the ID of an existing source string and the component GUIDs, that are derived from the IDs, stay stable.
+ */
+class WxsIdAllocator {
+
+    /** The max length of an ID that is supported by WiX. */
+    private static final int          MAX_ID_LENGTH = 72;
+
+    /** The max length of an ID without the hash of a collision. */
+    private static final int          MAX_LENGTH    = 62;
+
+    /** The source strings of the allocated IDs. */
+    private final Map<String, String> owners        = new HashMap<>();
+
+    /** The IDs of the source strings. */
+    private final Map<String, String> ids           = new HashMap<>();
+
+    /** The IDs that was used in the current build. */
+    private final Map<String, String> used          = new HashMap<>();
+
+    private final PathNode            root          = new PathNode( null, null );
+
+    private final File                store;
+
+    /**
+     * Create a new instance and load the IDs of the previous build.
+     *
+     * @param store the file with the IDs of the previous build or null
+     * @throws IOException if the file can not be read
+     */
+    WxsIdAllocator( File store ) throws IOException {
+        this.store = store;
+        if( store != null && store.isFile() ) {
+            load( store );
+        }
+    }
+
+    /**
+     * Load IDs from a file that was written with {@link #save()}. The loaded IDs replace the current assignments, so
+     * that the IDs of a released setup win over the IDs of the last build if a patch for this setup is created.
+     *
+     * @param file the file with the IDs
+     * @throws IOException if the file can not be read
+     */
+    void load( File file ) throws IOException {
+        try( BufferedReader reader = Files.newBufferedReader( file.toPath(), StandardCharsets.UTF_8 ) ) {
+            String line;
+            while( (line = reader.readLine()) != null ) {
+                int idx = line.indexOf( '\t' );
+                if( idx > 0 ) {
+                    String id = line.substring( 0, idx );
+                    String str = line.substring( idx + 1 );
+                    String oldOwner = owners.put( id, str );
+                    if( oldOwner != null && !oldOwner.equals( str ) ) {
+                        ids.remove( oldOwner );
+                    }
+                    String oldId = ids.put( str, id );
+                    if( oldId != null && !oldId.equals( id ) ) {
+                        owners.remove( oldId );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the IDs that was used in the current build for the next build.
+     *
+     * @throws IOException if the file can not be written
+     */
+    void save() throws IOException {
+        if( store == null ) {
+            return;
+        }
+        try( BufferedWriter writer = Files.newBufferedWriter( store.toPath(), StandardCharsets.UTF_8 ) ) {
+            for( Map.Entry<String, String> entry : new TreeMap<>( used ).entrySet() ) {
+                String str = entry.getValue();
+                if( str.indexOf( '\n' ) < 0 && str.indexOf( '\r' ) < 0 ) {
+                    writer.write( entry.getKey() );
+                    writer.write( '\t' );
+                    writer.write( str );
+                    writer.write( '\n' );
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the ID of the path that is build from the first segments. The segments are joined with a backslash.
+     *
+     * @param segments the segments of the path in the target. The last segment contains the file name.
+     * @param length the length of the segments that should be used for the id
+     * @return a valid id or an empty string for a length of 0
+     */
+    String id( String[] segments, int length ) {
+        if( length <= 0 ) {
+            return "";
+        }
+        PathNode node = root;
+        for( int i = 0; i < length; i++ ) {
+            node = node.child( segments[i] );
+        }
+        if( node.id == null ) {
+            node.id = id( node.path );
+        }
+        return node.id;
+    }
+
+    /**
+     * Get the ID of a string.
+     *
+     * @param str possible id but with possible invalid characters
+     * @return a valid id
+     */
+    String id( String str ) {
+        String id = ids.get( str );
+        if( id == null ) {
+            id = allocate( str );
+            ids.put( str, id );
+            owners.put( id, str );
+            used.put( id, str );
+        } else if( !used.containsKey( id ) ) {
+            used.put( id, str );
+        }
+        return id;
+    }
+
+    /**
+     * Create a new valid id for a string. Invalid characters are replaced with an underscore. A long string is
+     * truncated at the start, because this occurs only with files and the important part is at the end. If the ID is
+     * already used by another string then a hash of the string and if needed a counter is added. The start of the ID
+     * is cut, so that it never exceeds the max length of WiX.
+     *
+     * @param str possible id but with possible invalid characters
+     * @return a valid id
+     */
+    private String allocate( String str ) {
+        StringBuilder builder = null;
+        boolean needUnderscoreStart = false;
+        for( int i = 0; i < str.length(); i++ ) {
+            char ch = str.charAt( i );
+            if( (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || (ch == '_') ) {
+                continue;
+            }
+            if( (ch >= '0' && ch <= '9') || (ch == '.') ) {
+                if( i > 0 ) {
+                    continue;
+                }
+                // id must begin with either a letter or an underscore.
+                needUnderscoreStart = true;
+                builder = new StringBuilder();
+                continue;
+            }
+            if( builder == null ) {
+                builder = new StringBuilder();
+            }
+            builder.append( str, builder.length(), i );
+            builder.append( '_' );
+        }
+        if( builder == null ) {
+            if( str.length() <= MAX_ID_LENGTH && !owners.containsKey( str ) ) {
+                return str;
+            }
+            builder = new StringBuilder();
+        }
+        builder.append( str, builder.length(), str.length() );
+        if( builder.length() > MAX_LENGTH ) {
+            builder.delete( 0, builder.length() - MAX_LENGTH );
+            char ch = builder.charAt( 0 );
+            needUnderscoreStart = (ch >= '0' && ch <= '9') || (ch == '.');
+        }
+        if( needUnderscoreStart ) {
+            builder.insert( 0, '_' );
+        }
+        String id = builder.toString();
+        if( !owners.containsKey( id ) ) {
+            return id;
+        }
+
+        // we have a collision, add a hashcode to prevent name collision
+        String hash = '_' + Integer.toHexString( str.hashCode() );
+        for( int i = 1;; i++ ) {
+            String suffix = i == 1 ? hash : hash + '_' + i;
+            id = truncate( builder, MAX_ID_LENGTH - suffix.length() ) + suffix;
+            if( !owners.containsKey( id ) ) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Cut the start of an ID so that it is not longer as the given length. If the cut ID starts with a digit or a
+     * point then this character is replaced with an underscore.
+     *
+     * @param id the valid ID
+     * @param length the max length
+     * @return the truncated ID
+     */
+    private static String truncate( CharSequence id, int length ) {
+        if( id.length() <= length ) {
+            return id.toString();
+        }
+        StringBuilder builder = new StringBuilder( id.subSequence( id.length() - length, id.length() ) );
+        char ch = builder.charAt( 0 );
+        if( (ch >= '0' && ch <= '9') || (ch == '.') ) {
+            builder.setCharAt( 0, '_' );
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A node in the tree of the path segments.
+     */
+    private static class PathNode {
+
+        private final String                path;
+
+        private Map<String, PathNode>       children;
+
+        private String                      id;
+
+        /**
+         * Create a node.
+         *
+         * @param parent the parent node or null for the root
+         * @param segment the segment of this node
+         */
+        PathNode( PathNode parent, String segment ) {
+            path = parent == null || parent.path == null ? segment : parent.path + '\\' + segment;
+        }
+
+        /**
+         * Get or create a child node.
+         *
+         * @param segment the segment of the child
+         * @return the child
+         */
+        PathNode child( String segment ) {
+            if( children == null ) {
+                children = new HashMap<>();
+            }
+            PathNode child = children.get( segment );
+            if( child == null ) {
+                child = new PathNode( this, segment );
+                children.put( segment, child );
+            }
+            return child;
+        }
+    }
+}
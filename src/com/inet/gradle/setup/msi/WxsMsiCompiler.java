@@ -0,0 +1,1882 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.inet.gradle.setup.msi.db.Cabinet;
+import com.inet.gradle.setup.msi.db.MsiColumn;
+import com.inet.gradle.setup.msi.db.MsiDatabase;
+import com.inet.gradle.setup.msi.db.MsiTable;
+import com.inet.gradle.setup.msi.db.SummaryInformation;
+
+/**
+ * Compile the WiX sources of the setup to a msi file without the WiX toolset. This supports the part of the WiX schema
+ * that is created by the {@link WxsFileBuilder}. The dialogs of the WixUIExtension are not available and are ignored,
+ * the setup runs with the basic user interface of the Windows Installer. Everything else that is not supported breaks
+ * the build.
+ */
+class WxsMsiCompiler {
+
+    private static final Map<String, MsiColumn[]> SCHEMA           = new HashMap<>();
+
+    static final String[]                         SEQUENCE_TABLES  = { "InstallUISequence", "InstallExecuteSequence", "AdminUISequence", "AdminExecuteSequence", "AdvtExecuteSequence" };
+
+    static final Map<String, Object[][]>          STANDARD_ACTIONS = new HashMap<>();
+
+    private static final Pattern                  LOC              = Pattern.compile( "!\\(loc\\.([^)]+)\\)" );
+
+    static final int                              MAX_SEQUENCE     = 32767;
+
+    static {
+        schema( "Property", MsiColumn.key( "Property", "s72" ), MsiColumn.of( "Value", "l0" ) );
+        schema( "Directory", MsiColumn.key( "Directory", "s72" ), MsiColumn.of( "Directory_Parent", "S72" ), MsiColumn.of( "DefaultDir", "l255" ) );
+        schema( "Component", MsiColumn.key( "Component", "s72" ), MsiColumn.of( "ComponentId", "S38" ), MsiColumn.of( "Directory_", "s72" ), MsiColumn.of( "Attributes", "i2" ), MsiColumn.of( "Condition", "S255" ), MsiColumn.of( "KeyPath", "S72" ) );
+        schema( "File", MsiColumn.key( "File", "s72" ), MsiColumn.of( "Component_", "s72" ), MsiColumn.of( "FileName", "l255" ), MsiColumn.of( "FileSize", "i4" ), MsiColumn.of( "Version", "S72" ), MsiColumn.of( "Language", "S20" ), MsiColumn.of( "Attributes", "I2" ), MsiColumn.of( "Sequence", "i4" ) );
+        schema( "MsiFileHash", MsiFileInfo.FILE_HASH_COLUMNS );
+        schema( "Media", MsiColumn.key( "DiskId", "i2" ), MsiColumn.of( "LastSequence", "i4" ), MsiColumn.of( "DiskPrompt", "L64" ), MsiColumn.of( "Cabinet", "S255" ), MsiColumn.of( "VolumeLabel", "S32" ), MsiColumn.of( "Source", "S72" ) );
+        schema( "Feature", MsiColumn.key( "Feature", "s38" ), MsiColumn.of( "Feature_Parent", "S38" ), MsiColumn.of( "Title", "L64" ), MsiColumn.of( "Description", "L255" ), MsiColumn.of( "Display", "I2" ), MsiColumn.of( "Level", "i2" ), MsiColumn.of( "Directory_", "S72" ), MsiColumn.of( "Attributes", "i2" ) );
+        schema( "FeatureComponents", MsiColumn.key( "Feature_", "s38" ), MsiColumn.key( "Component_", "s72" ) );
+        schema( "Registry", MsiColumn.key( "Registry", "s72" ), MsiColumn.of( "Root", "i2" ), MsiColumn.of( "Key", "l255" ), MsiColumn.of( "Name", "L255" ), MsiColumn.of( "Value", "L0" ), MsiColumn.of( "Component_", "s72" ) );
+        schema( "CreateFolder", MsiColumn.key( "Directory_", "s72" ), MsiColumn.key( "Component_", "s72" ) );
+        schema( "RemoveFile", MsiColumn.key( "FileKey", "s72" ), MsiColumn.of( "Component_", "s72" ), MsiColumn.of( "FileName", "L255" ), MsiColumn.of( "DirProperty", "s72" ), MsiColumn.of( "InstallMode", "i2" ) );
+        schema( "Upgrade", MsiColumn.key( "UpgradeCode", "s38" ), MsiColumn.key( "VersionMin", "S20" ), MsiColumn.key( "VersionMax", "S20" ), MsiColumn.key( "Language", "S255" ), MsiColumn.key( "Attributes", "i4" ), MsiColumn.of( "Remove", "S255" ), MsiColumn.of( "ActionProperty", "s72" ) );
+        schema( "AppSearch", MsiColumn.key( "Property", "s72" ), MsiColumn.key( "Signature_", "s72" ) );
+        schema( "RegLocator", MsiColumn.key( "Signature_", "s72" ), MsiColumn.of( "Root", "i2" ), MsiColumn.of( "Key", "s255" ), MsiColumn.of( "Name", "S255" ), MsiColumn.of( "Type", "I2" ) );
+        schema( "Icon", MsiColumn.key( "Name", "s72" ), MsiColumn.of( "Data", "v0" ) );
+        schema( "LaunchCondition", MsiColumn.key( "Condition", "s255" ), MsiColumn.of( "Description", "l255" ) );
+        schema( "CustomAction", MsiColumn.key( "Action", "s72" ), MsiColumn.of( "Type", "i2" ), MsiColumn.of( "Source", "S72" ), MsiColumn.of( "Target", "S255" ), MsiColumn.of( "ExtendedType", "I4" ) );
+        schema( "Shortcut", MsiColumn.key( "Shortcut", "s72" ), MsiColumn.of( "Directory_", "s72" ), MsiColumn.of( "Name", "l128" ), MsiColumn.of( "Component_", "s72" ), MsiColumn.of( "Target", "s72" ), MsiColumn.of( "Arguments", "S255" ), MsiColumn.of( "Description", "L255" ), MsiColumn.of( "Hotkey", "I2" ), MsiColumn.of( "Icon_", "S72" ), MsiColumn.of( "IconIndex", "I2" ), MsiColumn.of( "ShowCmd", "I2" ), MsiColumn.of( "WkDir", "S72" ), MsiColumn.of( "DisplayResourceDLL", "S255" ), MsiColumn.of( "DisplayResourceId", "I2" ), MsiColumn.of( "DescriptionResourceDLL", "S255" ), MsiColumn.of( "DescriptionResourceId", "I2" ) );
+        schema( "ServiceInstall", MsiColumn.key( "ServiceInstall", "s72" ), MsiColumn.of( "Name", "s255" ), MsiColumn.of( "DisplayName", "L255" ), MsiColumn.of( "ServiceType", "i4" ), MsiColumn.of( "StartType", "i4" ), MsiColumn.of( "ErrorControl", "i4" ), MsiColumn.of( "LoadOrderGroup", "S255" ), MsiColumn.of( "Dependencies", "S255" ), MsiColumn.of( "StartName", "S255" ), MsiColumn.of( "Password", "S255" ), MsiColumn.of( "Arguments", "S255" ), MsiColumn.of( "Component_", "s72" ), MsiColumn.of( "Description", "L255" ) );
+        schema( "ServiceControl", MsiColumn.key( "ServiceControl", "s72" ), MsiColumn.of( "Name", "l255" ), MsiColumn.of( "Event", "i2" ), MsiColumn.of( "Arguments", "L255" ), MsiColumn.of( "Wait", "I2" ), MsiColumn.of( "Component_", "s72" ) );
+        for( String sequence : SEQUENCE_TABLES ) {
+            schema( sequence, MsiColumn.key( "Action", "s72" ), MsiColumn.of( "Condition", "S255" ), MsiColumn.of( "Sequence", "I2" ) );
+        }
+
+        // the standard actions with the sequence numbers of the WiX toolset
+        Object[][] ui = { { "FindRelatedProducts", 25 }, { "AppSearch", 50 }, { "LaunchConditions", 100 }, { "ValidateProductID", 700 }, //
+                        { "CostInitialize", 800 }, { "FileCost", 900 }, { "CostFinalize", 1000 }, { "MigrateFeatureStates", 1200 }, { "ExecuteAction", 1300 } };
+        Object[][] execute = { { "FindRelatedProducts", 25 }, { "AppSearch", 50 }, { "LaunchConditions", 100 }, { "ValidateProductID", 700 }, //
+                        { "CostInitialize", 800 }, { "FileCost", 900 }, { "CostFinalize", 1000 }, { "MigrateFeatureStates", 1200 }, //
+                        { "InstallValidate", 1400 }, { "InstallInitialize", 1500 }, { "ProcessComponents", 1600 }, { "UnpublishFeatures", 1800 }, //
+                        { "StopServices", 1900, "VersionNT" }, { "DeleteServices", 2000, "VersionNT" }, { "RemoveRegistryValues", 2600 }, //
+                        { "RemoveShortcuts", 3200 }, { "RemoveFiles", 3500 }, { "RemoveFolders", 3600 }, { "CreateFolders", 3700 }, //
+                        { "InstallFiles", 4000 }, { "CreateShortcuts", 4500 }, { "WriteRegistryValues", 5000 }, //
+                        { "InstallServices", 5800, "VersionNT" }, { "StartServices", 5900, "VersionNT" }, { "RegisterUser", 6000 }, //
+                        { "RegisterProduct", 6100 }, { "PublishFeatures", 6300 }, { "PublishProduct", 6400 }, { "InstallFinalize", 6600 } };
+        STANDARD_ACTIONS.put( "InstallUISequence", ui );
+        STANDARD_ACTIONS.put( "InstallExecuteSequence", execute );
+        STANDARD_ACTIONS.put( "AdminUISequence", new Object[][] { { "CostInitialize", 800 }, { "FileCost", 900 }, { "CostFinalize", 1000 }, { "ExecuteAction", 1300 } } );
+        STANDARD_ACTIONS.put( "AdminExecuteSequence", new Object[][] { { "CostInitialize", 800 }, { "FileCost", 900 }, { "CostFinalize", 1000 }, //
+                        { "InstallValidate", 1400 }, { "InstallInitialize", 1500 }, { "InstallAdminPackage", 3900 }, { "InstallFiles", 4000 }, { "InstallFinalize", 6600 } } );
+        STANDARD_ACTIONS.put( "AdvtExecuteSequence", new Object[][] { { "CostInitialize", 800 }, { "CostFinalize", 1000 }, { "InstallValidate", 1400 }, //
+                        { "InstallInitialize", 1500 }, { "CreateShortcuts", 4500 }, { "PublishFeatures", 6300 }, { "PublishProduct", 6400 }, { "InstallFinalize", 6600 } } );
+    }
+
+    private final Msi                              task;
+
+    private final File                             buildDir;
+
+    private final MsiLanguages                     language;
+
+    private final Logger                           logger;
+
+    private final Set<String>                      unsupported       = new TreeSet<>();
+
+    private final Map<String, String>              localization      = new HashMap<>();
+
+    private int                                    codepage          = 1252;
+
+    private MsiDatabase                            db;
+
+    private boolean                                win64;
+
+    private final Map<String, String>              properties        = new LinkedHashMap<>();
+
+    private final Set<String>                      secureProperties  = new LinkedHashSet<>();
+
+    private final Set<String>                      directoryRefs     = new LinkedHashSet<>();
+
+    private final Map<String, Set<String>>         shortNames        = new HashMap<>();
+
+    private final List<PayloadFile>                files             = new ArrayList<>();
+
+    private final Map<Integer, Media>              media             = new TreeMap<>();
+
+    private final Map<String, List<String>>        componentGroups   = new HashMap<>();
+
+    private final List<String[]>                   groupRefs         = new ArrayList<>();
+
+    private final List<Element>                    customActions     = new ArrayList<>();
+
+    private final Map<String, String>              propertyActions   = new HashMap<>();
+
+    private final Map<String, Map<String, Action>> sequences         = new HashMap<>();
+
+    private final Set<String>                      ignored           = new TreeSet<>();
+
+    private Map<String, MsiFileInfo>               fileInfos         = Collections.emptyMap();
+
+    private int                                    featureDisplay;
+
+    private String                                 keyPath;
+
+    private boolean                                keyPathRegistry;
+
+    private String                                 firstFile;
+
+    /**
+     * Create a new instance.
+     *
+     * @param task the msi task
+     * @param buildDir the build directory for the cabinets
+     * @param language the language of the msi file
+     */
+    WxsMsiCompiler( Msi task, File buildDir, MsiLanguages language ) {
+        this.task = task;
+        this.buildDir = buildDir;
+        this.language = language;
+        this.logger = task.getProject().getLogger();
+        this.win64 = task.is64Bit();
+    }
+
+    /**
+     * Set the precomputed versions, languages and hashes of the files.
+     *
+     * @param fileInfos the infos by file ID
+     */
+    void setFileInfos( Map<String, MsiFileInfo> fileInfos ) {
+        this.fileInfos = fileInfos;
+    }
+
+    /**
+     * Register the columns of a table.
+     *
+     * @param name the table name
+     * @param columns the columns
+     */
+    private static void schema( String name, MsiColumn... columns ) {
+        SCHEMA.put( name, columns );
+    }
+
+    /**
+     * Compile the sources to a msi file.
+     *
+     * @param wxsFile the main wxs file with the product
+     * @param fragments the wxs files with the streamed files
+     * @param localizations the wxl files
+     * @param target the msi file
+     * @throws Exception if any error occur
+     */
+    void compile( File wxsFile, List<File> fragments, String[] localizations, File target ) throws Exception {
+        Map<Integer, List<PayloadFile>> cabinets = build( wxsFile, fragments, localizations, true );
+        db.save( target );
+        db.close();
+        verify( target, cabinets );
+    }
+
+    /**
+     * Compile the sources to an in memory database without cabinets. It is used to generate the transform of a
+     * translation.
+     *
+     * @param wxsFile the main wxs file with the product
+     * @param fragments the wxs files with the streamed files
+     * @param localizations the wxl files
+     * @return the database
+     * @throws Exception if any error occur
+     */
+    MsiDatabase compileTranslation( File wxsFile, List<File> fragments, String[] localizations ) throws Exception {
+        build( wxsFile, fragments, localizations, false );
+        return db;
+    }
+
+    /**
+     * Create the database from the sources.
+     *
+     * @param wxsFile the main wxs file with the product
+     * @param fragments the wxs files with the streamed files
+     * @param localizations the wxl files
+     * @param withCabinets true, if the cabinets should be written
+     * @return the files of every cabinet
+     * @throws Exception if any error occur
+     */
+    private Map<Integer, List<PayloadFile>> build( File wxsFile, List<File> fragments, String[] localizations, boolean withCabinets ) throws Exception {
+        for( String wxl : localizations ) {
+            readLocalization( new File( wxl ) );
+        }
+        db = new MsiDatabase( codepage );
+        for( String tableName : SEQUENCE_TABLES ) {
+            Map<String, Action> sequence = new LinkedHashMap<>();
+            for( Object[] standard : STANDARD_ACTIONS.get( tableName ) ) {
+                Action action = new Action( (String)standard[0] );
+                action.sequence = (Integer)standard[1];
+                action.condition = standard.length > 2 ? (String)standard[2] : null;
+                sequence.put( action.name, action );
+            }
+            sequences.put( tableName, sequence );
+        }
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware( true );
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        Document doc = builder.parse( wxsFile );
+        Element wix = doc.getDocumentElement();
+        for( Element child : children( wix ) ) {
+            if( "Product".equals( name( child ) ) ) {
+                addProduct( child );
+            } else {
+                unsupported.add( name( child ) );
+            }
+        }
+        for( File fragment : fragments ) {
+            readFragment( fragment, doc );
+        }
+        for( Element action : customActions ) {
+            addCustomAction( action );
+        }
+        finish();
+
+        if( !ignored.isEmpty() ) {
+            logger.warn( "\tThe msi writer ignores the WiX elements " + ignored + ". The setup has no dialogs." );
+        }
+        if( !unsupported.isEmpty() ) {
+            throw new GradleException( "The msi writer does not support: " + String.join( ", ", unsupported ) + ". Use the WiX toolset for this setup." );
+        }
+
+        return writeFiles( withCabinets );
+    }
+
+    /**
+     * Read the strings of a WiX localization file. A string of the culture of the current language has priority over
+     * a neutral string. A not overridable string has priority over an overridable string.
+     *
+     * @param wxl the localization file
+     * @throws Exception if any error occur
+     */
+    private void readLocalization( File wxl ) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware( true );
+        Element root = factory.newDocumentBuilder().parse( wxl ).getDocumentElement();
+        String culture = root.getAttribute( "Culture" );
+        boolean neutral = culture.isEmpty();
+        if( !neutral && !culture.equalsIgnoreCase( language.getCulture() ) ) {
+            return;
+        }
+        String cp = root.getAttribute( "Codepage" );
+        if( !cp.isEmpty() ) {
+            codepage = "utf-8".equalsIgnoreCase( cp ) ? 65001 : Integer.parseInt( cp );
+        }
+        for( Element string : children( root ) ) {
+            if( !"String".equals( name( string ) ) ) {
+                continue;
+            }
+            String key = (neutral ? "neutral:" : "culture:") + string.getAttribute( "Id" );
+            boolean overridable = "yes".equals( string.getAttribute( "Overridable" ) );
+            if( !localization.containsKey( key ) || !overridable ) {
+                localization.put( key, string.getTextContent() );
+            }
+        }
+    }
+
+    /**
+     * Read a fragment with streamed components. Every component is read as a single small DOM element.
+     *
+     * @param fragment the wxs file
+     * @param doc a document to create the elements
+     * @throws Exception if any error occur
+     */
+    private void readFragment( File fragment, Document doc ) throws Exception {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        try( InputStream input = Files.newInputStream( fragment.toPath() ) ) {
+            XMLStreamReader reader = factory.createXMLStreamReader( input );
+            String group = null;
+            while( reader.hasNext() ) {
+                if( reader.next() != XMLStreamConstants.START_ELEMENT ) {
+                    continue;
+                }
+                switch( reader.getLocalName() ) {
+                    case "Wix":
+                    case "Fragment":
+                        break;
+                    case "ComponentGroup":
+                        group = reader.getAttributeValue( null, "Id" );
+                        componentGroups.computeIfAbsent( group, key -> new ArrayList<>() );
+                        break;
+                    case "Component":
+                        Element component = readElement( reader, doc );
+                        addComponent( component, attr( component, "Directory" ) );
+                        if( group != null ) {
+                            componentGroups.get( group ).add( component.getAttribute( "Id" ) );
+                        }
+                        break;
+                    case "ComponentRef":
+                        if( group != null ) {
+                            componentGroups.get( group ).add( reader.getAttributeValue( null, "Id" ) );
+                        }
+                        break;
+                    default:
+                        unsupported.add( reader.getLocalName() );
+                }
+            }
+            reader.close();
+        }
+    }
+
+    /**
+     * Read the current element of the stream with all its children.
+     *
+     * @param reader the reader positioned on a start element
+     * @param doc the document to create the nodes
+     * @return the element
+     * @throws XMLStreamException if the XML is invalid
+     */
+    static Element readElement( XMLStreamReader reader, Document doc ) throws XMLStreamException {
+        Element element = doc.createElementNS( null, reader.getLocalName() );
+        for( int i = 0; i < reader.getAttributeCount(); i++ ) {
+            element.setAttribute( reader.getAttributeLocalName( i ), reader.getAttributeValue( i ) );
+        }
+        while( reader.hasNext() ) {
+            switch( reader.next() ) {
+                case XMLStreamConstants.START_ELEMENT:
+                    element.appendChild( readElement( reader, doc ) );
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    element.appendChild( doc.createTextNode( reader.getText() ) );
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    return element;
+                default:
+            }
+        }
+        return element;
+    }
+
+    /**
+     * Add the product and all its children.
+     *
+     * @param product the product element
+     */
+    private void addProduct( Element product ) {
+        String productCode = attr( product, "Id" );
+        properties.put( "ProductCode", guid( productCode == null || "*".equals( productCode ) ? UUID.randomUUID().toString() : productCode ) );
+        properties.put( "ProductLanguage", language.getLangID() );
+        properties.put( "Manufacturer", attr( product, "Manufacturer" ) );
+        properties.put( "ProductName", attr( product, "Name" ) );
+        properties.put( "ProductVersion", attr( product, "Version" ) );
+        properties.put( "UpgradeCode", guid( attr( product, "UpgradeCode" ) ) );
+
+        for( Element child : children( product ) ) {
+            switch( name( child ) ) {
+                case "Package":
+                    addPackage( child, product );
+                    break;
+                case "Media":
+                    Media disk = new Media();
+                    disk.id = Integer.parseInt( attr( child, "Id" ) );
+                    disk.cabinet = attr( child, "Cabinet" );
+                    disk.prompt = attr( child, "DiskPrompt" );
+                    disk.level = getCompressionLevel( attr( child, "CompressionLevel" ) );
+                    if( disk.cabinet == null || !"yes".equals( attr( child, "EmbedCab" ) ) ) {
+                        unsupported.add( "Media without embedded cabinet" );
+                    }
+                    media.put( disk.id, disk );
+                    break;
+                case "MajorUpgrade":
+                    addMajorUpgrade( child );
+                    break;
+                case "Upgrade":
+                    addUpgrade( child );
+                    break;
+                case "Directory":
+                    addDirectory( child, null );
+                    break;
+                case "DirectoryRef":
+                    String refId = attr( child, "Id" );
+                    directoryRefs.add( refId );
+                    for( Element dir : children( child ) ) {
+                        addDirectoryChild( dir, refId );
+                    }
+                    break;
+                case "Property":
+                    addProperty( child );
+                    break;
+                case "Feature":
+                    addFeature( child, null );
+                    break;
+                case "Icon":
+                    String iconStream = "Icon." + attr( child, "Id" );
+                    table( "Icon" ).addRow( attr( child, "Id" ), iconStream );
+                    db.setStream( iconStream, new File( attr( child, "SourceFile" ) ) );
+                    break;
+                case "Condition":
+                    table( "LaunchCondition" ).addRow( text( child ), attr( child, "Message" ) );
+                    break;
+                case "CustomAction":
+                    customActions.add( child );
+                    break;
+                case "SetProperty":
+                    addSetProperty( child );
+                    break;
+                case "InstallExecuteSequence":
+                case "InstallUISequence":
+                case "AdminExecuteSequence":
+                case "AdminUISequence":
+                    addSequence( name( child ), child );
+                    break;
+                case "AdvertiseExecuteSequence":
+                    addSequence( "AdvtExecuteSequence", child );
+                    break;
+                case "UIRef":
+                case "UI":
+                case "WixVariable":
+                    ignored.add( name( child ) );
+                    break;
+                default:
+                    unsupported.add( name( child ) );
+            }
+        }
+    }
+
+    /**
+     * Set the summary information and the properties of the package.
+     *
+     * @param packge the package element
+     * @param product the product element
+     */
+    private void addPackage( Element packge, Element product ) {
+        String productName = attr( product, "Name" );
+        String scope = attr( packge, "InstallScope" );
+        int wordCount = "no".equals( attr( packge, "Compressed" ) ) ? 0 : 2;
+        if( "perUser".equals( scope ) || "limited".equals( attr( packge, "InstallPrivileges" ) ) ) {
+            wordCount |= 8;
+        } else {
+            properties.put( "ALLUSERS", "1" );
+        }
+        String platform = attr( packge, "Platform" );
+        if( platform == null ) {
+            platform = task.getArch();
+        }
+        switch( platform ) {
+            case "x64":
+                platform = "x64";
+                win64 = true;
+                break;
+            case "ia64":
+            case "intel64":
+                platform = "Intel64";
+                win64 = true;
+                break;
+            default:
+                platform = "Intel";
+        }
+        String installerVersion = attr( packge, "InstallerVersion" );
+        String comments = attr( packge, "Comments" );
+        String manufacturer = attr( packge, "Manufacturer" );
+
+        SummaryInformation summary = db.getSummaryInformation();
+        Date now = new Date();
+        summary.setProperty( SummaryInformation.PID_CODEPAGE, codepage );
+        summary.setProperty( SummaryInformation.PID_TITLE, "Installation Database" );
+        summary.setProperty( SummaryInformation.PID_SUBJECT, productName );
+        summary.setProperty( SummaryInformation.PID_AUTHOR, manufacturer != null ? manufacturer : attr( product, "Manufacturer" ) );
+        summary.setProperty( SummaryInformation.PID_KEYWORDS, attr( packge, "Keywords" ) != null ? attr( packge, "Keywords" ) : "Installer" );
+        summary.setProperty( SummaryInformation.PID_COMMENTS, comments != null ? comments : "This installer database contains the logic and data required to install " + productName + '.' );
+        summary.setProperty( SummaryInformation.PID_TEMPLATE, platform + ';' + language.getLangID() );
+        summary.setProperty( SummaryInformation.PID_REVNUMBER, guid( UUID.randomUUID().toString() ) );
+        summary.setProperty( SummaryInformation.PID_CREATE_DTM, now );
+        summary.setProperty( SummaryInformation.PID_LASTSAVE_DTM, now );
+        summary.setProperty( SummaryInformation.PID_PAGECOUNT, installerVersion != null ? Integer.parseInt( installerVersion ) : 200 );
+        summary.setProperty( SummaryInformation.PID_WORDCOUNT, wordCount );
+        summary.setProperty( SummaryInformation.PID_APPNAME, "SetupBuilder" );
+        summary.setProperty( SummaryInformation.PID_SECURITY, 2 );
+    }
+
+    /**
+     * Get the deflate level of a WiX compression level.
+     *
+     * @param level the WiX level or null
+     * @return the deflate level
+     */
+    private static int getCompressionLevel( String level ) {
+        if( level == null ) {
+            return Deflater.BEST_COMPRESSION;
+        }
+        switch( level ) {
+            case "none":
+                return Deflater.NO_COMPRESSION;
+            case "low":
+                return Deflater.BEST_SPEED;
+            case "medium":
+            case "mszip":
+                return Deflater.DEFAULT_COMPRESSION;
+            default:
+                return Deflater.BEST_COMPRESSION;
+        }
+    }
+
+    /**
+     * Add the upgrade rows and the scheduling of a major upgrade.
+     *
+     * @param upgrade the MajorUpgrade element
+     */
+    private void addMajorUpgrade( Element upgrade ) {
+        String upgradeCode = properties.get( "UpgradeCode" );
+        String version = properties.get( "ProductVersion" );
+        if( "yes".equals( attr( upgrade, "AllowDowngrades" ) ) ) {
+            table( "Upgrade" ).addRow( upgradeCode, "0.0.0.0", null, null, 0x101, null, "WIX_UPGRADE_DETECTED" );
+        } else {
+            int sameVersion = "yes".equals( attr( upgrade, "AllowSameVersionUpgrades" ) ) ? 0x200 : 0;
+            table( "Upgrade" ).addRow( upgradeCode, null, version, null, 0x1 | sameVersion, null, "WIX_UPGRADE_DETECTED" );
+            table( "Upgrade" ).addRow( upgradeCode, version, null, null, 0x2 | (sameVersion == 0 ? 0 : 0x100), null, "WIX_DOWNGRADE_DETECTED" );
+            String message = attr( upgrade, "DowngradeErrorMessage" );
+            if( message == null ) {
+                unsupported.add( "MajorUpgrade without DowngradeErrorMessage" );
+            } else {
+                table( "LaunchCondition" ).addRow( "NOT WIX_DOWNGRADE_DETECTED", message );
+            }
+            secureProperties.add( "WIX_DOWNGRADE_DETECTED" );
+        }
+        secureProperties.add( "WIX_UPGRADE_DETECTED" );
+
+        String schedule = attr( upgrade, "Schedule" );
+        Action action = new Action( "RemoveExistingProducts" );
+        if( schedule == null || "afterInstallValidate".equals( schedule ) ) {
+            action.after = "InstallValidate";
+        } else if( "afterInstallInitialize".equals( schedule ) ) {
+            action.after = "InstallInitialize";
+        } else if( "afterInstallFinalize".equals( schedule ) ) {
+            action.after = "InstallFinalize";
+        } else {
+            unsupported.add( "MajorUpgrade/@Schedule=" + schedule );
+        }
+        sequences.get( "InstallExecuteSequence" ).put( action.name, action );
+    }
+
+    /**
+     * Add the rows of an Upgrade element.
+     *
+     * @param upgrade the Upgrade element
+     */
+    private void addUpgrade( Element upgrade ) {
+        String upgradeCode = guid( attr( upgrade, "Id" ) );
+        for( Element version : children( upgrade ) ) {
+            if( !"UpgradeVersion".equals( name( version ) ) ) {
+                unsupported.add( "Upgrade/" + name( version ) );
+                continue;
+            }
+            String minimum = attr( version, "Minimum" );
+            String maximum = attr( version, "Maximum" );
+            int attributes = 0;
+            if( "yes".equals( attr( version, "MigrateFeatures" ) ) ) {
+                attributes |= 0x1;
+            }
+            if( "yes".equals( attr( version, "OnlyDetect" ) ) ) {
+                attributes |= 0x2;
+            }
+            if( "yes".equals( attr( version, "IgnoreRemoveFailure" ) ) ) {
+                attributes |= 0x4;
+            }
+            if( minimum != null && !"no".equals( attr( version, "IncludeMinimum" ) ) ) {
+                attributes |= 0x100;
+            }
+            if( maximum != null && "yes".equals( attr( version, "IncludeMaximum" ) ) ) {
+                attributes |= 0x200;
+            }
+            if( "yes".equals( attr( version, "ExcludeLanguages" ) ) ) {
+                attributes |= 0x400;
+            }
+            String property = attr( version, "Property" );
+            table( "Upgrade" ).addRow( upgradeCode, minimum, maximum, attr( version, "Language" ), attributes, attr( version, "RemoveFeatures" ), property );
+            secureProperties.add( property );
+        }
+    }
+
+    /**
+     * Add a directory and all its children.
+     *
+     * @param directory the Directory element
+     * @param parent the ID of the parent directory or null
+     */
+    private void addDirectory( Element directory, String parent ) {
+        String id = attr( directory, "Id" );
+        String name = attr( directory, "Name" );
+        String defaultDir;
+        if( parent == null ) {
+            defaultDir = "SourceDir";
+        } else if( name == null ) {
+            defaultDir = ".";
+        } else {
+            defaultDir = getFileName( parent, name, attr( directory, "ShortName" ) );
+        }
+        table( "Directory" ).addRow( id, parent, defaultDir );
+        for( Element child : children( directory ) ) {
+            addDirectoryChild( child, id );
+        }
+    }
+
+    /**
+     * Add a child of a Directory or a DirectoryRef element.
+     *
+     * @param child the child element
+     * @param directory the ID of the directory
+     */
+    private void addDirectoryChild( Element child, String directory ) {
+        switch( name( child ) ) {
+            case "Directory":
+                addDirectory( child, directory );
+                break;
+            case "Component":
+                addComponent( child, directory );
+                break;
+            default:
+                unsupported.add( "Directory/" + name( child ) );
+        }
+    }
+
+    /**
+     * Add a component and its resources.
+     *
+     * @param component the Component element
+     * @param directory the ID of the directory of the component
+     */
+    private void addComponent( Element component, String directory ) {
+        String id = attr( component, "Id" );
+        String guid = attr( component, "Guid" );
+        if( "*".equals( guid ) ) {
+            unsupported.add( "Component/@Guid=*" );
+        }
+        int attributes = 0;
+        if( "yes".equals( attr( component, "Win64" ) ) || (win64 && !"no".equals( attr( component, "Win64" ) )) ) {
+            attributes |= 0x100;
+        }
+        if( "yes".equals( attr( component, "Permanent" ) ) ) {
+            attributes |= 0x10;
+        }
+        if( "yes".equals( attr( component, "NeverOverwrite" ) ) ) {
+            attributes |= 0x80;
+        }
+        keyPath = null;
+        keyPathRegistry = false;
+        firstFile = null;
+        String condition = null;
+        String diskId = attr( component, "DiskId" );
+        for( Element child : children( component ) ) {
+            switch( name( child ) ) {
+                case "File":
+                    addFile( child, id, directory, diskId );
+                    break;
+                case "RegistryKey":
+                    addRegistryKey( child, id, null, null );
+                    break;
+                case "RegistryValue":
+                    addRegistryValue( child, id, null, null );
+                    break;
+                case "CreateFolder":
+                    String folder = attr( child, "Directory" );
+                    table( "CreateFolder" ).addRow( folder != null ? folder : directory, id );
+                    break;
+                case "RemoveFile":
+                    String pattern = attr( child, "Name" );
+                    if( pattern.indexOf( '*' ) < 0 && pattern.indexOf( '?' ) < 0 ) {
+                        pattern = getFileName( null, pattern, attr( child, "ShortName" ) );
+                    }
+                    table( "RemoveFile" ).addRow( attr( child, "Id" ), id, pattern, dirProperty( child, directory ), getInstallMode( child ) );
+                    break;
+                case "RemoveFolder":
+                    table( "RemoveFile" ).addRow( attr( child, "Id" ), id, null, dirProperty( child, directory ), getInstallMode( child ) );
+                    break;
+                case "Shortcut":
+                    addShortcut( child, id, directory );
+                    break;
+                case "ServiceInstall":
+                    addServiceInstall( child, id );
+                    break;
+                case "ServiceControl":
+                    addServiceControl( child, id );
+                    break;
+                case "ProgId":
+                    addProgId( child, id );
+                    break;
+                case "Condition":
+                    condition = text( child );
+                    break;
+                default:
+                    unsupported.add( "Component/" + name( child ) );
+            }
+        }
+        if( keyPath == null ) {
+            keyPath = firstFile;
+        }
+        if( keyPathRegistry ) {
+            attributes |= 0x4;
+        }
+        table( "Component" ).addRow( id, guid( guid ), directory, attributes, condition, keyPath );
+    }
+
+    /**
+     * Get the directory property of a RemoveFile or RemoveFolder element.
+     *
+     * @param element the element
+     * @param directory the directory of the component
+     * @return the property
+     */
+    private String dirProperty( Element element, String directory ) {
+        String dir = attr( element, "Directory" );
+        if( dir == null ) {
+            dir = attr( element, "Property" );
+        }
+        return dir != null ? dir : directory;
+    }
+
+    /**
+     * Get the install mode of the attribute "On".
+     *
+     * @param element the element
+     * @return the mode
+     */
+    private int getInstallMode( Element element ) {
+        String on = attr( element, "On" );
+        if( "install".equals( on ) ) {
+            return 1;
+        }
+        if( "uninstall".equals( on ) ) {
+            return 2;
+        }
+        return 3;
+    }
+
+    /**
+     * Add a payload file. The row is added after all files are known, because the sequence depends on the media.
+     *
+     * @param file the File element
+     * @param component the ID of the component
+     * @param directory the ID of the directory
+     * @param componentDiskId the DiskId of the component or null
+     */
+    private void addFile( Element file, String component, String directory, String componentDiskId ) {
+        PayloadFile payload = new PayloadFile();
+        payload.id = attr( file, "Id" );
+        payload.component = component;
+        payload.name = getFileName( directory, attr( file, "Name" ), attr( file, "ShortName" ) );
+        payload.source = new File( attr( file, "Source" ) );
+        String diskId = attr( file, "DiskId" );
+        if( diskId == null ) {
+            diskId = componentDiskId;
+        }
+        payload.diskId = diskId == null ? 1 : Integer.parseInt( diskId );
+        payload.index = files.size();
+        files.add( payload );
+        if( firstFile == null ) {
+            firstFile = payload.id;
+        }
+        if( "yes".equals( attr( file, "KeyPath" ) ) ) {
+            keyPath = payload.id;
+            keyPathRegistry = false;
+        }
+    }
+
+    /**
+     * Add a registry key and its values.
+     *
+     * @param regkey the RegistryKey element
+     * @param component the ID of the component
+     * @param parentRoot the root of the parent key or null
+     * @param parentKey the parent key or null
+     */
+    private void addRegistryKey( Element regkey, String component, Integer parentRoot, String parentKey ) {
+        Integer root = attr( regkey, "Root" ) != null ? getRoot( attr( regkey, "Root" ) ) : parentRoot;
+        String key = attr( regkey, "Key" );
+        if( parentKey != null ) {
+            key = key == null ? parentKey : parentKey + '\\' + key;
+        }
+        boolean create = "yes".equals( attr( regkey, "ForceCreateOnInstall" ) );
+        boolean delete = "yes".equals( attr( regkey, "ForceDeleteOnUninstall" ) );
+        String action = attr( regkey, "Action" );
+        if( "create".equals( action ) ) {
+            create = true;
+        } else if( "createAndRemoveOnUninstall".equals( action ) ) {
+            create = delete = true;
+        }
+        if( create || delete ) {
+            String name = create && delete ? "*" : create ? "+" : "-";
+            String id = attr( regkey, "Id" );
+            if( id == null ) {
+                id = registryId( component, root, key, name );
+            }
+            table( "Registry" ).addRow( id, root, key, name, null, component );
+        }
+        for( Element child : children( regkey ) ) {
+            switch( name( child ) ) {
+                case "RegistryKey":
+                    addRegistryKey( child, component, root, key );
+                    break;
+                case "RegistryValue":
+                    addRegistryValue( child, component, root, key );
+                    break;
+                default:
+                    unsupported.add( "RegistryKey/" + name( child ) );
+            }
+        }
+    }
+
+    /**
+     * Add a registry value.
+     *
+     * @param regValue the RegistryValue element
+     * @param component the ID of the component
+     * @param parentRoot the root of the parent key or null
+     * @param parentKey the parent key or null
+     */
+    private void addRegistryValue( Element regValue, String component, Integer parentRoot, String parentKey ) {
+        Integer root = attr( regValue, "Root" ) != null ? getRoot( attr( regValue, "Root" ) ) : parentRoot;
+        String key = attr( regValue, "Key" );
+        if( parentKey != null ) {
+            key = key == null ? parentKey : parentKey + '\\' + key;
+        }
+        String name = attr( regValue, "Name" );
+        String value = attr( regValue, "Value" );
+        String type = attr( regValue, "Type" );
+        String action = attr( regValue, "Action" );
+        if( action != null && !"write".equals( action ) ) {
+            unsupported.add( "RegistryValue/@Action=" + action );
+        }
+        switch( type == null ? "string" : type ) {
+            case "string":
+                if( value != null && value.startsWith( "#" ) ) {
+                    value = '#' + value;
+                }
+                break;
+            case "integer":
+                value = '#' + value;
+                break;
+            case "expandable":
+                value = "#%" + (value == null ? "" : value);
+                break;
+            case "binary":
+                value = "#x" + value;
+                break;
+            case "multiString":
+                StringBuilder multi = new StringBuilder( "[~]" );
+                if( value != null ) {
+                    multi.append( value ).append( "[~]" );
+                }
+                for( Element child : children( regValue ) ) {
+                    multi.append( text( child ) ).append( "[~]" );
+                }
+                value = multi.toString();
+                break;
+            default:
+                unsupported.add( "RegistryValue/@Type=" + type );
+        }
+        String id = attr( regValue, "Id" );
+        if( id == null ) {
+            id = registryId( component, root, key, name );
+        }
+        table( "Registry" ).addRow( id, root, key, name, value, component );
+        if( "yes".equals( attr( regValue, "KeyPath" ) ) ) {
+            keyPath = id;
+            keyPathRegistry = true;
+        }
+    }
+
+    /**
+     * Create a stable ID for a registry row without an explicit ID.
+     *
+     * @param component the component
+     * @param root the root
+     * @param key the key
+     * @param name the name or null
+     * @return the ID
+     */
+    private static String registryId( String component, Integer root, String key, String name ) {
+        return "reg" + hash( component + '|' + root + '|' + key.toLowerCase( Locale.ROOT ) + '|' + (name == null ? "" : name.toLowerCase( Locale.ROOT )) );
+    }
+
+    /**
+     * Get the numeric value of a registry root.
+     *
+     * @param root the WiX name of the root
+     * @return the value of the Registry table
+     */
+    private int getRoot( String root ) {
+        switch( root ) {
+            case "HKMU":
+                return -1;
+            case "HKCR":
+                return 0;
+            case "HKCU":
+                return 1;
+            case "HKLM":
+                return 2;
+            case "HKU":
+                return 3;
+            default:
+                unsupported.add( "Root=" + root );
+                return 2;
+        }
+    }
+
+    /**
+     * Add a shortcut that is not advertised.
+     *
+     * @param shortcut the Shortcut element
+     * @param component the ID of the component
+     * @param directory the ID of the directory of the component
+     */
+    private void addShortcut( Element shortcut, String component, String directory ) {
+        String target = attr( shortcut, "Target" );
+        if( target == null ) {
+            unsupported.add( "advertised Shortcut" );
+            return;
+        }
+        String dir = attr( shortcut, "Directory" );
+        if( dir == null ) {
+            dir = directory;
+        }
+        Integer show = null;
+        String value = attr( shortcut, "Show" );
+        if( "normal".equals( value ) ) {
+            show = 1;
+        } else if( "maximized".equals( value ) ) {
+            show = 3;
+        } else if( "minimized".equals( value ) ) {
+            show = 7;
+        }
+        table( "Shortcut" ).addRow( attr( shortcut, "Id" ), dir, getFileName( dir, attr( shortcut, "Name" ), attr( shortcut, "ShortName" ) ), component, target, //
+                        attr( shortcut, "Arguments" ), attr( shortcut, "Description" ), integer( shortcut, "Hotkey" ), attr( shortcut, "Icon" ), //
+                        integer( shortcut, "IconIndex" ), show, attr( shortcut, "WorkingDirectory" ), null, null, null, null );
+    }
+
+    /**
+     * Add the installation of a service.
+     *
+     * @param install the ServiceInstall element
+     * @param component the ID of the component
+     */
+    private void addServiceInstall( Element install, String component ) {
+        int serviceType = "shareProcess".equals( attr( install, "Type" ) ) ? 0x20 : 0x10;
+        if( "yes".equals( attr( install, "Interactive" ) ) ) {
+            serviceType |= 0x100;
+        }
+        int startType;
+        String start = attr( install, "Start" );
+        switch( start == null ? "demand" : start ) {
+            case "auto":
+                startType = 2;
+                break;
+            case "disabled":
+                startType = 4;
+                break;
+            case "boot":
+                startType = 0;
+                break;
+            case "system":
+                startType = 1;
+                break;
+            default:
+                startType = 3;
+        }
+        int errorControl;
+        String error = attr( install, "ErrorControl" );
+        switch( error == null ? "normal" : error ) {
+            case "ignore":
+                errorControl = 0;
+                break;
+            case "critical":
+                errorControl = 3;
+                break;
+            default:
+                errorControl = 1;
+        }
+        if( "yes".equals( attr( install, "Vital" ) ) ) {
+            errorControl |= 0x8000;
+        }
+        for( Element child : children( install ) ) {
+            unsupported.add( "ServiceInstall/" + name( child ) );
+        }
+        table( "ServiceInstall" ).addRow( attr( install, "Id" ), attr( install, "Name" ), attr( install, "DisplayName" ), serviceType, startType, errorControl, //
+                        attr( install, "LoadOrderGroup" ), null, attr( install, "Account" ), attr( install, "Password" ), attr( install, "Arguments" ), component, //
+                        attr( install, "Description" ) );
+    }
+
+    /**
+     * Add the control of a service.
+     *
+     * @param control the ServiceControl element
+     * @param component the ID of the component
+     */
+    private void addServiceControl( Element control, String component ) {
+        int event = getServiceEvent( attr( control, "Start" ), 0x01 ) | getServiceEvent( attr( control, "Stop" ), 0x02 ) | getServiceEvent( attr( control, "Remove" ), 0x08 );
+        String wait = attr( control, "Wait" );
+        table( "ServiceControl" ).addRow( attr( control, "Id" ), attr( control, "Name" ), event, null, wait == null ? null : "yes".equals( wait ) ? 1 : 0, component );
+    }
+
+    /**
+     * Get the event bits of a service control.
+     *
+     * @param on the value install, uninstall or both
+     * @param installBit the bit for the installation, the bit for the uninstallation is 4 bits higher
+     * @return the event bits
+     */
+    private static int getServiceEvent( String on, int installBit ) {
+        if( on == null ) {
+            return 0;
+        }
+        switch( on ) {
+            case "install":
+                return installBit;
+            case "uninstall":
+                return installBit << 4;
+            default:
+                return installBit | (installBit << 4);
+        }
+    }
+
+    /**
+     * Add a not advertised ProgId as registry values.
+     *
+     * @param progId the ProgId element
+     * @param component the ID of the component
+     */
+    private void addProgId( Element progId, String component ) {
+        if( "yes".equals( attr( progId, "Advertise" ) ) ) {
+            unsupported.add( "advertised ProgId" );
+        }
+        for( Element child : children( progId ) ) {
+            unsupported.add( "ProgId/" + name( child ) );
+        }
+        String id = attr( progId, "Id" );
+        String description = attr( progId, "Description" );
+        if( description != null ) {
+            table( "Registry" ).addRow( registryId( component, 0, id, null ), 0, id, null, description, component );
+        }
+        String icon = attr( progId, "Icon" );
+        if( icon != null ) {
+            String index = attr( progId, "IconIndex" );
+            String key = id + "\\DefaultIcon";
+            table( "Registry" ).addRow( registryId( component, 0, key, null ), 0, key, null, "[#" + icon + ']' + (index != null ? ',' + index : ""), component );
+        }
+    }
+
+    /**
+     * Add a property and its searches.
+     *
+     * @param property the Property element
+     */
+    private void addProperty( Element property ) {
+        String id = attr( property, "Id" );
+        String value = attr( property, "Value" );
+        if( value != null ) {
+            properties.put( id, value );
+        }
+        if( "yes".equals( attr( property, "Secure" ) ) ) {
+            secureProperties.add( id );
+        }
+        for( Element child : children( property ) ) {
+            if( !"RegistrySearch".equals( name( child ) ) ) {
+                unsupported.add( "Property/" + name( child ) );
+                continue;
+            }
+            String type = attr( child, "Type" );
+            int locatorType = "file".equals( type ) ? 1 : "raw".equals( type ) ? 2 : 0;
+            String win64Search = attr( child, "Win64" );
+            if( "yes".equals( win64Search ) || (win64 && !"no".equals( win64Search )) ) {
+                locatorType |= 0x10;
+            }
+            String signature = attr( child, "Id" );
+            table( "AppSearch" ).addRow( id, signature );
+            table( "RegLocator" ).addRow( signature, getRoot( attr( child, "Root" ) ), attr( child, "Key" ), attr( child, "Name" ), locatorType );
+        }
+    }
+
+    /**
+     * Add a feature and its children.
+     *
+     * @param feature the Feature element
+     * @param parent the ID of the parent feature or null
+     */
+    private void addFeature( Element feature, String parent ) {
+        String id = attr( feature, "Id" );
+        String display = attr( feature, "Display" );
+        Integer displayValue;
+        if( "hidden".equals( display ) ) {
+            displayValue = 0;
+        } else {
+            featureDisplay++;
+            displayValue = "expand".equals( display ) ? featureDisplay * 2 + 1 : featureDisplay * 2;
+        }
+        String level = attr( feature, "Level" );
+        int attributes = 0;
+        if( "disallow".equals( attr( feature, "Absent" ) ) ) {
+            attributes |= 0x10;
+        }
+        if( "no".equals( attr( feature, "AllowAdvertise" ) ) ) {
+            attributes |= 0x8;
+        }
+        table( "Feature" ).addRow( id, parent, attr( feature, "Title" ), attr( feature, "Description" ), displayValue, //
+                        level == null ? 1 : Integer.parseInt( level ), attr( feature, "ConfigurableDirectory" ), attributes );
+        for( Element child : children( feature ) ) {
+            switch( name( child ) ) {
+                case "ComponentRef":
+                    table( "FeatureComponents" ).addRow( id, attr( child, "Id" ) );
+                    break;
+                case "ComponentGroupRef":
+                    groupRefs.add( new String[] { id, attr( child, "Id" ) } );
+                    break;
+                case "Feature":
+                    addFeature( child, id );
+                    break;
+                default:
+                    unsupported.add( "Feature/" + name( child ) );
+            }
+        }
+    }
+
+    /**
+     * Add a SetProperty element as custom action.
+     *
+     * @param setProperty the SetProperty element
+     */
+    private void addSetProperty( Element setProperty ) {
+        String property = attr( setProperty, "Id" );
+        String action = attr( setProperty, "Action" );
+        if( action == null ) {
+            action = "Set" + property;
+        }
+        String value = attr( setProperty, "Value" );
+        propertyActions.put( property, value );
+        table( "CustomAction" ).addRow( action, 51, property, value, null );
+        String sequence = attr( setProperty, "Sequence" );
+        if( sequence == null || "both".equals( sequence ) || "first".equals( sequence ) || "ui".equals( sequence ) ) {
+            schedule( "InstallUISequence", action, setProperty );
+        }
+        if( sequence == null || "both".equals( sequence ) || "first".equals( sequence ) || "execute".equals( sequence ) ) {
+            schedule( "InstallExecuteSequence", action, setProperty );
+        }
+    }
+
+    /**
+     * Add a custom action. The quiet execution of the WiX extension is replaced with a native custom action that runs
+     * the same command line.
+     *
+     * @param action the CustomAction element
+     */
+    private void addCustomAction( Element action ) {
+        String id = attr( action, "Id" );
+        String execute = attr( action, "Execute" );
+        int flags = 0;
+        if( execute != null ) {
+            switch( execute ) {
+                case "deferred":
+                    flags = 0x400;
+                    break;
+                case "rollback":
+                    flags = 0x500;
+                    break;
+                case "commit":
+                    flags = 0x600;
+                    break;
+                case "firstSequence":
+                    flags = 0x100;
+                    break;
+                case "oncePerProcess":
+                    flags = 0x200;
+                    break;
+                case "secondSequence":
+                    flags = 0x300;
+                    break;
+                default:
+            }
+        }
+        if( (flags & 0x400) != 0 && "no".equals( attr( action, "Impersonate" ) ) ) {
+            flags |= 0x800;
+        }
+        String ret = attr( action, "Return" );
+        if( "ignore".equals( ret ) ) {
+            flags |= 0x40;
+        } else if( "asyncWait".equals( ret ) ) {
+            flags |= 0x80;
+        } else if( "asyncNoWait".equals( ret ) ) {
+            flags |= 0xC0;
+        }
+        if( "yes".equals( attr( action, "HideTarget" ) ) ) {
+            flags |= 0x2000;
+        }
+
+        String script = attr( action, "Script" );
+        String binaryKey = attr( action, "BinaryKey" );
+        int type;
+        String source = null;
+        String target;
+        if( script != null ) {
+            type = "jscript".equals( script ) ? 37 : 38;
+            if( win64 ) {
+                type |= 0x1000;
+            }
+            target = text( action );
+        } else if( attr( action, "Error" ) != null ) {
+            type = 19;
+            target = attr( action, "Error" );
+        } else if( attr( action, "Property" ) != null ) {
+            source = attr( action, "Property" );
+            if( attr( action, "ExeCommand" ) != null ) {
+                type = 50;
+                target = attr( action, "ExeCommand" );
+            } else {
+                type = 51;
+                target = attr( action, "Value" );
+            }
+        } else if( attr( action, "Directory" ) != null ) {
+            source = attr( action, "Directory" );
+            if( attr( action, "ExeCommand" ) != null ) {
+                type = 34;
+                target = attr( action, "ExeCommand" );
+            } else {
+                type = 35;
+                target = attr( action, "Value" );
+            }
+        } else if( attr( action, "FileKey" ) != null ) {
+            type = 18;
+            source = attr( action, "FileKey" );
+            target = attr( action, "ExeCommand" );
+        } else if( "WixCA".equals( binaryKey ) && String.valueOf( attr( action, "DllEntry" ) ).startsWith( "CAQuietExec" ) && propertyActions.containsKey( id ) ) {
+            type = 34;
+            source = "TARGETDIR";
+            target = propertyActions.get( id );
+        } else {
+            unsupported.add( "CustomAction " + id + (binaryKey != null ? " with " + binaryKey + '.' + attr( action, "DllEntry" ) : "") );
+            return;
+        }
+        table( "CustomAction" ).addRow( id, type | flags, source, target, null );
+    }
+
+    /**
+     * Add the scheduling of the actions in a sequence table.
+     *
+     * @param tableName the name of the sequence table
+     * @param sequence the sequence element
+     */
+    private void addSequence( String tableName, Element sequence ) {
+        for( Element child : children( sequence ) ) {
+            String name = name( child );
+            if( "Custom".equals( name ) ) {
+                name = attr( child, "Action" );
+            } else if( "Show".equals( name ) ) {
+                ignored.add( "Show" );
+                continue;
+            }
+            if( "yes".equals( attr( child, "Suppress" ) ) ) {
+                sequences.get( tableName ).remove( name );
+                continue;
+            }
+            schedule( tableName, name, child );
+        }
+    }
+
+    /**
+     * Schedule an action in a sequence table.
+     *
+     * @param tableName the name of the sequence table
+     * @param name the action name
+     * @param element the element with the attributes Before, After or Sequence and the condition
+     */
+    private void schedule( String tableName, String name, Element element ) {
+        Map<String, Action> sequence = sequences.get( tableName );
+        Action action = sequence.get( name );
+        if( action == null ) {
+            action = new Action( name );
+            sequence.put( name, action );
+        }
+        String condition = text( element );
+        if( condition != null ) {
+            action.condition = condition;
+        }
+        String after = attr( element, "After" );
+        String before = attr( element, "Before" );
+        String number = attr( element, "Sequence" );
+        if( after != null || before != null ) {
+            action.after = after;
+            action.before = before;
+            action.sequence = null;
+        } else if( number != null && Character.isDigit( number.charAt( 0 ) ) ) {
+            action.sequence = Integer.valueOf( number );
+        }
+    }
+
+    /**
+     * Resolve everything that depends on all elements and write the properties and the sequence tables.
+     */
+    private void finish() {
+        for( String[] ref : groupRefs ) {
+            List<String> components = componentGroups.get( ref[1] );
+            if( components == null ) {
+                unsupported.add( "unknown ComponentGroup " + ref[1] );
+                continue;
+            }
+            for( String component : components ) {
+                table( "FeatureComponents" ).addRow( ref[0], component );
+            }
+        }
+
+        MsiTable directories = table( "Directory" );
+        for( String ref : directoryRefs ) {
+            if( directories.getRow( ref ) == null ) {
+                unsupported.add( "unknown Directory " + ref );
+            }
+        }
+
+        Set<Object> featureComponents = new HashSet<>();
+        for( Object[] row : table( "FeatureComponents" ).getRows() ) {
+            featureComponents.add( row[1] );
+        }
+        for( Object[] row : table( "Component" ).getRows() ) {
+            if( !featureComponents.contains( row[0] ) ) {
+                unsupported.add( "Component " + row[0] + " without Feature" );
+            }
+        }
+
+        if( !secureProperties.isEmpty() ) {
+            properties.put( "SecureCustomProperties", String.join( ";", secureProperties ) );
+        }
+        MsiTable property = table( "Property" );
+        for( Map.Entry<String, String> entry : properties.entrySet() ) {
+            if( entry.getValue() != null ) {
+                property.addRow( entry.getKey(), entry.getValue() );
+            }
+        }
+
+        for( String tableName : SEQUENCE_TABLES ) {
+            resolveSequence( tableName, sequences.get( tableName ) );
+        }
+    }
+
+    /**
+     * Assign the sequence numbers of the actions that are scheduled relative to other actions and write the table.
+     * The actions before and after a fixed action are placed in the gaps between the fixed actions.
+     *
+     * @param tableName the name of the sequence table
+     * @param actions the actions of the table
+     */
+    private void resolveSequence( String tableName, Map<String, Action> actions ) {
+        TreeMap<Integer, Action> fixed = new TreeMap<>();
+        Map<String, List<Action>> afterMap = new HashMap<>();
+        Map<String, List<Action>> beforeMap = new HashMap<>();
+        for( Action action : actions.values() ) {
+            if( action.after != null || action.before != null ) {
+                String ref = action.after != null ? action.after : action.before;
+                if( !actions.containsKey( ref ) ) {
+                    unsupported.add( "action " + action.name + " relative to the unknown action " + ref + " in " + tableName );
+                    continue;
+                }
+                (action.after != null ? afterMap : beforeMap).computeIfAbsent( ref, key -> new ArrayList<>() ).add( action );
+            } else if( action.sequence != null ) {
+                if( fixed.put( action.sequence, action ) != null ) {
+                    unsupported.add( "duplicate sequence " + action.sequence + " in " + tableName );
+                }
+            }
+        }
+
+        int previous = 0;
+        List<Action> pending = new ArrayList<>();
+        for( Action action : fixed.values() ) {
+            List<Action> before = new ArrayList<>();
+            flatten( action.name, beforeMap, afterMap, before, true, new HashSet<>() );
+            place( tableName, previous, action.sequence, pending, before );
+            pending = new ArrayList<>();
+            flatten( action.name, beforeMap, afterMap, pending, false, new HashSet<>() );
+            previous = action.sequence;
+        }
+        place( tableName, previous, MAX_SEQUENCE + 1, pending, new ArrayList<>() );
+
+        MsiTable table = table( tableName );
+        for( Action action : actions.values() ) {
+            if( action.sequence != null ) {
+                table.addRow( action.name, action.condition, action.sequence );
+            }
+        }
+    }
+
+    /**
+     * Collect the actions that are scheduled before or after an action, including the actions that are relative to
+     * these actions.
+     *
+     * @param name the action
+     * @param beforeMap the actions before an action
+     * @param afterMap the actions after an action
+     * @param result the target list in the order of execution
+     * @param before true, collect the actions before; false, after
+     * @param visited the visited actions to detect cycles
+     */
+    private void flatten( String name, Map<String, List<Action>> beforeMap, Map<String, List<Action>> afterMap, List<Action> result, boolean before, Set<String> visited ) {
+        List<Action> list = (before ? beforeMap : afterMap).get( name );
+        if( list == null ) {
+            return;
+        }
+        for( Action action : list ) {
+            if( !visited.add( action.name ) ) {
+                unsupported.add( "cyclic scheduling of action " + action.name );
+                continue;
+            }
+            flatten( action.name, beforeMap, afterMap, result, true, visited );
+            result.add( action );
+            flatten( action.name, beforeMap, afterMap, result, false, visited );
+        }
+    }
+
+    /**
+     * Assign the numbers in a gap between two fixed actions.
+     *
+     * @param tableName the table for error messages
+     * @param start the number of the lower fixed action
+     * @param end the number of the higher fixed action
+     * @param after the actions after the lower action
+     * @param before the actions before the higher action
+     */
+    private void place( String tableName, int start, int end, List<Action> after, List<Action> before ) {
+        if( after.size() + before.size() > end - start - 1 ) {
+            unsupported.add( "more actions as free sequence numbers between " + start + " and " + end + " in " + tableName );
+            return;
+        }
+        for( int i = 0; i < after.size(); i++ ) {
+            after.get( i ).sequence = start + 1 + i;
+        }
+        for( int i = 0; i < before.size(); i++ ) {
+            before.get( i ).sequence = end - before.size() + i;
+        }
+    }
+
+    /**
+     * Write the File and Media rows and the embedded cabinets.
+     *
+     * @param withCabinets true, if the cabinets should be written
+     * @return the files of every cabinet
+     * @throws IOException if any error occur
+     */
+    private Map<Integer, List<PayloadFile>> writeFiles( boolean withCabinets ) throws IOException {
+        files.sort( Comparator.comparingInt( ( PayloadFile file ) -> file.diskId ).thenComparingInt( file -> file.index ) );
+        Map<Integer, List<PayloadFile>> cabinets = new TreeMap<>();
+        MsiTable fileTable = table( "File" );
+        int sequence = 0;
+        for( PayloadFile file : files ) {
+            long size = file.source.length();
+            if( !file.source.isFile() || size > Integer.MAX_VALUE ) {
+                throw new GradleException( "The file can not be added to the msi: " + file.source );
+            }
+            MsiFileInfo info = fileInfos.get( file.id );
+            fileTable.addRow( file.id, file.component, file.name, (int)size, info == null ? null : info.getVersion(), info == null ? null : info.getLanguage(), 512, ++sequence );
+            if( info != null && info.getHash() != null ) {
+                int[] hash = info.getHash();
+                table( "MsiFileHash" ).addRow( file.id, 0, hash[0], hash[1], hash[2], hash[3] );
+            }
+            cabinets.computeIfAbsent( file.diskId, key -> new ArrayList<>() ).add( file );
+        }
+
+        int lastSequence = 0;
+        for( Media disk : media.values() ) {
+            List<PayloadFile> list = cabinets.get( disk.id );
+            String cabinet = null;
+            if( list != null ) {
+                lastSequence += list.size();
+                cabinet = '#' + disk.cabinet;
+                if( withCabinets ) {
+                    db.setStream( disk.cabinet, writeCabinet( disk, list ) );
+                }
+            }
+            table( "Media" ).addRow( disk.id, lastSequence, disk.prompt, cabinet, null, null );
+        }
+        for( Integer diskId : cabinets.keySet() ) {
+            if( !media.containsKey( diskId ) ) {
+                throw new GradleException( "Media " + diskId + " is not defined." );
+            }
+        }
+        return cabinets;
+    }
+
+    /**
+     * Write a cabinet. If a cabinet cache is set then the cabinet of the last build is reused if the files are not
+     * changed.
+     *
+     * @param disk the media
+     * @param list the files in sequence order
+     * @return the cabinet file
+     * @throws IOException if any error occur
+     */
+    private File writeCabinet( Media disk, List<PayloadFile> list ) throws IOException {
+        if( list.size() > Cabinet.MAX_FILES ) {
+            throw new GradleException( "The cabinet " + disk.cabinet + " has " + list.size() + " files. Split the files into multiple cabinets." );
+        }
+        StringBuilder key = new StringBuilder().append( disk.level ).append( '\n' );
+        Cabinet cabinet = new Cabinet();
+        for( PayloadFile file : list ) {
+            cabinet.add( file.id, file.source );
+            key.append( file.id ).append( '|' ).append( file.source.getAbsolutePath() ).append( '|' ).append( file.source.length() ).append( '|' ).append( file.source.lastModified() ).append( '\n' );
+        }
+        String hash = hash( key.toString() );
+
+        File cabCache = task.getCabCache();
+        File cab = new File( cabCache != null ? cabCache : buildDir, disk.cabinet );
+        File keyFile = new File( cab.getPath() + ".key" );
+        if( cabCache != null && cab.isFile() && keyFile.isFile() && hash.equals( new String( Files.readAllBytes( keyFile.toPath() ), StandardCharsets.UTF_8 ) ) ) {
+            logger.lifecycle( "\tReuse cabinet: " + cab );
+            return cab;
+        }
+        cab.getParentFile().mkdirs();
+        keyFile.delete();
+        cabinet.write( cab, disk.level );
+        Files.write( keyFile.toPath(), hash.getBytes( StandardCharsets.UTF_8 ) );
+        return cab;
+    }
+
+    /**
+     * Read the written msi file and compare it with the model.
+     *
+     * @param target the msi file
+     * @param cabinets the files of every cabinet
+     * @throws IOException if any error occur
+     */
+    private void verify( File target, Map<Integer, List<PayloadFile>> cabinets ) throws IOException {
+        try( MsiDatabase check = MsiDatabase.open( target ) ) {
+            for( MsiTable table : db.getTables() ) {
+                MsiTable read = check.getTable( table.getName() );
+                if( read == null || read.size() != table.size() ) {
+                    throw new GradleException( "The table " + table.getName() + " of the msi file is invalid." );
+                }
+            }
+            for( Map.Entry<Integer, List<PayloadFile>> entry : cabinets.entrySet() ) {
+                String name = media.get( entry.getKey() ).cabinet;
+                Map<String, Long> content;
+                try( InputStream input = check.getStorage().openStream( MsiDatabase.encodeName( name, false ) ) ) {
+                    content = Cabinet.list( input );
+                }
+                List<PayloadFile> list = entry.getValue();
+                if( content.size() != list.size() ) {
+                    throw new GradleException( "The cabinet " + name + " of the msi file is invalid." );
+                }
+                for( PayloadFile file : list ) {
+                    Long size = content.get( file.id );
+                    if( size == null || size != file.source.length() ) {
+                        throw new GradleException( "The file " + file.id + " in the cabinet " + name + " of the msi file is invalid." );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get or create a table.
+     *
+     * @param name the table name
+     * @return the table
+     */
+    private MsiTable table( String name ) {
+        MsiTable table = db.getTable( name );
+        if( table == null ) {
+            table = db.addTable( new MsiTable( name, SCHEMA.get( name ) ) );
+        }
+        return table;
+    }
+
+    /**
+     * Get the value for a Filename column. A name that is not a valid short name gets a generated short name that is
+     * unique in its directory.
+     *
+     * @param directory the ID of the directory or null if the short name must not be unique
+     * @param name the long name
+     * @param shortName an explicit short name or null
+     * @return the value
+     */
+    private String getFileName( String directory, String name, String shortName ) {
+        if( shortName != null ) {
+            return shortName + '|' + name;
+        }
+        Set<String> used = directory == null ? new HashSet<>() : shortNames.computeIfAbsent( directory, key -> new HashSet<>() );
+        if( isShortName( name ) && used.add( name.toUpperCase( Locale.ROOT ) ) ) {
+            return name;
+        }
+        int idx = name.lastIndexOf( '.' );
+        String base = shortNamePart( idx > 0 ? name.substring( 0, idx ) : name );
+        String ext = idx > 0 ? shortNamePart( name.substring( idx + 1 ) ) : "";
+        if( base.isEmpty() ) {
+            base = "_";
+        }
+        if( ext.length() > 3 ) {
+            ext = ext.substring( 0, 3 );
+        }
+        for( int i = 1;; i++ ) {
+            String suffix = "~" + i;
+            String candidate = base.substring( 0, Math.min( base.length(), 8 - suffix.length() ) ) + suffix + (ext.isEmpty() ? "" : '.' + ext);
+            if( used.add( candidate ) ) {
+                return candidate + '|' + name;
+            }
+        }
+    }
+
+    /**
+     * If the name is a valid 8.3 file name.
+     *
+     * @param name the name
+     * @return true, if valid
+     */
+    private static boolean isShortName( String name ) {
+        int idx = name.indexOf( '.' );
+        String base = idx < 0 ? name : name.substring( 0, idx );
+        String ext = idx < 0 ? "" : name.substring( idx + 1 );
+        return base.length() > 0 && base.length() <= 8 && ext.length() <= 3 && base.toUpperCase( Locale.ROOT ).equals( shortNamePart( base ) ) && ext.toUpperCase( Locale.ROOT ).equals( shortNamePart( ext ) );
+    }
+
+    /**
+     * Remove all characters that are not valid in a short name and convert to upper case.
+     *
+     * @param str the part of a name
+     * @return the valid characters
+     */
+    private static String shortNamePart( String str ) {
+        StringBuilder builder = new StringBuilder();
+        for( int i = 0; i < str.length(); i++ ) {
+            char ch = str.charAt( i );
+            if( (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || "!#$%&'()-@^_`{}~".indexOf( ch ) >= 0 ) {
+                builder.append( ch );
+            } else if( ch >= 'a' && ch <= 'z' ) {
+                builder.append( Character.toUpperCase( ch ) );
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Get the child elements.
+     *
+     * @param parent the parent
+     * @return the elements
+     */
+    private static List<Element> children( Element parent ) {
+        List<Element> list = new ArrayList<>();
+        for( Node node = parent.getFirstChild(); node != null; node = node.getNextSibling() ) {
+            if( node.getNodeType() == Node.ELEMENT_NODE ) {
+                list.add( (Element)node );
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get the name of an element without namespace prefix.
+     *
+     * @param element the element
+     * @return the name
+     */
+    private static String name( Element element ) {
+        String name = element.getLocalName();
+        return name != null ? name : element.getNodeName();
+    }
+
+    /**
+     * Get an attribute value with resolved localization variables.
+     *
+     * @param element the element
+     * @param name the attribute name
+     * @return the value or null if not set or empty
+     */
+    private String attr( Element element, String name ) {
+        String value = element.getAttribute( name );
+        return value.isEmpty() ? null : resolve( value );
+    }
+
+    /**
+     * Get the trimmed text of an element with resolved localization variables.
+     *
+     * @param element the element
+     * @return the text or null if empty
+     */
+    private String text( Element element ) {
+        String value = element.getTextContent().trim();
+        return value.isEmpty() ? null : resolve( value );
+    }
+
+    /**
+     * Get an integer attribute.
+     *
+     * @param element the element
+     * @param name the attribute name
+     * @return the value or null
+     */
+    private Integer integer( Element element, String name ) {
+        String value = attr( element, name );
+        return value == null ? null : Integer.valueOf( value );
+    }
+
+    /**
+     * Replace the localization variables like !(loc.Name).
+     *
+     * @param value the value
+     * @return the resolved value
+     */
+    private String resolve( String value ) {
+        if( value.indexOf( "!(" ) < 0 && value.indexOf( "$(" ) < 0 ) {
+            return value;
+        }
+        Matcher matcher = LOC.matcher( value );
+        StringBuffer buffer = new StringBuffer();
+        while( matcher.find() ) {
+            String id = matcher.group( 1 );
+            String str = localization.get( "culture:" + id );
+            if( str == null ) {
+                str = localization.get( "neutral:" + id );
+            }
+            if( str == null ) {
+                unsupported.add( "undefined localization variable " + matcher.group() );
+                str = "";
+            }
+            matcher.appendReplacement( buffer, Matcher.quoteReplacement( str ) );
+        }
+        matcher.appendTail( buffer );
+        String result = buffer.toString();
+        if( result.contains( "$(" ) || result.contains( "!(" ) ) {
+            unsupported.add( "variables in " + result );
+        }
+        return result;
+    }
+
+    /**
+     * Format a GUID for the msi database.
+     *
+     * @param guid the GUID with or without braces
+     * @return the GUID in upper case with braces or null
+     */
+    private static String guid( String guid ) {
+        if( guid == null ) {
+            return null;
+        }
+        if( !guid.startsWith( "{" ) ) {
+            guid = '{' + guid + '}';
+        }
+        return guid.toUpperCase( Locale.ROOT );
+    }
+
+    /**
+     * Calculate a hex hash of a string.
+     *
+     * @param str the string
+     * @return the MD5 hash in upper case hex
+     */
+    private static String hash( String str ) {
+        try {
+            byte[] digest = MessageDigest.getInstance( "MD5" ).digest( str.getBytes( StandardCharsets.UTF_8 ) );
+            StringBuilder builder = new StringBuilder();
+            for( byte b : digest ) {
+                builder.append( String.format( "%02X", b ) );
+            }
+            return builder.toString();
+        } catch( NoSuchAlgorithmException ex ) {
+            throw new RuntimeException( ex );
+        }
+    }
+
+    /**
+     * An action in a sequence table.
+     */
+    private static class Action {
+
+        private final String name;
+
+        private String       condition;
+
+        private Integer      sequence;
+
+        private String       after;
+
+        private String       before;
+
+        /**
+         * Create an action.
+         *
+         * @param name the name of the action
+         */
+        private Action( String name ) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A payload file of a component.
+     */
+    private static class PayloadFile {
+
+        private String id;
+
+        private String component;
+
+        private String name;
+
+        private File   source;
+
+        private int    diskId;
+
+        private int    index;
+    }
+
+    /**
+     * A media with an embedded cabinet.
+     */
+    private static class Media {
+
+        private int    id;
+
+        private String cabinet;
+
+        private String prompt;
+
+        private int    level;
+    }
+}
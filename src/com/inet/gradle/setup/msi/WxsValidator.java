@@ -0,0 +1,765 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Validate the WiX sources of the setup with the ICE rules that are relevant for the model of the
+ * {@link WxsFileBuilder}. This runs in some seconds on every platform and is a replacement for the validation of
+ * light.exe if it is skipped. Problems that break the linking or the installation fail the build, the other problems
+ * are logged as warnings.
+ * <p>
+ * The elements <code>CustomActionRef</code>, <code>PropertyRef</code> and the other <code>*Ref</code> elements declare
+ * an ID that can be defined in a WiX extension library. Unresolved references of a template or of an external source
+ * are only warnings, because they can be resolved from the extensions at link time.
+ */
+class WxsValidator {
+
+    private static final String      WIX_NAMESPACE   = "http://schemas.microsoft.com/wix/2006/wi";
+
+    private static final Pattern     IDENTIFIER      = Pattern.compile( "[A-Za-z_][A-Za-z0-9_.]{0,71}" );
+
+    /** The standard directories in the user profile, see ICE38 and ICE64. */
+    private static final Set<String> PROFILE_FOLDERS = new HashSet<>( Arrays.asList( "AdminToolsFolder", "AppDataFolder", "DesktopFolder", "FavoritesFolder", //
+                    "LocalAppDataFolder", "MyPicturesFolder", "NetHoodFolder", "PersonalFolder", "PrintHoodFolder", "ProgramMenuFolder", "RecentFolder", //
+                    "SendToFolder", "StartMenuFolder", "StartupFolder", "TemplateFolder" ) );
+
+    private static final String[]    TABLES          = { "Directory", "Component", "ComponentGroup", "Feature", "File", "Media", "Property", //
+                    "CustomAction", "Icon", "Binary", "Registry", "RemoveFile", "Shortcut", "ServiceInstall", "ServiceControl" };
+
+    private final Logger                           logger;
+
+    private final List<String>                     errors           = new ArrayList<>();
+
+    private final List<String>                     warnings         = new ArrayList<>();
+
+    private final Map<String, Map<String, String>> definitions      = new HashMap<>();
+
+    private final Map<String, Set<String>>         declarations     = new HashMap<>();
+
+    private final List<String[]>                   references       = new ArrayList<>();
+
+    private final Set<String>                      lenientSources   = new HashSet<>();
+
+    private final Map<String, String>              directories      = new HashMap<>();
+
+    private final Set<String>                      namedDirectories = new HashSet<>();
+
+    private final Set<String>                      removedFolders   = new HashSet<>();
+
+    private final Map<String, Component>           components       = new LinkedHashMap<>();
+
+    private final Map<String, String>              guids            = new HashMap<>();
+
+    private final Map<String, String>              targetFiles      = new HashMap<>();
+
+    private final Map<String, List<String>>        groups           = new HashMap<>();
+
+    private final Set<String>                      featured         = new HashSet<>();
+
+    private final Set<String>                      featuredGroups   = new HashSet<>();
+
+    private final Map<String, Map<String, Action>> sequences        = new HashMap<>();
+
+    /**
+     * The collected data of a component.
+     */
+    private static class Component {
+
+        private final String source;
+
+        private String       directory;
+
+        private int          keyPaths;
+
+        private boolean      userKeyPath;
+
+        private Component( String source ) {
+            this.source = source;
+        }
+    }
+
+    /**
+     * An action in a sequence table that is scheduled relative to another action or with a fixed number.
+     */
+    private static class Action {
+
+        private Integer sequence;
+
+        private String  after;
+
+        private String  before;
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param logger the logger for the warnings
+     */
+    WxsValidator( Logger logger ) {
+        this.logger = logger;
+        for( String table : TABLES ) {
+            definitions.put( table, new HashMap<>() );
+            declarations.put( table, new HashSet<>() );
+        }
+        for( String table : WxsMsiCompiler.SEQUENCE_TABLES ) {
+            sequences.put( table, new LinkedHashMap<>() );
+        }
+    }
+
+    /**
+     * Add a WiX source as DOM.
+     *
+     * @param doc the document
+     * @param source the name of the source for the messages
+     * @param strict true, unresolved references are errors; false, unresolved references are warnings
+     */
+    void addDocument( Document doc, String source, boolean strict ) {
+        if( !strict ) {
+            lenientSources.add( source );
+        }
+        visit( doc.getDocumentElement(), null, null, null, source );
+    }
+
+    /**
+     * Add a WiX source file. A fragment with streamed files is read as stream, every other file is parsed to a DOM.
+     *
+     * @param file the wxs file
+     * @param strict true, unresolved references are errors; false, unresolved references are warnings
+     * @throws Exception if the file can not be read
+     */
+    void addFile( File file, boolean strict ) throws Exception {
+        if( !strict ) {
+            lenientSources.add( file.getName() );
+        }
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware( true );
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        if( !isStreamedFragment( file ) ) {
+            visit( builder.parse( file ).getDocumentElement(), null, null, null, file.getName() );
+            return;
+        }
+        Document doc = builder.newDocument();
+        try( InputStream input = Files.newInputStream( file.toPath() ) ) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader( input );
+            String group = null;
+            while( reader.hasNext() ) {
+                if( reader.next() != XMLStreamConstants.START_ELEMENT ) {
+                    continue;
+                }
+                switch( reader.getLocalName() ) {
+                    case "ComponentGroup":
+                        group = reader.getAttributeValue( null, "Id" );
+                        define( "ComponentGroup", group, file.getName() );
+                        groups.computeIfAbsent( group, key -> new ArrayList<>() );
+                        break;
+                    case "Component":
+                        addComponent( WxsMsiCompiler.readElement( reader, doc ), null, null, group, file.getName() );
+                        break;
+                    case "ComponentRef":
+                        String id = reader.getAttributeValue( null, "Id" );
+                        declare( "Component", id );
+                        if( group != null ) {
+                            groups.get( group ).add( id );
+                        }
+                        break;
+                    default:
+                }
+            }
+            reader.close();
+        }
+    }
+
+    /**
+     * Check if the file is a fragment of the {@link WxsFragmentWriter}.
+     *
+     * @param file the wxs file
+     * @return true, if the file should be read as stream
+     */
+    private static boolean isStreamedFragment( File file ) {
+        return file.getName().matches( ".*\\.files\\d+\\.wxs" );
+    }
+
+    /**
+     * Validate the added sources. The warnings are logged.
+     *
+     * @throws GradleException if there are errors
+     */
+    void validate() {
+        checkReferences();
+        checkComponents();
+        for( String table : WxsMsiCompiler.SEQUENCE_TABLES ) {
+            checkSequence( table, sequences.get( table ) );
+        }
+        for( String warning : warnings ) {
+            logger.warn( "\twarning " + warning );
+        }
+        if( !errors.isEmpty() ) {
+            throw new GradleException( "The validation of the setup failed:\n\t" + String.join( "\n\t", errors ) );
+        }
+    }
+
+    /**
+     * Get the found errors.
+     *
+     * @return the errors
+     */
+    List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Get the found warnings.
+     *
+     * @return the warnings
+     */
+    List<String> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * Visit the children of an element.
+     *
+     * @param parent the parent element
+     * @param directory the current directory or null
+     * @param feature the current feature or null
+     * @param group the current component group or null
+     * @param source the name of the source
+     */
+    private void visit( Element parent, String directory, String feature, String group, String source ) {
+        for( Element child : children( parent ) ) {
+            String id = attr( child, "Id" );
+            String name = child.getLocalName() != null ? child.getLocalName() : child.getNodeName();
+            switch( name ) {
+                case "Product":
+                case "Fragment":
+                case "Module":
+                    visit( child, null, null, null, source );
+                    break;
+                case "Directory":
+                    define( "Directory", id, source );
+                    if( id != null ) {
+                        directories.put( id, directory );
+                        if( attr( child, "Name" ) != null ) {
+                            namedDirectories.add( id );
+                        }
+                    }
+                    visit( child, id, feature, group, source );
+                    break;
+                case "DirectoryRef":
+                    declare( "Directory", id );
+                    visit( child, id, feature, group, source );
+                    break;
+                case "Component":
+                    addComponent( child, directory, feature, group, source );
+                    break;
+                case "ComponentGroup":
+                    define( "ComponentGroup", id, source );
+                    groups.computeIfAbsent( id, key -> new ArrayList<>() );
+                    visit( child, attr( child, "Directory" ), null, id, source );
+                    break;
+                case "ComponentRef":
+                    declare( "Component", id );
+                    if( feature != null ) {
+                        featured.add( id );
+                    }
+                    if( group != null ) {
+                        groups.get( group ).add( id );
+                    }
+                    break;
+                case "ComponentGroupRef":
+                    declare( "ComponentGroup", id );
+                    if( feature != null ) {
+                        featuredGroups.add( id );
+                    }
+                    if( group != null ) {
+                        groups.get( group ).add( "#" + id );
+                    }
+                    break;
+                case "Feature":
+                    define( "Feature", id, source );
+                    visit( child, directory, id, null, source );
+                    break;
+                case "FeatureRef":
+                    declare( "Feature", id );
+                    visit( child, directory, id, null, source );
+                    break;
+                case "Media":
+                    define( "Media", id, source );
+                    break;
+                case "Property":
+                    define( "Property", id, source );
+                    break;
+                case "CustomAction":
+                    define( "CustomAction", id, source );
+                    reference( "Directory", attr( child, "Directory" ), source );
+                    reference( "File", attr( child, "FileKey" ), source );
+                    break;
+                case "SetProperty":
+                case "SetDirectory":
+                    String action = attr( child, "Action" );
+                    define( "CustomAction", action != null ? action : "Set" + id, source );
+                    break;
+                case "Icon":
+                    define( "Icon", id, source );
+                    break;
+                case "Binary":
+                    define( "Binary", id, source );
+                    break;
+                case "InstallUISequence":
+                case "InstallExecuteSequence":
+                case "AdminUISequence":
+                case "AdminExecuteSequence":
+                case "AdvtExecuteSequence":
+                    addSequence( child, source );
+                    break;
+                default:
+                    // CustomActionRef, PropertyRef, BinaryRef, IconRef and other references into extension libraries
+                    if( name.endsWith( "Ref" ) && declarations.containsKey( name.substring( 0, name.length() - 3 ) ) ) {
+                        declare( name.substring( 0, name.length() - 3 ), id );
+                    }
+            }
+        }
+    }
+
+    /**
+     * Add a component and all its resources.
+     *
+     * @param element the component element
+     * @param directory the parent directory or null
+     * @param feature the parent feature or null
+     * @param group the parent component group or null
+     * @param source the name of the source
+     */
+    private void addComponent( Element element, String directory, String feature, String group, String source ) {
+        String id = attr( element, "Id" );
+        if( id == null ) {
+            errors.add( "Component without Id in " + source );
+            return;
+        }
+        define( "Component", id, source );
+        Component component = new Component( source );
+        components.put( id, component );
+        if( feature != null ) {
+            featured.add( id );
+        }
+        if( group != null ) {
+            groups.get( group ).add( id );
+        }
+        reference( "Media", attr( element, "DiskId" ), source );
+        String dirAttr = attr( element, "Directory" );
+        if( dirAttr != null ) {
+            reference( "Directory", dirAttr, source );
+            directory = dirAttr;
+        }
+        if( directory == null ) {
+            errors.add( "Component " + id + " has no directory in " + source );
+        }
+        component.directory = directory;
+        if( "yes".equals( attr( element, "KeyPath" ) ) ) {
+            component.keyPaths++;
+        }
+
+        String guid = attr( element, "Guid" );
+        if( guid != null && !guid.equals( "*" ) && !guid.contains( "$(" ) ) {
+            guid = guid.replace( "{", "" ).replace( "}", "" ).toUpperCase( Locale.ROOT );
+            String other = guids.put( guid, id );
+            if( other != null ) {
+                errors.add( "ICE08: The components " + other + " and " + id + " have the same GUID " + guid + '.' );
+            }
+        }
+        addResources( element, id, component, directory, null, source );
+    }
+
+    /**
+     * Add the resources of a component.
+     *
+     * @param parent the component or a parent registry key
+     * @param id the ID of the component
+     * @param component the data of the component
+     * @param directory the directory of the component
+     * @param root the registry root of a parent registry key or null
+     * @param source the name of the source
+     */
+    private void addResources( Element parent, String id, Component component, String directory, String root, String source ) {
+        for( Element child : children( parent ) ) {
+            boolean keyPath = "yes".equals( attr( child, "KeyPath" ) );
+            if( keyPath ) {
+                component.keyPaths++;
+            }
+            switch( child.getLocalName() != null ? child.getLocalName() : child.getNodeName() ) {
+                case "File":
+                    define( "File", attr( child, "Id" ), source );
+                    reference( "Media", attr( child, "DiskId" ), source );
+                    String name = attr( child, "Name" );
+                    if( name == null && attr( child, "Source" ) != null ) {
+                        name = new File( attr( child, "Source" ) ).getName();
+                    }
+                    if( name != null && directory != null && !name.contains( "!(" ) ) {
+                        String target = directory + '\\' + name.toLowerCase( Locale.ROOT );
+                        String other = targetFiles.put( target, id );
+                        if( other != null ) {
+                            errors.add( "ICE30: The target file " + name + " in the directory " + directory + " is installed by " + (other.equals( id ) ? "the component " + id + " twice." : "the components " + other + " and " + id + '.') );
+                        }
+                    }
+                    break;
+                case "RegistryKey":
+                    addResources( child, id, component, directory, attr( child, "Root" ) != null ? attr( child, "Root" ) : root, source );
+                    break;
+                case "RegistryValue":
+                    define( "Registry", attr( child, "Id" ), source );
+                    String valueRoot = attr( child, "Root" ) != null ? attr( child, "Root" ) : root;
+                    if( keyPath && "HKCU".equals( valueRoot ) ) {
+                        component.userKeyPath = true;
+                    }
+                    break;
+                case "CreateFolder":
+                    reference( "Directory", attr( child, "Directory" ), source );
+                    break;
+                case "RemoveFolder":
+                    define( "RemoveFile", attr( child, "Id" ), source );
+                    String removed = attr( child, "Directory" );
+                    reference( "Directory", removed, source );
+                    removedFolders.add( removed != null ? removed : directory );
+                    break;
+                case "RemoveFile":
+                    define( "RemoveFile", attr( child, "Id" ), source );
+                    reference( "Directory", attr( child, "Directory" ), source );
+                    break;
+                case "Shortcut":
+                    define( "Shortcut", attr( child, "Id" ), source );
+                    reference( "Directory", attr( child, "Directory" ), source );
+                    reference( "Icon", attr( child, "Icon" ), source );
+                    break;
+                case "ServiceInstall":
+                    define( "ServiceInstall", attr( child, "Id" ), source );
+                    break;
+                case "ServiceControl":
+                    define( "ServiceControl", attr( child, "Id" ), source );
+                    break;
+                case "ProgId":
+                    reference( "Icon", attr( child, "Icon" ), source );
+                    break;
+                default:
+            }
+        }
+    }
+
+    /**
+     * Add the actions of a sequence table.
+     *
+     * @param sequence the sequence element
+     * @param source the name of the source
+     */
+    private void addSequence( Element sequence, String source ) {
+        Map<String, Action> actions = sequences.get( sequence.getLocalName() != null ? sequence.getLocalName() : sequence.getNodeName() );
+        for( Element child : children( sequence ) ) {
+            String name = child.getLocalName() != null ? child.getLocalName() : child.getNodeName();
+            if( "Show".equals( name ) ) {
+                continue; // the dialogs have fixed numbers
+            }
+            if( "Custom".equals( name ) ) {
+                name = attr( child, "Action" );
+                reference( "CustomAction", name, source );
+            }
+            if( "yes".equals( attr( child, "Suppress" ) ) ) {
+                actions.remove( name );
+                continue;
+            }
+            Action action = new Action();
+            action.after = attr( child, "After" );
+            action.before = attr( child, "Before" );
+            String number = attr( child, "Sequence" );
+            if( number != null && number.matches( "\\d+" ) ) {
+                action.sequence = Integer.valueOf( number );
+            }
+            actions.put( name, action );
+        }
+    }
+
+    /**
+     * Register the definition of an ID.
+     *
+     * @param table the table of the ID
+     * @param id the ID or null if the WiX toolset generates it
+     * @param source the name of the source
+     */
+    private void define( String table, String id, String source ) {
+        if( id == null || id.contains( "$(" ) ) {
+            return;
+        }
+        if( table.equals( "Media" ) ? !id.matches( "\\d{1,5}" ) : !IDENTIFIER.matcher( id ).matches() ) {
+            errors.add( "ICE03: The " + table + " ID '" + id + "' in " + source + " is not a valid identifier." );
+        }
+        String other = definitions.get( table ).put( id, source );
+        if( other != null ) {
+            errors.add( "Duplicate " + table + " '" + id + "' in " + (other.equals( source ) ? source : other + " and " + source) + '.' );
+        }
+    }
+
+    /**
+     * Register the declaration of an ID with a <code>*Ref</code> element. The ID can be defined in another source or in
+     * a WiX extension library.
+     *
+     * @param table the table of the ID
+     * @param id the ID or null
+     */
+    private void declare( String table, String id ) {
+        if( id != null ) {
+            declarations.get( table ).add( id );
+        }
+    }
+
+    /**
+     * Register the reference to an ID.
+     *
+     * @param table the table of the ID
+     * @param id the ID or null
+     * @param source the name of the source
+     */
+    private void reference( String table, String id, String source ) {
+        if( id != null && !id.contains( "$(" ) ) {
+            references.add( new String[] { table, id, source } );
+        }
+    }
+
+    /**
+     * Check that every reference is defined or declared. Unresolved references of lenient sources are warnings.
+     */
+    private void checkReferences() {
+        for( String[] ref : references ) {
+            if( !definitions.get( ref[0] ).containsKey( ref[1] ) && !declarations.get( ref[0] ).contains( ref[1] ) ) {
+                String message = "The " + ref[0] + " '" + ref[1] + "' referenced in " + ref[2] + " is not defined.";
+                (lenientSources.contains( ref[2] ) ? warnings : errors).add( message );
+            }
+        }
+    }
+
+    /**
+     * Check the features, key paths and folders of the components.
+     */
+    private void checkComponents() {
+        Set<String> installed = new HashSet<>( featured );
+        Set<String> visited = new HashSet<>();
+        for( String group : featuredGroups ) {
+            addGroup( group, installed, visited );
+        }
+        for( Map.Entry<String, Component> entry : components.entrySet() ) {
+            String id = entry.getKey();
+            Component component = entry.getValue();
+            if( !installed.contains( id ) ) {
+                errors.add( "ICE21: The component " + id + " in " + component.source + " does not belong to any feature." );
+            }
+            if( component.keyPaths > 1 ) {
+                errors.add( "The component " + id + " in " + component.source + " has more than one key path." );
+            }
+            if( isUserProfile( component.directory ) && !component.userKeyPath ) {
+                warnings.add( "ICE38: The component " + id + " installs to the user profile. It must use a HKCU registry value as key path." );
+            }
+        }
+        for( String directory : namedDirectories ) {
+            if( isUserProfile( directory ) && !PROFILE_FOLDERS.contains( directory ) && !removedFolders.contains( directory ) ) {
+                warnings.add( "ICE64: The directory " + directory + " is in the user profile but it is not removed with a RemoveFolder." );
+            }
+        }
+    }
+
+    /**
+     * Add the components of a component group recursively.
+     *
+     * @param group the ID of the group
+     * @param installed the target for the component IDs
+     * @param visited the visited groups
+     */
+    private void addGroup( String group, Set<String> installed, Set<String> visited ) {
+        List<String> ids = groups.get( group );
+        if( ids == null || !visited.add( group ) ) {
+            return;
+        }
+        for( String id : ids ) {
+            if( id.startsWith( "#" ) ) {
+                addGroup( id.substring( 1 ), installed, visited );
+            } else {
+                installed.add( id );
+            }
+        }
+    }
+
+    /**
+     * Check if a directory is in the user profile.
+     *
+     * @param directory the ID of the directory
+     * @return true, if the directory or a parent is a standard folder of the user profile
+     */
+    private boolean isUserProfile( String directory ) {
+        Set<String> visited = new HashSet<>();
+        while( directory != null && visited.add( directory ) ) {
+            if( PROFILE_FOLDERS.contains( directory ) ) {
+                return true;
+            }
+            directory = directories.get( directory );
+        }
+        return false;
+    }
+
+    /**
+     * Check that the actions that are scheduled before and after the standard actions have enough free sequence
+     * numbers, see the error LGHT0179 of the WiX toolset.
+     *
+     * @param tableName the name of the sequence table
+     * @param authored the actions of the sources
+     */
+    private void checkSequence( String tableName, Map<String, Action> authored ) {
+        if( authored.isEmpty() ) {
+            return;
+        }
+        TreeMap<Integer, String> fixed = new TreeMap<>();
+        Map<String, List<String>> afterMap = new HashMap<>();
+        Map<String, List<String>> beforeMap = new HashMap<>();
+        Object[][] standard = WxsMsiCompiler.STANDARD_ACTIONS.get( tableName );
+        for( Object[] action : standard ) {
+            if( !authored.containsKey( action[0] ) ) {
+                fixed.put( (Integer)action[1], (String)action[0] );
+            }
+        }
+        for( Map.Entry<String, Action> entry : authored.entrySet() ) {
+            Action action = entry.getValue();
+            if( action.after != null || action.before != null ) {
+                String ref = action.after != null ? action.after : action.before;
+                (action.after != null ? afterMap : beforeMap).computeIfAbsent( ref, key -> new ArrayList<>() ).add( entry.getKey() );
+            } else if( action.sequence != null ) {
+                fixed.put( action.sequence, entry.getKey() );
+            } else {
+                for( Object[] std : standard ) {
+                    if( std[0].equals( entry.getKey() ) ) {
+                        fixed.put( (Integer)std[1], entry.getKey() );
+                    }
+                }
+            }
+        }
+
+        int previous = 0;
+        String previousName = null;
+        for( Map.Entry<Integer, String> entry : fixed.entrySet() ) {
+            checkGap( tableName, previous, previousName, entry.getKey(), entry.getValue(), afterMap, beforeMap );
+            previous = entry.getKey();
+            previousName = entry.getValue();
+        }
+        checkGap( tableName, previous, previousName, WxsMsiCompiler.MAX_SEQUENCE + 1, null, afterMap, beforeMap );
+    }
+
+    /**
+     * Check the gap between two actions with fixed sequence numbers.
+     *
+     * @param tableName the name of the sequence table
+     * @param start the number of the lower action
+     * @param startName the lower action or null
+     * @param end the number of the higher action
+     * @param endName the higher action or null
+     * @param afterMap the actions after an action
+     * @param beforeMap the actions before an action
+     */
+    private void checkGap( String tableName, int start, String startName, int end, String endName, Map<String, List<String>> afterMap, Map<String, List<String>> beforeMap ) {
+        int count = count( startName, false, afterMap, beforeMap, new HashSet<>() ) + count( endName, true, afterMap, beforeMap, new HashSet<>() );
+        if( count > end - start - 1 ) {
+            errors.add( "The " + tableName + " has " + count + " actions scheduled between " + startName + " and " + endName + " but there are only " + (end - start - 1) + " free sequence numbers." );
+        }
+    }
+
+    /**
+     * Count the actions that are scheduled before or after an action, including the actions that are relative to
+     * these actions.
+     *
+     * @param name the action or null
+     * @param before true, count the actions before; false, after
+     * @param afterMap the actions after an action
+     * @param beforeMap the actions before an action
+     * @param visited the visited actions to detect cycles
+     * @return the count
+     */
+    private int count( String name, boolean before, Map<String, List<String>> afterMap, Map<String, List<String>> beforeMap, Set<String> visited ) {
+        List<String> list = name == null ? null : (before ? beforeMap : afterMap).get( name );
+        if( list == null ) {
+            return 0;
+        }
+        int count = 0;
+        for( String action : list ) {
+            if( !visited.add( action ) ) {
+                errors.add( "Cyclic scheduling of the action " + action + '.' );
+                continue;
+            }
+            count += 1 + count( action, true, afterMap, beforeMap, visited ) + count( action, false, afterMap, beforeMap, visited );
+        }
+        return count;
+    }
+
+    /**
+     * Get the child elements of the WiX namespace. The elements of extensions are ignored.
+     *
+     * @param parent the parent
+     * @return the elements
+     */
+    private static List<Element> children( Element parent ) {
+        List<Element> list = new ArrayList<>();
+        for( Node node = parent.getFirstChild(); node != null; node = node.getNextSibling() ) {
+            if( node.getNodeType() == Node.ELEMENT_NODE ) {
+                String namespace = node.getNamespaceURI();
+                if( namespace == null ? node.getNodeName().indexOf( ':' ) < 0 : namespace.equals( WIX_NAMESPACE ) ) {
+                    list.add( (Element)node );
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get an attribute value.
+     *
+     * @param element the element
+     * @param name the attribute name
+     * @return the value or null if not set or empty
+     */
+    private static String attr( Element element, String name ) {
+        String value = element.getAttribute( name );
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Writer and reader of cabinet files with MSZIP compression. The data blocks are compressed in parallel. Every block
+ * uses the uncompressed data of the previous block as dictionary like the Windows cabinet API.
+ */
+public class Cabinet {
+
+    /** The maximum count of files in a single cabinet. */
+    public static final int           MAX_FILES  = 0xFFFF;
+
+    private static final int          BLOCK      = 0x8000;
+
+    private static final int          MAX_BLOCKS = 0xFFFF;
+
+    private static final int          BATCH      = 256;
+
+    private final Map<String, File>   files      = new LinkedHashMap<>();
+
+    /**
+     * Add a file. The files are stored in the order they are added.
+     *
+     * @param name the name in the cabinet, in a msi cabinet this is the key of the File table
+     * @param file the source file
+     */
+    public void add( String name, File file ) {
+        if( files.size() >= MAX_FILES ) {
+            throw new IllegalStateException( "A cabinet can not contain more than " + MAX_FILES + " files" );
+        }
+        if( files.put( name, file ) != null ) {
+            throw new IllegalArgumentException( "Duplicate file in cabinet: " + name );
+        }
+    }
+
+    /**
+     * Get the count of added files.
+     *
+     * @return the count
+     */
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Write the cabinet.
+     *
+     * @param target the cabinet file
+     * @param level the compression level of the deflater
+     * @throws IOException if any error occur
+     */
+    public void write( File target, int level ) throws IOException {
+        // the layout of the folders; a folder can have at most 0xFFFF data blocks
+        List<long[]> folders = new ArrayList<>(); // uncompressed start and size
+        long folderStart = 0;
+        long folderSize = 0;
+        int[] fileFolder = new int[files.size()];
+        long[] fileOffset = new long[files.size()];
+        int index = 0;
+        for( File file : files.values() ) {
+            long size = file.length();
+            if( size > 0x7FFFFFFFL ) {
+                throw new IOException( "File is too large for a cabinet: " + file );
+            }
+            if( folderSize > 0 && (folderSize + size + BLOCK - 1) / BLOCK > MAX_BLOCKS ) {
+                folders.add( new long[] { folderStart, folderSize } );
+                folderStart += folderSize;
+                folderSize = 0;
+            }
+            fileFolder[index] = folders.size();
+            fileOffset[index] = folderSize;
+            folderSize += size;
+            index++;
+        }
+        folders.add( new long[] { folderStart, folderSize } );
+
+        List<byte[]> names = new ArrayList<>();
+        int filesSize = 0;
+        for( String name : files.keySet() ) {
+            byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+            names.add( bytes );
+            filesSize += 16 + bytes.length + 1;
+        }
+        int headerSize = 36 + 8 * folders.size();
+
+        try( RandomAccessFile raf = new RandomAccessFile( target, "rw" ) ) {
+            raf.setLength( 0 );
+            ByteBuffer header = ByteBuffer.allocate( headerSize + filesSize ).order( ByteOrder.LITTLE_ENDIAN );
+            header.put( new byte[] { 'M', 'S', 'C', 'F' } ).putInt( 0 );
+            header.putInt( 0 ); // cabinet size, patched later
+            header.putInt( 0 ).putInt( headerSize ).putInt( 0 );
+            header.put( (byte)3 ).put( (byte)1 );
+            header.putShort( (short)folders.size() ).putShort( (short)files.size() );
+            header.putShort( (short)0 ).putShort( (short)0 ).putShort( (short)0 );
+            header.position( headerSize );
+            index = 0;
+            for( File file : files.values() ) {
+                byte[] name = names.get( index );
+                header.putInt( (int)file.length() ).putInt( (int)fileOffset[index] ).putShort( (short)fileFolder[index] );
+                int[] dosTime = toDosTime( file.lastModified() );
+                header.putShort( (short)dosTime[0] ).putShort( (short)dosTime[1] );
+                boolean ascii = true;
+                for( byte b : name ) {
+                    ascii &= b >= 0;
+                }
+                header.putShort( (short)(0x20 | (ascii ? 0 : 0x80)) );
+                header.put( name ).put( (byte)0 );
+                index++;
+            }
+            raf.write( header.array() );
+
+            // the data blocks
+            long position = raf.length();
+            try( InputStream input = new ConcatInputStream( new ArrayList<>( files.values() ) ) ) {
+                DataInputStream data = new DataInputStream( input );
+                ByteBuffer folderEntry = ByteBuffer.allocate( 8 ).order( ByteOrder.LITTLE_ENDIAN );
+                for( int f = 0; f < folders.size(); f++ ) {
+                    long remaining = folders.get( f )[1];
+                    int blocks = (int)((remaining + BLOCK - 1) / BLOCK);
+                    folderEntry.clear();
+                    folderEntry.putInt( (int)position ).putShort( (short)blocks ).putShort( (short)1 );
+                    raf.seek( 36 + 8 * f );
+                    raf.write( folderEntry.array() );
+                    raf.seek( position );
+                    byte[] previous = null; // every folder starts with an empty dictionary
+                    while( remaining > 0 ) {
+                        List<byte[]> batch = new ArrayList<>();
+                        while( remaining > 0 && batch.size() < BATCH ) {
+                            byte[] block = new byte[(int)Math.min( BLOCK, remaining )];
+                            data.readFully( block );
+                            batch.add( block );
+                            remaining -= block.length;
+                        }
+                        byte[] first = previous;
+                        List<byte[]> compressed = IntStream.range( 0, batch.size() ).parallel().mapToObj( i -> compress( batch.get( i ), i == 0 ? first : batch.get( i - 1 ), level ) ).collect( Collectors.toList() );
+                        ByteArrayOutputStream output = new ByteArrayOutputStream( batch.size() * (BLOCK + 16) );
+                        for( int i = 0; i < batch.size(); i++ ) {
+                            byte[] block = compressed.get( i );
+                            ByteBuffer blockHeader = ByteBuffer.allocate( 8 ).order( ByteOrder.LITTLE_ENDIAN );
+                            blockHeader.putInt( 0 ).putShort( (short)block.length ).putShort( (short)batch.get( i ).length );
+                            output.write( blockHeader.array() );
+                            output.write( block );
+                        }
+                        output.writeTo( new RandomAccessFileOutput( raf ) );
+                        position += output.size();
+                        previous = batch.get( batch.size() - 1 );
+                    }
+                }
+            }
+            if( position > 0x7FFFFFFFL ) {
+                throw new IOException( "Cabinet is too large: " + target );
+            }
+            ByteBuffer size = ByteBuffer.allocate( 4 ).order( ByteOrder.LITTLE_ENDIAN ).putInt( (int)position );
+            raf.seek( 8 );
+            raf.write( size.array() );
+        }
+    }
+
+    /**
+     * Compress a single MSZIP block.
+     *
+     * @param block the uncompressed data
+     * @param dictionary the uncompressed data of the previous block or null
+     * @param level the compression level
+     * @return the compressed data with the "CK" signature
+     */
+    private static byte[] compress( byte[] block, byte[] dictionary, int level ) {
+        Deflater deflater = new Deflater( level, true );
+        try {
+            if( dictionary != null ) {
+                deflater.setDictionary( dictionary );
+            }
+            deflater.setInput( block );
+            deflater.finish();
+            byte[] buffer = new byte[block.length + block.length / 8 + 64];
+            buffer[0] = 'C';
+            buffer[1] = 'K';
+            int length = 2;
+            while( !deflater.finished() ) {
+                length += deflater.deflate( buffer, length, buffer.length - length );
+                if( length == buffer.length && !deflater.finished() ) {
+                    throw new IllegalStateException( "MSZIP block overflow" );
+                }
+            }
+            byte[] result = new byte[length];
+            System.arraycopy( buffer, 0, result, 0, length );
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Convert a Java time to the DOS date and time.
+     *
+     * @param millis the time
+     * @return the date and the time
+     */
+    private static int[] toDosTime( long millis ) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis( millis );
+        int year = Math.max( 1980, cal.get( Calendar.YEAR ) );
+        int date = ((year - 1980) << 9) | ((cal.get( Calendar.MONTH ) + 1) << 5) | cal.get( Calendar.DAY_OF_MONTH );
+        int time = (cal.get( Calendar.HOUR_OF_DAY ) << 11) | (cal.get( Calendar.MINUTE ) << 5) | (cal.get( Calendar.SECOND ) / 2);
+        return new int[] { date, time };
+    }
+
+    /**
+     * Read the names and sizes of the files in a cabinet.
+     *
+     * @param input the cabinet
+     * @return the names and sizes in cabinet order
+     * @throws IOException if the cabinet is invalid
+     */
+    public static Map<String, Long> list( InputStream input ) throws IOException {
+        DataInputStream data = new DataInputStream( input );
+        byte[] header = new byte[36];
+        data.readFully( header );
+        ByteBuffer buf = ByteBuffer.wrap( header ).order( ByteOrder.LITTLE_ENDIAN );
+        if( buf.getInt( 0 ) != 0x4643534D ) {
+            throw new IOException( "Not a cabinet file" );
+        }
+        int filesOffset = buf.getInt( 16 );
+        int fileCount = buf.getShort( 28 ) & 0xFFFF;
+        if( (buf.getShort( 30 ) & 0x0004) != 0 ) {
+            throw new IOException( "Cabinets with reserved fields are not supported" );
+        }
+        data.skipBytes( filesOffset - 36 );
+        Map<String, Long> result = new LinkedHashMap<>();
+        byte[] entry = new byte[16];
+        for( int i = 0; i < fileCount; i++ ) {
+            data.readFully( entry );
+            long size = ByteBuffer.wrap( entry ).order( ByteOrder.LITTLE_ENDIAN ).getInt( 0 ) & 0xFFFFFFFFL;
+            ByteArrayOutputStream name = new ByteArrayOutputStream();
+            for( int b; (b = data.read()) > 0; ) {
+                name.write( b );
+            }
+            result.put( new String( name.toByteArray(), StandardCharsets.UTF_8 ), size );
+        }
+        return result;
+    }
+
+    /**
+     * Extract and verify all data of a cabinet.
+     *
+     * @param cabinet the cabinet file
+     * @return the total uncompressed size of all folders
+     * @throws IOException if the cabinet is invalid
+     */
+    public static long verify( File cabinet ) throws IOException {
+        try( RandomAccessFile raf = new RandomAccessFile( cabinet, "r" ) ) {
+            byte[] header = new byte[36];
+            raf.readFully( header );
+            ByteBuffer buf = ByteBuffer.wrap( header ).order( ByteOrder.LITTLE_ENDIAN );
+            if( buf.getInt( 0 ) != 0x4643534D || (buf.getInt( 8 ) & 0xFFFFFFFFL) != raf.length() ) {
+                throw new IOException( "Invalid cabinet header: " + cabinet );
+            }
+            int folderCount = buf.getShort( 26 ) & 0xFFFF;
+            long total = 0;
+            for( int f = 0; f < folderCount; f++ ) {
+                raf.seek( 36 + 8 * f );
+                long offset = Integer.reverseBytes( raf.readInt() ) & 0xFFFFFFFFL;
+                int blocks = Short.reverseBytes( raf.readShort() ) & 0xFFFF;
+                raf.seek( offset );
+                byte[] previous = null;
+                for( int b = 0; b < blocks; b++ ) {
+                    raf.readInt(); // checksum
+                    int compressedSize = Short.reverseBytes( raf.readShort() ) & 0xFFFF;
+                    int size = Short.reverseBytes( raf.readShort() ) & 0xFFFF;
+                    byte[] compressed = new byte[compressedSize];
+                    raf.readFully( compressed );
+                    if( compressed.length < 2 || compressed[0] != 'C' || compressed[1] != 'K' ) {
+                        throw new IOException( "Invalid MSZIP block in " + cabinet );
+                    }
+                    Inflater inflater = new Inflater( true );
+                    try {
+                        if( previous != null ) {
+                            inflater.setDictionary( previous );
+                        }
+                        inflater.setInput( compressed, 2, compressed.length - 2 );
+                        byte[] block = new byte[size];
+                        int count = 0;
+                        while( count < size ) {
+                            int n = inflater.inflate( block, count, size - count );
+                            if( n == 0 ) {
+                                throw new IOException( "Truncated MSZIP block in " + cabinet );
+                            }
+                            count += n;
+                        }
+                        previous = block;
+                        total += size;
+                    } catch( DataFormatException ex ) {
+                        throw new IOException( "Invalid MSZIP block in " + cabinet, ex );
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Write to the current position of a RandomAccessFile.
+     */
+    private static class RandomAccessFileOutput extends OutputStream {
+
+        private final RandomAccessFile raf;
+
+        RandomAccessFileOutput( RandomAccessFile raf ) {
+            this.raf = raf;
+        }
+
+        @Override
+        public void write( int b ) throws IOException {
+            raf.write( b );
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException {
+            raf.write( b, off, len );
+        }
+    }
+
+    /**
+     * Read multiple files as a single stream.
+     */
+    private static class ConcatInputStream extends InputStream {
+
+        private final List<File> files;
+
+        private int              index;
+
+        private InputStream      current;
+
+        ConcatInputStream( List<File> files ) {
+            this.files = files;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read( b, 0, 1 ) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read( byte[] b, int off, int len ) throws IOException {
+            while( true ) {
+                if( current == null ) {
+                    if( index >= files.size() ) {
+                        return -1;
+                    }
+                    current = new FileInputStream( files.get( index++ ) );
+                }
+                int count = current.read( b, off, len );
+                if( count > 0 ) {
+                    return count;
+                }
+                current.close();
+                current = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if( current != null ) {
+                current.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,960 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi.db;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Reader and writer of the compound file binary format (structured storage) that is the container of msi, mst and
+ * msp files. A compound file is a tree of storages and streams. Streams of an opened file are read lazy, so that large
+ * streams like an embedded cabinet can be copied to a new file without loading them into memory.
+ */
+public class CompoundFile implements Closeable {
+
+    private static final byte[] SIGNATURE   = { (byte)0xD0, (byte)0xCF, 0x11, (byte)0xE0, (byte)0xA1, (byte)0xB1, 0x1A, (byte)0xE1 };
+
+    private static final int    SECTOR      = 512;
+
+    private static final int    MINI_SECTOR = 64;
+
+    private static final int    MINI_CUTOFF = 4096;
+
+    private static final int    ENTRY_SIZE  = 128;
+
+    private static final int    FREESECT    = 0xFFFFFFFF;
+
+    private static final int    ENDOFCHAIN  = 0xFFFFFFFE;
+
+    private static final int    FATSECT     = 0xFFFFFFFD;
+
+    private static final int    DIFSECT     = 0xFFFFFFFC;
+
+    private static final int    NOSTREAM    = 0xFFFFFFFF;
+
+    private static final int    HEADER_FAT  = 109;
+
+    private final Storage       root;
+
+    private RandomAccessFile    raf;
+
+    private File                source;
+
+    private int                 sectorSize;
+
+    private int[]               fat;
+
+    /**
+     * Create a new empty compound file.
+     */
+    public CompoundFile() {
+        root = new Storage( "Root Entry" );
+    }
+
+    /**
+     * A storage is a directory in the compound file with streams and other storages.
+     */
+    public static class Storage {
+
+        private final String               name;
+
+        private byte[]                     clsid    = new byte[16];
+
+        private final Map<String, Storage> storages = new TreeMap<>();
+
+        private final Map<String, Data>    streams  = new TreeMap<>();
+
+        /**
+         * Create a new storage.
+         *
+         * @param name the name
+         */
+        public Storage( String name ) {
+            this.name = name;
+        }
+
+        /**
+         * Get the name of the storage.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the class ID of the storage.
+         *
+         * @return the 16 bytes of the CLSID
+         */
+        public byte[] getClsid() {
+            return clsid;
+        }
+
+        /**
+         * Set the class ID of the storage.
+         *
+         * @param clsid the 16 bytes of the CLSID
+         */
+        public void setClsid( byte[] clsid ) {
+            this.clsid = clsid.clone();
+        }
+
+        /**
+         * Get the names of all streams.
+         *
+         * @return the names
+         */
+        public Set<String> getStreamNames() {
+            return Collections.unmodifiableSet( streams.keySet() );
+        }
+
+        /**
+         * Get the names of all child storages.
+         *
+         * @return the names
+         */
+        public Set<String> getStorageNames() {
+            return Collections.unmodifiableSet( storages.keySet() );
+        }
+
+        /**
+         * Check if a stream exists.
+         *
+         * @param streamName the name of the stream
+         * @return true, if the stream exists
+         */
+        public boolean hasStream( String streamName ) {
+            return streams.containsKey( streamName );
+        }
+
+        /**
+         * Get the size of a stream.
+         *
+         * @param streamName the name of the stream
+         * @return the size or -1 if the stream does not exist
+         */
+        public long getStreamSize( String streamName ) {
+            Data data = streams.get( streamName );
+            return data == null ? -1 : data.size();
+        }
+
+        /**
+         * Read the content of a stream.
+         *
+         * @param streamName the name of the stream
+         * @return the content or null if the stream does not exist
+         * @throws IOException if the stream can not be read
+         */
+        public byte[] getStream( String streamName ) throws IOException {
+            Data data = streams.get( streamName );
+            if( data == null ) {
+                return null;
+            }
+            if( data.size() > Integer.MAX_VALUE - 8 ) {
+                throw new IOException( "Stream is too large: " + streamName );
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream( (int)data.size() );
+            try( InputStream input = data.open() ) {
+                copy( input, output );
+            }
+            return output.toByteArray();
+        }
+
+        /**
+         * Open a stream for reading.
+         *
+         * @param streamName the name of the stream
+         * @return the input or null if the stream does not exist
+         * @throws IOException if the stream can not be opened
+         */
+        public InputStream openStream( String streamName ) throws IOException {
+            Data data = streams.get( streamName );
+            return data == null ? null : data.open();
+        }
+
+        /**
+         * Set the content of a stream.
+         *
+         * @param streamName the name of the stream
+         * @param content the content
+         */
+        public void setStream( String streamName, byte[] content ) {
+            streams.put( streamName, new BytesData( content ) );
+        }
+
+        /**
+         * Set the content of a stream from a file. The file is read on saving.
+         *
+         * @param streamName the name of the stream
+         * @param file the file with the content
+         */
+        public void setStream( String streamName, File file ) {
+            streams.put( streamName, new FileData( file ) );
+        }
+
+        /**
+         * Copy a stream from another storage. The content is copied on saving.
+         *
+         * @param streamName the name of the new stream
+         * @param source the source storage
+         * @param sourceName the name of the stream in the source storage
+         */
+        public void copyStream( String streamName, Storage source, String sourceName ) {
+            Data data = source.streams.get( sourceName );
+            if( data == null ) {
+                throw new IllegalArgumentException( "Stream not found: " + sourceName );
+            }
+            streams.put( streamName, data );
+        }
+
+        /**
+         * Remove a stream.
+         *
+         * @param streamName the name of the stream
+         */
+        public void removeStream( String streamName ) {
+            streams.remove( streamName );
+        }
+
+        /**
+         * Get a child storage.
+         *
+         * @param storageName the name of the storage
+         * @return the storage or null
+         */
+        public Storage getStorage( String storageName ) {
+            return storages.get( storageName );
+        }
+
+        /**
+         * Add or replace a child storage.
+         *
+         * @param storage the storage
+         */
+        public void setStorage( Storage storage ) {
+            storages.put( storage.name, storage );
+        }
+
+        /**
+         * Add or replace a child storage with a new name. The streams and storages of the source are shared.
+         *
+         * @param storageName the name in this storage
+         * @param storage the source storage, for example the root of another compound file
+         */
+        public void setStorage( String storageName, Storage storage ) {
+            Storage copy = new Storage( storageName );
+            copy.clsid = storage.clsid;
+            copy.storages.putAll( storage.storages );
+            copy.streams.putAll( storage.streams );
+            storages.put( storageName, copy );
+        }
+
+        /**
+         * Remove a child storage.
+         *
+         * @param storageName the name of the storage
+         */
+        public void removeStorage( String storageName ) {
+            storages.remove( storageName );
+        }
+    }
+
+    /**
+     * The content of a stream.
+     */
+    private abstract static class Data {
+
+        /**
+         * The size in bytes.
+         *
+         * @return the size
+         */
+        abstract long size();
+
+        /**
+         * Open the content for reading.
+         *
+         * @return the input
+         * @throws IOException if any error occur
+         */
+        abstract InputStream open() throws IOException;
+    }
+
+    /**
+     * Content in memory.
+     */
+    private static class BytesData extends Data {
+
+        private final byte[] bytes;
+
+        BytesData( byte[] bytes ) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        long size() {
+            return bytes.length;
+        }
+
+        @Override
+        InputStream open() {
+            return new ByteArrayInputStream( bytes );
+        }
+    }
+
+    /**
+     * Content of a file.
+     */
+    private static class FileData extends Data {
+
+        private final File file;
+
+        FileData( File file ) {
+            this.file = file;
+        }
+
+        @Override
+        long size() {
+            return file.length();
+        }
+
+        @Override
+        InputStream open() throws IOException {
+            return new FileInputStream( file );
+        }
+    }
+
+    /**
+     * Content of a stream in the regular sectors of an opened compound file.
+     */
+    private class SectorData extends Data {
+
+        private final int  start;
+
+        private final long size;
+
+        SectorData( int start, long size ) {
+            this.start = start;
+            this.size = size;
+        }
+
+        @Override
+        long size() {
+            return size;
+        }
+
+        @Override
+        InputStream open() {
+            return new InputStream() {
+                private int    sector    = start;
+
+                private long   remaining = size;
+
+                private byte[] buffer    = new byte[sectorSize];
+
+                private int    pos       = sectorSize;
+
+                private int    count     = 0;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read( b, 0, 1 ) < 0 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read( byte[] b, int off, int len ) throws IOException {
+                    if( remaining <= 0 ) {
+                        return -1;
+                    }
+                    if( pos >= count ) {
+                        if( sector < 0 || sector >= fat.length ) {
+                            throw new IOException( "Broken sector chain in compound file" );
+                        }
+                        readSector( sector, buffer );
+                        sector = fat[sector];
+                        pos = 0;
+                        count = (int)Math.min( sectorSize, remaining );
+                    }
+                    int n = Math.min( len, count - pos );
+                    System.arraycopy( buffer, pos, b, off, n );
+                    pos += n;
+                    remaining -= n;
+                    return n;
+                }
+            };
+        }
+    }
+
+    /**
+     * Get the root storage.
+     *
+     * @return the root
+     */
+    public Storage getRoot() {
+        return root;
+    }
+
+    /**
+     * Open an existing compound file. Large streams are read lazy, the file must not be closed before all streams are
+     * read or the data was saved to another file.
+     *
+     * @param file the file
+     * @return the compound file
+     * @throws IOException if the file can not be read or is not a compound file
+     */
+    public static CompoundFile open( File file ) throws IOException {
+        CompoundFile cf = new CompoundFile();
+        cf.raf = new RandomAccessFile( file, "r" );
+        cf.source = file;
+        try {
+            cf.read();
+        } catch( IOException | RuntimeException ex ) {
+            cf.close();
+            throw ex;
+        }
+        return cf;
+    }
+
+    /**
+     * Read the header, the allocation tables and the directory.
+     *
+     * @throws IOException if any error occur
+     */
+    private void read() throws IOException {
+        byte[] header = new byte[512];
+        raf.seek( 0 );
+        raf.readFully( header );
+        if( !Arrays.equals( Arrays.copyOf( header, 8 ), SIGNATURE ) ) {
+            throw new IOException( "Not a compound file" );
+        }
+        ByteBuffer head = ByteBuffer.wrap( header ).order( ByteOrder.LITTLE_ENDIAN );
+        sectorSize = 1 << head.getShort( 30 );
+        int fatCount = head.getInt( 44 );
+        int firstDir = head.getInt( 48 );
+        int firstMiniFat = head.getInt( 60 );
+        int firstDifat = head.getInt( 68 );
+
+        // allocation table
+        List<Integer> fatSectors = new ArrayList<>();
+        for( int i = 0; i < HEADER_FAT && fatSectors.size() < fatCount; i++ ) {
+            fatSectors.add( head.getInt( 76 + i * 4 ) );
+        }
+        byte[] buffer = new byte[sectorSize];
+        Set<Integer> visited = new HashSet<>();
+        for( int difat = firstDifat; difat != ENDOFCHAIN && difat != FREESECT && fatSectors.size() < fatCount; ) {
+            if( !visited.add( difat ) ) {
+                throw new IOException( "Loop in the DIFAT chain" );
+            }
+            readSector( difat, buffer );
+            ByteBuffer buf = ByteBuffer.wrap( buffer ).order( ByteOrder.LITTLE_ENDIAN );
+            int perSector = sectorSize / 4 - 1;
+            for( int i = 0; i < perSector && fatSectors.size() < fatCount; i++ ) {
+                fatSectors.add( buf.getInt( i * 4 ) );
+            }
+            difat = buf.getInt( perSector * 4 );
+        }
+        fat = new int[fatSectors.size() * sectorSize / 4];
+        for( int i = 0; i < fatSectors.size(); i++ ) {
+            readSector( fatSectors.get( i ), buffer );
+            ByteBuffer.wrap( buffer ).order( ByteOrder.LITTLE_ENDIAN ).asIntBuffer().get( fat, i * sectorSize / 4, sectorSize / 4 );
+        }
+
+        // directory
+        byte[] dir = readChain( firstDir, -1 );
+        ByteBuffer entries = ByteBuffer.wrap( dir ).order( ByteOrder.LITTLE_ENDIAN );
+        int rootStart = entries.getInt( 116 );
+        long rootSize = entries.getInt( 120 ) & 0xFFFFFFFFL;
+        root.clsid = Arrays.copyOfRange( dir, 80, 96 );
+
+        // mini stream
+        byte[] miniStream = rootSize > 0 ? readChain( rootStart, rootSize ) : new byte[0];
+        int[] miniFat = new int[0];
+        if( firstMiniFat != ENDOFCHAIN && firstMiniFat != FREESECT ) {
+            byte[] bytes = readChain( firstMiniFat, -1 );
+            miniFat = new int[bytes.length / 4];
+            ByteBuffer.wrap( bytes ).order( ByteOrder.LITTLE_ENDIAN ).asIntBuffer().get( miniFat );
+        }
+
+        readChildren( entries, entries.getInt( 76 ), root, miniStream, miniFat, new HashSet<>() );
+    }
+
+    /**
+     * Read the tree of the children of a storage.
+     *
+     * @param entries the directory
+     * @param id the ID of the current entry in the tree
+     * @param parent the parent storage
+     * @param miniStream the content of the mini stream
+     * @param miniFat the mini allocation table
+     * @param visited the already read entries to detect loops
+     * @throws IOException if any error occur
+     */
+    private void readChildren( ByteBuffer entries, int id, Storage parent, byte[] miniStream, int[] miniFat, Set<Integer> visited ) throws IOException {
+        if( id == NOSTREAM ) {
+            return;
+        }
+        if( id < 0 || (long)(id + 1) * ENTRY_SIZE > entries.capacity() || !visited.add( id ) ) {
+            throw new IOException( "Invalid directory entry: " + id );
+        }
+        int off = id * ENTRY_SIZE;
+        int nameLength = Math.max( 0, (entries.getShort( off + 64 ) & 0xFFFF) - 2 );
+        byte[] nameBytes = new byte[Math.min( nameLength, 62 )];
+        for( int i = 0; i < nameBytes.length; i++ ) {
+            nameBytes[i] = entries.get( off + i );
+        }
+        String name = new String( nameBytes, StandardCharsets.UTF_16LE );
+        int type = entries.get( off + 66 );
+        int left = entries.getInt( off + 68 );
+        int right = entries.getInt( off + 72 );
+        int child = entries.getInt( off + 76 );
+        int start = entries.getInt( off + 116 );
+        long size = entries.getInt( off + 120 ) & 0xFFFFFFFFL;
+
+        if( type == 1 ) {
+            Storage storage = new Storage( name );
+            storage.clsid = new byte[16];
+            for( int i = 0; i < 16; i++ ) {
+                storage.clsid[i] = entries.get( off + 80 + i );
+            }
+            parent.storages.put( name, storage );
+            readChildren( entries, child, storage, miniStream, miniFat, visited );
+        } else if( type == 2 ) {
+            Data data;
+            if( size < MINI_CUTOFF ) {
+                byte[] bytes = new byte[(int)size];
+                int pos = 0;
+                for( int sector = start; pos < size; sector = miniFat[sector] ) {
+                    if( sector < 0 || sector >= miniFat.length || (long)(sector + 1) * MINI_SECTOR > miniStream.length + MINI_SECTOR ) {
+                        throw new IOException( "Broken mini sector chain of stream: " + name );
+                    }
+                    int n = (int)Math.min( MINI_SECTOR, size - pos );
+                    System.arraycopy( miniStream, sector * MINI_SECTOR, bytes, pos, n );
+                    pos += n;
+                }
+                data = new BytesData( bytes );
+            } else {
+                data = new SectorData( start, size );
+            }
+            parent.streams.put( name, data );
+        }
+        readChildren( entries, left, parent, miniStream, miniFat, visited );
+        readChildren( entries, right, parent, miniStream, miniFat, visited );
+    }
+
+    /**
+     * Read a sector.
+     *
+     * @param sector the sector number
+     * @param buffer the target
+     * @throws IOException if any error occur
+     */
+    private void readSector( int sector, byte[] buffer ) throws IOException {
+        synchronized( raf ) {
+            raf.seek( (sector + 1L) * sectorSize );
+            raf.readFully( buffer, 0, sectorSize );
+        }
+    }
+
+    /**
+     * Read a chain of regular sectors.
+     *
+     * @param start the first sector
+     * @param size the size to read or -1 for the full chain
+     * @return the data
+     * @throws IOException if any error occur
+     */
+    private byte[] readChain( int start, long size ) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[sectorSize];
+        int count = 0;
+        for( int sector = start; sector != ENDOFCHAIN && (size < 0 || output.size() < size); sector = fat[sector] ) {
+            if( sector < 0 || sector >= fat.length || ++count > fat.length ) {
+                throw new IOException( "Broken sector chain in compound file" );
+            }
+            readSector( sector, buffer );
+            output.write( buffer, 0, sectorSize );
+        }
+        byte[] bytes = output.toByteArray();
+        return size < 0 ? bytes : Arrays.copyOf( bytes, (int)size );
+    }
+
+    /**
+     * Close the underlying file of an opened compound file.
+     */
+    @Override
+    public void close() throws IOException {
+        if( raf != null ) {
+            raf.close();
+            raf = null;
+        }
+    }
+
+    /**
+     * A directory entry for writing.
+     */
+    private static class Entry {
+
+        private final String  name;
+
+        private final Storage storage;
+
+        private final Data    data;
+
+        private int           left = NOSTREAM, right = NOSTREAM, child = NOSTREAM;
+
+        private boolean       red;
+
+        private int           start = ENDOFCHAIN;
+
+        Entry( String name, Storage storage, Data data ) {
+            if( name.length() > 31 ) {
+                throw new IllegalArgumentException( "Name of compound file entry is too long: " + name );
+            }
+            this.name = name;
+            this.storage = storage;
+            this.data = data;
+        }
+
+        long size() {
+            return data == null ? 0 : data.size();
+        }
+    }
+
+    /**
+     * Save the compound file. If the target is the opened file then the opened file is closed before it is replaced.
+     *
+     * @param file the target
+     * @throws IOException if any error occur
+     */
+    public void save( File file ) throws IOException {
+        File temp = new File( file.getPath() + ".tmp" );
+        try( OutputStream output = new BufferedOutputStream( new FileOutputStream( temp ), 65536 ) ) {
+            write( output );
+        }
+        if( raf != null && source.getCanonicalFile().equals( file.getCanonicalFile() ) ) {
+            close();
+        }
+        Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    /**
+     * Write the compound file.
+     *
+     * @param output the target
+     * @throws IOException if any error occur
+     */
+    private void write( OutputStream output ) throws IOException {
+        // directory
+        List<Entry> entries = new ArrayList<>();
+        Entry rootEntry = new Entry( root.name, root, null );
+        entries.add( rootEntry );
+        addChildren( rootEntry, entries );
+
+        // mini stream
+        ByteArrayOutputStream mini = new ByteArrayOutputStream();
+        List<Integer> miniFat = new ArrayList<>();
+        List<Entry> large = new ArrayList<>();
+        for( Entry entry : entries ) {
+            if( entry.data == null ) {
+                continue;
+            }
+            long size = entry.size();
+            if( size >= MINI_CUTOFF ) {
+                large.add( entry );
+            } else if( size > 0 ) {
+                int first = miniFat.size();
+                entry.start = first;
+                try( InputStream input = entry.data.open() ) {
+                    copy( input, mini );
+                }
+                int count = (int)((size + MINI_SECTOR - 1) / MINI_SECTOR);
+                for( int i = 1; i < count; i++ ) {
+                    miniFat.add( first + i );
+                }
+                miniFat.add( ENDOFCHAIN );
+                while( mini.size() % MINI_SECTOR != 0 ) {
+                    mini.write( 0 );
+                }
+            }
+        }
+
+        // layout of the regular sectors
+        int next = 0;
+        List<int[]> runs = new ArrayList<>(); // start and count of continuous chains
+        for( Entry entry : large ) {
+            int count = (int)((entry.size() + SECTOR - 1) / SECTOR);
+            entry.start = next;
+            runs.add( new int[] { next, count } );
+            next += count;
+        }
+        int miniCount = (mini.size() + SECTOR - 1) / SECTOR;
+        rootEntry.start = miniCount > 0 ? next : ENDOFCHAIN;
+        runs.add( new int[] { next, miniCount } );
+        next += miniCount;
+        int miniFatStart = miniFat.isEmpty() ? ENDOFCHAIN : next;
+        int miniFatCount = (miniFat.size() * 4 + SECTOR - 1) / SECTOR;
+        runs.add( new int[] { next, miniFatCount } );
+        next += miniFatCount;
+        int dirStart = next;
+        int dirCount = (entries.size() * ENTRY_SIZE + SECTOR - 1) / SECTOR;
+        runs.add( new int[] { next, dirCount } );
+        next += dirCount;
+
+        int fatCount = 0;
+        int difatCount = 0;
+        while( true ) {
+            int total = next + fatCount + difatCount;
+            int newFat = (total + SECTOR / 4 - 1) / (SECTOR / 4);
+            int newDifat = newFat > HEADER_FAT ? (newFat - HEADER_FAT + SECTOR / 4 - 2) / (SECTOR / 4 - 1) : 0;
+            if( newFat == fatCount && newDifat == difatCount ) {
+                break;
+            }
+            fatCount = newFat;
+            difatCount = newDifat;
+        }
+        int fatStart = next;
+        int difatStart = fatStart + fatCount;
+        int total = difatStart + difatCount;
+
+        int[] table = new int[fatCount * SECTOR / 4];
+        Arrays.fill( table, FREESECT );
+        for( int[] run : runs ) {
+            for( int i = 0; i < run[1]; i++ ) {
+                table[run[0] + i] = i + 1 < run[1] ? run[0] + i + 1 : ENDOFCHAIN;
+            }
+        }
+        for( int i = 0; i < fatCount; i++ ) {
+            table[fatStart + i] = FATSECT;
+        }
+        for( int i = 0; i < difatCount; i++ ) {
+            table[difatStart + i] = DIFSECT;
+        }
+
+        // header
+        ByteBuffer header = ByteBuffer.allocate( SECTOR ).order( ByteOrder.LITTLE_ENDIAN );
+        header.put( SIGNATURE );
+        header.position( 24 );
+        header.putShort( (short)0x003E ).putShort( (short)0x0003 ).putShort( (short)0xFFFE ).putShort( (short)9 ).putShort( (short)6 );
+        header.position( 44 );
+        header.putInt( fatCount ).putInt( dirStart ).putInt( 0 ).putInt( MINI_CUTOFF );
+        header.putInt( miniFatStart ).putInt( miniFatCount );
+        header.putInt( difatCount > 0 ? difatStart : ENDOFCHAIN ).putInt( difatCount );
+        for( int i = 0; i < HEADER_FAT; i++ ) {
+            header.putInt( i < fatCount ? fatStart + i : FREESECT );
+        }
+        output.write( header.array() );
+
+        // streams
+        byte[] buffer = new byte[65536];
+        for( Entry entry : large ) {
+            long written = 0;
+            try( InputStream input = entry.data.open() ) {
+                int count;
+                while( written < entry.size() && (count = input.read( buffer, 0, (int)Math.min( buffer.length, entry.size() - written ) )) > 0 ) {
+                    output.write( buffer, 0, count );
+                    written += count;
+                }
+            }
+            if( written != entry.size() ) {
+                throw new IOException( "Size of stream '" + entry.name + "' has changed while writing" );
+            }
+            pad( output, written );
+        }
+        mini.writeTo( output );
+        pad( output, mini.size() );
+        ByteBuffer miniTable = ByteBuffer.allocate( miniFatCount * SECTOR ).order( ByteOrder.LITTLE_ENDIAN );
+        for( int value : miniFat ) {
+            miniTable.putInt( value );
+        }
+        while( miniTable.hasRemaining() ) {
+            miniTable.putInt( FREESECT );
+        }
+        output.write( miniTable.array() );
+
+        // directory
+        ByteBuffer dir = ByteBuffer.allocate( dirCount * SECTOR ).order( ByteOrder.LITTLE_ENDIAN );
+        for( int i = 0; i < dirCount * SECTOR / ENTRY_SIZE; i++ ) {
+            int off = i * ENTRY_SIZE;
+            if( i >= entries.size() ) {
+                dir.putInt( off + 68, NOSTREAM ).putInt( off + 72, NOSTREAM ).putInt( off + 76, NOSTREAM );
+                continue;
+            }
+            Entry entry = entries.get( i );
+            byte[] name = entry.name.getBytes( StandardCharsets.UTF_16LE );
+            for( int k = 0; k < name.length; k++ ) {
+                dir.put( off + k, name[k] );
+            }
+            dir.putShort( off + 64, (short)(name.length + 2) );
+            dir.put( off + 66, (byte)(i == 0 ? 5 : entry.storage != null ? 1 : 2) );
+            dir.put( off + 67, (byte)(entry.red ? 0 : 1) );
+            dir.putInt( off + 68, entry.left ).putInt( off + 72, entry.right ).putInt( off + 76, entry.child );
+            if( entry.storage != null ) {
+                for( int k = 0; k < 16; k++ ) {
+                    dir.put( off + 80 + k, entry.storage.clsid[k] );
+                }
+            }
+            if( i == 0 ) {
+                dir.putInt( off + 116, rootEntry.start ).putInt( off + 120, mini.size() );
+            } else if( entry.storage == null ) {
+                dir.putInt( off + 116, entry.size() == 0 ? ENDOFCHAIN : entry.start ).putInt( off + 120, (int)entry.size() );
+            }
+        }
+        output.write( dir.array() );
+
+        // allocation tables
+        ByteBuffer fatBytes = ByteBuffer.allocate( table.length * 4 ).order( ByteOrder.LITTLE_ENDIAN );
+        fatBytes.asIntBuffer().put( table );
+        output.write( fatBytes.array() );
+        int perSector = SECTOR / 4 - 1;
+        for( int d = 0; d < difatCount; d++ ) {
+            ByteBuffer difat = ByteBuffer.allocate( SECTOR ).order( ByteOrder.LITTLE_ENDIAN );
+            for( int i = 0; i < perSector; i++ ) {
+                int index = HEADER_FAT + d * perSector + i;
+                difat.putInt( index < fatCount ? fatStart + index : FREESECT );
+            }
+            difat.putInt( d + 1 < difatCount ? difatStart + d + 1 : ENDOFCHAIN );
+            output.write( difat.array() );
+        }
+        if( total != difatStart + difatCount ) {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Add the children of a storage to the list of entries and build the red-black tree of the children.
+     *
+     * @param parent the entry of the storage
+     * @param entries the list of all entries
+     */
+    private static void addChildren( Entry parent, List<Entry> entries ) {
+        List<Entry> children = new ArrayList<>();
+        for( Map.Entry<String, Storage> storage : parent.storage.storages.entrySet() ) {
+            children.add( new Entry( storage.getKey(), storage.getValue(), null ) );
+        }
+        for( Map.Entry<String, Data> stream : parent.storage.streams.entrySet() ) {
+            children.add( new Entry( stream.getKey(), null, stream.getValue() ) );
+        }
+        if( children.isEmpty() ) {
+            return;
+        }
+        children.sort( ENTRY_ORDER );
+        int first = entries.size();
+        entries.addAll( children );
+        int depth = 32 - Integer.numberOfLeadingZeros( children.size() ); // count of levels
+        parent.child = first + buildTree( entries, first, 0, children.size() - 1, 1, depth );
+        for( Entry child : children ) {
+            if( child.storage != null ) {
+                addChildren( child, entries );
+            }
+        }
+    }
+
+    /**
+     * Build a balanced binary tree of the sorted siblings. All levels except the last are complete. The nodes on the
+     * last level are red, so that the tree is a valid red-black tree.
+     *
+     * @param entries the list of all entries
+     * @param offset the index of the first sibling in entries
+     * @param low the lowest sibling index of the sub tree
+     * @param high the highest sibling index of the sub tree
+     * @param level the level of the root of the sub tree
+     * @param depth the count of levels
+     * @return the sibling index of the root of the sub tree or -1
+     */
+    private static int buildTree( List<Entry> entries, int offset, int low, int high, int level, int depth ) {
+        if( low > high ) {
+            return -1;
+        }
+        int mid = (low + high + 1) / 2;
+        Entry node = entries.get( offset + mid );
+        int left = buildTree( entries, offset, low, mid - 1, level + 1, depth );
+        int right = buildTree( entries, offset, mid + 1, high, level + 1, depth );
+        node.left = left < 0 ? NOSTREAM : offset + left;
+        node.right = right < 0 ? NOSTREAM : offset + right;
+        node.red = level == depth && depth > 1;
+        return mid;
+    }
+
+    /**
+     * The order of the siblings: shorter names first, then by upper case.
+     */
+    private static final Comparator<Entry> ENTRY_ORDER = ( a, b ) -> {
+        if( a.name.length() != b.name.length() ) {
+            return a.name.length() - b.name.length();
+        }
+        for( int i = 0; i < a.name.length(); i++ ) {
+            int diff = Character.toUpperCase( a.name.charAt( i ) ) - Character.toUpperCase( b.name.charAt( i ) );
+            if( diff != 0 ) {
+                return diff;
+            }
+        }
+        return 0;
+    };
+
+    /**
+     * Pad the output to a full sector.
+     *
+     * @param output the output
+     * @param size the written size
+     * @throws IOException if any error occur
+     */
+    private static void pad( OutputStream output, long size ) throws IOException {
+        int rest = (int)(size % SECTOR);
+        if( rest > 0 ) {
+            output.write( new byte[SECTOR - rest] );
+        }
+    }
+
+    /**
+     * Copy all data.
+     *
+     * @param input the source
+     * @param output the target
+     * @throws IOException if any error occur
+     */
+    static void copy( InputStream input, OutputStream output ) throws IOException {
+        byte[] buffer = new byte[65536];
+        int count;
+        while( (count = input.read( buffer )) > 0 ) {
+            output.write( buffer, 0, count );
+        }
+    }
+}
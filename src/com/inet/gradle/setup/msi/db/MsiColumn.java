@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi.db;
+
+/**
+ * The definition of a column of a msi table. The type uses the bit mask of the _Columns table.
+ */
+public class MsiColumn {
+
+    static final int     TYPE_VALID       = 0x0100;
+
+    static final int     TYPE_LOCALIZABLE = 0x0200;
+
+    static final int     TYPE_OBJECT      = 0x0400;
+
+    static final int     TYPE_STRING      = 0x0800;
+
+    static final int     TYPE_NULLABLE    = 0x1000;
+
+    static final int     TYPE_KEY         = 0x2000;
+
+    private final String name;
+
+    private final int    type;
+
+    /**
+     * Create a column.
+     *
+     * @param name the name of the column
+     * @param type the type bit mask of the _Columns table
+     */
+    public MsiColumn( String name, int type ) {
+        this.name = name;
+        this.type = type;
+    }
+
+    /**
+     * Create a column from a type description like in the column definitions of the SDK: s72, S255, l0, L64, i2, I2,
+     * i4, I4, v0 or V0. An upper case letter marks a nullable column.
+     *
+     * @param name the name of the column
+     * @param type the type description
+     * @return the column
+     */
+    public static MsiColumn of( String name, String type ) {
+        return new MsiColumn( name, parseType( type ) );
+    }
+
+    /**
+     * Create a primary key column.
+     *
+     * @param name the name of the column
+     * @param type the type description, see {@link #of(String, String)}
+     * @return the column
+     */
+    public static MsiColumn key( String name, String type ) {
+        return new MsiColumn( name, parseType( type ) | TYPE_KEY );
+    }
+
+    /**
+     * Parse a type description.
+     *
+     * @param type the type description
+     * @return the bit mask
+     */
+    private static int parseType( String type ) {
+        char ch = type.charAt( 0 );
+        int width = Integer.parseInt( type.substring( 1 ) );
+        int mask = Character.isUpperCase( ch ) ? TYPE_NULLABLE : 0;
+        switch( Character.toLowerCase( ch ) ) {
+            case 's':
+                return mask | TYPE_VALID | TYPE_OBJECT | TYPE_STRING | width;
+            case 'l':
+                return mask | TYPE_VALID | TYPE_LOCALIZABLE | TYPE_OBJECT | TYPE_STRING | width;
+            case 'v':
+                return mask | TYPE_VALID | TYPE_STRING;
+            case 'i':
+                if( width == 2 ) {
+                    return mask | TYPE_VALID | TYPE_OBJECT | 2;
+                }
+                if( width == 4 ) {
+                    return mask | TYPE_VALID | 4;
+                }
+                break;
+            default:
+        }
+        throw new IllegalArgumentException( "Invalid column type: " + type );
+    }
+
+    /**
+     * Get the name.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the type bit mask.
+     *
+     * @return the type
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * If the column is part of the primary key.
+     *
+     * @return true, if key column
+     */
+    public boolean isKey() {
+        return (type & TYPE_KEY) != 0;
+    }
+
+    /**
+     * If the column can contain null values.
+     *
+     * @return true, if nullable
+     */
+    public boolean isNullable() {
+        return (type & TYPE_NULLABLE) != 0;
+    }
+
+    /**
+     * If the column contains a reference to a stream. The value of such a column is the name of the stream.
+     *
+     * @return true, if binary
+     */
+    public boolean isBinary() {
+        return (type & ~TYPE_NULLABLE & ~TYPE_KEY) == (TYPE_VALID | TYPE_STRING);
+    }
+
+    /**
+     * If the column contains strings.
+     *
+     * @return true, if string
+     */
+    public boolean isString() {
+        return (type & TYPE_STRING) != 0 && !isBinary();
+    }
+
+    /**
+     * If the column contains integers.
+     *
+     * @return true, if integer
+     */
+    public boolean isInteger() {
+        return (type & TYPE_STRING) == 0;
+    }
+
+    /**
+     * Get the maximum length of a string or the byte count of an integer.
+     *
+     * @return the width
+     */
+    public int getWidth() {
+        return type & 0xFF;
+    }
+
+    /**
+     * The byte count of a value in a table stream.
+     *
+     * @param longRefs true, if the string references have 3 bytes
+     * @return the byte count
+     */
+    int getStorageSize( boolean longRefs ) {
+        if( isString() ) {
+            return longRefs ? 3 : 2;
+        }
+        if( isBinary() ) {
+            return 2;
+        }
+        return getWidth() == 4 ? 4 : 2;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
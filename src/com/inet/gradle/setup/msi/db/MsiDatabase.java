@@ -0,0 +1,796 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A msi database. The tables are loaded completely into memory. All other streams and storages are kept in the
+ * underlying {@link CompoundFile} and are copied on saving. The same format is used for transforms and patches which
+ * differ only in the class ID of the root storage.
+ */
+public class MsiDatabase implements Closeable {
+
+    /** The class ID of a msi file. */
+    public static final byte[]        CLSID_DATABASE  = clsid( 0x000C1084 );
+
+    /** The class ID of a transform (mst) file. */
+    public static final byte[]        CLSID_TRANSFORM = clsid( 0x000C1082 );
+
+    /** The class ID of a patch (msp) file. */
+    public static final byte[]        CLSID_PATCH     = clsid( 0x000C1086 );
+
+    private static final char         TABLE_PREFIX    = 0x4840;
+
+    private static final String       STRING_POOL     = "_StringPool";
+
+    private static final String       STRING_DATA     = "_StringData";
+
+    static final String               TABLES          = "_Tables";
+
+    static final String               COLUMNS         = "_Columns";
+
+    private final CompoundFile        file;
+
+    private final Map<String, MsiTable> tables        = new TreeMap<>();
+
+    private int                       codepage;
+
+    private SummaryInformation        summary         = new SummaryInformation();
+
+    /**
+     * Create a new empty database.
+     *
+     * @param codepage the codepage of the strings, for example 1252
+     */
+    public MsiDatabase( int codepage ) {
+        this( new CompoundFile() );
+        file.getRoot().setClsid( CLSID_DATABASE );
+        getCharset( codepage );
+        this.codepage = codepage;
+    }
+
+    /**
+     * Create a database on a compound file.
+     *
+     * @param file the compound file
+     */
+    private MsiDatabase( CompoundFile file ) {
+        this.file = file;
+    }
+
+    /**
+     * Create the class ID of the msi formats.
+     *
+     * @param data1 the first field
+     * @return the 16 bytes
+     */
+    private static byte[] clsid( int data1 ) {
+        byte[] clsid = { 0, 0, 0, 0, 0, 0, 0, 0, (byte)0xC0, 0, 0, 0, 0, 0, 0, 0x46 };
+        ByteBuffer.wrap( clsid ).order( ByteOrder.LITTLE_ENDIAN ).putInt( data1 );
+        return clsid;
+    }
+
+    /**
+     * Open an existing msi, mst or msp file.
+     *
+     * @param msi the file
+     * @return the database
+     * @throws IOException if the file can not be read
+     */
+    public static MsiDatabase open( File msi ) throws IOException {
+        CompoundFile file = CompoundFile.open( msi );
+        try {
+            MsiDatabase db = new MsiDatabase( file );
+            db.read();
+            return db;
+        } catch( IOException | RuntimeException ex ) {
+            file.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Read the string pool, the system tables and all tables.
+     *
+     * @throws IOException if any error occur
+     */
+    private void read() throws IOException {
+        CompoundFile.Storage root = file.getRoot();
+        StringPool pool = StringPool.read( root );
+        codepage = pool.codepage;
+        boolean longRefs = pool.longRefs;
+        Charset charset = getCharset( codepage );
+        List<String> strings = pool.strings;
+
+        // system tables
+        int refSize = longRefs ? 3 : 2;
+        byte[] tableNames = root.getStream( encodeName( TABLES, true ) );
+        List<String> names = new ArrayList<>();
+        if( tableNames != null ) {
+            for( int i = 0; i + refSize <= tableNames.length; i += refSize ) {
+                names.add( strings.get( readValue( tableNames, i, refSize ) ) );
+            }
+        }
+        Map<String, TreeMap<Integer, MsiColumn>> columns = new HashMap<>();
+        byte[] columnData = root.getStream( encodeName( COLUMNS, true ) );
+        if( columnData != null ) {
+            int rowSize = 2 * refSize + 4;
+            int count = columnData.length / rowSize;
+            for( int r = 0; r < count; r++ ) {
+                String table = strings.get( readValue( columnData, r * refSize, refSize ) );
+                int number = readValue( columnData, count * refSize + r * 2, 2 ) - 0x8000;
+                String name = strings.get( readValue( columnData, count * (refSize + 2) + r * refSize, refSize ) );
+                int type = readValue( columnData, count * (2 * refSize + 2) + r * 2, 2 ) - 0x8000;
+                columns.computeIfAbsent( table, key -> new TreeMap<>() ).put( number, new MsiColumn( name, type ) );
+            }
+        }
+
+        for( String name : names ) {
+            TreeMap<Integer, MsiColumn> tableColumns = columns.get( name );
+            if( tableColumns == null ) {
+                throw new IOException( "The columns of the table '" + name + "' are missing" );
+            }
+            MsiTable table = new MsiTable( name, new ArrayList<>( tableColumns.values() ) );
+            tables.put( name, table );
+            byte[] content = root.getStream( encodeName( name, true ) );
+            if( content == null ) {
+                continue;
+            }
+            List<MsiColumn> cols = table.getColumns();
+            int rowSize = 0;
+            for( MsiColumn column : cols ) {
+                rowSize += column.getStorageSize( longRefs );
+            }
+            int count = content.length / rowSize;
+            Object[][] rows = new Object[count][cols.size()];
+            int pos = 0;
+            for( int c = 0; c < cols.size(); c++ ) {
+                MsiColumn column = cols.get( c );
+                int size = column.getStorageSize( longRefs );
+                for( int r = 0; r < count; r++ ) {
+                    int value = readValue( content, pos, size );
+                    pos += size;
+                    rows[r][c] = decodeValue( column, value, strings );
+                }
+            }
+            for( Object[] row : rows ) {
+                for( int c = 0; c < cols.size(); c++ ) {
+                    if( cols.get( c ).isBinary() && row[c] != null ) {
+                        row[c] = getStreamName( table, row );
+                    }
+                }
+                table.putRow( row );
+            }
+        }
+
+        byte[] info = root.getStream( SummaryInformation.STREAM_NAME );
+        if( info != null ) {
+            summary = SummaryInformation.read( info, charset );
+        }
+    }
+
+    /**
+     * Decode a stored value.
+     *
+     * @param column the column
+     * @param value the stored value
+     * @param strings the string pool
+     * @return the value
+     * @throws IOException if the string reference is invalid
+     */
+    static Object decodeValue( MsiColumn column, int value, List<String> strings ) throws IOException {
+        if( value == 0 ) {
+            return null;
+        }
+        if( column.isString() ) {
+            if( value >= strings.size() ) {
+                throw new IOException( "Invalid string reference " + value + " in column " + column.getName() );
+            }
+            return strings.get( value );
+        }
+        if( column.isBinary() ) {
+            return Boolean.TRUE; // replaced with the stream name after all key values are read
+        }
+        return column.getWidth() == 4 ? value ^ 0x80000000 : value - 0x8000;
+    }
+
+    /**
+     * Read a little endian value.
+     *
+     * @param data the data
+     * @param offset the offset
+     * @param size the byte count
+     * @return the value
+     */
+    static int readValue( byte[] data, int offset, int size ) {
+        int value = 0;
+        for( int i = size - 1; i >= 0; i-- ) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Get the name of the stream of a binary column. It is the table name and the key values separated by a dot.
+     *
+     * @param table the table
+     * @param row the row
+     * @return the stream name
+     */
+    public static String getStreamName( MsiTable table, Object[] row ) {
+        StringBuilder name = new StringBuilder( table.getName() );
+        for( int i = 0; i < table.getKeyCount(); i++ ) {
+            name.append( '.' ).append( row[i] );
+        }
+        return name.toString();
+    }
+
+    /**
+     * Get the codepage of the strings.
+     *
+     * @return the codepage
+     */
+    public int getCodepage() {
+        return codepage;
+    }
+
+    /**
+     * Get the Java charset of a Windows codepage.
+     *
+     * @param codepage the codepage, 0 for a neutral database
+     * @return the charset
+     */
+    public static Charset getCharset( int codepage ) {
+        switch( codepage ) {
+            case 0:
+                return Charset.forName( "windows-1252" );
+            case 65001:
+                return StandardCharsets.UTF_8;
+            default:
+                for( String name : new String[] { "windows-" + codepage, "Cp" + codepage, "x-windows-" + codepage } ) {
+                    if( Charset.isSupported( name ) ) {
+                        return Charset.forName( name );
+                    }
+                }
+                throw new IllegalArgumentException( "Unsupported codepage: " + codepage );
+        }
+    }
+
+    /**
+     * Get the summary information.
+     *
+     * @return the summary information
+     */
+    public SummaryInformation getSummaryInformation() {
+        return summary;
+    }
+
+    /**
+     * Get a table.
+     *
+     * @param name the name of the table
+     * @return the table or null
+     */
+    public MsiTable getTable( String name ) {
+        return tables.get( name );
+    }
+
+    /**
+     * Add a table. An existing table with the same name is replaced.
+     *
+     * @param table the table
+     * @return the table
+     */
+    public MsiTable addTable( MsiTable table ) {
+        tables.put( table.getName(), table );
+        return table;
+    }
+
+    /**
+     * Remove a table.
+     *
+     * @param name the name of the table
+     */
+    public void removeTable( String name ) {
+        tables.remove( name );
+    }
+
+    /**
+     * Get all tables sorted by name.
+     *
+     * @return the tables
+     */
+    public Collection<MsiTable> getTables() {
+        return Collections.unmodifiableCollection( tables.values() );
+    }
+
+    /**
+     * Get the root storage of the underlying compound file to access storages like embedded transforms.
+     *
+     * @return the root storage
+     */
+    public CompoundFile.Storage getStorage() {
+        return file.getRoot();
+    }
+
+    /**
+     * Set a stream like an embedded cabinet or the data of a binary column. The content is read on saving.
+     *
+     * @param name the name of the stream
+     * @param content the file with the content
+     */
+    public void setStream( String name, File content ) {
+        file.getRoot().setStream( encodeName( name, false ), content );
+    }
+
+    /**
+     * Set a stream like an embedded cabinet or the data of a binary column.
+     *
+     * @param name the name of the stream
+     * @param content the content
+     */
+    public void setStream( String name, byte[] content ) {
+        file.getRoot().setStream( encodeName( name, false ), content );
+    }
+
+    /**
+     * Read a stream.
+     *
+     * @param name the name of the stream
+     * @return the content or null
+     * @throws IOException if the stream can not be read
+     */
+    public byte[] getStream( String name ) throws IOException {
+        return file.getRoot().getStream( encodeName( name, false ) );
+    }
+
+    /**
+     * Remove a stream.
+     *
+     * @param name the name of the stream
+     */
+    public void removeStream( String name ) {
+        file.getRoot().removeStream( encodeName( name, false ) );
+    }
+
+    /**
+     * Get the names of all streams that are not tables or the summary information.
+     *
+     * @return the decoded names
+     */
+    public Set<String> getStreamNames() {
+        Set<String> names = new TreeSet<>();
+        for( String name : file.getRoot().getStreamNames() ) {
+            if( !name.isEmpty() && name.charAt( 0 ) != TABLE_PREFIX && name.charAt( 0 ) >= 0x20 ) {
+                names.add( decodeName( name ) );
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Save the database.
+     *
+     * @param target the target file, if it is the opened file then the opened file is closed before it is replaced
+     * @throws IOException if any error occur
+     */
+    public void save( File target ) throws IOException {
+        Charset charset = getCharset( codepage );
+        CompoundFile.Storage root = file.getRoot();
+        for( String name : new ArrayList<>( root.getStreamNames() ) ) {
+            if( !name.isEmpty() && name.charAt( 0 ) == TABLE_PREFIX ) {
+                root.removeStream( name );
+            }
+        }
+
+        // the string pool
+        StringPool pool = new StringPool();
+        for( MsiTable table : tables.values() ) {
+            pool.add( table.getName() );
+            for( MsiColumn column : table.getColumns() ) {
+                pool.add( table.getName() );
+                pool.add( column.getName() );
+            }
+            for( Object[] row : table.getRows() ) {
+                for( int c = 0; c < row.length; c++ ) {
+                    if( table.getColumns().get( c ).isString() ) {
+                        pool.add( (String)row[c] );
+                    }
+                }
+            }
+        }
+        pool.codepage = codepage;
+        pool.write( root );
+        boolean longRefs = pool.longRefs;
+        int refSize = longRefs ? 3 : 2;
+
+        // system tables
+        List<long[]> tableRows = new ArrayList<>();
+        List<long[]> columnRows = new ArrayList<>();
+        for( MsiTable table : tables.values() ) {
+            int tableId = pool.getId( table.getName() );
+            tableRows.add( new long[] { tableId } );
+            List<MsiColumn> columns = table.getColumns();
+            for( int c = 0; c < columns.size(); c++ ) {
+                MsiColumn column = columns.get( c );
+                columnRows.add( new long[] { tableId, c + 1 + 0x8000, pool.getId( column.getName() ), (column.getType() + 0x8000) & 0xFFFF } );
+            }
+        }
+        root.setStream( encodeName( TABLES, true ), writeRows( tableRows, new int[] { refSize }, 1 ) );
+        root.setStream( encodeName( COLUMNS, true ), writeRows( columnRows, new int[] { refSize, 2, refSize, 2 }, 2 ) );
+
+        // user tables
+        for( MsiTable table : tables.values() ) {
+            if( table.size() == 0 ) {
+                continue;
+            }
+            List<MsiColumn> columns = table.getColumns();
+            int[] sizes = new int[columns.size()];
+            for( int c = 0; c < sizes.length; c++ ) {
+                sizes[c] = columns.get( c ).getStorageSize( longRefs );
+            }
+            List<long[]> rows = new ArrayList<>( table.size() );
+            for( Object[] row : table.getRows() ) {
+                long[] values = new long[row.length];
+                for( int c = 0; c < row.length; c++ ) {
+                    values[c] = encodeValue( columns.get( c ), row[c], pool );
+                }
+                rows.add( values );
+            }
+            root.setStream( encodeName( table.getName(), true ), writeRows( rows, sizes, table.getKeyCount() ) );
+        }
+
+        root.setStream( SummaryInformation.STREAM_NAME, summary.write( charset ) );
+        file.save( target );
+    }
+
+    /**
+     * Encode a value for the table stream.
+     *
+     * @param column the column
+     * @param value the value
+     * @param pool the string pool
+     * @return the stored value
+     */
+    static long encodeValue( MsiColumn column, Object value, StringPool pool ) {
+        if( value == null ) {
+            return 0;
+        }
+        if( column.isString() ) {
+            return pool.getId( (String)value );
+        }
+        if( column.isBinary() ) {
+            return 1; // the stream name is derived from the key columns
+        }
+        int i = (Integer)value;
+        return column.getWidth() == 4 ? (i ^ 0x80000000) & 0xFFFFFFFFL : (i + 0x8000) & 0xFFFF;
+    }
+
+    /**
+     * Write the rows column by column. The rows are sorted by the key columns.
+     *
+     * @param rows the stored values
+     * @param sizes the byte count of every column
+     * @param keyCount the count of key columns
+     * @return the content of the table stream
+     */
+    private static byte[] writeRows( List<long[]> rows, int[] sizes, int keyCount ) {
+        rows.sort( ( a, b ) -> {
+            for( int i = 0; i < keyCount; i++ ) {
+                int cmp = Long.compare( a[i], b[i] );
+                if( cmp != 0 ) {
+                    return cmp;
+                }
+            }
+            return 0;
+        } );
+        int rowSize = 0;
+        for( int size : sizes ) {
+            rowSize += size;
+        }
+        byte[] content = new byte[rows.size() * rowSize];
+        int pos = 0;
+        for( int c = 0; c < sizes.length; c++ ) {
+            for( long[] row : rows ) {
+                long value = row[c];
+                for( int i = 0; i < sizes[c]; i++ ) {
+                    content[pos++] = (byte)(value >>> (8 * i));
+                }
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Get the bytes of an encoded buffer.
+     *
+     * @param buffer the buffer
+     * @return the bytes
+     */
+    private static byte[] toBytes( ByteBuffer buffer ) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get( bytes );
+        return bytes;
+    }
+
+    /**
+     * The strings of a database or transform with its reference counts.
+     */
+    static class StringPool {
+
+        final List<String>                 strings = new ArrayList<>( Collections.singletonList( (String)null ) );
+
+        final List<Integer>                refs    = new ArrayList<>( Collections.singletonList( 0 ) );
+
+        private final Map<String, Integer> ids     = new HashMap<>();
+
+        int                                codepage;
+
+        boolean                            longRefs;
+
+        /**
+         * Add a reference to a string.
+         *
+         * @param str the string, can be null
+         */
+        void add( String str ) {
+            if( str == null || str.isEmpty() ) {
+                return;
+            }
+            Integer id = ids.get( str );
+            if( id == null ) {
+                ids.put( str, strings.size() );
+                strings.add( str );
+                refs.add( 1 );
+            } else {
+                refs.set( id, refs.get( id ) + 1 );
+            }
+        }
+
+        /**
+         * Get the ID of a string.
+         *
+         * @param str the string
+         * @return the ID, 0 for null
+         */
+        int getId( String str ) {
+            if( str == null || str.isEmpty() ) {
+                return 0;
+            }
+            return ids.get( str );
+        }
+
+        /**
+         * Get the byte count of a string reference.
+         *
+         * @return 2 or 3
+         */
+        int getRefSize() {
+            return longRefs ? 3 : 2;
+        }
+
+        /**
+         * Read the string pool of a database or transform.
+         *
+         * @param root the root storage
+         * @return the pool
+         * @throws IOException if the pool is missing or corrupt
+         */
+        static StringPool read( CompoundFile.Storage root ) throws IOException {
+            byte[] pool = root.getStream( encodeName( STRING_POOL, true ) );
+            byte[] data = root.getStream( encodeName( STRING_DATA, true ) );
+            if( pool == null || data == null ) {
+                throw new IOException( "The string pool of the msi database is missing" );
+            }
+            StringPool result = new StringPool();
+            ByteBuffer buf = ByteBuffer.wrap( pool ).order( ByteOrder.LITTLE_ENDIAN );
+            int header = pool.length >= 4 ? buf.getInt( 0 ) : 0;
+            result.codepage = (header & 0xFFFF) | ((header >>> 16) & 0x7FFF) << 16;
+            result.longRefs = (header & 0x80000000) != 0;
+            Charset charset = getCharset( result.codepage );
+
+            int offset = 0;
+            for( int i = 4; i + 4 <= pool.length; ) {
+                int len = buf.getShort( i ) & 0xFFFF;
+                int refs = buf.getShort( i + 2 ) & 0xFFFF;
+                if( len == 0 && refs == 0 ) {
+                    result.strings.add( null );
+                    result.refs.add( 0 );
+                    i += 4;
+                    continue;
+                }
+                if( len == 0 ) {
+                    len = (buf.getShort( i + 4 ) & 0xFFFF) | (buf.getShort( i + 6 ) & 0xFFFF) << 16;
+                    i += 8;
+                } else {
+                    i += 4;
+                }
+                if( offset + len > data.length ) {
+                    throw new IOException( "The string pool of the msi database is corrupt" );
+                }
+                String str = new String( data, offset, len, charset );
+                result.ids.putIfAbsent( str, result.strings.size() );
+                result.strings.add( str );
+                result.refs.add( refs );
+                offset += len;
+            }
+            return result;
+        }
+
+        /**
+         * Write the string pool and set the flag for long string references.
+         *
+         * @param root the root storage
+         * @throws IOException if a string can not be encoded with the codepage
+         */
+        void write( CompoundFile.Storage root ) throws IOException {
+            CharsetEncoder encoder = getCharset( codepage ).newEncoder();
+            longRefs = strings.size() > 0xFFFF;
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            ByteBuffer poolBytes = ByteBuffer.allocate( 4 + strings.size() * 8 ).order( ByteOrder.LITTLE_ENDIAN );
+            poolBytes.putShort( (short)codepage ).putShort( (short)((codepage >>> 16) | (longRefs ? 0x8000 : 0)) );
+            for( int i = 1; i < strings.size(); i++ ) {
+                String str = strings.get( i );
+                if( str == null ) {
+                    poolBytes.putInt( 0 );
+                    continue;
+                }
+                byte[] bytes;
+                try {
+                    bytes = toBytes( encoder.encode( CharBuffer.wrap( str ) ) );
+                } catch( CharacterCodingException ex ) {
+                    throw new IOException( "The string '" + str + "' can not be encoded with the codepage " + codepage + " of the msi database", ex );
+                }
+                data.write( bytes );
+                int count = Math.min( refs.get( i ), 0xFFFF );
+                if( bytes.length > 0xFFFF ) {
+                    poolBytes.putShort( (short)0 ).putShort( (short)count );
+                    poolBytes.putShort( (short)bytes.length ).putShort( (short)(bytes.length >>> 16) );
+                } else {
+                    poolBytes.putShort( (short)bytes.length ).putShort( (short)count );
+                }
+            }
+            root.setStream( encodeName( STRING_POOL, true ), Arrays.copyOf( poolBytes.array(), poolBytes.position() ) );
+            root.setStream( encodeName( STRING_DATA, true ), data.toByteArray() );
+        }
+    }
+
+    /**
+     * Encode the name of a stream. Characters of the set [0-9A-Za-z._] are packed pairwise into a single character.
+     *
+     * @param name the name
+     * @param table true, if the stream contains a table
+     * @return the name in the compound file
+     */
+    public static String encodeName( String name, boolean table ) {
+        StringBuilder builder = new StringBuilder();
+        if( table ) {
+            builder.append( TABLE_PREFIX );
+        }
+        for( int i = 0; i < name.length(); i++ ) {
+            int ch = toBase64( name.charAt( i ) );
+            if( ch < 0 ) {
+                builder.append( name.charAt( i ) );
+                continue;
+            }
+            int next = i + 1 < name.length() ? toBase64( name.charAt( i + 1 ) ) : -1;
+            if( next >= 0 ) {
+                builder.append( (char)(0x3800 + ch + (next << 6)) );
+                i++;
+            } else {
+                builder.append( (char)(0x4800 + ch) );
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Decode the name of a stream.
+     *
+     * @param name the name in the compound file
+     * @return the decoded name without a table prefix
+     */
+    public static String decodeName( String name ) {
+        StringBuilder builder = new StringBuilder();
+        for( int i = 0; i < name.length(); i++ ) {
+            char ch = name.charAt( i );
+            if( ch == TABLE_PREFIX ) {
+                continue;
+            }
+            if( ch >= 0x3800 && ch < 0x4800 ) {
+                builder.append( fromBase64( (ch - 0x3800) & 0x3F ) ).append( fromBase64( ((ch - 0x3800) >> 6) & 0x3F ) );
+            } else if( ch >= 0x4800 && ch < 0x4840 ) {
+                builder.append( fromBase64( ch - 0x4800 ) );
+            } else {
+                builder.append( ch );
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Map a character to the 6 bit alphabet of the stream names.
+     *
+     * @param ch the character
+     * @return the value or -1
+     */
+    private static int toBase64( char ch ) {
+        if( ch >= '0' && ch <= '9' ) {
+            return ch - '0';
+        }
+        if( ch >= 'A' && ch <= 'Z' ) {
+            return ch - 'A' + 10;
+        }
+        if( ch >= 'a' && ch <= 'z' ) {
+            return ch - 'a' + 36;
+        }
+        if( ch == '.' ) {
+            return 62;
+        }
+        if( ch == '_' ) {
+            return 63;
+        }
+        return -1;
+    }
+
+    /**
+     * Map a 6 bit value to the character of the stream names.
+     *
+     * @param value the value
+     * @return the character
+     */
+    private static char fromBase64( int value ) {
+        if( value < 10 ) {
+            return (char)('0' + value);
+        }
+        if( value < 36 ) {
+            return (char)('A' + value - 10);
+        }
+        if( value < 62 ) {
+            return (char)('a' + value - 36);
+        }
+        return value == 62 ? '.' : '_';
+    }
+
+    /**
+     * Close the underlying file of an opened database.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
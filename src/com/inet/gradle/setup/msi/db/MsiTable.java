@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table of a msi database. The values of a row are String for string and binary columns, Integer for integer
+ * columns or null. The value of a binary column is the name of the stream in the database.
+ */
+public class MsiTable {
+
+    private final String                    name;
+
+    private final List<MsiColumn>           columns;
+
+    private final int                       keyCount;
+
+    private final Map<List<Object>, Object[]> rows = new LinkedHashMap<>();
+
+    /**
+     * Create a new table.
+     *
+     * @param name the name of the table
+     * @param columns the columns, the key columns must be the first
+     */
+    public MsiTable( String name, MsiColumn... columns ) {
+        this( name, Arrays.asList( columns ) );
+    }
+
+    /**
+     * Create a new table.
+     *
+     * @param name the name of the table
+     * @param columns the columns, the key columns must be the first
+     */
+    public MsiTable( String name, List<MsiColumn> columns ) {
+        this.name = name;
+        this.columns = Collections.unmodifiableList( new ArrayList<>( columns ) );
+        int count = 0;
+        while( count < columns.size() && columns.get( count ).isKey() ) {
+            count++;
+        }
+        this.keyCount = count;
+    }
+
+    /**
+     * Get the name of the table.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the columns.
+     *
+     * @return the columns
+     */
+    public List<MsiColumn> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Get the index of a column.
+     *
+     * @param columnName the name of the column
+     * @return the index
+     */
+    public int getColumnIndex( String columnName ) {
+        for( int i = 0; i < columns.size(); i++ ) {
+            if( columns.get( i ).getName().equals( columnName ) ) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException( "Column '" + columnName + "' not found in table " + name );
+    }
+
+    /**
+     * Get the count of the primary key columns.
+     *
+     * @return the count
+     */
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * Get all rows in insert order.
+     *
+     * @return the rows
+     */
+    public Collection<Object[]> getRows() {
+        return Collections.unmodifiableCollection( rows.values() );
+    }
+
+    /**
+     * Get the count of rows.
+     *
+     * @return the count
+     */
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * Add a row. A row with the same primary key is not allowed.
+     *
+     * @param values the values of all columns
+     * @return the added row
+     */
+    public Object[] addRow( Object... values ) {
+        Object[] row = check( values );
+        List<Object> key = getKey( row );
+        if( rows.containsKey( key ) ) {
+            throw new IllegalArgumentException( "Duplicate primary key " + key + " in table " + name );
+        }
+        rows.put( key, row );
+        return row;
+    }
+
+    /**
+     * Add or replace a row.
+     *
+     * @param values the values of all columns
+     * @return the row
+     */
+    public Object[] setRow( Object... values ) {
+        Object[] row = check( values );
+        rows.put( getKey( row ), row );
+        return row;
+    }
+
+    /**
+     * Add a row that was read from a database without checking the values.
+     *
+     * @param row the row
+     */
+    void putRow( Object[] row ) {
+        rows.put( getKey( row ), row );
+    }
+
+    /**
+     * Get a row by its primary key.
+     *
+     * @param key the values of the key columns
+     * @return the row or null
+     */
+    public Object[] getRow( Object... key ) {
+        return rows.get( Arrays.asList( key ) );
+    }
+
+    /**
+     * Remove a row by its primary key.
+     *
+     * @param key the values of the key columns
+     * @return the removed row or null
+     */
+    public Object[] removeRow( Object... key ) {
+        return rows.remove( Arrays.asList( key ) );
+    }
+
+    /**
+     * Get the primary key of a row.
+     *
+     * @param row the row
+     * @return the values of the key columns
+     */
+    public List<Object> getKey( Object[] row ) {
+        return Arrays.asList( Arrays.copyOf( row, keyCount ) );
+    }
+
+    /**
+     * Check the values of a row against the column types.
+     *
+     * @param values the values
+     * @return the row
+     */
+    private Object[] check( Object[] values ) {
+        if( values.length != columns.size() ) {
+            throw new IllegalArgumentException( "Table " + name + " has " + columns.size() + " columns but the row has " + values.length + " values" );
+        }
+        Object[] row = values.clone();
+        for( int i = 0; i < row.length; i++ ) {
+            MsiColumn column = columns.get( i );
+            Object value = row[i];
+            if( value instanceof String && ((String)value).isEmpty() ) {
+                value = row[i] = null; // an empty string is null in a msi database
+            }
+            if( value == null ) {
+                if( !column.isNullable() && !column.isKey() && !column.isBinary() ) {
+                    throw new IllegalArgumentException( "Column " + name + '.' + column.getName() + " can not be null" );
+                }
+            } else if( column.isInteger() ? !(value instanceof Integer) : !(value instanceof String) ) {
+                throw new IllegalArgumentException( "Invalid value '" + value + "' for column " + name + '.' + column.getName() );
+            } else if( column.isKey() && column.isString() && column.getWidth() > 0 && ((String)value).length() > column.getWidth() ) {
+                throw new IllegalArgumentException( "Value '" + value + "' is too long for column " + name + '.' + column.getName() + " with width " + column.getWidth() );
+            }
+        }
+        return row;
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Generate and apply msi transforms (mst). A transform is a storage with its own string pool and a row stream for
+ * every changed table. Every row starts with a 16 bit mask:
+ * <ul>
+ * <li>0: the row with the following key is deleted</li>
+ * <li>bit 0 set: the row is inserted, the high byte is the count of the following values</li>
+ * <li>else: the row with the following key is updated, every bit marks a following non key value</li>
+ * </ul>
+ * The values are stored like in the table streams of the database but row by row.
+ */
+public class MsiTransform {
+
+    private static final int MAX_COLUMNS = 16;
+
+    private final MsiDatabase.StringPool pool = new MsiDatabase.StringPool();
+
+    private final CompoundFile.Storage   storage;
+
+    private final List<TableChanges>     changes = new ArrayList<>();
+
+    /**
+     * Create a new transform writer.
+     *
+     * @param name the name of the storage
+     */
+    private MsiTransform( String name ) {
+        storage = new CompoundFile.Storage( name );
+        storage.setClsid( MsiDatabase.CLSID_TRANSFORM );
+    }
+
+    /**
+     * Generate a transform that changes the base database to the target database. This is the same as
+     * "MsiTran.exe -g" without validation flags. The binary streams are copied into the transform.
+     *
+     * @param base the base database
+     * @param target the changed database
+     * @param name the name of the storage, for embedded language transforms the language ID
+     * @return the transform as storage that can be embedded in the base database or saved as mst file
+     * @throws IOException if a stream can not be read or the schema of a table was changed
+     */
+    public static CompoundFile.Storage generate( MsiDatabase base, MsiDatabase target, String name ) throws IOException {
+        return generate( base, target, name, 0 );
+    }
+
+    /**
+     * Generate a transform that changes the base database to the target database with error suppression and
+     * validation flags. Patches use this for the transform pairs of the patch targets.
+     *
+     * @param base the base database
+     * @param target the changed database
+     * @param name the name of the storage
+     * @param conditions the validation flags in the high word and the error conditions to suppress in the low word
+     * @return the transform as storage
+     * @throws IOException if a stream can not be read or the schema of a table was changed
+     */
+    public static CompoundFile.Storage generate( MsiDatabase base, MsiDatabase target, String name, int conditions ) throws IOException {
+        MsiTransform transform = new MsiTransform( name );
+        transform.pool.codepage = target.getCodepage();
+
+        TableChanges tables = transform.add( new MsiTable( MsiDatabase.TABLES, MsiColumn.key( MsiDatabase.TABLES, "s64" ) ) );
+        TableChanges columns = transform.add( new MsiTable( MsiDatabase.COLUMNS, MsiColumn.key( "Table", "s64" ), MsiColumn.key( "Number", "i2" ), MsiColumn.of( "Name", "s64" ), MsiColumn.of( "Type", "i2" ) ) );
+
+        for( MsiTable table : base.getTables() ) {
+            if( target.getTable( table.getName() ) == null ) {
+                tables.delete( new Object[] { table.getName() } );
+            }
+        }
+        for( MsiTable newTable : target.getTables() ) {
+            MsiTable oldTable = base.getTable( newTable.getName() );
+            List<MsiColumn> cols = newTable.getColumns();
+            if( oldTable == null ) {
+                tables.insert( new Object[] { newTable.getName() } );
+                for( int c = 0; c < cols.size(); c++ ) {
+                    columns.insert( new Object[] { newTable.getName(), c + 1, cols.get( c ).getName(), cols.get( c ).getType() } );
+                }
+            } else if( !sameColumns( oldTable, newTable ) ) {
+                throw new IOException( "The columns of the table '" + newTable.getName() + "' was changed, this is not supported in a transform" );
+            }
+            TableChanges rows = transform.add( newTable );
+            if( oldTable != null ) {
+                for( Object[] oldRow : oldTable.getRows() ) {
+                    if( newTable.getRow( oldTable.getKey( oldRow ).toArray() ) == null ) {
+                        rows.delete( oldRow );
+                    }
+                }
+            }
+            for( Object[] newRow : newTable.getRows() ) {
+                Object[] oldRow = oldTable == null ? null : oldTable.getRow( newTable.getKey( newRow ).toArray() );
+                if( oldRow == null ) {
+                    rows.insert( newRow );
+                    for( int c = 0; c < cols.size(); c++ ) {
+                        if( cols.get( c ).isBinary() && newRow[c] != null ) {
+                            transform.copyStream( target, (String)newRow[c] );
+                        }
+                    }
+                    continue;
+                }
+                int mask = 0;
+                for( int c = newTable.getKeyCount(); c < cols.size(); c++ ) {
+                    boolean changed;
+                    if( cols.get( c ).isBinary() ) {
+                        changed = (oldRow[c] == null) != (newRow[c] == null) || (newRow[c] != null && !Arrays.equals( base.getStream( (String)oldRow[c] ), target.getStream( (String)newRow[c] ) ));
+                        if( changed && newRow[c] != null ) {
+                            transform.copyStream( target, (String)newRow[c] );
+                        }
+                    } else {
+                        changed = !Objects.equals( oldRow[c], newRow[c] );
+                    }
+                    if( changed ) {
+                        if( c >= MAX_COLUMNS ) {
+                            throw new IOException( "The column " + newTable.getName() + '.' + cols.get( c ).getName() + " can not be changed with a transform" );
+                        }
+                        mask |= 1 << c;
+                    }
+                }
+                if( mask != 0 ) {
+                    rows.update( newRow, mask );
+                }
+            }
+        }
+
+        transform.write( base, target, conditions );
+        return transform.storage;
+    }
+
+    /**
+     * Check if both tables have the same columns.
+     *
+     * @param table1 first table
+     * @param table2 second table
+     * @return true, if name and type of all columns are equal
+     */
+    private static boolean sameColumns( MsiTable table1, MsiTable table2 ) {
+        List<MsiColumn> cols1 = table1.getColumns();
+        List<MsiColumn> cols2 = table2.getColumns();
+        if( cols1.size() != cols2.size() ) {
+            return false;
+        }
+        for( int c = 0; c < cols1.size(); c++ ) {
+            if( !cols1.get( c ).getName().equals( cols2.get( c ).getName() ) || cols1.get( c ).getType() != cols2.get( c ).getType() ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Register the changes of a table.
+     *
+     * @param table the table
+     * @return the changes
+     */
+    private TableChanges add( MsiTable table ) {
+        TableChanges tableChanges = new TableChanges( table );
+        changes.add( tableChanges );
+        return tableChanges;
+    }
+
+    /**
+     * Copy a binary stream of the target database into the transform.
+     *
+     * @param target the target database
+     * @param streamName the decoded name of the stream
+     * @throws IOException if the stream can not be read
+     */
+    private void copyStream( MsiDatabase target, String streamName ) throws IOException {
+        byte[] content = target.getStream( streamName );
+        if( content == null ) {
+            throw new IOException( "The stream '" + streamName + "' is missing" );
+        }
+        storage.setStream( MsiDatabase.encodeName( streamName, false ), content );
+    }
+
+    /**
+     * Write the string pool, the table streams and the summary information.
+     *
+     * @param base the base database
+     * @param target the target database
+     * @param conditions the validation flags and error conditions
+     * @throws IOException if a string can not be encoded
+     */
+    private void write( MsiDatabase base, MsiDatabase target, int conditions ) throws IOException {
+        for( TableChanges tableChanges : changes ) {
+            if( !tableChanges.rows.isEmpty() ) {
+                pool.add( tableChanges.table.getName() );
+                for( Object[] row : tableChanges.rows ) {
+                    for( int c = 0; c < row.length; c++ ) {
+                        if( tableChanges.table.getColumns().get( c ).isString() && row[c] instanceof String ) {
+                            pool.add( (String)row[c] );
+                        }
+                    }
+                }
+            }
+        }
+        pool.write( storage );
+        boolean longRefs = pool.longRefs;
+
+        for( TableChanges tableChanges : changes ) {
+            if( tableChanges.rows.isEmpty() ) {
+                continue;
+            }
+            List<MsiColumn> cols = tableChanges.table.getColumns();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for( int r = 0; r < tableChanges.rows.size(); r++ ) {
+                Object[] row = tableChanges.rows.get( r );
+                int mask = tableChanges.masks.get( r );
+                write( out, mask, 2 );
+                for( int c = 0; c < cols.size(); c++ ) {
+                    MsiColumn column = cols.get( c );
+                    boolean present;
+                    if( (mask & 1) != 0 ) {
+                        present = true;
+                    } else {
+                        present = c < tableChanges.table.getKeyCount() || (mask & (1 << c)) != 0;
+                    }
+                    if( present ) {
+                        write( out, MsiDatabase.encodeValue( column, row[c], pool ), column.getStorageSize( longRefs ) );
+                    }
+                }
+            }
+            storage.setStream( MsiDatabase.encodeName( tableChanges.table.getName(), true ), out.toByteArray() );
+        }
+
+        SummaryInformation baseInfo = base.getSummaryInformation();
+        SummaryInformation targetInfo = target.getSummaryInformation();
+        SummaryInformation info = new SummaryInformation();
+        info.setProperty( SummaryInformation.PID_CODEPAGE, targetInfo.getProperty( SummaryInformation.PID_CODEPAGE ) );
+        info.setProperty( SummaryInformation.PID_TITLE, "Transform" );
+        info.setProperty( SummaryInformation.PID_SUBJECT, targetInfo.getProperty( SummaryInformation.PID_SUBJECT ) );
+        info.setProperty( SummaryInformation.PID_AUTHOR, targetInfo.getProperty( SummaryInformation.PID_AUTHOR ) );
+        info.setProperty( SummaryInformation.PID_TEMPLATE, getPlatformAndLanguage( base ) );
+        info.setProperty( SummaryInformation.PID_LASTAUTHOR, getPlatformAndLanguage( target ) );
+        info.setProperty( SummaryInformation.PID_REVNUMBER, getProductVersion( base ) + ';' + getProductVersion( target ) + ';' + getProperty( target, "UpgradeCode" ) );
+        info.setProperty( SummaryInformation.PID_CREATE_DTM, targetInfo.getProperty( SummaryInformation.PID_CREATE_DTM ) );
+        info.setProperty( SummaryInformation.PID_LASTSAVE_DTM, targetInfo.getProperty( SummaryInformation.PID_LASTSAVE_DTM ) );
+        Integer baseVersion = (Integer)baseInfo.getProperty( SummaryInformation.PID_PAGECOUNT );
+        Integer targetVersion = (Integer)targetInfo.getProperty( SummaryInformation.PID_PAGECOUNT );
+        info.setProperty( SummaryInformation.PID_PAGECOUNT, Math.max( baseVersion == null ? 0 : baseVersion, targetVersion == null ? 0 : targetVersion ) );
+        info.setProperty( SummaryInformation.PID_CHARCOUNT, conditions );
+        info.setProperty( SummaryInformation.PID_APPNAME, targetInfo.getProperty( SummaryInformation.PID_APPNAME ) );
+        storage.setStream( SummaryInformation.STREAM_NAME, info.write( MsiDatabase.getCharset( target.getCodepage() ) ) );
+    }
+
+    /**
+     * Get the platform of the summary information and the ProductLanguage property, for example "x64;1033".
+     *
+     * @param db the database
+     * @return the value for the summary information of the transform
+     */
+    private static String getPlatformAndLanguage( MsiDatabase db ) {
+        String template = (String)db.getSummaryInformation().getProperty( SummaryInformation.PID_TEMPLATE );
+        String platform = template == null ? "" : template.substring( 0, Math.max( 0, template.indexOf( ';' ) ) );
+        return platform + ';' + getProperty( db, "ProductLanguage" );
+    }
+
+    /**
+     * Get the product code and version like "{GUID}1.2.3".
+     *
+     * @param db the database
+     * @return the value for the summary information of the transform
+     */
+    private static String getProductVersion( MsiDatabase db ) {
+        return getProperty( db, "ProductCode" ) + getProperty( db, "ProductVersion" );
+    }
+
+    /**
+     * Get a value of the Property table.
+     *
+     * @param db the database
+     * @param name the property name
+     * @return the value or an empty string
+     */
+    private static String getProperty( MsiDatabase db, String name ) {
+        MsiTable property = db.getTable( "Property" );
+        Object[] row = property == null ? null : property.getRow( name );
+        return row == null || row[1] == null ? "" : (String)row[1];
+    }
+
+    /**
+     * Write a little endian value.
+     *
+     * @param out the target
+     * @param value the value
+     * @param size the byte count
+     */
+    private static void write( ByteArrayOutputStream out, long value, int size ) {
+        for( int i = 0; i < size; i++ ) {
+            out.write( (int)(value >>> (8 * i)) );
+        }
+    }
+
+    /**
+     * Apply a transform to a database. The changes are only made in memory until the database is saved.
+     *
+     * @param db the database
+     * @param transform the storage of the transform
+     * @throws IOException if the transform is invalid
+     */
+    public static void apply( MsiDatabase db, CompoundFile.Storage transform ) throws IOException {
+        MsiDatabase.StringPool strings = MsiDatabase.StringPool.read( transform );
+        int refSize = strings.getRefSize();
+
+        // system tables first
+        byte[] tables = transform.getStream( MsiDatabase.encodeName( MsiDatabase.TABLES, true ) );
+        List<String> newTables = new ArrayList<>();
+        if( tables != null ) {
+            for( int pos = 0; pos < tables.length; pos += 2 + refSize ) {
+                int mask = MsiDatabase.readValue( tables, pos, 2 );
+                String name = strings.strings.get( MsiDatabase.readValue( tables, pos + 2, refSize ) );
+                if( mask == 0 ) {
+                    db.removeTable( name );
+                } else {
+                    newTables.add( name );
+                }
+            }
+        }
+        byte[] columns = transform.getStream( MsiDatabase.encodeName( MsiDatabase.COLUMNS, true ) );
+        if( columns != null ) {
+            List<List<MsiColumn>> newColumns = new ArrayList<>();
+            for( int i = 0; i < newTables.size(); i++ ) {
+                newColumns.add( new ArrayList<>() );
+            }
+            for( int pos = 0; pos < columns.length; ) {
+                int mask = MsiDatabase.readValue( columns, pos, 2 );
+                if( (mask & 1) == 0 ) {
+                    throw new IOException( "Only inserts are supported in the _Columns table of a transform" );
+                }
+                String table = strings.strings.get( MsiDatabase.readValue( columns, pos + 2, refSize ) );
+                String name = strings.strings.get( MsiDatabase.readValue( columns, pos + 4 + refSize, refSize ) );
+                int type = MsiDatabase.readValue( columns, pos + 4 + 2 * refSize, 2 ) - 0x8000;
+                pos += 6 + 2 * refSize;
+                int idx = newTables.indexOf( table );
+                if( idx < 0 ) {
+                    throw new IOException( "Columns for the unknown table '" + table + "'" );
+                }
+                newColumns.get( idx ).add( new MsiColumn( name, type ) );
+            }
+            for( int i = 0; i < newTables.size(); i++ ) {
+                db.addTable( new MsiTable( newTables.get( i ), newColumns.get( i ) ) );
+            }
+        }
+
+        for( MsiTable table : db.getTables() ) {
+            byte[] data = transform.getStream( MsiDatabase.encodeName( table.getName(), true ) );
+            if( data == null ) {
+                continue;
+            }
+            List<MsiColumn> cols = table.getColumns();
+            for( int pos = 0; pos < data.length; ) {
+                int mask = MsiDatabase.readValue( data, pos, 2 );
+                pos += 2;
+                Object[] row = new Object[cols.size()];
+                boolean[] present = new boolean[cols.size()];
+                int count = (mask & 1) != 0 ? mask >>> 8 : cols.size();
+                for( int c = 0; c < count; c++ ) {
+                    present[c] = (mask & 1) != 0 || c < table.getKeyCount() || (mask & (1 << c)) != 0;
+                    if( present[c] ) {
+                        MsiColumn column = cols.get( c );
+                        int size = column.getStorageSize( strings.longRefs );
+                        row[c] = MsiDatabase.decodeValue( column, MsiDatabase.readValue( data, pos, size ), strings.strings );
+                        pos += size;
+                    }
+                }
+                for( int c = 0; c < cols.size(); c++ ) {
+                    if( present[c] && cols.get( c ).isBinary() && row[c] != null ) {
+                        String streamName = MsiDatabase.getStreamName( table, row );
+                        row[c] = streamName;
+                        db.setStream( streamName, transform.getStream( MsiDatabase.encodeName( streamName, false ) ) );
+                    }
+                }
+                Object[] key = Arrays.copyOf( row, table.getKeyCount() );
+                if( (mask & 1) != 0 ) {
+                    table.putRow( row );
+                } else if( mask == 0 ) {
+                    table.removeRow( key );
+                } else {
+                    Object[] oldRow = table.getRow( key );
+                    if( oldRow == null ) {
+                        throw new IOException( "The row " + Arrays.toString( key ) + " of the table '" + table.getName() + "' to update is missing" );
+                    }
+                    Object[] newRow = oldRow.clone();
+                    for( int c = table.getKeyCount(); c < cols.size(); c++ ) {
+                        if( present[c] ) {
+                            newRow[c] = row[c];
+                        }
+                    }
+                    table.putRow( newRow );
+                }
+            }
+        }
+    }
+
+    /**
+     * The changed rows of a single table.
+     */
+    private static class TableChanges {
+
+        private final MsiTable       table;
+
+        private final List<Object[]> rows  = new ArrayList<>();
+
+        private final List<Integer>  masks = new ArrayList<>();
+
+        /**
+         * Create the changes for a table.
+         *
+         * @param table the table
+         */
+        TableChanges( MsiTable table ) {
+            this.table = table;
+        }
+
+        /**
+         * Insert a new row.
+         *
+         * @param row the values of all columns
+         */
+        void insert( Object[] row ) {
+            rows.add( row );
+            masks.add( 1 | (table.getColumns().size() << 8) );
+        }
+
+        /**
+         * Delete a row.
+         *
+         * @param row the row, only the key columns are used
+         */
+        void delete( Object[] row ) {
+            rows.add( row );
+            masks.add( 0 );
+        }
+
+        /**
+         * Update a row.
+         *
+         * @param row the new values
+         * @param mask the bits of the changed columns
+         */
+        void update( Object[] row, int mask ) {
+            rows.add( row );
+            masks.add( mask );
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2015 - 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.msi.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The summary information stream of a msi, mst or msp file. It is a property set with a single section.
+ */
+public class SummaryInformation {
+
+    /** The name of the stream. */
+    public static final String STREAM_NAME  = "\u0005SummaryInformation";
+
+    public static final int    PID_CODEPAGE = 1;
+
+    public static final int    PID_TITLE    = 2;
+
+    public static final int    PID_SUBJECT  = 3;
+
+    public static final int    PID_AUTHOR   = 4;
+
+    public static final int    PID_KEYWORDS = 5;
+
+    public static final int    PID_COMMENTS = 6;
+
+    /** The platform and the languages, for example "x64;1033". */
+    public static final int    PID_TEMPLATE = 7;
+
+    public static final int    PID_LASTAUTHOR = 8;
+
+    /** The package code of a msi file. */
+    public static final int    PID_REVNUMBER = 9;
+
+    public static final int    PID_LASTPRINTED = 11;
+
+    public static final int    PID_CREATE_DTM = 12;
+
+    public static final int    PID_LASTSAVE_DTM = 13;
+
+    /** The minimum installer version. */
+    public static final int    PID_PAGECOUNT = 14;
+
+    /** The source image type. */
+    public static final int    PID_WORDCOUNT = 15;
+
+    /** The transform validation flags. */
+    public static final int    PID_CHARCOUNT = 16;
+
+    public static final int    PID_APPNAME  = 18;
+
+    public static final int    PID_SECURITY = 19;
+
+    private static final byte[] FMTID       = { (byte)0xE0, (byte)0x85, (byte)0x9F, (byte)0xF2, (byte)0xF9, 0x4F, 0x68, 0x10, (byte)0xAB, (byte)0x91, 0x08, 0x00, 0x2B, 0x27, (byte)0xB3, (byte)0xD9 };
+
+    private static final int   VT_I2        = 2;
+
+    private static final int   VT_I4        = 3;
+
+    private static final int   VT_LPSTR     = 30;
+
+    private static final int   VT_FILETIME  = 64;
+
+    /** Difference between 1601-01-01 and 1970-01-01 in 100 nanoseconds. */
+    private static final long  FILETIME_EPOCH = 116444736000000000L;
+
+    private final Map<Integer, Object> properties = new TreeMap<>();
+
+    /**
+     * Get a property.
+     *
+     * @param pid the property ID
+     * @return the value as String, Integer or Date or null
+     */
+    public Object getProperty( int pid ) {
+        return properties.get( pid );
+    }
+
+    /**
+     * Set a property. The type of the value must match the property: Integer for the codepage and the counts, Date
+     * for the times and String for all other.
+     *
+     * @param pid the property ID
+     * @param value the value or null to remove it
+     */
+    public void setProperty( int pid, Object value ) {
+        if( value == null ) {
+            properties.remove( pid );
+            return;
+        }
+        Class<?> expected;
+        switch( getType( pid ) ) {
+            case VT_LPSTR:
+                expected = String.class;
+                break;
+            case VT_FILETIME:
+                expected = Date.class;
+                break;
+            default:
+                expected = Integer.class;
+        }
+        if( !expected.isInstance( value ) ) {
+            throw new IllegalArgumentException( "Invalid value for summary property " + pid + ": " + value );
+        }
+        properties.put( pid, value );
+    }
+
+    /**
+     * Get all properties.
+     *
+     * @return the properties sorted by ID
+     */
+    public Map<Integer, Object> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Get the type of a property.
+     *
+     * @param pid the property ID
+     * @return the variant type
+     */
+    private static int getType( int pid ) {
+        switch( pid ) {
+            case PID_CODEPAGE:
+                return VT_I2;
+            case 10:
+            case PID_LASTPRINTED:
+            case PID_CREATE_DTM:
+            case PID_LASTSAVE_DTM:
+                return VT_FILETIME;
+            case PID_PAGECOUNT:
+            case PID_WORDCOUNT:
+            case PID_CHARCOUNT:
+            case PID_SECURITY:
+                return VT_I4;
+            default:
+                return VT_LPSTR;
+        }
+    }
+
+    /**
+     * Read the property set.
+     *
+     * @param data the content of the stream
+     * @param charset the charset of the strings if the property set has no codepage
+     * @return the summary information
+     * @throws IOException if the data are invalid
+     */
+    public static SummaryInformation read( byte[] data, Charset charset ) throws IOException {
+        SummaryInformation info = new SummaryInformation();
+        try {
+            ByteBuffer buf = ByteBuffer.wrap( data ).order( ByteOrder.LITTLE_ENDIAN );
+            if( (buf.getShort( 0 ) & 0xFFFF) != 0xFFFE ) {
+                throw new IOException( "Invalid summary information" );
+            }
+            int section = buf.getInt( 44 );
+            int count = buf.getInt( section + 4 );
+            // the codepage first, it is needed for the strings
+            for( int i = 0; i < count; i++ ) {
+                if( buf.getInt( section + 8 + i * 8 ) == PID_CODEPAGE ) {
+                    int codepage = buf.getShort( section + buf.getInt( section + 12 + i * 8 ) + 4 ) & 0xFFFF;
+                    charset = MsiDatabase.getCharset( codepage );
+                }
+            }
+            for( int i = 0; i < count; i++ ) {
+                int pid = buf.getInt( section + 8 + i * 8 );
+                int offset = section + buf.getInt( section + 12 + i * 8 );
+                int type = buf.getInt( offset );
+                switch( type ) {
+                    case VT_I2:
+                        info.properties.put( pid, buf.getShort( offset + 4 ) & 0xFFFF );
+                        break;
+                    case VT_I4:
+                        info.properties.put( pid, buf.getInt( offset + 4 ) );
+                        break;
+                    case VT_LPSTR:
+                        int length = buf.getInt( offset + 4 );
+                        while( length > 0 && data[offset + 8 + length - 1] == 0 ) {
+                            length--;
+                        }
+                        info.properties.put( pid, new String( data, offset + 8, length, charset ) );
+                        break;
+                    case VT_FILETIME:
+                        long time = buf.getLong( offset + 4 );
+                        info.properties.put( pid, new Date( (time - FILETIME_EPOCH) / 10000 ) );
+                        break;
+                    default:
+                        // ignore unknown types
+                }
+            }
+        } catch( IndexOutOfBoundsException ex ) {
+            throw new IOException( "Invalid summary information", ex );
+        }
+        return info;
+    }
+
+    /**
+     * Write the property set.
+     *
+     * @param charset the charset of the strings
+     * @return the content of the stream
+     */
+    public byte[] write( Charset charset ) {
+        ByteArrayOutputStream values = new ByteArrayOutputStream();
+        ByteBuffer index = ByteBuffer.allocate( properties.size() * 8 ).order( ByteOrder.LITTLE_ENDIAN );
+        int start = 8 + properties.size() * 8;
+        for( Map.Entry<Integer, Object> entry : properties.entrySet() ) {
+            int pid = entry.getKey();
+            Object value = entry.getValue();
+            index.putInt( pid ).putInt( start + values.size() );
+            int type = getType( pid );
+            ByteBuffer buf;
+            switch( type ) {
+                case VT_I2:
+                    buf = ByteBuffer.allocate( 8 ).order( ByteOrder.LITTLE_ENDIAN );
+                    buf.putInt( type ).putShort( (short)((Integer)value).intValue() );
+                    break;
+                case VT_I4:
+                    buf = ByteBuffer.allocate( 8 ).order( ByteOrder.LITTLE_ENDIAN );
+                    buf.putInt( type ).putInt( (Integer)value );
+                    break;
+                case VT_FILETIME:
+                    buf = ByteBuffer.allocate( 12 ).order( ByteOrder.LITTLE_ENDIAN );
+                    buf.putInt( type ).putLong( ((Date)value).getTime() * 10000 + FILETIME_EPOCH );
+                    break;
+                default:
+                    byte[] bytes = ((String)value).getBytes( charset );
+                    buf = ByteBuffer.allocate( 8 + ((bytes.length + 4) & ~3) ).order( ByteOrder.LITTLE_ENDIAN );
+                    buf.putInt( type ).putInt( bytes.length + 1 ).put( bytes );
+            }
+            values.write( buf.array(), 0, buf.capacity() );
+        }
+
+        ByteBuffer result = ByteBuffer.allocate( 48 + start + values.size() ).order( ByteOrder.LITTLE_ENDIAN );
+        result.putShort( (short)0xFFFE ).putShort( (short)0 ).putInt( 0x00020006 );
+        result.put( new byte[16] ).putInt( 1 );
+        result.put( FMTID ).putInt( 48 );
+        result.putInt( start + values.size() ).putInt( properties.size() );
+        result.put( index.array() );
+        result.put( values.toByteArray() );
+        return result.array();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return properties.toString();
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2015 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.unix;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.inet.gradle.setup.util.Digests;
+
+/**
+ * Manifest of the payload of a package with size, modification time and SHA-256 hash of every file. The manifest is
+ * saved next to the package so that the next release can compare against it without reading the old package. The next
+ * build of the same package reuses the hashes of the files with unchanged size and modification time.
+ */
+public class PackageManifest {
+
+    private static final String      HEADER  = "#manifest 2";
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * A single file of the manifest.
+     */
+    public static class Entry {
+
+        private final String path;
+
+        private final String hash;
+
+        private final long   size;
+
+        private final long   lastModified;
+
+        Entry( String path, String hash, long size, long lastModified ) {
+            this.path = path;
+            this.hash = hash;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Returns the path relative to the payload root with '/' as separator.
+         *
+         * @return the path
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the hex encoded SHA-256 hash of the content.
+         *
+         * @return the hash
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * Returns the size of the file in bytes.
+         *
+         * @return the size
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the modification time of the file.
+         *
+         * @return the time in milliseconds or -1 if unknown
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private PackageManifest() {
+    }
+
+    /**
+     * Create the manifest of all regular files below the root. The files are hashed in parallel.
+     *
+     * @param root the payload root
+     * @return the manifest
+     * @throws IOException if a file can not be read
+     */
+    public static PackageManifest create( File root ) throws IOException {
+        return create( root, null );
+    }
+
+    /**
+     * Create the manifest of all regular files below the root. The hash of a file is taken from the previous manifest
+     * if the size and the modification time are unchanged, all other files are hashed in parallel.
+     *
+     * @param root the payload root
+     * @param previous the manifest of the previous build of the same package or null
+     * @param excludes path prefixes below the root that are not part of the payload, like the control files
+     * @return the manifest
+     * @throws IOException if a file can not be read
+     */
+    public static PackageManifest create( File root, PackageManifest previous, String... excludes ) throws IOException {
+        Path rootPath = root.toPath();
+        List<Path> files;
+        try( Stream<Path> stream = Files.walk( rootPath ) ) {
+            files = stream.filter( Files::isRegularFile ).filter( file -> !Files.isSymbolicLink( file ) ).filter( file -> {
+                String path = rootPath.relativize( file ).toString().replace( File.separatorChar, '/' );
+                for( String exclude : excludes ) {
+                    if( path.startsWith( exclude ) ) {
+                        return false;
+                    }
+                }
+                return true;
+            } ).collect( Collectors.toList() );
+        }
+
+        PackageManifest manifest = new PackageManifest();
+        try {
+            List<Entry> list = files.parallelStream().map( file -> {
+                try {
+                    String path = rootPath.relativize( file ).toString().replace( File.separatorChar, '/' );
+                    long size = Files.size( file );
+                    long lastModified = Files.getLastModifiedTime( file ).toMillis();
+                    Entry old = previous != null ? previous.entries.get( path ) : null;
+                    if( old != null && old.size == size && old.lastModified == lastModified ) {
+                        return old;
+                    }
+                    return new Entry( path, hash( file ), size, lastModified );
+                } catch( IOException ex ) {
+                    throw new UncheckedIOException( ex );
+                }
+            } ).collect( Collectors.toList() );
+            for( Entry entry : list ) {
+                manifest.entries.put( entry.path, entry );
+            }
+        } catch( UncheckedIOException ex ) {
+            throw ex.getCause();
+        }
+        return manifest;
+    }
+
+    /**
+     * Load a manifest that was saved with {@link #save(File)}.
+     *
+     * @param file the manifest file
+     * @return the manifest
+     * @throws IOException if the file can not be read
+     */
+    public static PackageManifest load( File file ) throws IOException {
+        PackageManifest manifest = new PackageManifest();
+        List<String> lines = Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 );
+        // the first version of the manifest had no modification time
+        int count = !lines.isEmpty() && lines.get( 0 ).equals( HEADER ) ? 4 : 3;
+        for( String line : lines ) {
+            if( line.isEmpty() || line.startsWith( "#" ) ) {
+                continue;
+            }
+            String[] parts = line.split( " ", count );
+            if( parts.length != count ) {
+                throw new IOException( "Invalid manifest line in '" + file + "': " + line );
+            }
+            try {
+                String path = parts[count - 1];
+                long lastModified = count == 4 ? Long.parseLong( parts[2] ) : -1;
+                manifest.entries.put( path, new Entry( path, parts[0], Long.parseLong( parts[1] ), lastModified ) );
+            } catch( NumberFormatException ex ) {
+                throw new IOException( "Invalid manifest line in '" + file + "': " + line, ex );
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Save the manifest. Every line contains the hash, the size, the modification time and the path of a file.
+     *
+     * @param file the target file
+     * @throws IOException if the file can not be written
+     */
+    public void save( File file ) throws IOException {
+        try( BufferedWriter writer = Files.newBufferedWriter( file.toPath(), StandardCharsets.UTF_8 ) ) {
+            writer.write( HEADER + '\n' );
+            for( Entry entry : entries.values() ) {
+                writer.write( entry.hash + ' ' + entry.size + ' ' + entry.lastModified + ' ' + entry.path + '\n' );
+            }
+        }
+    }
+
+    /**
+     * Get the location of the manifest of a package.
+     *
+     * @param packageFile the package file
+     * @return the manifest file
+     */
+    public static File getManifestFile( File packageFile ) {
+        return new File( packageFile.getPath() + ".manifest" );
+    }
+
+    /**
+     * Returns all entries sorted by path.
+     *
+     * @return the entries
+     */
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    /**
+     * Returns the entries that are new or have a different content than in the previous manifest.
+     *
+     * @param previous the manifest of the previous release
+     * @return the changed entries
+     */
+    public List<Entry> getChanged( PackageManifest previous ) {
+        List<Entry> changed = new ArrayList<>();
+        for( Entry entry : entries.values() ) {
+            Entry old = previous.entries.get( entry.path );
+            if( old == null || !old.hash.equals( entry.hash ) ) {
+                changed.add( entry );
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the paths that exists in the previous manifest but not in this.
+     *
+     * @param previous the manifest of the previous release
+     * @return the removed paths
+     */
+    public List<String> getRemoved( PackageManifest previous ) {
+        List<String> removed = new ArrayList<>();
+        for( String path : previous.entries.keySet() ) {
+            if( !entries.containsKey( path ) ) {
+                removed.add( path );
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns groups of files with identical content. Empty files are ignored. The files of a group are sorted by
+     * path.
+     *
+     * @return the groups with at least two files
+     */
+    public Collection<List<Entry>> getDuplicates() {
+        Map<String, List<Entry>> byHash = new TreeMap<>();
+        for( Entry entry : entries.values() ) {
+            if( entry.size > 0 ) {
+                byHash.computeIfAbsent( entry.hash, key -> new ArrayList<>() ).add( entry );
+            }
+        }
+        byHash.values().removeIf( list -> list.size() < 2 );
+        return byHash.values();
+    }
+
+    /**
+     * Returns the total size of all files.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return getSize( entries.values() );
+    }
+
+    /**
+     * Returns the total size of the given entries.
+     *
+     * @param list the entries
+     * @return the size in bytes
+     */
+    public static long getSize( Collection<Entry> list ) {
+        long size = 0;
+        for( Entry entry : list ) {
+            size += entry.size;
+        }
+        return size;
+    }
+
+    /**
+     * Calculate the SHA-256 of a file.
+     *
+     * @param file the file
+     * @return the hex encoded hash
+     * @throws IOException if the file can not be read
+     */
+    static String hash( Path file ) throws IOException {
+        return Digests.hash( Digests.SHA256, file );
+    }
+}
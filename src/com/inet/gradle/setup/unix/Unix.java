@@ -22,6 +22,7 @@ import org.gradle.api.tasks.InputDirectory;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
 
 import com.inet.gradle.setup.abstracts.AbstractUnixSetupTask;
 
@@ -56,6 +57,14 @@ public abstract class Unix extends AbstractUnixSetupTask {
 
     private Object bundleJre;
 
+    private boolean bundleJreAsPackage;
+
+    private Object deltaFrom;
+
+    private Object repository;
+
+    private String deduplicate;
+
     public Unix( String format ) {
         super( format );
     }
@@ -319,4 +328,131 @@ public abstract class Unix extends AbstractUnixSetupTask {
     public void setBundleJre( Object bundleJre ) {
         this.bundleJre = bundleJre;
     }
+    /**
+     * Returns if the bundled JRE is built as a separate package.
+     *
+     * @return true, if a separate runtime package is created
+     */
+    @Input
+    public boolean isBundleJreAsPackage() {
+        return bundleJreAsPackage;
+    }
+
+    /**
+     * Build the bundled JRE as a separate package named <code>&lt;appIdentifier&gt;-runtime-&lt;jre version&gt;</code>
+     * instead of embedding it into the application package. The application package depends on the runtime package.
+     * Application updates with an unchanged runtime do not need to ship the runtime again. All runtime packages provide
+     * the virtual package <code>&lt;appIdentifier&gt;-runtime</code> with the JRE version.
+     * <p>
+     * The runtime packages of different JRE versions are installed side by side, so an update of the application does
+     * not remove the runtime of the previous version. Because they were installed as dependencies, the runtime packages
+     * that are no longer needed are removed with <code>apt autoremove</code> or <code>dnf autoremove</code>. Runtime
+     * packages that were installed explicitly, for example with <code>dpkg -i</code> or <code>rpm -i</code>, stay
+     * installed until they are removed manually.
+     *
+     * @param bundleJreAsPackage true, to create a separate runtime package
+     */
+    public void setBundleJreAsPackage( boolean bundleJreAsPackage ) {
+        this.bundleJreAsPackage = bundleJreAsPackage;
+    }
+    /**
+     * Returns the package of the previous release to create a delta from.
+     *
+     * @return the package file or null
+     */
+    @InputFile
+    @Optional
+    public File getDeltaFrom() {
+        if( deltaFrom != null ) {
+            return getProject().file( deltaFrom );
+        }
+        return null;
+    }
+
+    /**
+     * Set the package of the previous release. After building the package a binary delta from the previous package
+     * is created with debdelta or makedeltarpm. If the manifest of the previous release exists next to it, the
+     * changed files are reported from the manifests.
+     *
+     * @param deltaFrom the previous package file
+     */
+    public void setDeltaFrom( Object deltaFrom ) {
+        this.deltaFrom = deltaFrom;
+    }
+
+    /**
+     * Returns the manifest of the payload that is saved next to the package.
+     *
+     * @return the manifest file
+     */
+    @OutputFile
+    public File getManifestFile() {
+        return PackageManifest.getManifestFile( getSetupFile() );
+    }
+
+    /**
+     * Returns the binary delta from the previous release that is created next to the package. The name is
+     * <code>&lt;previous package&gt;_&lt;version&gt;.debdelta</code> or <code>.drpm</code>.
+     *
+     * @return the delta file or null if no previous release is set
+     */
+    @OutputFile
+    @Optional
+    public File getDeltaFile() {
+        File previous = getDeltaFrom();
+        if( previous == null ) {
+            return null;
+        }
+        String name = previous.getName();
+        int idx = name.lastIndexOf( '.' );
+        if( idx > 0 ) {
+            name = name.substring( 0, idx );
+        }
+        String extension = "rpm".equals( getExtension() ) ? "drpm" : getExtension() + "delta";
+        return new File( getSetupFile().getParentFile(), name + "_" + getVersion() + "." + extension );
+    }
+    /**
+     * Returns the directory of the package repository that should be updated with the built packages.
+     *
+     * @return the repository directory or null
+     */
+    @Internal
+    public File getRepository() {
+        if( repository != null ) {
+            return getProject().file( repository );
+        }
+        return null;
+    }
+
+    /**
+     * Set the directory of a package repository. The built packages are copied into the repository and the
+     * repository index is updated incrementally. For Debian packages this is a flat APT repository with
+     * Packages and Release files. For RPM packages the repodata is updated with createrepo_c.
+     *
+     * @param repository the repository directory
+     */
+    public void setRepository( Object repository ) {
+        this.repository = repository;
+    }
+    /**
+     * Returns how files with identical content are deduplicated.
+     *
+     * @return "hardlink", "symlink" or null
+     */
+    @Input
+    @Optional
+    public String getDeduplicate() {
+        return deduplicate;
+    }
+
+    /**
+     * Set how files with identical content in the package are deduplicated. With "hardlink" duplicates are stored
+     * as hard links in the package payload, with "symlink" they are replaced by relative symbolic links. Only files
+     * with the same permissions are linked. Files below /etc are never linked.
+     *
+     * @param deduplicate "hardlink", "symlink" or null to disable
+     */
+    public void setDeduplicate( String deduplicate ) {
+        this.deduplicate = deduplicate;
+    }
 }
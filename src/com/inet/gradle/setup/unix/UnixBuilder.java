@@ -4,9 +4,11 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.gradle.api.GradleException;
@@ -26,6 +28,10 @@ public abstract class UnixBuilder<T extends Unix, S extends AbstractSetupBuilder
 
     protected String       javaMainExecutable = "/usr" + javaCommandSuffix; // Default Java Location
 
+    protected String       bundleJreVersion;   // version of the bundled JRE, set by addBundleJre
+
+    protected String       runtimePackage;     // name of the separate runtime package, set by addBundleJreAsPackage
+
     /**
      * Create a new instance
      *
@@ -60,7 +66,7 @@ public abstract class UnixBuilder<T extends Unix, S extends AbstractSetupBuilder
                 jreDir = jdkCheck;
             }
 
-            checkForBinJava( jreDir);
+            bundleJreVersion = checkForBinJava( jreDir );
             task.getProject().getLogger().lifecycle( "\tJRE is set and will be copied from: '" + jreDir.getAbsolutePath() + "' to' " + jreTarget.getAbsolutePath() + "'" );
             ResourceUtils.copy( jreDir, jreTarget );
         } else if ( jreDir.isFile() ) {
@@ -83,12 +89,13 @@ public abstract class UnixBuilder<T extends Unix, S extends AbstractSetupBuilder
             } );  
             
             File[] files = javaCopy.listFiles();
+            jreTarget.getParentFile().mkdirs(); // the root of a separate runtime package is empty
             if (files != null && files.length == 1 ) { // only one directory! Move it up!
                 Files.move( files[0].toPath(), jreTarget.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
             } else {
                 Files.move( javaCopy.toPath(), jreTarget.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
             }
-            checkForBinJava( jreTarget );
+            bundleJreVersion = checkForBinJava( jreTarget );
 
         } else {
             throw new GradleException( "Unsupported content set as Java Runtime '" + jreDir + "'" );
@@ -99,16 +106,188 @@ public abstract class UnixBuilder<T extends Unix, S extends AbstractSetupBuilder
     }
 
     /**
+     * Copy the bundled JRE into the root of a separate runtime package. The JRE is placed in a versioned directory
+     * so that runtime packages of different versions can be installed side by side.
+     *
+     * @param runtimeRoot the root directory of the runtime package
+     * @return true, if a JRE was set and copied
+     * @throws IOException an exception
+     */
+    protected boolean addBundleJreAsPackage( File runtimeRoot ) throws IOException {
+        File filesPath = new File( runtimeRoot, task.getInstallationRoot() );
+        addBundleJre( filesPath );
+        if( bundleJreVersion == null ) {
+            return false;
+        }
+
+        String version = getRuntimeVersion();
+        String jreTarget = setup.getBundleJreTarget() + "-" + version;
+        Files.move( new File( filesPath, setup.getBundleJreTarget() ).toPath(), new File( filesPath, jreTarget ).toPath(), StandardCopyOption.REPLACE_EXISTING );
+
+        runtimePackage = setup.getAppIdentifier().toLowerCase() + "-runtime-" + version.toLowerCase();
+        javaMainExecutable = String.join( "/", task.getInstallationRoot(), jreTarget, javaCommandSuffix ).replaceAll( "\\/+", "\\/" );
+        task.getProject().getLogger().lifecycle( "\tThe JRE will be packaged as '" + runtimePackage + "', updated the Java Executable Path to: '" + javaMainExecutable + "'" );
+        return true;
+    }
+
+    /**
+     * Get the stable virtual package name that is provided by all runtime packages of the application independent of
+     * the JRE version.
+     *
+     * @return the virtual package name
+     */
+    protected String getRuntimeProvides() {
+        return setup.getAppIdentifier().toLowerCase() + "-runtime";
+    }
+
+    /**
+     * Get the version of the bundled JRE usable as package version. For example 1.8.0_292 will be 1.8.0.292
+     *
+     * @return the version
+     */
+    protected String getRuntimeVersion() {
+        return bundleJreVersion.replaceAll( "[^A-Za-z0-9.+~]", "." );
+    }
+
+    /**
+     * Create the manifest of the payload and save it next to the package. The files with the same size and
+     * modification time as in the manifest of the previous build are not hashed again.
+     *
+     * @param payloadRoot the root directory of the package payload
+     * @param excludes path prefixes that are not part of the payload
+     * @return the manifest
+     * @throws IOException if a file can not be read or written
+     */
+    protected PackageManifest createManifest( File payloadRoot, String... excludes ) throws IOException {
+        File manifestFile = task.getManifestFile();
+        PackageManifest previous = null;
+        if( manifestFile.isFile() ) {
+            try {
+                previous = PackageManifest.load( manifestFile );
+            } catch( IOException ex ) {
+                task.getProject().getLogger().info( "\tThe manifest of the previous build is ignored: " + ex );
+            }
+        }
+        PackageManifest manifest = PackageManifest.create( payloadRoot, previous, excludes );
+        manifestFile.getParentFile().mkdirs();
+        manifest.save( manifestFile );
+        return manifest;
+    }
+
+    /**
+     * Replace files with identical content by hard or symbolic links if configured.
+     *
+     * @param payloadRoot the root directory of the package payload
+     * @param manifest the manifest of the payload
+     * @param excludes path prefixes that should not be linked
+     * @throws IOException if a link can not be created
+     */
+    protected void deduplicate( File payloadRoot, PackageManifest manifest, String... excludes ) throws IOException {
+        String mode = task.getDeduplicate();
+        if( mode == null || mode.isEmpty() ) {
+            return;
+        }
+        boolean symlink;
+        switch( mode ) {
+            case "hardlink":
+                symlink = false;
+                break;
+            case "symlink":
+                symlink = true;
+                break;
+            default:
+                throw new GradleException( "Unsupported deduplicate mode '" + mode + "', use 'hardlink' or 'symlink'." );
+        }
+
+        long saved = 0;
+        int count = 0;
+        for( List<PackageManifest.Entry> group : manifest.getDuplicates() ) {
+            Path original = null;
+            Set<PosixFilePermission> originalPermissions = null;
+            for( PackageManifest.Entry entry : group ) {
+                if( isExcluded( entry.getPath(), excludes ) ) {
+                    continue;
+                }
+                Path file = payloadRoot.toPath().resolve( entry.getPath() );
+                Set<PosixFilePermission> permissions = Files.getPosixFilePermissions( file );
+                if( original == null ) {
+                    original = file;
+                    originalPermissions = permissions;
+                    continue;
+                }
+                if( !permissions.equals( originalPermissions ) ) {
+                    continue;
+                }
+                Files.delete( file );
+                if( symlink ) {
+                    Files.createSymbolicLink( file, file.getParent().relativize( original ) );
+                } else {
+                    Files.createLink( file, original );
+                }
+                saved += entry.getSize();
+                count++;
+            }
+        }
+        task.getProject().getLogger().lifecycle( "\tDeduplicated " + count + " files with " + mode + "s, saved " + saved + " bytes" );
+    }
+
+    /**
+     * Check if the path starts with one of the excludes.
      *
-     * @param jreDir
+     * @param path the path
+     * @param excludes the path prefixes
+     * @return true, if excluded
      */
-    private void checkForBinJava( File jreDir ) {
+    private static boolean isExcluded( String path, String... excludes ) {
+        for( String exclude : excludes ) {
+            if( path.startsWith( exclude ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the file of the delta to the previous release if one is configured. If the manifest of the previous release
+     * exists, the changed files are compared without reading the previous package.
+     *
+     * @param manifest the manifest of the current package
+     * @return the delta file or null if no previous release is set
+     * @throws IOException if the previous manifest can not be read
+     */
+    protected File getDeltaFile( PackageManifest manifest ) throws IOException {
+        File previous = task.getDeltaFrom();
+        if( previous == null ) {
+            return null;
+        }
+        if( !previous.isFile() ) {
+            throw new GradleException( "The previous release for the delta does not exist: " + previous );
+        }
+
+        File previousManifest = PackageManifest.getManifestFile( previous );
+        if( previousManifest.isFile() ) {
+            PackageManifest old = PackageManifest.load( previousManifest );
+            List<PackageManifest.Entry> changed = manifest.getChanged( old );
+            task.getProject().getLogger().lifecycle( "\tDelta to '" + previous.getName() + "': " + changed.size() + " of " + manifest.getEntries().size() + " files changed ("
+                            + PackageManifest.getSize( changed ) + " of " + manifest.getSize() + " bytes), " + manifest.getRemoved( old ).size() + " files removed" );
+        }
+
+        return task.getDeltaFile();
+    }
+
+    /**
+     * Check that the java command exists and return its version
+     *
+     * @param jreDir the directory of the JRE
+     * @return the version of the JRE
+     */
+    private String checkForBinJava( File jreDir ) {
         File javaCommand = new File( jreDir, javaCommandSuffix);
         String javaVersion = exec( "sh", "-c", javaCommand.getAbsolutePath() + " -version 2>&1 | awk -F '\"' '/version/ {print $2}'" );
         if( javaVersion.length() == 0 ) {
             throw new GradleException( "Java - Command '" + javaCommandSuffix + "' not found in '" + jreDir + "'" );
         }
-
+        return javaVersion.trim();
     }
 
 
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.unix.deb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+
+import com.inet.gradle.setup.util.Digests;
+
+/**
+ * Incremental index of a flat APT repository. The existing <code>Packages</code> file is the index store. Only the
+ * added packages are hashed, the entries of all other packages are kept as long as the package file exists with the
+ * same size. The repository can be used with <code>deb [trusted=yes] file:/path/to/repository ./</code>.
+ */
+class AptRepositoryIndex {
+
+    private static final String[]     DIGESTS  = { Digests.MD5, Digests.SHA1, Digests.SHA256 };
+
+    private static final String[]     FIELDS   = { "MD5sum", "SHA1", "SHA256" };
+
+    private static final String[]     RELEASE  = { "MD5Sum", "SHA1", "SHA256" };
+
+    private final File                repository;
+
+    private final Map<String, String> stanzas  = new TreeMap<>();
+
+    /**
+     * Load the index of the repository.
+     *
+     * @param repository the root directory of the repository
+     * @throws IOException if the index can not be read
+     */
+    AptRepositoryIndex( File repository ) throws IOException {
+        this.repository = repository;
+        File packages = new File( repository, "Packages" );
+        if( packages.isFile() ) {
+            String content = new String( Files.readAllBytes( packages.toPath() ), StandardCharsets.UTF_8 );
+            for( String stanza : content.split( "\n\n" ) ) {
+                String filename = getField( stanza, "Filename" );
+                String size = getField( stanza, "Size" );
+                if( filename == null || size == null ) {
+                    continue;
+                }
+                File file = new File( repository, filename );
+                if( file.isFile() && file.length() == Long.parseLong( size ) ) {
+                    stanzas.put( filename, stanza.trim() );
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy a package into the pool of the repository and add its entry.
+     *
+     * @param packageFile the built package
+     * @param control the control file of the package
+     * @throws IOException if the package can not be copied or read
+     */
+    void add( File packageFile, File control ) throws IOException {
+        String filename = "pool/" + packageFile.getName();
+        File target = new File( repository, filename );
+        target.getParentFile().mkdirs();
+        Files.copy( packageFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+
+        StringBuilder stanza = new StringBuilder( new String( Files.readAllBytes( control.toPath() ), StandardCharsets.UTF_8 ).trim() );
+        stanza.append( "\nFilename: " ).append( filename );
+        stanza.append( "\nSize: " ).append( target.length() );
+        String[] hashes;
+        try( InputStream input = Files.newInputStream( target.toPath() ) ) {
+            hashes = hash( input );
+        }
+        for( int i = 0; i < FIELDS.length; i++ ) {
+            stanza.append( '\n' ).append( FIELDS[i] ).append( ": " ).append( hashes[i] );
+        }
+        stanzas.put( filename, stanza.toString() );
+    }
+
+    /**
+     * Write the Packages, Packages.gz and Release files.
+     *
+     * @param origin the origin of the repository
+     * @param label the label of the repository
+     * @throws IOException if a file can not be written
+     */
+    void save( String origin, String label ) throws IOException {
+        StringBuilder content = new StringBuilder();
+        TreeSet<String> architectures = new TreeSet<>();
+        for( String stanza : stanzas.values() ) {
+            content.append( stanza ).append( "\n\n" );
+            String arch = getField( stanza, "Architecture" );
+            if( arch != null ) {
+                architectures.add( arch );
+            }
+        }
+        byte[] packages = content.toString().getBytes( StandardCharsets.UTF_8 );
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try( OutputStream output = new GZIPOutputStream( gzip ) ) {
+            output.write( packages );
+        }
+        byte[] packagesGz = gzip.toByteArray();
+        Files.write( new File( repository, "Packages" ).toPath(), packages );
+        Files.write( new File( repository, "Packages.gz" ).toPath(), packagesGz );
+
+        SimpleDateFormat format = new SimpleDateFormat( "EEE, dd MMM yyyy HH:mm:ss 'UTC'", Locale.ENGLISH );
+        format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        StringBuilder release = new StringBuilder();
+        release.append( "Origin: " ).append( origin ).append( '\n' );
+        release.append( "Label: " ).append( label ).append( '\n' );
+        release.append( "Date: " ).append( format.format( new Date() ) ).append( '\n' );
+        release.append( "Architectures: " ).append( String.join( " ", architectures ) ).append( '\n' );
+        String[] hashes = hash( new ByteArrayInputStream( packages ) );
+        String[] hashesGz = hash( new ByteArrayInputStream( packagesGz ) );
+        for( int i = 0; i < RELEASE.length; i++ ) {
+            release.append( RELEASE[i] ).append( ":\n" );
+            release.append( ' ' ).append( hashes[i] ).append( ' ' ).append( packages.length ).append( " Packages\n" );
+            release.append( ' ' ).append( hashesGz[i] ).append( ' ' ).append( packagesGz.length ).append( " Packages.gz\n" );
+        }
+        Files.write( new File( repository, "Release" ).toPath(), release.toString().getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Get the value of a single line field of a stanza.
+     *
+     * @param stanza the stanza
+     * @param name the field name
+     * @return the value or null
+     */
+    private static String getField( String stanza, String name ) {
+        for( String line : stanza.split( "\n" ) ) {
+            if( line.startsWith( name + ":" ) ) {
+                return line.substring( name.length() + 1 ).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Calculate the MD5, SHA-1 and SHA-256 of the data in a single pass.
+     *
+     * @param input the data
+     * @return the hex encoded hashes
+     * @throws IOException if the data can not be read
+     */
+    private static String[] hash( InputStream input ) throws IOException {
+        MessageDigest[] digests = new MessageDigest[DIGESTS.length];
+        for( int i = 0; i < DIGESTS.length; i++ ) {
+            digests[i] = Digests.create( DIGESTS[i] );
+        }
+        Digests.update( input, digests );
+        String[] result = new String[DIGESTS.length];
+        for( int i = 0; i < DIGESTS.length; i++ ) {
+            result[i] = Digests.hex( digests[i].digest() );
+        }
+        return result;
+    }
+}
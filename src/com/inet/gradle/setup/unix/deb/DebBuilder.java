@@ -16,9 +16,14 @@
 package com.inet.gradle.setup.unix.deb;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
@@ -31,9 +36,11 @@ import com.inet.gradle.setup.abstracts.DesktopStarter;
 import com.inet.gradle.setup.abstracts.DocumentType;
 import com.inet.gradle.setup.abstracts.LocalizedResource;
 import com.inet.gradle.setup.abstracts.Service;
+import com.inet.gradle.setup.unix.PackageManifest;
 import com.inet.gradle.setup.unix.UnixBuilder;
 import com.inet.gradle.setup.unix.deb.DebControlFileBuilder.Script;
 import com.inet.gradle.setup.util.Logging;
+import com.inet.gradle.setup.util.ResourceUtils;
 
 public class DebBuilder extends UnixBuilder<Deb, SetupBuilder> {
 
@@ -41,6 +48,10 @@ public class DebBuilder extends UnixBuilder<Deb, SetupBuilder> {
 
     private DebDocumentFileBuilder documentBuilder;
 
+    private File                   runtimeRoot;
+
+    private File                   runtimeFile;
+
     /**
      * Create a new instance
      *
@@ -66,10 +77,15 @@ public class DebBuilder extends UnixBuilder<Deb, SetupBuilder> {
             changeFilePermissionsTo644( filesPath );
 
             // Add a bundled java vm if required. Will update the variable to indicate the java-main program
-            addBundleJre( filesPath );
+            if( task.isBundleJreAsPackage() ) {
+                createRuntimePackage();
+            } else {
+                addBundleJre( filesPath );
+            }
 
             // create the package config files in the DEBIAN subfolder
             controlBuilder = new DebControlFileBuilder( super.task, setup, new File( buildDir, "DEBIAN" ) );
+            controlBuilder.setRuntimePackage( runtimePackage );
 
             addScriptsToControlFiles();
 
@@ -146,10 +162,17 @@ public class DebBuilder extends UnixBuilder<Deb, SetupBuilder> {
 
             changeDirectoryPermissionsTo755( buildDir );
 
+            PackageManifest manifest = createManifest( buildDir, "DEBIAN/" );
+            deduplicate( buildDir, manifest, "etc/" );
+
             createDebianPackage();
 
             checkDebianPackage();
 
+            createDebianDelta( manifest );
+
+            updateRepository();
+
         } catch( RuntimeException ex ) {
             throw ex;
         } catch( Exception ex ) {
@@ -289,7 +312,8 @@ public class DebBuilder extends UnixBuilder<Deb, SetupBuilder> {
         	initScript.setPlaceholder( "workdir", workingDir );
         	initScript.setPlaceholder( "mainJar", mainJarPath );
         	initScript.setPlaceholder( "startArguments", (service.getStartArguments()).trim() );
-        	initScript.setPlaceholder( "javaVMArguments", (String.join( " ", service.getJavaVMArguments())).trim() );
+        	initScript.setPlaceholder( "javaVMArguments", String.join( " ", service.getServiceJavaVMArguments() ).trim() );
+        	initScript.setPlaceholder( "resourceLimits", service.getProfile() != null ? service.getProfile().getUlimitCommands().trim() : null );
 
         	initScript.setPlaceholder( "mainClass", service.getMainClass() );
         	initScript.setPlaceholder( "daemonUser", task.getDaemonUser() );
@@ -313,7 +337,8 @@ public class DebBuilder extends UnixBuilder<Deb, SetupBuilder> {
     		systemdScript.setPlaceholder( "workdir", workingDir );
     		systemdScript.setPlaceholder( "mainJar", mainJarPath );
     		systemdScript.setPlaceholder( "startArguments", (service.getStartArguments()).trim() );
-    		systemdScript.setPlaceholder( "javaVMArguments", String.join( " ", service.getJavaVMArguments()).trim() );
+    		systemdScript.setPlaceholder( "javaVMArguments", String.join( " ", service.getServiceJavaVMArguments() ).trim() );
+    		systemdScript.setPlaceholder( "resourceControls", service.getProfile() != null ? service.getProfile().getSystemdDirectives().trim() : null );
 
     		systemdScript.setPlaceholder( "mainClass", service.getMainClass() );
     		systemdScript.setPlaceholder( "daemonUser", task.getDaemonUser() );
@@ -539,6 +564,90 @@ public class DebBuilder extends UnixBuilder<Deb, SetupBuilder> {
         }
     }
 
+    /**
+     * Create a separate Debian package that contains only the bundled JRE.
+     *
+     * @throws IOException on errors during creating or writing a file
+     */
+    private void createRuntimePackage() throws IOException {
+        runtimeRoot = new File( buildDir.getParentFile(), buildDir.getName() + "-runtime" );
+        if( runtimeRoot.exists() ) {
+            ResourceUtils.deleteDirectory( runtimeRoot.toPath() );
+        }
+        if( !addBundleJreAsPackage( runtimeRoot ) ) {
+            return;
+        }
+
+        long size;
+        try( Stream<Path> files = Files.walk( runtimeRoot.toPath() ) ) {
+            size = files.filter( Files::isRegularFile ).mapToLong( file -> file.toFile().length() ).sum();
+        }
+
+        File control = new File( runtimeRoot, "DEBIAN/control" );
+        control.getParentFile().mkdirs();
+        try( OutputStreamWriter controlWriter = new OutputStreamWriter( new FileOutputStream( control ), StandardCharsets.UTF_8 ) ) {
+            controlWriter.write( "Package: " + runtimePackage + '\n' );
+            controlWriter.write( "Version: " + getRuntimeVersion() + '\n' );
+            controlWriter.write( "Provides: " + getRuntimeProvides() + " (= " + getRuntimeVersion() + ")\n" );
+            controlWriter.write( "Section: " + task.getSection() + '\n' );
+            controlWriter.write( "Priority: optional\n" );
+            controlWriter.write( "Architecture: " + task.getArchitecture() + '\n' );
+            controlWriter.write( "Installed-Size: " + size / 1024 + '\n' );
+            controlWriter.write( "Maintainer: " + setup.getVendor() + " <" + task.getMaintainerEmail() + ">\n" );
+            controlWriter.write( "Description: Java runtime " + bundleJreVersion + " for " + setup.getApplication() + '\n' );
+        }
+        changeDirectoryPermissionsTo755( runtimeRoot );
+
+        runtimeFile = new File( setup.getDestinationDir(), runtimePackage + "_" + getRuntimeVersion() + "_" + task.getArchitecture() + ".deb" );
+        ArrayList<String> command = new ArrayList<>();
+        command.add( "fakeroot" );
+        command.add( "dpkg-deb" );
+        String compression = task.getCompression();
+        if( compression != null && !compression.isEmpty() ) {
+            command.add( "-Z" + compression );
+        }
+        command.add( "--build" );
+        command.add( runtimeRoot.getAbsolutePath() );
+        command.add( runtimeFile.getPath() );
+        exec( command );
+    }
+
+    /**
+     * Add the packages to the APT repository if configured
+     *
+     * @throws IOException if the repository can not be updated
+     */
+    private void updateRepository() throws IOException {
+        File repository = task.getRepository();
+        if( repository != null ) {
+            AptRepositoryIndex index = new AptRepositoryIndex( repository );
+            if( runtimePackage != null ) {
+                index.add( runtimeFile, new File( runtimeRoot, "DEBIAN/control" ) );
+            }
+            index.add( task.getSetupFile(), new File( buildDir, "DEBIAN/control" ) );
+            index.save( setup.getVendor(), setup.getApplication() );
+            task.getProject().getLogger().lifecycle( "\tUpdated the APT repository: '" + repository + "'" );
+        }
+    }
+
+    /**
+     * execute debdelta to create a binary delta from the previous release if configured
+     *
+     * @param manifest the manifest of the package
+     * @throws IOException if the previous manifest can not be read
+     */
+    private void createDebianDelta( PackageManifest manifest ) throws IOException {
+        File deltaFile = getDeltaFile( manifest );
+        if( deltaFile != null ) {
+            ArrayList<String> command = new ArrayList<>();
+            command.add( "debdelta" );
+            command.add( task.getDeltaFrom().getAbsolutePath() );
+            command.add( task.getSetupFile().getAbsolutePath() );
+            command.add( deltaFile.getAbsolutePath() );
+            exec( command );
+        }
+    }
+
     /**
      * execute the command to generate the Debian package
      */
@@ -60,6 +60,8 @@ class DebControlFileBuilder {
 
     private Collection<String> confFiles = new ArrayList<>();
 
+    private String             runtimePackage;
+
     enum Script {
         PREINST, POSTINST, PRERM, POSTRM
     }
@@ -81,6 +83,15 @@ class DebControlFileBuilder {
         this.buildDir = buildDir;
     }
 
+    /**
+     * Set the name of the separate runtime package the application depends on.
+     *
+     * @param runtimePackage the package name or null if the JRE is not a separate package
+     */
+    void setRuntimePackage( String runtimePackage ) {
+        this.runtimePackage = runtimePackage;
+    }
+
     /**
      * Create the configuration files for the Debian package based on the settings in the task.
      *
@@ -213,6 +224,10 @@ class DebControlFileBuilder {
         if( depends == null || depends.length() == 0 ) {
             depends = "debconf";
         }
+        if( runtimePackage != null ) {
+            // pre-depends because the preinst script checks for the java executable
+            depends += ", " + runtimePackage;
+        }
         controlWriter.write( "Pre-Depends: " + depends + NEWLINE );
     }
 
@@ -260,6 +260,7 @@ start() {
     fi
 
     log_daemon_msg "Starting" "$APPNAME"
+    {{resourceLimits}}
     if checkfunc "start-stop-daemon"; then
         if [ ! -z "${BACKGROUND}" ]; then
             BACKGROUND="-b"
@@ -16,9 +16,13 @@
 package com.inet.gradle.setup.unix.rpm;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.function.BiConsumer;
 
@@ -30,13 +34,17 @@ import com.inet.gradle.setup.abstracts.DesktopStarter;
 import com.inet.gradle.setup.abstracts.DocumentType;
 import com.inet.gradle.setup.abstracts.LocalizedResource;
 import com.inet.gradle.setup.abstracts.Service;
+import com.inet.gradle.setup.unix.PackageManifest;
 import com.inet.gradle.setup.unix.UnixBuilder;
 import com.inet.gradle.setup.util.Logging;
+import com.inet.gradle.setup.util.ResourceUtils;
 
 public class RpmBuilder extends UnixBuilder<Rpm, SetupBuilder> {
 
     private RpmControlFileBuilder controlBuilder;
 
+    private File                  runtimeFile;
+
     /**
      * Create a new instance
      *
@@ -77,9 +85,14 @@ public class RpmBuilder extends UnixBuilder<Rpm, SetupBuilder> {
             changeFilePermissionsTo644( filesPath );
 
             // Add a bundled java vm if required. Will update the variable to indicate the java-main program
-            addBundleJre( filesPath );
+            if( task.isBundleJreAsPackage() ) {
+                createRuntimePackage();
+            } else {
+                addBundleJre( filesPath );
+            }
 
             controlBuilder = new RpmControlFileBuilder( super.task, setup, new File( buildDir, "SPECS" ), javaMainExecutable );
+            controlBuilder.setRuntimePackage( runtimePackage );
 
             controlBuilder.addScriptFragment( RpmControlFileBuilder.Script.PREINSTHEAD, "# check for java. the service will need it and other parts probably too"
                             + "[ ! -x '" + javaMainExecutable + "' ] && echo \"The program 'java' does not exist but will be needed. (Looked up at '" + javaMainExecutable + "')\" && exit 1 || :"
@@ -118,8 +131,23 @@ public class RpmBuilder extends UnixBuilder<Rpm, SetupBuilder> {
 
             changeDirectoryPermissionsTo755( buildDir );
 
+            PackageManifest manifest = createManifest( new File( buildDir, "BUILD" ) );
+            deduplicate( new File( buildDir, "BUILD" ), manifest, "etc/" );
+
             createRpmPackage();
 
+            File deltaFile = getDeltaFile( manifest );
+            if( deltaFile != null ) {
+                ArrayList<String> command = new ArrayList<>();
+                command.add( "makedeltarpm" );
+                command.add( task.getDeltaFrom().getAbsolutePath() );
+                command.add( task.getSetupFile().getAbsolutePath() );
+                command.add( deltaFile.getAbsolutePath() );
+                exec( command );
+            }
+
+            updateRepository();
+
         } catch( RuntimeException ex ) {
             throw ex;
         } catch( Exception ex ) {
@@ -152,7 +180,8 @@ public class RpmBuilder extends UnixBuilder<Rpm, SetupBuilder> {
     		initScript.setPlaceholder( "workdir", workingDir );
     		initScript.setPlaceholder( "mainJar", mainJarPath );
     		initScript.setPlaceholder( "startArguments", (service.getStartArguments()).trim() );
-    		initScript.setPlaceholder( "javaVMArguments", String.join( " ", service.getJavaVMArguments()).trim() );
+    		initScript.setPlaceholder( "javaVMArguments", String.join( " ", service.getServiceJavaVMArguments() ).trim() );
+    		initScript.setPlaceholder( "resourceLimits", service.getProfile() != null ? service.getProfile().getUlimitCommands().trim() : null );
 
     		initScript.setPlaceholder( "mainClass", service.getMainClass() );
     		initScript.setPlaceholder( "daemonUser", task.getDaemonUser() );
@@ -185,7 +214,8 @@ public class RpmBuilder extends UnixBuilder<Rpm, SetupBuilder> {
     		systemdScript.setPlaceholder( "workdir", workingDir );
     		systemdScript.setPlaceholder( "mainJar", mainJarPath );
     		systemdScript.setPlaceholder( "startArguments", (service.getStartArguments()).trim() );
-    		systemdScript.setPlaceholder( "javaVMArguments", String.join( " ", service.getJavaVMArguments()).trim() );
+    		systemdScript.setPlaceholder( "javaVMArguments", String.join( " ", service.getServiceJavaVMArguments() ).trim() );
+    		systemdScript.setPlaceholder( "resourceControls", service.getProfile() != null ? service.getProfile().getSystemdDirectives().trim() : null );
 
     		systemdScript.setPlaceholder( "mainClass", service.getMainClass() );
     		systemdScript.setPlaceholder( "daemonUser", task.getDaemonUser() );
@@ -394,6 +424,80 @@ public class RpmBuilder extends UnixBuilder<Rpm, SetupBuilder> {
         return file;
     }
 
+    /**
+     * Add the packages to the YUM repository if configured. createrepo_c reuses the metadata of all unchanged
+     * packages with the update option, so only the added packages are read.
+     *
+     * @throws IOException if a package can not be copied
+     */
+    private void updateRepository() throws IOException {
+        File repository = task.getRepository();
+        if( repository != null ) {
+            repository.mkdirs();
+            if( runtimePackage != null ) {
+                Files.copy( runtimeFile.toPath(), new File( repository, runtimeFile.getName() ).toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+            Files.copy( task.getSetupFile().toPath(), new File( repository, task.getSetupFile().getName() ).toPath(), StandardCopyOption.REPLACE_EXISTING );
+
+            ArrayList<String> command = new ArrayList<>();
+            command.add( "createrepo_c" );
+            command.add( "--update" );
+            command.add( repository.getAbsolutePath() );
+            exec( command );
+        }
+    }
+
+    /**
+     * Create a separate RPM package that contains only the bundled JRE.
+     *
+     * @throws IOException on errors during creating or writing a file
+     */
+    private void createRuntimePackage() throws IOException {
+        File runtimeDir = new File( buildDir.getParentFile(), buildDir.getName() + "-runtime" );
+        if( runtimeDir.exists() ) {
+            ResourceUtils.deleteDirectory( runtimeDir.toPath() );
+        }
+        if( !addBundleJreAsPackage( new File( runtimeDir, "BUILD" ) ) ) {
+            return;
+        }
+
+        String version = getRuntimeVersion();
+        String arch = task.getArchitecture();
+        String jreTarget = javaMainExecutable.substring( 0, javaMainExecutable.length() - "/bin/java".length() );
+        runtimeFile = new File( setup.getDestinationDir(), runtimePackage + "-" + version + "-1." + arch + ".rpm" );
+
+        File spec = new File( runtimeDir, "SPECS/" + runtimePackage + ".spec" );
+        spec.getParentFile().mkdirs();
+        try( OutputStreamWriter specWriter = new OutputStreamWriter( new FileOutputStream( spec ), StandardCharsets.UTF_8 ) ) {
+            specWriter.write( "Summary: Java runtime " + bundleJreVersion + " for " + setup.getApplication() + "\n" );
+            specWriter.write( "Name: " + runtimePackage + "\n" );
+            specWriter.write( "Version: " + version + "\n" );
+            specWriter.write( "Release: 1\n" );
+            specWriter.write( "Provides: " + getRuntimeProvides() + " = " + version + "\n" );
+            specWriter.write( "License: " + (task.getLicense() != null && task.getLicense().length() > 0 ? task.getLicense() : "Restricted") + "\n" );
+            specWriter.write( "Group: " + task.getSection() + "\n" );
+            specWriter.write( "Vendor: " + setup.getVendor() + "\n" );
+            specWriter.write( "Prefix: \"" + task.getInstallationRoot() + "\"\n" );
+            specWriter.write( "BuildArchitectures: " + arch + "\n" );
+            specWriter.write( "AutoReqProv: no\n" );
+            specWriter.write( "\n%description\nJava runtime " + bundleJreVersion + " for " + setup.getApplication() + "\n" );
+            specWriter.write( "\n%install\ncp -R . '%{buildroot}'\n" );
+            specWriter.write( "\n%files\n\"" + jreTarget + "\"\n" );
+            specWriter.write( "\n%clean\nmv -f ../RPMS/" + arch + "/" + runtimePackage + "-" + version + "-1." + arch + ".rpm '" + runtimeFile + "'\n" );
+        }
+        changeDirectoryPermissionsTo755( runtimeDir );
+
+        ArrayList<String> command = new ArrayList<>();
+        command.add( "rpmbuild" );
+        command.add( "-bb" );
+        command.add( "-v" );
+        command.add( "--clean" );
+        command.add( "--define=_topdir " + runtimeDir.getAbsolutePath() );
+        command.add( "--define=_build_id_links none" );
+        command.add( spec.getAbsolutePath() );
+        exec( command );
+    }
+
     /**
      * execute the command to generate the RPM package
      *
@@ -58,6 +58,8 @@ class RpmControlFileBuilder {
 
     private String javaMainExecutable;
 
+    private String runtimePackage;
+
     /**
      * the constructor setting the fields
      *
@@ -73,6 +75,15 @@ class RpmControlFileBuilder {
         this.javaMainExecutable = javaMainExecutable;
     }
 
+    /**
+     * Set the name of the separate runtime package the application depends on.
+     *
+     * @param runtimePackage the package name or null if the JRE is not a separate package
+     */
+    void setRuntimePackage( String runtimePackage ) {
+        this.runtimePackage = runtimePackage;
+    }
+
     /**
      * Create the configuration files for the RedHat package based on the settings in the task.
      *
@@ -385,7 +396,11 @@ class RpmControlFileBuilder {
      */
     private void putInstall( OutputStreamWriter controlWriter ) throws IOException {
         controlWriter.write( NEWLINE + "%install" + NEWLINE );
-        controlWriter.write( "cp -R . '%{buildroot}'" + NEWLINE );
+        if( rpm.getDeduplicate() != null && !rpm.getDeduplicate().isEmpty() ) {
+            controlWriter.write( "cp -R --preserve=links . '%{buildroot}'" + NEWLINE ); // keep the hard links of the deduplication
+        } else {
+            controlWriter.write( "cp -R . '%{buildroot}'" + NEWLINE );
+        }
         //        if(setup.getServices() != null && setup.getServices().size() > 0) {
         //            controlWriter.write("cp -R etc %{buildroot}" + NEWLINE);
         //        }
@@ -580,6 +595,11 @@ class RpmControlFileBuilder {
         if( depends.trim().length() > 0 ) {
             controlWriter.write( "Requires: " + depends + NEWLINE );
         }
+        if( runtimePackage != null ) {
+            // also required for the pre script because it checks for the java executable
+            controlWriter.write( "Requires: " + runtimePackage + NEWLINE );
+            controlWriter.write( "Requires(pre): " + runtimePackage + NEWLINE );
+        }
     }
 
     /**
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Some Utils for message digests and their hex encoding.
+ */
+public class Digests {
+
+    public static final String MD5    = "MD5";
+
+    public static final String SHA1   = "SHA-1";
+
+    public static final String SHA256 = "SHA-256";
+
+    /**
+     * Create a message digest. The algorithms of this class are available in every Java runtime.
+     *
+     * @param algorithm the name of the algorithm like {@link #SHA256}
+     * @return the digest
+     */
+    public static MessageDigest create( String algorithm ) {
+        try {
+            return MessageDigest.getInstance( algorithm );
+        } catch( NoSuchAlgorithmException ex ) {
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    /**
+     * Calculate the digest of the data.
+     *
+     * @param algorithm the name of the algorithm
+     * @param data the data
+     * @return the digest
+     */
+    public static byte[] digest( String algorithm, byte[] data ) {
+        return create( algorithm ).digest( data );
+    }
+
+    /**
+     * Calculate the hex encoded digest of a file.
+     *
+     * @param algorithm the name of the algorithm
+     * @param file the file
+     * @return the hex encoded digest
+     * @throws IOException if the file can not be read
+     */
+    public static String hash( String algorithm, Path file ) throws IOException {
+        MessageDigest digest = create( algorithm );
+        try( InputStream input = Files.newInputStream( file ) ) {
+            update( input, digest );
+        }
+        return hex( digest.digest() );
+    }
+
+    /**
+     * Read the stream to the end and update all digests with the data in a single pass.
+     *
+     * @param input the data
+     * @param digests the digests
+     * @return the count of bytes
+     * @throws IOException if the data can not be read
+     */
+    public static long update( InputStream input, MessageDigest... digests ) throws IOException {
+        byte[] buffer = new byte[65536];
+        long size = 0;
+        int count;
+        while( (count = input.read( buffer )) > 0 ) {
+            for( MessageDigest digest : digests ) {
+                digest.update( buffer, 0, count );
+            }
+            size += count;
+        }
+        return size;
+    }
+
+    /**
+     * Convert bytes to a lower case hex string.
+     *
+     * @param bytes the bytes
+     * @return the hex string
+     */
+    public static String hex( byte[] bytes ) {
+        StringBuilder builder = new StringBuilder( bytes.length * 2 );
+        for( byte b : bytes ) {
+            builder.append( Character.forDigit( (b >> 4) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Convert a hex string to bytes.
+     *
+     * @param hex the hex string
+     * @return the bytes
+     */
+    public static byte[] parseHex( String hex ) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for( int i = 0; i < bytes.length; i++ ) {
+            bytes[i] = (byte)Integer.parseInt( hex.substring( 2 * i, 2 * i + 2 ), 16 );
+        }
+        return bytes;
+    }
+}
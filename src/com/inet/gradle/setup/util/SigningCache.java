@@ -0,0 +1,414 @@
+/*
+ * Copyright 2021 i-net software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.inet.gradle.setup.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+
+/**
+ * A cache for signed files and bundles. The key is the hash of the unsigned content and the signing options. If the
+ * same content was already signed with the same options then the signed result of the cache is used and the signing
+ * tool and the timestamp server are not called. The cache is located in the Gradle user home, so that it survives a
+ * clean build.
+ */
+public class SigningCache {
+
+    /** Entries that was not used for this time are removed. */
+    private static final long    MAX_AGE  = TimeUnit.DAYS.toMillis( 30 );
+
+    /** If the entries are larger than this size then the least recently used entries are removed. */
+    private static final long    MAX_SIZE = 1L << 30;
+
+    /** On macOS the code signature of files without a binary format is saved in extended attributes. */
+    private static final boolean MAC      = System.getProperty( "os.name", "" ).startsWith( "Mac" );
+
+    private final File           dir;
+
+    private final Logger         logger;
+
+    private boolean              cleaned;
+
+    /**
+     * The signing of a file.
+     */
+    @FunctionalInterface
+    public interface Signer {
+
+        /**
+         * Sign the file in place.
+         *
+         * @throws IOException if any I/O error occur
+         */
+        void sign() throws IOException;
+    }
+
+    /**
+     * Create a cache in the Gradle user home of the project.
+     *
+     * @param project the current project
+     */
+    public SigningCache( Project project ) {
+        this( new File( project.getGradle().getGradleUserHomeDir(), "caches/setupbuilder/signing" ), project.getLogger() );
+    }
+
+    /**
+     * Create a cache in the given directory.
+     *
+     * @param dir the directory of the cache
+     * @param logger the logger
+     */
+    public SigningCache( File dir, Logger logger ) {
+        this.dir = dir;
+        this.logger = logger;
+    }
+
+    /**
+     * Sign a file or a directory if it is not in the cache. The result is only cached if the signer has changed the
+     * content.
+     *
+     * @param file the file or directory that is signed in place
+     * @param options all options that have an effect on the signed result like the identity, the certificate, the
+     *            description and the timestamp servers
+     * @param signer the signing of the file
+     * @throws IOException if any I/O error occur
+     */
+    public void sign( File file, String options, Signer signer ) throws IOException {
+        Entry entry = prepare( file, options );
+        if( !entry.restore() ) {
+            signer.sign();
+            entry.store();
+        }
+    }
+
+    /**
+     * Calculate the cache entry of an unsigned file. This can be used to sign multiple files with a single call of the
+     * signing tool.
+     *
+     * @param file the unsigned file or directory
+     * @param options all options that have an effect on the signed result
+     * @return the entry
+     * @throws IOException if any I/O error occur
+     */
+    public Entry prepare( File file, String options ) throws IOException {
+        Path path = file.toPath();
+        byte[] unsigned = hash( path );
+        MessageDigest digest = Digests.create( Digests.SHA256 );
+        digest.update( options.getBytes( StandardCharsets.UTF_8 ) );
+        digest.update( (byte)0 );
+        digest.update( unsigned );
+        return new Entry( path, unsigned, dir.toPath().resolve( Digests.hex( digest.digest() ) ) );
+    }
+
+    /**
+     * The cache entry of an unsigned file.
+     */
+    public class Entry {
+
+        private final Path   path;
+
+        private final byte[] unsigned;
+
+        private final Path   entry;
+
+        /**
+         * Create an entry.
+         *
+         * @param path the unsigned file
+         * @param unsigned the hash of the unsigned content
+         * @param entry the location in the cache
+         */
+        private Entry( Path path, byte[] unsigned, Path entry ) {
+            this.path = path;
+            this.unsigned = unsigned;
+            this.entry = entry;
+        }
+
+        /**
+         * Replace the unsigned file with the signed file of the cache.
+         *
+         * @return true, if the cache contains the signed file
+         * @throws IOException if any I/O error occur
+         */
+        public boolean restore() throws IOException {
+            if( !Files.exists( entry, LinkOption.NOFOLLOW_LINKS ) ) {
+                return false;
+            }
+            Path signed = path.resolveSibling( path.getFileName() + ".signed.tmp" );
+            try {
+                delete( signed );
+                if( copy( entry, signed ) ) {
+                    delete( path );
+                    Files.move( signed, path );
+                    Files.setLastModifiedTime( entry, FileTime.fromMillis( System.currentTimeMillis() ) );
+                    logger.lifecycle( "\tSigned file from cache: " + path.getFileName() );
+                    return true;
+                }
+            } catch( IOException ex ) {
+                // a broken cache entry, sign it again
+                logger.info( "Signing cache entry is not usable: " + ex );
+                delete( entry );
+            } finally {
+                delete( signed );
+            }
+            return false;
+        }
+
+        /**
+         * Save the signed file in the cache if the signing has changed the content.
+         *
+         * @throws IOException if any I/O error occur
+         */
+        public void store() throws IOException {
+            if( !Files.exists( path, LinkOption.NOFOLLOW_LINKS ) || Arrays.equals( unsigned, hash( path ) ) ) {
+                return; // signing was ignored
+            }
+            Files.createDirectories( dir.toPath() );
+            Path temp = dir.toPath().resolve( entry.getFileName() + "." + System.nanoTime() + ".tmp" );
+            try {
+                if( copy( path, temp ) ) {
+                    Files.move( temp, entry, StandardCopyOption.ATOMIC_MOVE );
+                }
+            } catch( IOException ex ) {
+                logger.info( "Signed file could not be cached: " + ex );
+            } finally {
+                delete( temp );
+            }
+            cleanup();
+        }
+    }
+
+    /**
+     * Remove the entries that was not used for a long time and the least recently used entries if the cache is larger
+     * than the size limit. This is done only once per instance.
+     */
+    private synchronized void cleanup() {
+        if( cleaned ) {
+            return;
+        }
+        cleaned = true;
+        long limit = System.currentTimeMillis() - MAX_AGE;
+        try {
+            List<Path> used = new ArrayList<>();
+            Map<Path, Long> times = new HashMap<>();
+            try( DirectoryStream<Path> entries = Files.newDirectoryStream( dir.toPath() ) ) {
+                for( Path entry : entries ) {
+                    long time = Files.getLastModifiedTime( entry, LinkOption.NOFOLLOW_LINKS ).toMillis();
+                    if( time < limit ) {
+                        delete( entry );
+                    } else if( !entry.getFileName().toString().endsWith( ".tmp" ) ) { // can be written by another build
+                        used.add( entry );
+                        times.put( entry, time );
+                    }
+                }
+            }
+            // the most recently used entries are kept
+            used.sort( ( a, b ) -> Long.compare( times.get( b ), times.get( a ) ) );
+            long total = 0;
+            for( Path entry : used ) {
+                total += size( entry );
+                if( total > MAX_SIZE ) {
+                    delete( entry );
+                }
+            }
+        } catch( IOException ex ) {
+            logger.info( "Signing cache could not be cleaned: " + ex );
+        }
+    }
+
+    /**
+     * Calculate the hash of a file or directory tree with the names, the executable flags, the symbolic links and the
+     * content of the files.
+     *
+     * @param path the file or directory
+     * @return the hash
+     * @throws IOException if any I/O error occur
+     */
+    static byte[] hash( Path path ) throws IOException {
+        MessageDigest digest = Digests.create( Digests.SHA256 );
+        hash( path, "", digest );
+        return digest.digest();
+    }
+
+    /**
+     * Add a file or directory tree to the hash.
+     *
+     * @param path the file or directory
+     * @param name the relative name
+     * @param digest the digest
+     * @throws IOException if any I/O error occur
+     */
+    private static void hash( Path path, String name, MessageDigest digest ) throws IOException {
+        digest.update( name.getBytes( StandardCharsets.UTF_8 ) );
+        digest.update( (byte)0 );
+        if( Files.isSymbolicLink( path ) ) {
+            digest.update( (byte)'L' );
+            digest.update( Files.readSymbolicLink( path ).toString().getBytes( StandardCharsets.UTF_8 ) );
+            digest.update( (byte)0 );
+        } else if( Files.isDirectory( path ) ) {
+            digest.update( (byte)'D' );
+            List<Path> children = new ArrayList<>();
+            try( DirectoryStream<Path> stream = Files.newDirectoryStream( path ) ) {
+                stream.forEach( children::add );
+            }
+            children.sort( null );
+            for( Path child : children ) {
+                hash( child, name + '/' + child.getFileName(), digest );
+            }
+            digest.update( (byte)'E' );
+        } else {
+            digest.update( (byte)(Files.isExecutable( path ) ? 'X' : 'F') );
+            digest.update( ByteBuffer.allocate( 8 ).putLong( Files.size( path ) ).array() );
+            try( InputStream input = Files.newInputStream( path ) ) {
+                Digests.update( input, digest );
+            }
+        }
+    }
+
+    /**
+     * Copy a file or directory tree with the permissions, the symbolic links and the extended attributes. The code
+     * signature of macOS can be saved in extended attributes.
+     *
+     * @param source the source
+     * @param target the target, that does not exist
+     * @return false, if the extended attributes can not be copied
+     * @throws IOException if any I/O error occur
+     */
+    private static boolean copy( Path source, Path target ) throws IOException {
+        boolean[] complete = { true };
+        Files.walkFileTree( source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs ) throws IOException {
+                Path targetDir = target.resolve( source.relativize( dir ).toString() );
+                Files.copy( dir, targetDir, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS );
+                complete[0] &= copyExtendedAttributes( dir, targetDir );
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) throws IOException {
+                Path targetFile = target.resolve( source.relativize( file ).toString() );
+                Files.copy( file, targetFile, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS );
+                if( !attrs.isSymbolicLink() ) {
+                    complete[0] &= copyExtendedAttributes( file, targetFile );
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+        return complete[0];
+    }
+
+    /**
+     * Copy the user defined attributes of a file.
+     *
+     * @param source the source
+     * @param target the target
+     * @return false, if the attributes can not be copied but can contain a code signature
+     * @throws IOException if any I/O error occur
+     */
+    private static boolean copyExtendedAttributes( Path source, Path target ) throws IOException {
+        UserDefinedFileAttributeView sourceView = Files.getFileAttributeView( source, UserDefinedFileAttributeView.class );
+        if( sourceView == null ) {
+            return !MAC;
+        }
+        List<String> names;
+        try {
+            names = sourceView.list();
+        } catch( IOException | UnsupportedOperationException ex ) {
+            return !MAC;
+        }
+        if( names.isEmpty() ) {
+            return true;
+        }
+        UserDefinedFileAttributeView targetView = Files.getFileAttributeView( target, UserDefinedFileAttributeView.class );
+        if( targetView == null ) {
+            return false;
+        }
+        for( String name : names ) {
+            ByteBuffer value = ByteBuffer.allocate( sourceView.size( name ) );
+            sourceView.read( name, value );
+            value.flip();
+            targetView.write( name, value );
+        }
+        return true;
+    }
+
+    /**
+     * Calculate the size of a file or directory tree.
+     *
+     * @param path the file or directory
+     * @return the size in bytes
+     * @throws IOException if any I/O error occur
+     */
+    private static long size( Path path ) throws IOException {
+        long[] size = { 0 };
+        Files.walkFileTree( path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) throws IOException {
+                size[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+        return size[0];
+    }
+
+    /**
+     * Delete a file or directory tree if it exists.
+     *
+     * @param path the file or directory
+     * @throws IOException if any I/O error occur
+     */
+    private static void delete( Path path ) throws IOException {
+        if( !Files.exists( path, LinkOption.NOFOLLOW_LINKS ) ) {
+            return;
+        }
+        Files.walkFileTree( path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) throws IOException {
+                Files.delete( file );
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory( Path dir, IOException exc ) throws IOException {
+                Files.delete( dir );
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+}
@@ -17,6 +17,11 @@ package com.inet.gradle.setup.util;
 
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -52,6 +57,57 @@ public class XmlFileBuilder<T extends AbstractSetupTask> {
 
     public final Document     doc;
 
+    /**
+     * Index of the children per parent node and per element name and key attribute. It exists only between
+     * {@link #startChildIndex()} and {@link #stopChildIndex()} and is build lazy on the first lookup of a parent.
+     */
+    private Map<Node, Map<String, ChildLookup>> childIndex;
+
+    /**
+     * Lookup of the children with a given element name by the value of a key attribute.
+     */
+    private static class ChildLookup {
+
+        private final String               name;
+
+        private final String               key;
+
+        private final Map<String, Element> values  = new HashMap<>();
+
+        private final List<Element>        pending = new ArrayList<>();
+
+        private ChildLookup( String name, String key ) {
+            this.name = name;
+            this.key = key;
+        }
+
+        /**
+         * Add an element. If there is already an element with the same value the first in document order wins.
+         *
+         * @param element the element
+         */
+        private void add( Element element ) {
+            String value = getKeyValue( element, key );
+            Element existing = values.get( value );
+            if( existing == null ) {
+                values.put( value, element );
+            } else if( existing != element && (element.compareDocumentPosition( existing ) & Node.DOCUMENT_POSITION_FOLLOWING) != 0 ) {
+                values.put( value, element );
+            }
+        }
+
+        /**
+         * Add the elements that was created by the builder since the last lookup. The key attribute of these elements
+         * is read on the lookup, because it can be set after the creation.
+         */
+        private void addPending() {
+            for( Element element : pending ) {
+                add( element );
+            }
+            pending.clear();
+        }
+    }
+
     public XmlFileBuilder( T task, SetupBuilder setup, File xmlFile, File buildDir, URL template ) throws Exception {
         this.task = task;
         this.setup = setup;
@@ -63,7 +119,102 @@ public class XmlFileBuilder<T extends AbstractSetupTask> {
         docFactory.setIgnoringComments( true );
         DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
         doc = template != null ? docBuilder.parse( template.toString() ) : docBuilder.newDocument();
+    }
+
+    /**
+     * Start a build pass with an index of the children for the get or create lookups. The index knows the elements
+     * that are created with the methods of this builder. If a subclass adds children or changes key attributes
+     * directly in the DOM then it must call {@link #invalidateChildIndex(Node)} for the parent.
+     */
+    protected void startChildIndex() {
+        childIndex = new IdentityHashMap<>();
+    }
 
+    /**
+     * End the build pass and release the index of the children.
+     */
+    protected void stopChildIndex() {
+        childIndex = null;
+    }
+
+    /**
+     * Drop the index of the children of a parent. It is build again on the next lookup.
+     *
+     * @param parent the parent node
+     */
+    protected void invalidateChildIndex( Node parent ) {
+        if( childIndex != null ) {
+            childIndex.remove( parent );
+        }
+    }
+
+    /**
+     * Register an element that was created by this builder in the index.
+     *
+     * @param parent the parent node
+     * @param child the new element
+     */
+    private void indexChild( Node parent, Element child ) {
+        Map<String, ChildLookup> lookups = childIndex != null ? childIndex.get( parent ) : null;
+        if( lookups != null ) {
+            for( ChildLookup lookup : lookups.values() ) {
+                if( lookup.name.equals( child.getNodeName() ) ) {
+                    lookup.pending.add( child );
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the value of the key attribute.
+     *
+     * @param element the element
+     * @param key the attribute name, null for a lookup by name only
+     * @return the value or null if not exists
+     */
+    private static String getKeyValue( Element element, String key ) {
+        return key != null && element.hasAttribute( key ) ? element.getAttribute( key ) : null;
+    }
+
+    /**
+     * Find the first child with the given name and key attribute value.
+     *
+     * @param parent the parent node
+     * @param name the element name
+     * @param key the attribute name, null for a lookup by name only
+     * @param value the value, null for not existing
+     * @return the element or null
+     */
+    private Element findChild( Node parent, String name, String key, String value ) {
+        if( childIndex == null || "".equals( value ) ) {
+            // an empty value also matches a missing attribute, use the simple search
+            for( Node child = parent.getFirstChild(); child != null; child = child.getNextSibling() ) {
+                if( name.equals( child.getNodeName() ) ) {
+                    if( key == null || Objects.equals( value, ((Element)child).getAttribute( key ) ) || (value == null && !((Element)child).hasAttribute( key )) ) {
+                        return (Element)child;
+                    }
+                }
+            }
+            return null;
+        }
+        Map<String, ChildLookup> lookups = childIndex.computeIfAbsent( parent, node -> new HashMap<>() );
+        ChildLookup lookup = lookups.get( name + '\n' + key );
+        if( lookup != null ) {
+            lookup.addPending();
+            Element child = lookup.values.get( value );
+            if( child == null || (child.getParentNode() == parent && Objects.equals( value, getKeyValue( child, key ) )) ) {
+                return child;
+            }
+            // the element was moved or changed directly in the DOM
+        }
+        lookup = new ChildLookup( name, key );
+        for( Node child = parent.getFirstChild(); child != null; child = child.getNextSibling() ) {
+            if( name.equals( child.getNodeName() ) ) {
+                lookup.add( (Element)child );
+            }
+        }
+        lookups.put( name + '\n' + key, lookup );
+        return lookup.values.get( value );
     }
 
     /**
@@ -71,10 +222,20 @@ public class XmlFileBuilder<T extends AbstractSetupTask> {
      * @throws Exception if any error occur
      */
     public void save() throws Exception {
+        save( doc, xmlFile );
+    }
+
+    /**
+     * Save a document to a file
+     * @param document the document, for example a modified copy of the XML of this builder
+     * @param file the target file
+     * @throws Exception if any error occur
+     */
+    public void save( Document document, File file ) throws Exception {
         TransformerFactory transformerFactory = TransformerFactory.newInstance();
         Transformer transformer = transformerFactory.newTransformer();
-        DOMSource source = new DOMSource( doc );
-        StreamResult result = new StreamResult( xmlFile );
+        DOMSource source = new DOMSource( document );
+        StreamResult result = new StreamResult( file );
         transformer.setOutputProperty( OutputKeys.INDENT, "yes" );
         transformer.setOutputProperty( "{http://xml.apache.org/xslt}indent-amount", "2" );
         transformer.transform( source, result );
@@ -109,11 +270,9 @@ public class XmlFileBuilder<T extends AbstractSetupTask> {
     }
 
     public Element getOrCreateChild( Node parent, String name, boolean append ) {
-        Node first = parent.getFirstChild();
-        for( Node child = first; child != null; child = child.getNextSibling() ) {
-            if( name.equals( child.getNodeName() ) ) {
-                return (Element)child;
-            }
+        Element child = findChild( parent, name, null, null );
+        if( child != null ) {
+            return child;
         }
         return createChild( parent, name, append );
     }
@@ -149,6 +308,7 @@ public class XmlFileBuilder<T extends AbstractSetupTask> {
         } else {
             parent.insertBefore( child, first );
         }
+        indexChild( parent, child );
         return child;
     }
 
@@ -175,16 +335,13 @@ public class XmlFileBuilder<T extends AbstractSetupTask> {
      * @return the create of find Element
      */
     public Element getOrCreateChildByKeyValue( Node parent, String name, String key, String value, boolean append ) {
-        Node first = parent.getFirstChild();
-        for( Node child = first; child != null; child = child.getNextSibling() ) {
-            if( name.equals( child.getNodeName() ) ) {
-                if( Objects.equals( value, ((Element)child).getAttribute( key ) ) || (value == null && !((Element)child).hasAttribute( key )) ) {
-                    return (Element)child;
-                }
-            }
+        Element child = findChild( parent, name, key, value );
+        if( child != null ) {
+            return child;
         }
+        Node first = parent.getFirstChild();
         Document doc = parent.getOwnerDocument();
-        Element child = doc.createElement( name );
+        child = doc.createElement( name );
         if( value != null ) {
             child.setAttribute( key, value );
         }
@@ -193,6 +350,7 @@ public class XmlFileBuilder<T extends AbstractSetupTask> {
         } else {
             parent.insertBefore( child, first );
         }
+        indexChild( parent, child );
         return child;
     }
 
@@ -28,11 +28,15 @@ package com.oracle.appbundler;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 
 import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.types.FileSet;
 
+import com.inet.gradle.appbundler.utils.xmlwise.Plist;
+import com.inet.gradle.appbundler.utils.xmlwise.XmlParseException;
+
 public class Runtime extends FileSet {
 
     /**
@@ -116,8 +120,9 @@ public class Runtime extends FileSet {
         File runtimeMacOSDirectory = new File(runtimeContentsDirectory, "MacOS");
         AppBundlerTask.copy(runtimeMacOSDirectory, new File(pluginContentsDirectory, runtimeMacOSDirectory.getName()));
 
-        // Copy Info.plist file
+        // Copy Info.plist file, the JDK ships it often as binary plist
         File runtimeInfoPlistFile = new File(runtimeContentsDirectory, "Info.plist");
+        checkInfoPlist(runtimeInfoPlistFile, project);
         AppBundlerTask.copy(runtimeInfoPlistFile, new File(pluginContentsDirectory, runtimeInfoPlistFile.getName()));
 
         // Copy included contents of Home directory
@@ -134,6 +139,26 @@ public class Runtime extends FileSet {
         }
     }
 
+    /**
+     * Check that the Info.plist of the runtime is a valid bundle description. Without it the signing of the
+     * application fails later with a misleading error. The file is copied unchanged in any case, the problems are only
+     * logged.
+     * @param infoPlist the Info.plist of the runtime, xml or binary
+     * @param project the project we're working on
+     */
+    private static void checkInfoPlist(File infoPlist, Project project) {
+        Map<String, Object> info;
+        try {
+            info = Plist.load(infoPlist);
+        } catch (IOException | XmlParseException ex) {
+            project.log("The Info.plist of the runtime can not be read: " + infoPlist + ": " + ex, Project.MSG_WARN);
+            return;
+        }
+        if (info.get("CFBundleIdentifier") == null) {
+            project.log("The Info.plist of the runtime has no CFBundleIdentifier: " + infoPlist, Project.MSG_WARN);
+        }
+    }
+
     /**
      * Returns a normalized version of the JVM name, meaning: it has to have a '.' to be recognized as bundle
      * Or the signature will not work!